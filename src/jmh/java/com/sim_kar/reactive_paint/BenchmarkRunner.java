@@ -0,0 +1,37 @@
+package com.sim_kar.reactive_paint;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks headless, and writes the results as JSON to a file named after the time
+ * of the run in {@code target/jmh}, so that runs can be compared with each other. Takes the same
+ * arguments as JMH's own runner, for example a pattern of the benchmarks to run, and any of them
+ * override the defaults set here.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {}
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        System.setProperty("java.awt.headless", "true");
+
+        String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        Options options = new OptionsBuilder()
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh/results-" + time + ".json")
+                .jvmArgsAppend("-Djava.awt.headless=true")
+                .parent(new CommandLineOptions(args))
+                .build();
+
+        new java.io.File("target/jmh").mkdirs();
+        new Runner(options).run();
+    }
+}
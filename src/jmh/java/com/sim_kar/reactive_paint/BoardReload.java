@@ -0,0 +1,154 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.disposables.Disposable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures what it costs to keep a board in a {@link BoardStore}: how much longer appending
+ * frames to a {@link FrameLog} takes while it's being recorded, and how long it takes to load the
+ * board again from its snapshot and log. Random shapes are appended in frames of a few shapes
+ * each, as a busy room would broadcast them.
+ * <p>
+ * Run it from the benchmark profile's jar with:
+ * <pre>
+ * java -cp target/reactive-paint-0.0.1-SNAPSHOT-jar-with-dependencies.jar \
+ *     com.sim_kar.reactive_paint.BoardReload --shapes 1000000
+ * </pre>
+ * Options:
+ * <pre>
+ * --shapes N       shapes to put on the board (1000000)
+ * --frame N        shapes in every frame (10)
+ * --dir DIR        directory to keep the board in (a temporary one, deleted afterwards)
+ * --seed N         seed of the random shapes (42)
+ * </pre>
+ */
+public final class BoardReload {
+
+    private static final String ROOM = "board-reload";
+
+    private BoardReload() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        int shapes = 1_000_000;
+        int frameSize = 10;
+        Path dir = null;
+        long seed = 42;
+
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--shapes": shapes = Integer.parseInt(args[i + 1]); break;
+                    case "--frame": frameSize = Integer.parseInt(args[i + 1]); break;
+                    case "--dir": dir = Path.of(args[i + 1]); break;
+                    case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(
+                    "Usage: BoardReload [--shapes N] [--frame N] [--dir DIR] [--seed N]");
+            System.exit(2);
+        }
+
+        boolean temporary = dir == null;
+        if (temporary) dir = Files.createTempDirectory("board-reload");
+
+        List<Frame> frames = frames(new Random(seed), shapes, frameSize);
+        // appended once without recording first, which also warms up the board
+        double plain = appendNanos(frames, null);
+
+        BoardStore store = new BoardStore(dir);
+        double recorded = appendNanos(frames, store);
+
+        System.out.printf(Locale.ROOT, "Appended %d shapes in %d frames: %.2f us per frame, "
+                        + "%.2f us while recording%n",
+                shapes, frames.size(), plain / 1000, recorded / 1000);
+        System.out.printf(Locale.ROOT, "Wrote %d snapshots, %.1f MB on disk%n",
+                store.getSnapshotsWritten(), size(dir) / (1024.0 * 1024.0));
+
+        for (int run = 1; run <= 3; run++) {
+            long start = System.nanoTime();
+            List<Shape> board = store.load(ROOM);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf(Locale.ROOT, "Load %d: %d shapes in %.1f ms%n",
+                    run, board.size(), elapsed / 1e6);
+        }
+
+        if (temporary) delete(dir);
+        System.exit(0);
+    }
+
+    /**
+     * Get the random shapes in frames.
+     *
+     * @param random the random number generator
+     * @param shapes the number of shapes
+     * @param frameSize the number of shapes in every frame
+     * @return the frames
+     */
+    private static List<Frame> frames(Random random, int shapes, int frameSize) {
+        List<Frame> frames = new ArrayList<>(shapes / frameSize + 1);
+
+        for (int i = 0; i < shapes; i += frameSize) {
+            List<Shape> frame = new ArrayList<>(frameSize);
+            for (int j = i; j < Math.min(shapes, i + frameSize); j++) {
+                frame.add(RandomShapes.shape(random));
+            }
+            frames.add(Frame.of(frame));
+        }
+
+        return frames;
+    }
+
+    /**
+     * Append the frames to a new log, and wait until the store, if any, has written them all.
+     *
+     * @param frames the frames
+     * @param store the store to record the log in, or null
+     * @return the mean time it took to append a frame, in nanoseconds
+     * @throws InterruptedException if interrupted while waiting for the store
+     */
+    private static double appendNanos(List<Frame> frames, BoardStore store)
+            throws InterruptedException {
+        FrameLog frameLog = new FrameLog();
+        Disposable recording = store == null ? Disposable.empty()
+                : store.record(ROOM, frameLog, Throwable::printStackTrace);
+
+        long start = System.nanoTime();
+        for (Frame frame : frames) frameLog.append(frame);
+        long elapsed = System.nanoTime() - start;
+
+        if (store != null) {
+            while (store.getFramesRecorded() < frames.size()) Thread.sleep(10);
+        }
+        recording.dispose();
+
+        return (double) elapsed / frames.size();
+    }
+
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
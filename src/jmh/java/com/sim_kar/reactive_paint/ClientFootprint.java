@@ -0,0 +1,202 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what it costs a host to have a large number of idle clients connected, with each
+ * {@link Transport}: the threads it starts, and the heap and resident memory they take. A
+ * blocking host has a read loop for every client, which is a platform thread with
+ * {@link Transport#BLOCKING}, but only a virtual thread with {@link Transport#VIRTUAL}.
+ * <p>
+ * Every transport is measured in a JVM of its own, so that threads left over from one don't
+ * count towards the next. The clients always use {@link Transport#NIO}, so that the threads and
+ * memory measured are those of the host. Run it from the benchmark profile's jar with:
+ * <pre>
+ * java -cp target/reactive-paint-0.0.1-SNAPSHOT-jar-with-dependencies.jar \
+ *     com.sim_kar.reactive_paint.ClientFootprint --clients 1000
+ * </pre>
+ * Options:
+ * <pre>
+ * --clients N      clients to connect (1000)
+ * --transport T    measure only this transport, in this JVM (all of them, one JVM each)
+ * </pre>
+ */
+public final class ClientFootprint {
+
+    // how long to wait for the host to have seated every client
+    private static final long SEATING_TIMEOUT_SECONDS = 60;
+
+    private ClientFootprint() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        int clients = 1000;
+        Transport transport = null;
+
+        try {
+            for (int i = 0; i + 1 < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+                    case "--transport":
+                        transport = Transport.valueOf(args[i + 1].toUpperCase());
+                        break;
+                    default: throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: ClientFootprint [--clients N] [--transport T]");
+            System.exit(2);
+        }
+
+        if (transport != null) {
+            measure(transport, clients);
+        } else {
+            printHeader(clients);
+            for (Transport t : Transport.values()) fork(t, clients);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Measure a transport in a new JVM, which prints a line of the report.
+     *
+     * @param transport the transport to measure
+     * @param clients the number of clients to connect
+     * @throws IOException if the JVM can't be started
+     * @throws InterruptedException if interrupted while waiting for the JVM
+     */
+    private static void fork(Transport transport, int clients)
+            throws IOException, InterruptedException {
+        Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+
+        Process process = new ProcessBuilder(java.toString(),
+                "-cp", System.getProperty("java.class.path"),
+                ClientFootprint.class.getName(),
+                "--transport", transport.name(),
+                "--clients", String.valueOf(clients))
+                .inheritIO()
+                .start();
+
+        process.waitFor();
+    }
+
+    /**
+     * Connect the clients to a host in this JVM, and print a line of the report once they have
+     * all been seated.
+     *
+     * @param transport the transport of the host
+     * @param clients the number of clients to connect
+     * @throws IOException if a client can't connect
+     * @throws InterruptedException if interrupted while waiting for the clients to be seated
+     */
+    private static void measure(Transport transport, int clients)
+            throws IOException, InterruptedException {
+        if (!transport.isAvailable()) {
+            System.out.printf("%-8s %s%n", transport, "not available in Java "
+                    + System.getProperty("java.version"));
+            return;
+        }
+
+        HostSession session = new HostSession(
+                transport, List.of(), SlowConsumerPolicy.DISCONNECT);
+        Disposable hosting = session.start(Observable.never(), shape -> {});
+        int port = session.getPort().blockingFirst();
+
+        // the clients' event loop is started before the baseline, so it isn't counted
+        Transport.NIO.connect("localhost", port).shutdown();
+        Footprint before = Footprint.now();
+
+        List<Connection> connections = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Connection connection = Transport.NIO.connect("localhost", port);
+            connection.shapes().subscribe(shape -> {}, e -> {});
+            connections.add(connection);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SEATING_TIMEOUT_SECONDS);
+        while (session.getDefaultRoom().getClientCount() < clients) {
+            if (System.nanoTime() > deadline) throw new IOException("Clients weren't seated");
+            Thread.sleep(50);
+        }
+
+        Footprint after = Footprint.now();
+        System.out.printf(Locale.ROOT, "%-8s %8d %12d %12s %12.1f%n", transport,
+                session.getDefaultRoom().getClientCount(),
+                after.threads - before.threads,
+                after.residentKb < 0 ? "-" : String.format(Locale.ROOT, "%.1f",
+                        (after.residentKb - before.residentKb) / 1024.0),
+                (after.heap - before.heap) / (1024.0 * 1024.0));
+
+        for (Connection connection : connections) connection.shutdown();
+        hosting.dispose();
+    }
+
+    private static void printHeader(int clients) {
+        System.out.printf("Host footprint of %d idle clients, compared to none%n%n", clients);
+        System.out.printf("%-8s %8s %12s %12s %12s%n",
+                "host", "clients", "threads", "resident MB", "heap MB");
+    }
+
+    /**
+     * The threads and memory of this JVM at one point in time.
+     */
+    private static final class Footprint {
+        private final int threads;
+        private final long heap;
+        private final long residentKb;
+
+        private Footprint(int threads, long heap, long residentKb) {
+            this.threads = threads;
+            this.heap = heap;
+            this.residentKb = residentKb;
+        }
+
+        /**
+         * Measure the footprint now, after a garbage collection so that only live objects count
+         * towards the heap.
+         *
+         * @return the footprint
+         */
+        private static Footprint now() {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+            System.gc();
+            return new Footprint(threads.getThreadCount(),
+                    memory.getHeapMemoryUsage().getUsed(), residentKb());
+        }
+
+        /**
+         * Get the resident memory of this process, which includes the stacks of its threads.
+         *
+         * @return the resident memory in kilobytes, or -1 where it can't be read
+         */
+        private static long residentKb() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // not on Linux
+            }
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.sim_kar.reactive_paint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link ShapeCodec} with the Java serialization that {@link Client} used to send shapes
+ * with, in encode/decode throughput. The bytes needed per stroke by each format are printed when
+ * the benchmark is set up.
+ * <p>
+ * Strokes are taken from a pool of distinct freehand lines, so that the object streams can't
+ * replace repeated shapes with back references. The object streams are reset once per pass over
+ * the pool, which mirrors a long-lived connection sending class descriptors only now and then.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int POOL_SIZE = 1024;
+
+    @Param({ "16", "256" })
+    public int pointsPerStroke;
+
+    private FreehandLine[] strokes;
+    private byte[][] payloads;
+    private byte[] serialized;
+    private int next;
+
+    private ObjectOutputStream objectOutput;
+    private ObjectInputStream objectInput;
+    private int objectsLeftToRead;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        strokes = new FreehandLine[POOL_SIZE];
+        payloads = new byte[POOL_SIZE][];
+
+        long binaryBytes = 0;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            strokes[i] = RandomShapes.stroke(random, pointsPerStroke);
+            byte[] frame = ShapeCodec.encodeFrame(strokes[i]);
+            binaryBytes += frame.length;
+            payloads[i] = ShapeCodec.readFrame(new ByteArrayInputStream(frame));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            for (FreehandLine stroke : strokes) out.writeObject(stroke);
+        }
+        serialized = bytes.toByteArray();
+
+        System.out.printf("%nbytes per stroke (%d points): binary %.1f, serialization %.1f%n",
+                pointsPerStroke,
+                (double) binaryBytes / POOL_SIZE,
+                (double) serialized.length / POOL_SIZE);
+
+        objectOutput = new ObjectOutputStream(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return ShapeCodec.encodeFrame(nextStroke());
+    }
+
+    @Benchmark
+    public List<Shape> binaryDecode() throws IOException {
+        byte[] payload = payloads[next];
+        next = (next + 1) % POOL_SIZE;
+        return ShapeCodec.decodeFrame(payload);
+    }
+
+    @Benchmark
+    public void serializationEncode() throws IOException {
+        if (next == 0) objectOutput.reset();
+        objectOutput.writeObject(nextStroke());
+    }
+
+    @Benchmark
+    public Object serializationDecode() throws IOException, ClassNotFoundException {
+        if (objectsLeftToRead == 0) {
+            objectInput = new ObjectInputStream(new ByteArrayInputStream(serialized));
+            objectsLeftToRead = POOL_SIZE;
+        }
+
+        objectsLeftToRead--;
+        return objectInput.readObject();
+    }
+
+    private FreehandLine nextStroke() {
+        FreehandLine stroke = strokes[next];
+        next = (next + 1) % POOL_SIZE;
+        return stroke;
+    }
+}
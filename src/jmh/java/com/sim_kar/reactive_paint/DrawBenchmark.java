@@ -0,0 +1,108 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures drawing a whole {@link Drawing} into an off-screen image, which is what a full
+ * rebuild of the panel's tiles or an export costs, and building the path of a single
+ * {@link FreehandLine}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark {
+
+    /**
+     * A board with a given number of shapes, and an image to draw it into.
+     */
+    @State(Scope.Thread)
+    public static class Board {
+
+        @Param({ "1000", "100000", "1000000" })
+        public int shapes;
+
+        private Drawing drawing;
+        private BufferedImage image;
+        private Graphics2D graphics;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            drawing = new Drawing();
+            for (int i = 0; i < shapes; i++) drawing.addShape(RandomShapes.shape(random));
+
+            image = new BufferedImage(RandomShapes.WIDTH, RandomShapes.HEIGHT,
+                    BufferedImage.TYPE_INT_RGB);
+            graphics = image.createGraphics();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * A pool of freehand lines with a given number of points.
+     */
+    @State(Scope.Thread)
+    public static class Strokes {
+
+        private static final int POOL_SIZE = 1024;
+
+        @Param({ "16", "256" })
+        public int pointsPerStroke;
+
+        private FreehandLine[] strokes;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(42);
+            strokes = new FreehandLine[POOL_SIZE];
+            for (int i = 0; i < POOL_SIZE; i++) {
+                strokes[i] = RandomShapes.stroke(random, pointsPerStroke);
+            }
+        }
+
+        private FreehandLine next() {
+            FreehandLine stroke = strokes[next];
+            next = (next + 1) % POOL_SIZE;
+            return stroke;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BufferedImage drawAll(Board board) {
+        board.graphics.setColor(Color.WHITE);
+        board.graphics.fillRect(0, 0, RandomShapes.WIDTH, RandomShapes.HEIGHT);
+        board.drawing.draw(board.graphics);
+        return board.image;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Path2D freehandPath(Strokes strokes) {
+        return strokes.next().toPath();
+    }
+}
@@ -0,0 +1,121 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many frames a host can fan out to a number of clients connected over loopback
+ * sockets. Every operation is one frame of {@value #SHAPES_PER_FRAME} strokes, appended to the
+ * host's {@link FrameLog} and sent through an {@link OutboundQueue} per client, and it isn't done
+ * until every client has decoded it.
+ * <p>
+ * The clients and the host run in the same JVM, so the score includes the cost of decoding on
+ * every client as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FanOutBenchmark {
+
+    static final int FRAMES = 256;
+    static final int SHAPES_PER_FRAME = 16;
+
+    @Param({ "1", "16", "64" })
+    public int clients;
+
+    @Param
+    public Transport transport;
+
+    private Frame[] frames;
+    private FrameLog log;
+    private AtomicLong received;
+    private CompositeDisposable subscriptions;
+    private List<Connection> connections;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, InterruptedException {
+        Random random = new Random(42);
+        frames = new Frame[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            List<Shape> shapes = new ArrayList<>(SHAPES_PER_FRAME);
+            for (int j = 0; j < SHAPES_PER_FRAME; j++) shapes.add(RandomShapes.stroke(random, 16));
+            frames[i] = Frame.of(shapes);
+        }
+
+        // a new log every iteration, so that the host's board doesn't keep growing
+        log = new FrameLog();
+        received = new AtomicLong();
+        subscriptions = new CompositeDisposable();
+        connections = Collections.synchronizedList(new ArrayList<>());
+
+        Server server = new Server(transport);
+        CountDownLatch accepted = new CountDownLatch(clients);
+
+        // a blocking accept loop can't be interrupted when it's disposed, and would hold on to a
+        // pooled io thread that the next iteration's server would then be queued behind
+        subscriptions.add(server.start()
+                .subscribeOn(Schedulers.newThread())
+                .subscribe(client -> {
+                    connections.add(client);
+                    OutboundQueue queue = new OutboundQueue(
+                            log, SlowConsumerPolicy.DROP_AND_RESYNC, OutboundQueue.DEFAULT_CAPACITY);
+                    subscriptions.add(client.send(queue.frames()).subscribe(f -> {}, e -> {}));
+                    accepted.countDown();
+                }));
+
+        for (int i = 0; i < clients; i++) {
+            Connection client = transport.connect("localhost", server.getPort());
+            connections.add(client);
+            subscriptions.add(client.shapes()
+                    .filter(s -> !(s instanceof Checkpoint))
+                    .subscribe(s -> received.incrementAndGet(), e -> {}));
+        }
+
+        accepted.await();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        // shut down first, so that the closed sockets are reported to subscribers that still listen
+        synchronized (connections) {
+            for (Connection connection : connections) connection.shutdown();
+        }
+        subscriptions.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long broadcast() {
+        long expected = received.get() + (long) FRAMES * SHAPES_PER_FRAME * clients;
+
+        for (Frame frame : frames) log.append(frame);
+        while (received.get() < expected) Thread.onSpinWait();
+
+        return expected;
+    }
+}
@@ -0,0 +1,121 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies that any number of threads can record into without locking. Values
+ * are kept in microseconds, in buckets that are exact below 64 microseconds and within about 3% above, so
+ * that percentiles of millions of samples can be read without keeping the samples themselves.
+ */
+final class LatencyHistogram {
+
+    private static final int LINEAR_BITS = 6;
+    private static final int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values of 2^40 microseconds, about 12 days, and above go in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS =
+            LINEAR_BUCKETS + (MAX_EXPONENT - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos))));
+    }
+
+    /**
+     * Move all recorded latencies into a new histogram, leaving this one empty. Latencies
+     * recorded while moving end up in either one of them.
+     *
+     * @return the new histogram
+     */
+    LatencyHistogram drain() {
+        LatencyHistogram drained = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) drained.counts.set(i, counts.getAndSet(i, 0));
+        return drained;
+    }
+
+    /**
+     * Add all latencies recorded in the given histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) counts.addAndGet(i, count);
+        }
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     *
+     * @return the number of latencies
+     */
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Get the latency that the given fraction of recorded latencies are at or below.
+     *
+     * @param quantile the fraction, between 0 and 1
+     * @return the latency in microseconds, or 0 if nothing has been recorded
+     */
+    long percentile(double quantile) {
+        long total = count();
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return highestValue(i);
+        }
+
+        return highestValue(BUCKETS - 1);
+    }
+
+    /**
+     * Get the highest recorded latency.
+     *
+     * @return the latency in microseconds, or 0 if nothing has been recorded
+     */
+    long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) return highestValue(i);
+        }
+
+        return 0;
+    }
+
+    private static int bucket(long micros) {
+        if (micros < LINEAR_BUCKETS) return (int) micros;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) return BUCKETS - 1;
+
+        // the bits below the highest one pick one of the sub-buckets of its power of two
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValue(int bucket) {
+        if (bucket < LINEAR_BUCKETS) return bucket;
+
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,348 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A headless driver for soak and load tests of a host. Starts a host in this JVM without any
+ * user interface, or connects to one that is already running, and has hundreds of
+ * {@link SyntheticClient}s draw strokes on it over loopback at a configurable rate. Every few
+ * seconds, and once more at the end, it reports:
+ * <ul>
+ *     <li>how many shapes are sent and received every second</li>
+ *     <li>the 50th, 99th and 99.9th percentile and the highest latency of the stroke segments
+ *     that were received, from when a client sent them until another received them</li>
+ *     <li>the heap used and the number of threads of this JVM</li>
+ *     <li>the number of running rooms and clients connected to the hosts in this JVM, and the
+ *     frames they log every second in all rooms</li>
+ * </ul>
+ * The clients can be spread over a number of rooms, to load a host with many independent boards
+ * rather than one crowded one. They can also be spread over relays, hosts in this JVM that are
+ * linked to the host the same way as those started with {@link HostStart}'s {@code --link}, to
+ * see how the load is shared between them.
+ * <p>
+ * When the host runs in this JVM, its heap and threads are shared with the clients. To size a
+ * host on its own, start one with {@code --clients 0} and run the clients in another JVM with
+ * {@code --port}.
+ * <p>
+ * Run it from the benchmark profile's jar with:
+ * <pre>
+ * java -cp target/reactive-paint-0.0.1-SNAPSHOT-jar-with-dependencies.jar \
+ *     com.sim_kar.reactive_paint.LoadGenerator --clients 300 --rate 0.5 --duration 600
+ * </pre>
+ * Options:
+ * <pre>
+ * --clients N      synthetic clients to connect (200)
+ * --rooms N        rooms to spread the clients over, or 0 for the default room only (0)
+ * --rate R         strokes every client begins per second (0.5)
+ * --segments N     segments with points in every stroke (10)
+ * --points N       points in every segment (8)
+ * --interval MS    milliseconds between the segments of a stroke (40)
+ * --duration S     seconds to run for, or 0 to run until stopped (60)
+ * --report S       seconds between reports (5)
+ * --transport T    BLOCKING, VIRTUAL or NIO (NIO)
+ * --policy P       slow consumer policy of a host in this JVM (DROP_AND_RESYNC)
+ * --host NAME      host to connect to (localhost)
+ * --port N         port of a running host, or 0 to start one in this JVM (0)
+ * --relays N       relays to start in this JVM, linked to the host (0)
+ * --data DIR       keep the boards of a host in this JVM in a board store in this directory
+ * --replay FILE    replay the strokes in a recording instead of generating them
+ * --record FILE    record every shape the host sends, to replay later
+ * --seed N         seed of the generated strokes (42)
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    // strokes that not every client received the end of within this time are forgotten
+    private static final long STROKE_EXPIRY_SECONDS = 60;
+
+    private int clients = 200;
+    private int rooms = 0;
+    private double rate = 0.5;
+    private int segments = 10;
+    private int points = 8;
+    private long interval = 40;
+    private long duration = 60;
+    private long report = 5;
+    private Transport transport = Transport.NIO;
+    private SlowConsumerPolicy policy = SlowConsumerPolicy.DROP_AND_RESYNC;
+    private String host = "localhost";
+    private int port = 0;
+    private int relays = 0;
+    private Path data = null;
+    private Path replay;
+    private Path record;
+    private long seed = 42;
+
+    private LoadGenerator() {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("See the documentation of " + LoadGenerator.class.getName()
+                    + " for the options.");
+            System.exit(2);
+        }
+
+        generator.run();
+        System.exit(0);
+    }
+
+    /**
+     * Set the options from the given command line arguments.
+     *
+     * @param args the arguments, as pairs of an option and its value
+     * @throws IllegalArgumentException if an option is unknown or its value is invalid
+     */
+    private void parse(String[] args) {
+        if (args.length % 2 != 0) throw new IllegalArgumentException("Option without a value");
+
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+
+            switch (args[i]) {
+                case "--clients": clients = Integer.parseInt(value); break;
+                case "--rooms": rooms = Integer.parseInt(value); break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--segments": segments = Integer.parseInt(value); break;
+                case "--points": points = Integer.parseInt(value); break;
+                case "--interval": interval = Long.parseLong(value); break;
+                case "--duration": duration = Long.parseLong(value); break;
+                case "--report": report = Long.parseLong(value); break;
+                case "--transport": transport = Transport.valueOf(value.toUpperCase()); break;
+                case "--policy": policy = SlowConsumerPolicy.valueOf(value.toUpperCase()); break;
+                case "--host": host = value; break;
+                case "--port": port = Integer.parseInt(value); break;
+                case "--relays": relays = Integer.parseInt(value); break;
+                case "--data": data = Path.of(value); break;
+                case "--replay": replay = Path.of(value); break;
+                case "--record": record = Path.of(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (!transport.isAvailable()) {
+            throw new IllegalArgumentException(transport + " isn't available in this JVM");
+        }
+
+        if (clients < 0 || rooms < 0 || relays < 0 || segments < 1 || points < 1 || interval < 0 || report < 1) {
+            throw new IllegalArgumentException("Option out of range");
+        }
+    }
+
+    /**
+     * Run the load test, and report on it until it's done.
+     *
+     * @throws IOException if the host can't be started, or a client can't connect to it
+     * @throws InterruptedException if interrupted while running
+     */
+    private void run() throws IOException, InterruptedException {
+        CompositeDisposable running = new CompositeDisposable();
+        CompositeDisposable hosting = new CompositeDisposable();
+        CompositeDisposable reporting = new CompositeDisposable();
+        List<HostSession> sessions = new ArrayList<>();
+
+        if (port == 0) {
+            BoardStore store = data == null ? null : new BoardStore(data);
+            HostSession session = new HostSession(transport,
+                    store == null ? List.of() : store.load(HostSession.DEFAULT_ROOM), policy);
+            if (store != null) session.persistTo(store);
+            hosting.add(session.start(Observable.never(), shape -> {}));
+            port = session.getPort().blockingFirst();
+            sessions.add(session);
+            System.out.printf("Hosting on port %d over %s%n", port, transport);
+        }
+
+        // the clients are spread over the host and its relays
+        List<String> hosts = new ArrayList<>(List.of(host));
+        List<Integer> ports = new ArrayList<>(List.of(port));
+
+        for (int i = 0; i < relays; i++) {
+            HostSession relay = new HostSession(transport, List.of(), policy);
+            hosting.add(relay.start(Observable.never(), shape -> {}));
+            reporting.add(relay.errors().subscribe(e -> System.err.println(
+                    "Error on relay: " + e.getMessage())));
+            relay.link(host, port);
+
+            hosts.add("localhost");
+            ports.add(relay.getPort().blockingFirst());
+            sessions.add(relay);
+            System.out.printf("Relaying on port %d%n", ports.get(ports.size() - 1));
+        }
+
+        StrokeRecording.Recorder recorder = null;
+        if (record != null) {
+            recorder = new StrokeRecording.Recorder(record);
+            StrokeRecording.Recorder to = recorder;
+            running.add(transport.connect(host, port, room(0)).shapes()
+                    .subscribe(to::record, e -> {}));
+        }
+
+        List<List<Point>> recorded = replay != null ? StrokeRecording.load(replay) : List.of();
+        if (replay != null && recorded.isEmpty()) {
+            throw new IOException("No strokes to replay in " + replay);
+        }
+
+        StrokeLatencies latencies = new StrokeLatencies(points);
+        LongAdder sent = new LongAdder();
+        LongAdder received = new LongAdder();
+        SyntheticClient[] synthetic = new SyntheticClient[clients];
+
+        // connect everyone before anyone draws, so that every client receives every stroke
+        for (int i = 0; i < clients; i++) {
+            // every room is spread over all hosts
+            int h = i / Math.max(1, rooms) % hosts.size();
+            synthetic[i] = new SyntheticClient(
+                    transport.connect(hosts.get(h), ports.get(h), room(i)), latencies,
+                    roomSize(i), seed + i, recorded, sent, received);
+        }
+
+        for (SyntheticClient client : synthetic) {
+            running.add(client.start(rate, segments, points, interval));
+        }
+
+        System.out.printf("Connected %d clients in %d rooms drawing %.2f strokes per second "
+                + "each%n%n", clients, Math.max(1, rooms), rate);
+        System.out.printf("%6s %10s %10s %9s %9s %9s %9s %8s %8s %6s %8s %9s%n", "time",
+                "sent/s", "recv/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "heap MB",
+                "threads", "rooms", "clients", "frames/s");
+
+        LatencyHistogram total = new LatencyHistogram();
+        long start = System.nanoTime();
+        long lastSent = 0;
+        long lastReceived = 0;
+        long lastFrames = 0;
+
+        for (long elapsed = report; duration == 0 || elapsed <= duration; elapsed += report) {
+            TimeUnit.NANOSECONDS.sleep(start + TimeUnit.SECONDS.toNanos(elapsed) - System.nanoTime());
+            latencies.expire(TimeUnit.SECONDS.toNanos(STROKE_EXPIRY_SECONDS));
+
+            LatencyHistogram recent = latencies.drain();
+            total.add(recent);
+
+            long sentNow = sent.sum();
+            long receivedNow = received.sum();
+            long frames = frames(sessions);
+
+            printReport(String.valueOf(elapsed), (sentNow - lastSent) / report,
+                    (receivedNow - lastReceived) / report, recent, sessions,
+                    (frames - lastFrames) / report);
+
+            lastSent = sentNow;
+            lastReceived = receivedNow;
+            lastFrames = frames;
+        }
+
+        // stop the clients before the host, so that it doesn't see them all disconnect
+        reporting.dispose();
+        running.dispose();
+        hosting.dispose();
+        if (recorder != null) recorder.close();
+
+        long seconds = Math.max(1, duration);
+        long frames = frames(sessions);
+        System.out.println();
+        printReport("total", sent.sum() / seconds, received.sum() / seconds, total, sessions,
+                frames / seconds);
+    }
+
+    /**
+     * Get the room the client with the given index joins.
+     *
+     * @param client the index of the client
+     * @return the name of the room
+     */
+    private String room(int client) {
+        return rooms == 0 ? HostSession.DEFAULT_ROOM : "room-" + client % rooms;
+    }
+
+    /**
+     * Get the number of clients in the room of the client with the given index.
+     *
+     * @param client the index of the client
+     * @return the number of clients in its room, including itself
+     */
+    private int roomSize(int client) {
+        if (rooms == 0) return clients;
+        return clients / rooms + (client % rooms < clients % rooms ? 1 : 0);
+    }
+
+    /**
+     * Get the number of frames logged by the given hosts in all of their rooms.
+     *
+     * @param sessions the hosts that run in this JVM
+     * @return the number of frames
+     */
+    private static long frames(List<HostSession> sessions) {
+        return rooms(sessions).stream()
+                .mapToLong(room -> room.getFrameLog().head())
+                .sum();
+    }
+
+    /**
+     * Get all rooms of the given hosts.
+     *
+     * @param sessions the hosts that run in this JVM
+     * @return the rooms
+     */
+    private static List<Room> rooms(List<HostSession> sessions) {
+        List<Room> rooms = new ArrayList<>();
+        sessions.forEach(session -> rooms.addAll(session.getRooms().values()));
+        return rooms;
+    }
+
+    /**
+     * Print a line of the report.
+     *
+     * @param time the time of the report, in seconds since the start
+     * @param sent the shapes sent per second
+     * @param received the shapes received per second
+     * @param latencies the latencies of the segments received
+     * @param sessions the hosts that run in this JVM
+     * @param frames the frames logged by the hosts per second
+     */
+    private static void printReport(String time, long sent, long received,
+                                    LatencyHistogram latencies, List<HostSession> sessions,
+                                    long frames) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        List<Room> rooms = rooms(sessions);
+        boolean hosting = !sessions.isEmpty();
+
+        System.out.printf(Locale.ROOT,
+                "%6s %10d %10d %9.1f %9.1f %9.1f %9.1f %8d %8d %6s %8s %9s%n",
+                time, sent, received,
+                millis(latencies.percentile(0.5)),
+                millis(latencies.percentile(0.99)),
+                millis(latencies.percentile(0.999)),
+                millis(latencies.max()),
+                memory.getHeapMemoryUsage().getUsed() / (1024 * 1024),
+                threads.getThreadCount(),
+                hosting
+                        ? String.valueOf(rooms.stream().filter(Room::isRunning).count()) : "-",
+                hosting
+                        ? String.valueOf(rooms.stream().mapToInt(Room::getClientCount).sum()) : "-",
+                hosting ? String.valueOf(frames) : "-");
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
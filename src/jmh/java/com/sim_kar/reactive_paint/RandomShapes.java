@@ -0,0 +1,94 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random shapes for benchmarks, spread over a board the size of the default window.
+ */
+public final class RandomShapes {
+
+    static final int WIDTH = 1200;
+    static final int HEIGHT = 900;
+
+    /**
+     * The kinds of shapes that can be created, which can be used as a benchmark parameter.
+     */
+    public enum Type {
+        LINE, OVAL, RECTANGLE, FREEHAND, STROKE_SEGMENT
+    }
+
+    private RandomShapes() {}
+
+    /**
+     * Create a shape of a random type.
+     *
+     * @param random the source of randomness
+     * @return the shape
+     */
+    static Shape shape(Random random) {
+        // stroke segments are left out, since a drawing doesn't draw them on their own
+        return shape(random, Type.values()[random.nextInt(Type.STROKE_SEGMENT.ordinal())], 16);
+    }
+
+    /**
+     * Create a shape of the given type.
+     *
+     * @param random the source of randomness
+     * @param type the type of shape
+     * @param points the number of points of a freehand line or stroke segment
+     * @return the shape
+     */
+    static Shape shape(Random random, Type type, int points) {
+        int thickness = 1 + random.nextInt(10);
+        Color color = new Color(random.nextInt());
+
+        switch (type) {
+            case LINE: return new Line(point(random), point(random), thickness, color);
+            case OVAL: return new Oval(point(random), point(random), thickness, color);
+            case RECTANGLE: return new Rectangle(point(random), point(random), thickness, color);
+            case FREEHAND: return stroke(random, points);
+            default: return StrokeSegment.begin(random.nextInt(1 << 28), walk(random, points),
+                    thickness, color);
+        }
+    }
+
+    /**
+     * Create a random walk that looks like a stroke drawn with the mouse.
+     *
+     * @param random the source of randomness
+     * @param points the number of points in the stroke
+     * @return the stroke
+     */
+    static FreehandLine stroke(Random random, int points) {
+        return FreehandLine.through(walk(random, points), 1 + random.nextInt(50),
+                new Color(random.nextInt()));
+    }
+
+    /**
+     * Create a random point on the board.
+     *
+     * @param random the source of randomness
+     * @return the point
+     */
+    static Point point(Random random) {
+        return new Point(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+    }
+
+    private static List<Point> walk(Random random, int points) {
+        int x = random.nextInt(WIDTH);
+        int y = random.nextInt(HEIGHT);
+        List<Point> path = new ArrayList<>(points);
+        path.add(new Point(x, y));
+
+        for (int i = 1; i < points; i++) {
+            x += random.nextInt(9) - 4;
+            y += random.nextInt(9) - 4;
+            path.add(new Point(x, y));
+        }
+
+        return path;
+    }
+}
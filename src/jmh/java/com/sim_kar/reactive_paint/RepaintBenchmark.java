@@ -0,0 +1,94 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what it costs {@link DrawingPanel} to repaint after a shape has been added, as the
+ * number of shapes already on the board grows. {@link #fullRedraw()} draws every shape, which is
+ * what the panel did before it kept off-screen images, {@link #incrementalRepaint()} repaints
+ * the whole panel from its tiles, and {@link #dirtyRegionRepaint()} repaints only the area of a
+ * new stroke, which is what {@link DrawingPanel#redraw()} asks Swing to do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RepaintBenchmark {
+
+    private static final int WIDTH = RandomShapes.WIDTH;
+    private static final int HEIGHT = RandomShapes.HEIGHT;
+
+    @Param({ "1000", "100000", "300000" })
+    public int shapes;
+
+    private Random random;
+    private DrawingPanel panel;
+    private BufferedImage screen;
+    private Graphics2D graphics;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        random = new Random(42);
+        panel = new DrawingPanel();
+        panel.setBounds(0, 0, WIDTH, HEIGHT);
+        panel.setBackground(Color.WHITE);
+
+        for (int i = 0; i < shapes; i++) panel.getDrawing().addShape(RandomShapes.shape(random));
+
+        screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = screen.createGraphics();
+        // the first repaint draws the whole board
+        panel.paintComponent(graphics);
+        panel.getDrawing().takeDirtyRegion();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage incrementalRepaint() {
+        panel.getDrawing().addShape(RandomShapes.shape(random));
+        panel.paintComponent(graphics);
+        return screen;
+    }
+
+    @Benchmark
+    public BufferedImage dirtyRegionRepaint() {
+        panel.getDrawing().addShape(RandomShapes.stroke(random, 16));
+
+        Graphics2D clipped = (Graphics2D) graphics.create();
+        clipped.clip(panel.getDrawing().takeDirtyRegion());
+        panel.paintComponent(clipped);
+        clipped.dispose();
+        return screen;
+    }
+
+    @Benchmark
+    public BufferedImage fullRedraw() {
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        panel.getDrawing().draw(graphics);
+        return screen;
+    }
+}
@@ -0,0 +1,102 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what it costs to draw one shape of each type again and again, as repaints of the same
+ * shapes do. Run it with JMH's allocation profiler to see how much garbage drawing a shape
+ * leaves once the shapes' geometry has been built:
+ * <pre>
+ * java -cp target/reactive-paint-0.0.1-SNAPSHOT-jar-with-dependencies.jar \
+ *     com.sim_kar.reactive_paint.BenchmarkRunner ShapeAllocationBenchmark -prof gc
+ * </pre>
+ * Every operation is one shape, so {@code gc.alloc.rate.norm} is in bytes per shape. Lines,
+ * rectangles and one pixel thin outlines leave none. Java2D itself iterates over the path of a
+ * thicker oval or freehand line with objects of its own, which leave about 56 bytes each time.
+ * Shapes are drawn with a few thicknesses and colors, in runs of the same one, like the strokes
+ * of a user who doesn't change color or thickness between every stroke.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShapeAllocationBenchmark {
+
+    private static final int SHAPES = 256;
+    // how many shapes in a row share their color and thickness
+    private static final int RUN = 8;
+
+    @Param({ "LINE", "OVAL", "RECTANGLE", "FREEHAND" })
+    public RandomShapes.Type type;
+
+    private Shape[] shapes;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        shapes = new Shape[SHAPES];
+
+        for (int i = 0; i < SHAPES; i += RUN) {
+            int thickness = 1 + random.nextInt(10);
+            Color color = new Color(random.nextInt());
+
+            for (int j = i; j < i + RUN; j++) {
+                Shape shape = RandomShapes.shape(random, type, 16);
+                shapes[j] = shape instanceof FreehandLine
+                        ? FreehandLine.through(points((FreehandLine) shape), thickness, color)
+                        : withStyle(shape, thickness, color);
+            }
+        }
+
+        image = new BufferedImage(RandomShapes.WIDTH, RandomShapes.HEIGHT,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SHAPES)
+    public BufferedImage draw() {
+        for (Shape shape : shapes) shape.draw(graphics);
+        return image;
+    }
+
+    private static Shape withStyle(Shape shape, int thickness, Color color) {
+        if (shape instanceof Line) return new Line(shape.start(), shape.end(), thickness, color);
+        if (shape instanceof Oval) return new Oval(shape.start(), shape.end(), thickness, color);
+        return new Rectangle(shape.start(), shape.end(), thickness, color);
+    }
+
+    private static List<Point> points(FreehandLine line) {
+        List<Point> points = line.points();
+        points.add(0, line.start());
+        return points;
+    }
+}
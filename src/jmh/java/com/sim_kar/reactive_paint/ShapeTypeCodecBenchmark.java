@@ -0,0 +1,70 @@
+package com.sim_kar.reactive_paint;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast a {@link Connection} encodes and decodes each type of shape: encoding a
+ * shape as a {@link Frame}, and reading a frame off a stream and decoding it, as {@link Client}
+ * does. Freehand lines and stroke segments have 16 points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ShapeTypeCodecBenchmark {
+
+    private static final int POOL_SIZE = 1024;
+    private static final int POINTS = 16;
+
+    @Param
+    public RandomShapes.Type type;
+
+    private Shape[] shapes;
+    private byte[][] frames;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        shapes = new Shape[POOL_SIZE];
+        frames = new byte[POOL_SIZE][];
+
+        for (int i = 0; i < POOL_SIZE; i++) {
+            shapes[i] = RandomShapes.shape(random, type, POINTS);
+            frames[i] = ShapeCodec.encodeFrame(shapes[i]);
+        }
+    }
+
+    @Benchmark
+    public Frame encode() {
+        Shape shape = shapes[next];
+        next = (next + 1) % POOL_SIZE;
+        return Frame.of(shape);
+    }
+
+    @Benchmark
+    public List<Shape> decode() throws IOException {
+        InputStream input = new ByteArrayInputStream(frames[next]);
+        next = (next + 1) % POOL_SIZE;
+        return ShapeCodec.decodeFrame(ShapeCodec.readFrame(input));
+    }
+}
@@ -0,0 +1,133 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of when each segment of the strokes sent by synthetic clients was sent, so that
+ * the time until other clients receive it can be recorded in a {@link LatencyHistogram}.
+ * <p>
+ * Every segment of a stroke, except the one that ends it, has the same number of points. That
+ * way a client can tell which segment it has received by the number of points it has of the
+ * stroke so far, even when a host that resynced it sends all of them in one segment. Hosts give
+ * strokes IDs of their own, but keep the ID a stroke was drawn with in the bits below
+ * {@link StrokeSegment#MAX_STROKE_ID}, see {@link StrokeIds}.
+ */
+final class StrokeLatencies {
+
+    private final int pointsPerSegment;
+    private final Map<Integer, SentStroke> strokes;
+    private final LatencyHistogram latencies;
+
+    /**
+     * Create a new tracker for strokes.
+     *
+     * @param pointsPerSegment the number of points in every segment but the last
+     */
+    StrokeLatencies(int pointsPerSegment) {
+        this.pointsPerSegment = pointsPerSegment;
+        this.strokes = new ConcurrentHashMap<>();
+        this.latencies = new LatencyHistogram();
+    }
+
+    /**
+     * Start tracking a new stroke.
+     *
+     * @param segments the number of segments with points in the stroke, which is followed by a
+     *     segment that ends it
+     * @param receivers the number of clients that receive the stroke, which are the clients in
+     *     the room it is drawn in
+     * @return the ID of the stroke, which is unique among the strokes being tracked
+     */
+    int begin(int segments, int receivers) {
+        SentStroke stroke = new SentStroke(segments, receivers);
+
+        while (true) {
+            int strokeId = ThreadLocalRandom.current().nextInt(StrokeSegment.MAX_STROKE_ID);
+            if (strokes.putIfAbsent(strokeId, stroke) == null) return strokeId;
+        }
+    }
+
+    /**
+     * Note that a segment of a stroke is being sent now.
+     *
+     * @param strokeId the ID of the stroke
+     * @param segment the index of the segment, where the one that ends the stroke comes last
+     */
+    void sent(int strokeId, int segment) {
+        SentStroke stroke = strokes.get(strokeId);
+        if (stroke != null) stroke.sentAt.set(segment, System.nanoTime());
+    }
+
+    /**
+     * Record the latency of a received segment. Segments of strokes that aren't tracked, for
+     * example those drawn by people on the same host, are ignored.
+     *
+     * @param segment the received segment
+     * @param points the number of points of the stroke received so far, including the segment
+     */
+    void received(StrokeSegment segment, int points) {
+        int strokeId = segment.strokeId() & (StrokeSegment.MAX_STROKE_ID - 1);
+        SentStroke stroke = strokes.get(strokeId);
+        if (stroke == null) return;
+
+        int index = segment.kind() == StrokeSegment.Kind.END
+                ? stroke.sentAt.length() - 1
+                : points / pointsPerSegment - 1;
+
+        if (index >= 0 && index < stroke.sentAt.length()) {
+            long sentAt = stroke.sentAt.get(index);
+            if (sentAt != 0) latencies.record(System.nanoTime() - sentAt);
+        }
+
+        // every receiver is done with the stroke once it has received its end
+        if (segment.kind() == StrokeSegment.Kind.END
+                && stroke.pendingReceivers.decrementAndGet() == 0) {
+            strokes.remove(strokeId);
+        }
+    }
+
+    /**
+     * Stop tracking strokes that some receivers never got the end of, for example because they
+     * were disconnected.
+     *
+     * @param maxAgeNanos how long ago a stroke must have begun to be removed
+     * @return the number of strokes removed
+     */
+    int expire(long maxAgeNanos) {
+        long now = System.nanoTime();
+        int expired = 0;
+
+        for (Map.Entry<Integer, SentStroke> entry : strokes.entrySet()) {
+            if (now - entry.getValue().begunAt > maxAgeNanos
+                    && strokes.remove(entry.getKey(), entry.getValue())) {
+                expired++;
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * Take the latencies recorded since the last time they were taken.
+     *
+     * @return the latencies
+     */
+    LatencyHistogram drain() {
+        return latencies.drain();
+    }
+
+    private static final class SentStroke {
+        private final long begunAt = System.nanoTime();
+        private final AtomicLongArray sentAt;
+        private final AtomicInteger pendingReceivers;
+
+        private SentStroke(int segments, int receivers) {
+            this.sentAt = new AtomicLongArray(segments + 1);
+            this.pendingReceivers = new AtomicInteger(receivers);
+        }
+    }
+}
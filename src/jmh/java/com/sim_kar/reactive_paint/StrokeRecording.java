@@ -0,0 +1,114 @@
+package com.sim_kar.reactive_paint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file of shapes in the same format as they are sent over a connection: a preamble, followed
+ * by frames. Shapes received from a host can be written to one with a {@link Recorder}, and the
+ * freehand strokes in it read back to be replayed by synthetic clients.
+ */
+final class StrokeRecording {
+
+    private StrokeRecording() {}
+
+    /**
+     * Read the paths of all freehand strokes in a recording, whether they were recorded as
+     * {@link FreehandLine}s or as the {@link StrokeSegment}s of a stroke being drawn.
+     *
+     * @param file the recording
+     * @return the paths, each with the start point first, in the order the strokes began
+     * @throws IOException if the file can't be read, or isn't a recording
+     */
+    static List<List<Point>> load(Path file) throws IOException {
+        Map<Integer, FreehandLine> inProgress = new HashMap<>();
+        List<FreehandLine> strokes = new ArrayList<>();
+
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            ShapeCodec.readPreamble(input);
+
+            while (true) {
+                byte[] payload;
+                try {
+                    payload = ShapeCodec.readFrame(input);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                for (Shape shape : ShapeCodec.decodeFrame(payload)) {
+                    if (shape instanceof FreehandLine) {
+                        strokes.add((FreehandLine) shape);
+                    } else if (shape instanceof StrokeSegment) {
+                        StrokeSegment segment = (StrokeSegment) shape;
+                        FreehandLine line = inProgress.get(segment.strokeId());
+
+                        if (segment.kind() == StrokeSegment.Kind.BEGIN) {
+                            line = segment.toFreehandLine();
+                            inProgress.put(segment.strokeId(), line);
+                            strokes.add(line);
+                        } else if (segment.kind() == StrokeSegment.Kind.APPEND && line != null) {
+                            segment.appendTo(line);
+                        } else {
+                            inProgress.remove(segment.strokeId());
+                        }
+                    }
+                }
+            }
+        }
+
+        List<List<Point>> paths = new ArrayList<>(strokes.size());
+        for (FreehandLine line : strokes) {
+            List<Point> path = new ArrayList<>(line.pointCount() + 1);
+            path.add(line.start());
+            path.addAll(line.points());
+            paths.add(path);
+        }
+
+        return paths;
+    }
+
+    /**
+     * Writes shapes to a recording as they are received.
+     */
+    static final class Recorder implements Closeable {
+
+        private final OutputStream output;
+
+        /**
+         * Create a new recording, replacing the file if it exists.
+         *
+         * @param file the file to record to
+         * @throws IOException if the file can't be written
+         */
+        Recorder(Path file) throws IOException {
+            this.output = new BufferedOutputStream(Files.newOutputStream(file));
+            ShapeCodec.writePreamble(output);
+        }
+
+        /**
+         * Write a shape to the recording.
+         *
+         * @param shape the shape
+         * @throws IOException if the shape can't be written
+         */
+        synchronized void record(Shape shape) throws IOException {
+            output.write(ShapeCodec.encodeFrame(shape));
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            output.close();
+        }
+    }
+}
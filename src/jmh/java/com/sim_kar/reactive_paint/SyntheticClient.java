@@ -0,0 +1,196 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A client that draws freehand strokes on a host at a steady rate, the way a person would: each
+ * stroke is sent as a {@link StrokeSegment} that begins it, segments that append to it at a fixed
+ * interval, and a segment that ends it. It keeps count of the shapes it sends and receives, and
+ * records the latency of every segment it receives in a {@link StrokeLatencies}.
+ */
+final class SyntheticClient {
+
+    private final Connection connection;
+    private final StrokeLatencies latencies;
+    private final int roomSize;
+    private final Random random;
+    private final List<List<Point>> recorded;
+    private final LongAdder sent;
+    private final LongAdder received;
+    // the number of points received so far of each stroke, only touched by the reading thread
+    private final Map<Integer, Integer> receivedPoints;
+    private int nextRecorded;
+
+    /**
+     * Create a new synthetic client on the given connection.
+     *
+     * @param connection the connection to the host
+     * @param latencies where to keep track of the latency of the strokes
+     * @param roomSize the number of clients in the room of the client, including itself, which
+     *     all receive its strokes
+     * @param seed the seed of the randomly generated strokes
+     * @param recorded the paths of recorded strokes to replay instead, or an empty list to
+     *     generate them
+     * @param sent counts the shapes sent by all clients
+     * @param received counts the shapes received by all clients
+     */
+    SyntheticClient(Connection connection, StrokeLatencies latencies, int roomSize, long seed,
+                    List<List<Point>> recorded, LongAdder sent, LongAdder received) {
+        this.connection = connection;
+        this.latencies = latencies;
+        this.roomSize = roomSize;
+        this.random = new Random(seed);
+        this.recorded = recorded;
+        this.sent = sent;
+        this.received = received;
+        this.receivedPoints = new HashMap<>();
+        // clients replaying the same recording start at different strokes
+        this.nextRecorded = recorded.isEmpty() ? 0 : random.nextInt(recorded.size());
+    }
+
+    /**
+     * Start receiving shapes, and drawing strokes at the given rate. Strokes may overlap if
+     * they take longer to draw than the time between them.
+     *
+     * @param strokesPerSecond how many strokes to begin every second
+     * @param segments the number of segments with points in every stroke
+     * @param pointsPerSegment the number of points in every segment
+     * @param segmentInterval the time between the segments of a stroke, in milliseconds
+     * @return a Disposable that stops the client when disposed
+     */
+    Disposable start(double strokesPerSecond, int segments, int pointsPerSegment,
+                     long segmentInterval) {
+        CompositeDisposable client = new CompositeDisposable();
+        client.add(connection.shapes().subscribe(this::receive, e -> {}));
+
+        if (strokesPerSecond > 0) {
+            long period = Math.max(1, Math.round(TimeUnit.SECONDS.toMicros(1) / strokesPerSecond));
+
+            // spread the clients' strokes out over the period, rather than all at once
+            Observable<Shape> strokes = Observable.interval(
+                            random.nextInt((int) Math.min(Integer.MAX_VALUE, period)), period,
+                            TimeUnit.MICROSECONDS, Schedulers.computation())
+                    .flatMap(tick -> stroke(segments, pointsPerSegment, segmentInterval));
+
+            client.add(connection.send(strokes
+                    .map(Frame::of)
+                    .toFlowable(BackpressureStrategy.BUFFER)
+            ).subscribe(frame -> {}, e -> {}));
+        }
+
+        client.add(Disposable.fromAction(this::shutdown));
+        return client;
+    }
+
+    /**
+     * Get an Observable that emits the segments of a new stroke, one every segment interval.
+     *
+     * @param segments the number of segments with points
+     * @param pointsPerSegment the number of points in each segment
+     * @param segmentInterval the time between segments, in milliseconds
+     * @return the Observable
+     */
+    private Observable<Shape> stroke(int segments, int pointsPerSegment, long segmentInterval) {
+        return Observable.defer(() -> {
+            List<Point> path = nextPath(segments * pointsPerSegment);
+            int strokeId = latencies.begin(segments, roomSize);
+            int thickness = 1 + random.nextInt(10);
+            Color color = new Color(random.nextInt());
+
+            return Observable.intervalRange(0, segments + 1, 0, segmentInterval,
+                            TimeUnit.MILLISECONDS, Schedulers.computation())
+                    .map(i -> {
+                        int segment = i.intValue();
+                        Shape shape;
+
+                        if (segment == segments) {
+                            shape = StrokeSegment.end(strokeId);
+                        } else {
+                            List<Point> points = path.subList(
+                                    segment * pointsPerSegment, (segment + 1) * pointsPerSegment);
+                            shape = segment == 0
+                                    ? StrokeSegment.begin(strokeId, points, thickness, color)
+                                    : StrokeSegment.append(strokeId,
+                                            path.get(segment * pointsPerSegment - 1), points);
+                        }
+
+                        latencies.sent(strokeId, segment);
+                        sent.increment();
+                        return shape;
+                    });
+        });
+    }
+
+    /**
+     * Get the path of the next stroke, either replayed from the recording or generated.
+     * Recorded strokes are cut or repeated to the given length, so that every segment of a
+     * stroke has the same number of points.
+     *
+     * @param points the number of points in the path
+     * @return the path
+     */
+    private synchronized List<Point> nextPath(int points) {
+        List<Point> path = new ArrayList<>(points);
+
+        if (recorded.isEmpty()) {
+            int x = random.nextInt(RandomShapes.WIDTH);
+            int y = random.nextInt(RandomShapes.HEIGHT);
+
+            for (int i = 0; i < points; i++) {
+                x += random.nextInt(9) - 4;
+                y += random.nextInt(9) - 4;
+                path.add(new Point(x, y));
+            }
+        } else {
+            List<Point> stroke = recorded.get(nextRecorded);
+            nextRecorded = (nextRecorded + 1) % recorded.size();
+
+            for (int i = 0; i < points; i++) path.add(stroke.get(i % stroke.size()));
+        }
+
+        return path;
+    }
+
+    private void receive(Shape shape) {
+        received.increment();
+        if (!(shape instanceof StrokeSegment)) return;
+
+        StrokeSegment segment = (StrokeSegment) shape;
+        int points = segment.deltas().length / 2;
+
+        switch (segment.kind()) {
+            case BEGIN:
+                receivedPoints.put(segment.strokeId(), points);
+                break;
+            case APPEND:
+                points = receivedPoints.merge(segment.strokeId(), points, Integer::sum);
+                break;
+            default:
+                points = 0;
+                receivedPoints.remove(segment.strokeId());
+        }
+
+        latencies.received(segment, points);
+    }
+
+    private void shutdown() {
+        try {
+            connection.shutdown();
+        } catch (IOException e) {
+            // the client is stopping anyway
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <h1>BoardExport</h1>
+ * Exports the shapes of a board as a PNG or SVG image, at any scale, without a user interface.
+ * The shapes are taken when the export is created, so a board can keep changing while it's being
+ * exported.
+ * <p>
+ * A PNG image is rendered in bands of rows, which are rendered and compressed in parallel on a
+ * fork/join pool, and written to the output in order as soon as they're done. Only a few bands
+ * more than the pool has threads are kept at once, so exporting a large image, such as a print of
+ * 16384 by 16384 pixels, takes no more memory than a small one. Each band is compressed on its
+ * own, and the bands are joined into a single zlib stream, so the image is decoded like any
+ * other PNG.
+ * <p>
+ * An SVG image is written shape by shape, with each shape as an element of its own.
+ */
+public class BoardExport {
+
+    // how many pixels a band has at most, which is 32 rows of an image 16384 pixels wide
+    private static final int BAND_PIXELS = 1 << 19;
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A,
+            '\n' };
+    // deflate with a 32K window, and no preset dictionary
+    private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9C };
+    private static final int ADLER_BASE = 65521;
+
+    private final List<Shape> shapes;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an export of the given shapes, which renders on the common fork/join pool.
+     *
+     * @param shapes the shapes, in the order they're drawn
+     */
+    public BoardExport(List<? extends Shape> shapes) {
+        this(shapes, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an export of the given shapes. A {@link StrokeSegment} that begins a stroke, which
+     * is how {@link Drawing#getShapes()} gives a stroke that is still being drawn, is exported
+     * as the stroke so far.
+     *
+     * @param shapes the shapes, in the order they're drawn
+     * @param pool the pool to render bands of PNG images on
+     */
+    public BoardExport(List<? extends Shape> shapes, ForkJoinPool pool) {
+        this.shapes = new ArrayList<>(shapes.size());
+        this.pool = pool;
+
+        for (Shape s : shapes) {
+            if (!(s instanceof StrokeSegment)) {
+                this.shapes.add(s);
+            } else if (((StrokeSegment) s).kind() == StrokeSegment.Kind.BEGIN) {
+                this.shapes.add(((StrokeSegment) s).toFreehandLine());
+            }
+        }
+    }
+
+    /**
+     * Get the area covered by the shapes, and the origin of the board.
+     *
+     * @return the area
+     */
+    public java.awt.Rectangle bounds() {
+        java.awt.Rectangle bounds = new java.awt.Rectangle();
+        for (Shape s : shapes) bounds.add(s.bounds());
+        return bounds;
+    }
+
+    /**
+     * Get the number of shapes that are exported.
+     *
+     * @return the number of shapes
+     */
+    public int size() {
+        return shapes.size();
+    }
+
+    /**
+     * Render an area of the board as a PNG image, and write it to a stream. The shapes are
+     * antialiased, and their outlines are as much thicker as the image is larger.
+     *
+     * @param out the stream, which isn't closed
+     * @param area the area of the board to render
+     * @param scale how many pixels of the image a pixel of the board is
+     * @param background the color to fill the image with, or null to leave it transparent
+     * @throws IOException if the image can't be written
+     */
+    public void writePng(OutputStream out, java.awt.Rectangle area, double scale,
+                         Color background) throws IOException {
+        int width = (int) Math.ceil(area.width * scale);
+        int height = (int) Math.ceil(area.height * scale);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Empty image of " + width + "x" + height);
+        }
+
+        boolean opaque = background != null && background.getAlpha() == 255;
+        int rows = Math.max(1, Math.min(height, BAND_PIXELS / width));
+        int bands = (height + rows - 1) / rows;
+        int[][] bandShapes = bandShapes(area, scale, rows, bands);
+
+        DataOutputStream png = new DataOutputStream(out);
+        png.write(PNG_SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);
+        // truecolor, with alpha unless the background covers everything
+        headerData.writeByte(opaque ? 2 : 6);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        writeChunk(png, "IHDR", header.toByteArray());
+
+        // bands are rendered ahead of the one being written, but only a few of them
+        int ahead = 2 * pool.getParallelism();
+        Queue<CompletableFuture<Band>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        long adler = 1;
+
+        try {
+            for (int band = 0; band < bands; band++) {
+                while (submitted < bands && submitted <= band + ahead) {
+                    Band next = new Band(submitted, submitted * rows,
+                            Math.min(rows, height - submitted * rows), submitted == bands - 1);
+                    int[] indices = bandShapes[submitted];
+                    bandShapes[submitted++] = null;
+                    pending.add(CompletableFuture.supplyAsync(() -> next.encode(
+                            indices, area, scale, width, opaque, background), pool));
+                }
+
+                Band done = pending.remove().join();
+                writeChunk(png, "IDAT", done.deflated);
+                adler = combineAdler(adler, done.adler, done.rawLength);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        } finally {
+            // bands that haven't started don't need to, if the image couldn't be written
+            pending.forEach(future -> future.cancel(false));
+        }
+
+        writeChunk(png, "IDAT", new byte[] { (byte) (adler >>> 24), (byte) (adler >>> 16),
+                (byte) (adler >>> 8), (byte) adler });
+        writeChunk(png, "IEND", new byte[0]);
+        png.flush();
+    }
+
+    /**
+     * Write an area of the board as an SVG image. The outlines of the shapes are drawn like
+     * {@link Shape#draw(java.awt.Graphics)} draws them, with square caps and mitered joins.
+     *
+     * @param out the writer, which isn't closed
+     * @param area the area of the board that the image shows
+     * @param scale how much larger the image is than the area
+     * @param background the color to fill the image with, or null to leave it transparent
+     * @throws IOException if the image can't be written
+     */
+    public void writeSvg(Writer out, java.awt.Rectangle area, double scale, Color background)
+            throws IOException {
+        out.write(String.format(Locale.ROOT, "<?xml version=\"1.0\" encoding=\"UTF-8\"?>%n"
+                        + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"%d\" height=\"%d\" "
+                        + "viewBox=\"%d %d %d %d\">%n",
+                (int) Math.ceil(area.width * scale), (int) Math.ceil(area.height * scale),
+                area.x, area.y, area.width, area.height));
+
+        if (background != null) {
+            out.write(String.format(Locale.ROOT,
+                    "<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\" fill=\"%s\"%s/>%n",
+                    area.x, area.y, area.width, area.height, hex(background),
+                    opacity("fill", background)));
+        }
+
+        out.write(String.format(Locale.ROOT,
+                "<g fill=\"none\" stroke-linecap=\"square\" stroke-linejoin=\"miter\" "
+                        + "stroke-miterlimit=\"10\">%n"));
+
+        StringBuilder element = new StringBuilder();
+        for (Shape s : shapes) {
+            if (!s.bounds().intersects(area)) continue;
+
+            element.setLength(0);
+            svgElement(s, element);
+            element.append(String.format(Locale.ROOT, " stroke=\"%s\"%s stroke-width=\"%d\"/>%n",
+                    hex(s.color()), opacity("stroke", s.color()), s.thickness()));
+            out.append(element);
+        }
+
+        out.write(String.format(Locale.ROOT, "</g>%n</svg>%n"));
+        out.flush();
+    }
+
+    /**
+     * Find the shapes that cover each band of an image.
+     *
+     * @param area the area of the board that the image shows
+     * @param scale how many pixels of the image a pixel of the board is
+     * @param rows the number of rows of each band
+     * @param bands the number of bands
+     * @return the indices of the shapes that cover each band, in the order they're drawn
+     */
+    private int[][] bandShapes(java.awt.Rectangle area, double scale, int rows, int bands) {
+        int[] first = new int[shapes.size()];
+        int[] last = new int[shapes.size()];
+        int[] counts = new int[bands];
+
+        for (int i = 0; i < shapes.size(); i++) {
+            java.awt.Rectangle bounds = shapes.get(i).bounds();
+            first[i] = 0;
+            last[i] = -1;
+            if (!bounds.intersects(area)) continue;
+
+            double top = (bounds.y - area.y) * scale;
+            double bottom = (bounds.y + bounds.height - area.y) * scale;
+            first[i] = Math.max(0, (int) Math.floor(top) / rows);
+            last[i] = Math.min(bands - 1, (int) Math.ceil(bottom) / rows);
+            for (int band = first[i]; band <= last[i]; band++) counts[band]++;
+        }
+
+        int[][] bandShapes = new int[bands][];
+        for (int band = 0; band < bands; band++) bandShapes[band] = new int[counts[band]];
+
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < shapes.size(); i++) {
+            for (int band = first[i]; band <= last[i]; band++) {
+                bandShapes[band][counts[band]++] = i;
+            }
+        }
+
+        return bandShapes;
+    }
+
+    /**
+     * Write a PNG chunk.
+     *
+     * @param out the stream
+     * @param type the type of the chunk
+     * @param data the data of the chunk
+     * @throws IOException if the chunk can't be written
+     */
+    private static void writeChunk(DataOutputStream out, String type, byte[] data)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Get the Adler-32 checksum of two runs of bytes, one after the other, from the checksums
+     * of each. This is how zlib combines them.
+     *
+     * @param adler1 the checksum of the first run
+     * @param adler2 the checksum of the second run
+     * @param length2 the length of the second run
+     * @return the checksum of both
+     */
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long remainder = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - remainder;
+
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= 2L * ADLER_BASE) sum2 -= 2L * ADLER_BASE;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Append the start of the SVG element of a shape, up to where its stroke is given.
+     *
+     * @param s the shape
+     * @param element the element to append to
+     */
+    private static void svgElement(Shape s, StringBuilder element) {
+        if (s instanceof Line) {
+            element.append(String.format(Locale.ROOT,
+                    "<line x1=\"%d\" y1=\"%d\" x2=\"%d\" y2=\"%d\"",
+                    s.start().x(), s.start().y(), s.end().x(), s.end().y()));
+        } else if (s instanceof Rectangle) {
+            element.append(String.format(Locale.ROOT,
+                    "<rect x=\"%d\" y=\"%d\" width=\"%d\" height=\"%d\"",
+                    s.left(), s.top(), s.width(), s.height()));
+        } else if (s instanceof Oval) {
+            element.append(String.format(Locale.ROOT,
+                    "<ellipse cx=\"%s\" cy=\"%s\" rx=\"%s\" ry=\"%s\"",
+                    s.left() + s.width() / 2.0, s.top() + s.height() / 2.0,
+                    s.width() / 2.0, s.height() / 2.0));
+        } else if (s instanceof FreehandLine) {
+            FreehandLine line = (FreehandLine) s;
+            element.append("<polyline points=\"")
+                    .append(line.start().x()).append(',').append(line.start().y());
+
+            // a line without added points is drawn as a dot where it starts
+            if (line.pointCount() == 0) {
+                element.append(' ').append(line.start().x()).append(',')
+                        .append(line.start().y());
+            }
+
+            for (int i = 0; i < line.pointCount(); i++) {
+                element.append(' ').append(line.x(i)).append(',').append(line.y(i));
+            }
+            element.append('"');
+        }
+    }
+
+    private static String hex(Color color) {
+        return String.format(Locale.ROOT, "#%06x", color.getRGB() & 0xFFFFFF);
+    }
+
+    private static String opacity(String attribute, Color color) {
+        if (color.getAlpha() == 255) return "";
+
+        return String.format(Locale.ROOT, " %s-opacity=\"%.3f\"", attribute,
+                color.getAlpha() / 255.0);
+    }
+
+    /**
+     * A band of rows of a PNG image, which is rendered and compressed on a thread of the pool.
+     */
+    private final class Band {
+        private final int index;
+        private final int top;
+        private final int rows;
+        private final boolean last;
+        private byte[] deflated;
+        private long adler;
+        private long rawLength;
+
+        private Band(int index, int top, int rows, boolean last) {
+            this.index = index;
+            this.top = top;
+            this.rows = rows;
+            this.last = last;
+        }
+
+        /**
+         * Render the shapes that cover this band, and compress its rows.
+         *
+         * @param indices the indices of the shapes
+         * @param area the area of the board that the image shows
+         * @param scale how many pixels of the image a pixel of the board is
+         * @param width the width of the image
+         * @param opaque whether the image has no alpha
+         * @param background the color to fill the band with, or null
+         * @return this band
+         */
+        Band encode(int[] indices, java.awt.Rectangle area, double scale, int width,
+                    boolean opaque, Color background) {
+            BufferedImage image = new BufferedImage(width, rows,
+                    opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            if (background != null) {
+                g.setColor(background);
+                g.fillRect(0, 0, width, rows);
+            }
+
+            g.translate(0, -top);
+            g.scale(scale, scale);
+            g.translate(-area.x, -area.y);
+            for (int i : indices) shapes.get(i).draw(g);
+            g.dispose();
+
+            byte[] raw = scanlines(((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                    width, opaque);
+            Adler32 checksum = new Adler32();
+            checksum.update(raw);
+            this.adler = checksum.getValue();
+            this.rawLength = raw.length;
+            this.deflated = deflate(raw);
+            return this;
+        }
+
+        /**
+         * Get the rows of this band as PNG scanlines, which are unfiltered.
+         *
+         * @param pixels the pixels of the band, row by row
+         * @param width the width of a row
+         * @param opaque whether to leave out alpha
+         * @return the scanlines
+         */
+        private byte[] scanlines(int[] pixels, int width, boolean opaque) {
+            int channels = opaque ? 3 : 4;
+            byte[] raw = new byte[rows * (1 + width * channels)];
+            int out = 0;
+
+            for (int row = 0; row < rows; row++) {
+                // filter type None
+                raw[out++] = 0;
+
+                for (int i = row * width; i < (row + 1) * width; i++) {
+                    int argb = pixels[i];
+                    raw[out++] = (byte) (argb >>> 16);
+                    raw[out++] = (byte) (argb >>> 8);
+                    raw[out++] = (byte) argb;
+                    if (!opaque) raw[out++] = (byte) (argb >>> 24);
+                }
+            }
+
+            return raw;
+        }
+
+        /**
+         * Compress the scanlines of this band as a part of the image's zlib stream. The first
+         * band starts the stream, the last one ends its deflate data, and all the others end on
+         * a byte boundary so that the next one can follow.
+         *
+         * @param raw the scanlines
+         * @return the compressed scanlines
+         */
+        private byte[] deflate(byte[] raw) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 8 + 64);
+            if (index == 0) out.writeBytes(ZLIB_HEADER);
+
+            try {
+                deflater.setInput(raw);
+                if (last) deflater.finish();
+
+                byte[] buffer = new byte[64 * 1024];
+                while (true) {
+                    int n = deflater.deflate(buffer, 0, buffer.length,
+                            last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                    if (last ? deflater.finished() : n < buffer.length) break;
+                }
+            } finally {
+                deflater.end();
+            }
+
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.CompletableSubject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>BoardStore</h1>
+ * Keeps the boards of a host's {@link Room}s on disk, so that they outlive the host. Each board
+ * is kept as a compacted snapshot, and an append-only log of the frames appended to the room's
+ * {@link FrameLog} after it:
+ * <ul>
+ *     <li>{@code room-<name>.snapshot} holds the generation of the log that follows it, and the
+ *     board as a single frame, uncompressed so that it can be decoded straight from the mapped
+ *     file</li>
+ *     <li>{@code room-<name>.<generation>.log} holds the frames appended after the snapshot,
+ *     each with its sequence number, exactly as they were broadcast</li>
+ * </ul>
+ * where the name is the UTF-8 bytes of the room's name in hex. Both files start with the
+ * {@link ShapeCodec} preamble, so a store can only be read by the version that wrote it.
+ * <p>
+ * The log is a memory-mapped file, and frames are written to it on a thread of their own, so
+ * recording a room costs its broadcast no more than queueing each frame. Once the log has grown
+ * by as much as the last snapshot, and by at least {@value #COMPACT_BYTES} bytes, the board is
+ * written as a new snapshot, and the frames are logged in the next generation. Loading a board
+ * only maps the snapshot, and replays the frames logged after it.
+ * <p>
+ * Written frames survive the host being stopped or killed, but the operating system decides
+ * when they reach the disk; only snapshots are forced to it.
+ */
+public class BoardStore {
+
+    // how much the log grows by before the board is compacted into a new snapshot
+    private static final long COMPACT_BYTES = 16 << 20;
+    private static final long INITIAL_LOG_BYTES = 1 << 20;
+
+    private final Path directory;
+    private final AtomicLong framesRecorded;
+    private final AtomicLong snapshotsWritten;
+
+    /**
+     * Create a store that keeps boards in the given directory, which is created if it doesn't
+     * exist.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory can't be created
+     */
+    public BoardStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.framesRecorded = new AtomicLong();
+        this.snapshotsWritten = new AtomicLong();
+    }
+
+    /**
+     * Get the directory the boards are kept in.
+     *
+     * @return the directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the number of frames of all rooms that have been recorded, either in a log or in a
+     * snapshot that was written before they could be logged.
+     *
+     * @return the number of frames
+     */
+    public long getFramesRecorded() {
+        return framesRecorded.get();
+    }
+
+    /**
+     * Get the number of snapshots that have been written for all rooms.
+     *
+     * @return the number of snapshots
+     */
+    public long getSnapshotsWritten() {
+        return snapshotsWritten.get();
+    }
+
+    /**
+     * Load the board of a room, as it was when the last frame was logged.
+     *
+     * @param room the name of the room
+     * @return the shapes on the board, which is empty if none has been stored for the room
+     * @throws IOException if the board can't be read, or was written by another version
+     */
+    public List<Shape> load(String room) throws IOException {
+        Path snapshotFile = snapshotFile(room);
+        if (!Files.exists(snapshotFile)) return List.of();
+
+        ByteBuffer snapshot = map(snapshotFile);
+        int generation = ShapeCodec.readVarInt(snapshot);
+        long covered = ShapeCodec.readVarLong(snapshot);
+        // the shapes of a snapshot are already compacted, so only the tail needs a drawing to
+        // put the segments of its strokes together
+        List<Shape> board = readFrame(snapshot);
+        Drawing tail = new Drawing(0, false);
+
+        Path logFile = logFile(room, generation);
+        if (Files.exists(logFile)) {
+            ByteBuffer log = map(logFile);
+
+            // a frame that was only partly written when the host stopped ends the log
+            try {
+                while (log.hasRemaining()) {
+                    long sequence = ShapeCodec.readVarLong(log) - 1;
+                    if (sequence < 0) break;
+
+                    List<Shape> shapes = readFrame(log);
+                    if (sequence >= covered) shapes.forEach(tail::addShape);
+                }
+            } catch (ProtocolException | BufferUnderflowException
+                    | IllegalArgumentException e) {
+                // keep the frames before it
+            }
+        }
+
+        board.addAll(tail.getShapes());
+        return board;
+    }
+
+    /**
+     * Keep logging the frames appended to a room's log, until the returned Disposable is
+     * disposed. Before the first frame is logged, the board is written as a new snapshot, so
+     * the board the room was created with doesn't have to be logged.
+     *
+     * @param room the name of the room
+     * @param frameLog the log of the room
+     * @param onError called if the board can't be written, after which it isn't logged anymore
+     * @return a Disposable that stops logging when disposed, once the frames appended before
+     *     then have been written
+     */
+    public Disposable record(String room, FrameLog frameLog, Consumer<Throwable> onError) {
+        Recorder recorder = new Recorder(room, frameLog);
+        CompletableSubject stopped = CompletableSubject.create();
+
+        // frames are only queued while the broadcast holds the frame log's lock
+        Disposable logging = frameLog.live()
+                .takeUntil(stopped.toFlowable())
+                .onBackpressureBuffer()
+                .observeOn(Schedulers.io())
+                .doFinally(recorder::close)
+                .subscribe(recorder::append, onError);
+
+        return Disposable.fromAction(stopped::onComplete);
+    }
+
+    private Path snapshotFile(String room) {
+        return directory.resolve("room-" + hex(room) + ".snapshot");
+    }
+
+    private Path logFile(String room, int generation) {
+        return directory.resolve("room-" + hex(room) + "." + generation + ".log");
+    }
+
+    private static String hex(String room) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : room.getBytes(StandardCharsets.UTF_8)) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Map a file for reading, and skip past its preamble.
+     *
+     * @param file the file
+     * @return the buffer, positioned after the preamble
+     * @throws IOException if the file can't be read, or was written by another version
+     */
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            byte[] preamble = new byte[ShapeCodec.PREAMBLE_LENGTH];
+            buffer.get(preamble);
+            ShapeCodec.verifyPreamble(preamble);
+            return buffer;
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated board file " + file);
+        }
+    }
+
+    /**
+     * Read a length-prefixed frame from a buffer, and decode its shapes.
+     *
+     * @param buffer the buffer, positioned at the frame
+     * @return the shapes
+     * @throws ProtocolException if the frame is malformed
+     */
+    private static List<Shape> readFrame(ByteBuffer buffer) throws ProtocolException {
+        int length = ShapeCodec.readFrameLength(buffer);
+        if (length < 0) throw new ProtocolException("Truncated frame");
+
+        ByteBuffer payload = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        return ShapeCodec.decodeFrame(payload);
+    }
+
+    /**
+     * Writes the frames of one room, on a thread of the io scheduler.
+     */
+    private final class Recorder {
+        private final String room;
+        private final FrameLog frameLog;
+        private int generation;
+        private long covered;
+        private FileChannel channel;
+        private MappedByteBuffer log;
+        private long logged;
+        private long compactAt;
+        private boolean closed;
+
+        private Recorder(String room, FrameLog frameLog) {
+            this.room = room;
+            this.frameLog = frameLog;
+        }
+
+        /**
+         * Log a frame, unless the snapshot already covers it, and compact the board once the log
+         * has grown enough.
+         *
+         * @param frame the frame
+         * @throws IOException if the frame can't be written
+         */
+        synchronized void append(Frame frame) throws IOException {
+            if (closed) return;
+            if (channel == null || logged >= compactAt) compact();
+            framesRecorded.incrementAndGet();
+            if (frame.lastSequence() < covered) return;
+
+            ByteArrayOutputStream sequence = new ByteArrayOutputStream(10);
+            // so that a record never starts with a zero, which ends the log
+            ShapeCodec.writeVarLong(sequence, frame.lastSequence() + 1);
+
+            ByteBuffer bytes = frame.asByteBuffer();
+            ensureCapacity(sequence.size() + bytes.remaining());
+            log.put(sequence.toByteArray()).put(bytes);
+            logged += sequence.size() + frame.length();
+        }
+
+        /**
+         * Write the board as a snapshot, which the next generation of the log follows, and
+         * delete the log of the previous generation.
+         *
+         * @throws IOException if the snapshot or the new log can't be written
+         */
+        private void compact() throws IOException {
+            int previous;
+            if (channel != null) {
+                log.force();
+                channel.close();
+                previous = generation;
+            } else {
+                previous = readGeneration();
+            }
+            generation = previous + 1;
+
+            Frame snapshot = frameLog.board();
+            covered = snapshot.lastSequence() + 1;
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.writeBytes(ShapeCodec.preamble());
+            ShapeCodec.writeVarInt(header, generation);
+            ShapeCodec.writeVarLong(header, covered);
+
+            // replace the snapshot in one go, so that a host that stops meanwhile keeps the old
+            Path temporary = snapshotFile(room).resolveSibling(
+                    snapshotFile(room).getFileName() + ".tmp");
+            try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                file.write(new ByteBuffer[] { ByteBuffer.wrap(header.toByteArray()),
+                        snapshot.asByteBuffer() });
+                file.force(true);
+            }
+            Files.move(temporary, snapshotFile(room), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(logFile(room, previous));
+            snapshotsWritten.incrementAndGet();
+
+            channel = FileChannel.open(logFile(room, generation), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            log = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_LOG_BYTES);
+            log.put(ShapeCodec.preamble());
+            logged = 0;
+            // so that the time spent writing snapshots grows with the board, not its square
+            compactAt = Math.max(COMPACT_BYTES, snapshot.length());
+        }
+
+        /**
+         * Get the generation of the log that follows the snapshot on disk.
+         *
+         * @return the generation, or -1 if there is no snapshot
+         * @throws IOException if the snapshot can't be read
+         */
+        private int readGeneration() throws IOException {
+            if (!Files.exists(snapshotFile(room))) return -1;
+            return ShapeCodec.readVarInt(map(snapshotFile(room)));
+        }
+
+        /**
+         * Map more of the log if there isn't room for the given number of bytes.
+         *
+         * @param bytes the number of bytes
+         * @throws IOException if the log can't be grown
+         */
+        private void ensureCapacity(int bytes) throws IOException {
+            if (log.remaining() >= bytes) return;
+
+            int position = log.position();
+            long size = Math.max(2L * log.capacity(), position + (long) bytes);
+            log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            log.position(position);
+        }
+
+        /**
+         * Stop logging frames.
+         */
+        synchronized void close() {
+            closed = true;
+            if (channel == null) return;
+
+            try {
+                log.force();
+                channel.close();
+            } catch (IOException e) {
+                // the frames are in the page cache, and reach the disk regardless
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableEmitter;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a stream of {@link Shape}s into a stream of {@link Frame}s that can be sent to any number
+ * of clients. Shapes that arrive within a short time window are batched into a single frame, and
+ * every shape is only encoded once, no matter how many clients it is sent to. The time window
+ * starts with the first shape of a frame, so no timer runs while there are no shapes to send.
+ */
+public class Broadcaster {
+
+    /**
+     * The default time window, in milliseconds, in which shapes are batched into one frame.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    /**
+     * The default maximum number of shapes in one frame.
+     */
+    public static final int DEFAULT_MAX_SHAPES = 64;
+
+    private final long window;
+    private final TimeUnit unit;
+    private final int maxShapes;
+
+    /**
+     * Create a new broadcaster with the default time window and maximum number of shapes.
+     */
+    public Broadcaster() {
+        this(DEFAULT_WINDOW_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_MAX_SHAPES);
+    }
+
+    /**
+     * Create a new broadcaster. A frame is sent when the time window has passed since its first
+     * shape arrived, or as soon as it holds the maximum number of shapes.
+     *
+     * @param window the length of the time window
+     * @param unit the unit of the time window
+     * @param maxShapes the maximum number of shapes in one frame
+     */
+    public Broadcaster(long window, TimeUnit unit, int maxShapes) {
+        this.window = window;
+        this.unit = unit;
+        this.maxShapes = maxShapes;
+    }
+
+    /**
+     * Get an Observable of frames with the given shapes. A frame whose time window has passed is
+     * encoded on the computation scheduler, and a full frame on the thread that filled it. The
+     * Observable is cold, so it should be multicast to share the encoded frames among clients.
+     *
+     * @param shapes the shapes to broadcast
+     * @return the Observable
+     */
+    public Observable<Frame> frames(Observable<Shape> shapes) {
+        return Observable.<List<Shape>>create(emitter -> {
+            Batch batch = new Batch(emitter);
+            Disposable upstream = shapes.subscribe(batch::add, batch::error, batch::complete);
+            emitter.setCancellable(() -> {
+                upstream.dispose();
+                batch.dispose();
+            });
+        }).map(Frame::of);
+    }
+
+    /**
+     * The shapes of the frame that's being filled, for one subscriber of {@link #frames}. Its
+     * time window is scheduled when its first shape is added, and cancelled if it fills up first.
+     */
+    private final class Batch {
+
+        private final ObservableEmitter<List<Shape>> emitter;
+        private final Scheduler.Worker worker;
+        private List<Shape> shapes;
+        private Disposable timer;
+
+        Batch(ObservableEmitter<List<Shape>> emitter) {
+            this.emitter = emitter;
+            this.worker = Schedulers.computation().createWorker();
+            this.shapes = new ArrayList<>();
+            this.timer = Disposable.empty();
+        }
+
+        synchronized void add(Shape shape) {
+            shapes.add(shape);
+
+            if (shapes.size() >= maxShapes) {
+                timer.dispose();
+                flush();
+            } else if (shapes.size() == 1) {
+                List<Shape> first = shapes;
+                timer = worker.schedule(() -> flushIfCurrent(first), window, unit);
+            }
+        }
+
+        synchronized void error(Throwable e) {
+            timer.dispose();
+            emitter.onError(e);
+        }
+
+        synchronized void complete() {
+            timer.dispose();
+            if (!shapes.isEmpty()) flush();
+            emitter.onComplete();
+        }
+
+        void dispose() {
+            worker.dispose();
+        }
+
+        // the timer may fire just after a full batch was flushed, and a new one started
+        private synchronized void flushIfCurrent(List<Shape> batch) {
+            if (batch == shapes && !shapes.isEmpty()) flush();
+        }
+
+        // frames are emitted while holding the lock, so they stay in the order of their shapes
+        private void flush() {
+            List<Shape> full = shapes;
+            shapes = new ArrayList<>();
+            emitter.onNext(full);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Graphics;
+import java.io.Serial;
+
+/**
+ * <h1>Checkpoint</h1>
+ * Where in a host's {@link FrameLog} the frames sent to a client are. The first frame sent to a
+ * client is a checkpoint, and so is the start of every snapshot of the board, so that a client
+ * that loses its connection knows which frames it has and can ask to resume after them, see
+ * {@link Handshake#resume(String, long, long, long)}.
+ * <p>
+ * A checkpoint either says that the frames that follow it start right after a sequence number,
+ * or that the board follows it, with every frame up to a sequence number applied to it. Frames
+ * are numbered by the log they were appended to, and a host that is restarted starts a new log
+ * with a new ID. Checkpoints aren't drawn, and are only sent from a host to its clients.
+ */
+public final class Checkpoint extends Shape {
+
+    @Serial
+    private static final long serialVersionUID = -6413391875031748220L;
+    private final long log;
+    private final long sequence;
+    private final int boardShapes;
+
+    private Checkpoint(long log, long sequence, int boardShapes) {
+        super(null, null, 0, null);
+        this.log = log;
+        this.sequence = sequence;
+        this.boardShapes = boardShapes;
+    }
+
+    /**
+     * Create a checkpoint that the frame with the sequence number after the given one follows.
+     *
+     * @param log the ID of the log
+     * @param sequence the sequence number of the frame before those that follow, which is -1 if
+     *     the first frame of the log follows
+     * @return the checkpoint
+     */
+    public static Checkpoint resume(long log, long sequence) {
+        return new Checkpoint(log, sequence, -1);
+    }
+
+    /**
+     * Create a checkpoint that the shapes on a board follow.
+     *
+     * @param log the ID of the log
+     * @param sequence the sequence number of the last frame applied to the board
+     * @param boardShapes the number of shapes on the board
+     * @return the checkpoint
+     */
+    public static Checkpoint board(long log, long sequence, int boardShapes) {
+        return new Checkpoint(log, sequence, boardShapes);
+    }
+
+    public long log() { return log; }
+    public long sequence() { return sequence; }
+
+    /**
+     * Check whether the shapes on a board follow this checkpoint, which replace everything
+     * received before it.
+     *
+     * @return whether a board follows
+     */
+    public boolean isBoard() {
+        return boardShapes >= 0;
+    }
+
+    /**
+     * Get the number of shapes on the board that follows this checkpoint.
+     *
+     * @return the number of shapes, or zero if no board follows
+     */
+    public int boardShapes() {
+        return Math.max(0, boardShapes);
+    }
+
+    @Override
+    public java.awt.Rectangle bounds() {
+        return new java.awt.Rectangle();
+    }
+
+    @Override
+    public void draw(Graphics g) {
+        // a checkpoint is only a position in the log
+    }
+
+    @Override
+    void drawShape(Graphics g) {}
+}
@@ -1,53 +1,234 @@
 package com.sim_kar.reactive_paint;
 
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A client for writing and reading objects to and from a server. Acts as a wrapper for the given
- * socket.
+ * A client for writing and reading {@link Shape}s to and from a server. Acts as a wrapper for the
+ * given socket. Shapes are sent using the binary protocol of {@link ShapeCodec}. This is the
+ * {@link Connection} used by the {@link Transport#BLOCKING} transport.
+ * <p>
+ * Frames are compressed if both ends ask for it, see {@link Compression}. A client asks for it
+ * if the default compression is on when it's created.
  */
-public class Client {
+public class Client implements Connection {
 
     private final Socket clientSocket;
-    private final ObjectInputStream input;
-    private final ObjectOutputStream output;
+    private final InputStream input;
+    private final OutputStream output;
+    private final Queue<Shape> received;
+    private final Handshake handshake;
+    private final Scheduler scheduler;
+    private final FrameCompression compression;
+    // only hosts send snapshots, so one can't come over an accepted connection
+    private final boolean snapshots;
 
     /**
-     * Create a new client with the given socket.
+     * Create a new client with the given socket, in the default room. Exchanges protocol
+     * preambles with the other end of the socket before returning.
      *
      * @param clientSocket the socket to use
-     * @throws IOException if an I/O error occurs when getting the socket's input and output streams
+     * @throws IOException if an I/O error occurs when getting the socket's input and output
+     *     streams, or if the other end doesn't speak the same protocol
      */
     public Client(Socket clientSocket) throws IOException {
+        this(clientSocket, Handshake.join(HostSession.DEFAULT_ROOM));
+    }
+
+    /**
+     * Create a new client with the given socket, which sends the given handshake, for example
+     * to ask to join a room. Exchanges protocol preambles and handshakes with the other end of
+     * the socket before returning.
+     *
+     * @param clientSocket the socket to use
+     * @param handshake the handshake to send
+     * @throws IOException if an I/O error occurs when getting the socket's input and output
+     *     streams, or if the other end doesn't speak the same protocol
+     */
+    public Client(Socket clientSocket, Handshake handshake) throws IOException {
+        this(clientSocket, handshake, Schedulers.io());
+    }
+
+    /**
+     * Create a new client with the given socket, which sends the given handshake, and reads and
+     * writes on the given scheduler. Exchanges protocol preambles and handshakes with the other
+     * end of the socket before returning.
+     *
+     * @param clientSocket the socket to use
+     * @param handshake the handshake to send
+     * @param scheduler the scheduler to block on when reading and writing
+     * @throws IOException if an I/O error occurs when getting the socket's input and output
+     *     streams, or if the other end doesn't speak the same protocol
+     */
+    Client(Socket clientSocket, Handshake handshake, Scheduler scheduler) throws IOException {
+        this(clientSocket, handshake, scheduler, Compression.getDefault());
+    }
+
+    /**
+     * Create a new client with the given socket, which sends the given handshake, reads and
+     * writes on the given scheduler, and compresses the frames it writes with the given settings
+     * if the other end asks for compression too. Exchanges protocol preambles and handshakes
+     * with the other end of the socket before returning.
+     *
+     * @param clientSocket the socket to use
+     * @param handshake the handshake to send
+     * @param scheduler the scheduler to block on when reading and writing
+     * @param compression how to compress frames, or {@link Compression#OFF}
+     * @throws IOException if an I/O error occurs when getting the socket's input and output
+     *     streams, or if the other end doesn't speak the same protocol
+     */
+    Client(Socket clientSocket, Handshake handshake, Scheduler scheduler,
+           Compression compression) throws IOException {
         this.clientSocket = clientSocket;
+        this.scheduler = scheduler;
+        this.snapshots = handshake != Handshake.ACCEPT;
+        this.output = new BufferedOutputStream(clientSocket.getOutputStream());
+        this.input = new BufferedInputStream(clientSocket.getInputStream());
+        this.received = new ArrayDeque<>();
 
-        // output stream needs to be initialized before input stream, or it will block forever
-        this.output = new ObjectOutputStream(clientSocket.getOutputStream());
-        this.input = new ObjectInputStream(clientSocket.getInputStream());
+        // preamble needs to be flushed before reading the other end's, or both will block forever
+        ShapeCodec.writePreamble(output);
+        ShapeCodec.writeHandshake(output, compression.isEnabled()
+                ? handshake.with(Handshake.COMPRESS)
+                : handshake);
+        output.flush();
+        ShapeCodec.readPreamble(input);
+        this.handshake = ShapeCodec.readHandshake(input);
+        this.compression = compression.isEnabled() && this.handshake.wantsCompression()
+                ? new FrameCompression(compression)
+                : null;
     }
 
     /**
-     * Read an object from the connected server.
+     * Read a shape from the connected server. Blocks until a shape is available.
      *
-     * @return the object
-     * @throws IOException if an I/O error occurs when reading the object
-     * @throws ClassNotFoundException if the class of the object being read can't be found
+     * @return the shape
+     * @throws IOException if an I/O error occurs when reading the shape
      */
-    public Object read() throws IOException, ClassNotFoundException {
-        return input.readObject();
+    public Shape read() throws IOException {
+        // a frame may hold several shapes, so only read from the socket when they've all been used
+        while (received.isEmpty()) {
+            byte[] payload = ShapeCodec.readFrame(input);
+            Metrics.read(payload.length);
+
+            if (compression != null && FrameCompression.isCompressed(payload)) {
+                InputStream frames = new ByteArrayInputStream(compression.decompress(payload));
+                while (frames.available() > 0) {
+                    received.addAll(
+                            ShapeCodec.decodeFrame(ShapeCodec.readFrame(frames), snapshots));
+                }
+            } else {
+                received.addAll(ShapeCodec.decodeFrame(payload, snapshots));
+            }
+        }
+
+        return received.poll();
     }
 
     /**
-     * Write an object to the connected server.
+     * Get an Observable of the shapes read from the connected server. Since reading blocks, the
+     * Observable is subscribed on the client's scheduler, which is the I/O scheduler unless
+     * another was given, where it will occupy a thread until the client is shut down.
      *
-     * @param object the object to write
-     * @throws IOException if an I/O error occurs when writing the object
+     * @return the Observable
      */
-    public void write(Object object) throws IOException {
-        output.writeObject(object);
+    @Override
+    public Observable<Shape> shapes() {
+        return Observable.<Shape>create(emitter -> {
+            // keep reading shapes until the socket is closed
+            while (!isShutdown()) {
+                try {
+                    emitter.onNext(read());
+                } catch (EOFException e) {
+                    // the other end closed the connection
+                    shutdown();
+                } catch (Exception e) {
+                    emitter.tryOnError(e);
+                    shutdown();
+                }
+            }
+            emitter.onComplete();
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Get a Flowable that writes the given frames to the connected server. Since writing
+     * blocks, the frames are observed on the client's scheduler. Frames are written to a buffer, which
+     * is only flushed to the socket once every frame that has arrived so far has been written.
+     *
+     * @param frames the frames to send
+     * @return the Flowable
+     */
+    @Override
+    public Flowable<Frame> send(Flowable<Frame> frames) {
+        return Flowable.defer(() -> {
+            AtomicInteger pending = new AtomicInteger();
+
+            return frames
+                    .doOnNext(frame -> pending.incrementAndGet())
+                    .observeOn(scheduler, false, SEND_WINDOW)
+                    .map(frame -> {
+                        try {
+                            writeFrame(frame, pending.decrementAndGet() == 0);
+                        } catch (Exception e) {
+                            shutdown();
+                            throw e;
+                        }
+                        return frame;
+                    });
+        });
+    }
+
+    @Override
+    public Single<Handshake> handshake() {
+        return Single.just(handshake);
+    }
+
+    @Override
+    public void writeFrame(Frame frame) throws IOException {
+        writeFrame(frame, true);
+    }
+
+    /**
+     * Write an already encoded frame to the connected server.
+     *
+     * @param frame the frame to write
+     * @param flush whether to flush the frame, and any frames written before it, to the socket
+     * @throws IOException if an I/O error occurs when writing the frame
+     */
+    public synchronized void writeFrame(Frame frame, boolean flush) throws IOException {
+        if (compression != null) {
+            Metrics.written(compression.write(frame, output));
+        } else {
+            frame.writeTo(output);
+            Metrics.written(frame.length());
+        }
+        if (flush) output.flush();
+    }
+
+    @Override
+    public FrameCompression compression() {
+        return compression;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return clientSocket.getRemoteSocketAddress();
     }
 
     /**
@@ -55,8 +236,10 @@ public class Client {
      *
      * @throws IOException if an I/O error occurs when closing the socket
      */
+    @Override
     public void shutdown() throws IOException {
         clientSocket.close();
+        if (compression != null) compression.end();
     }
 
     /**
@@ -64,6 +247,7 @@ public class Client {
      *
      * @return whether the client is shutdown
      */
+    @Override
     public boolean isShutdown() {
         return clientSocket.isClosed();
     }
@@ -0,0 +1,155 @@
+package com.sim_kar.reactive_paint;
+
+import javax.management.ObjectName;
+
+/**
+ * The metrics of one client of a {@link Room}, which are registered as an MBean for as long as
+ * the client is in the room. See {@link Metrics}.
+ */
+final class ClientMetrics implements Metrics.ClientMBean {
+
+    private final String remoteAddress;
+    private final String room;
+    private final ObjectName name;
+    private final Metrics.Rate shapesIn;
+    private final Metrics.Rate shapesOut;
+    private final Metrics.Rate bytesOut;
+    private final FrameCompression compression;
+    private volatile OutboundQueue queue;
+
+    /**
+     * Create the metrics of a client.
+     *
+     * @param client the client
+     * @param room the name of the room the client is in
+     * @param id a number that no other client in this JVM has
+     */
+    ClientMetrics(Connection client, String room, long id) {
+        this.remoteAddress = String.valueOf(client.getRemoteAddress());
+        this.room = room;
+        this.name = Metrics.name("type", "Client", "room", room, "id", String.valueOf(id));
+        this.shapesIn = new Metrics.Rate();
+        this.shapesOut = new Metrics.Rate();
+        this.bytesOut = new Metrics.Rate();
+        this.compression = client.compression();
+    }
+
+    /**
+     * Register the metrics as an MBean.
+     */
+    void register() {
+        Metrics.register(name, this, Metrics.ClientMBean.class);
+    }
+
+    /**
+     * Unregister the MBean of the metrics.
+     */
+    void unregister() {
+        Metrics.unregister(name);
+    }
+
+    /**
+     * Set the queue of frames waiting to be sent to the client.
+     *
+     * @param queue the queue
+     */
+    void setQueue(OutboundQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Count a shape received from the client.
+     */
+    void received() {
+        shapesIn.add(1);
+    }
+
+    /**
+     * Count a frame sent to the client.
+     *
+     * @param frame the frame
+     */
+    void sent(Frame frame) {
+        shapesOut.add(frame.shapeCount());
+        bytesOut.add(frame.length());
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public String getRoom() {
+        return room;
+    }
+
+    @Override
+    public long getShapesIn() {
+        return shapesIn.total();
+    }
+
+    @Override
+    public double getShapesInPerSecond() {
+        return shapesIn.perSecond();
+    }
+
+    @Override
+    public long getShapesOut() {
+        return shapesOut.total();
+    }
+
+    @Override
+    public double getShapesOutPerSecond() {
+        return shapesOut.perSecond();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.total();
+    }
+
+    @Override
+    public long getLag() {
+        OutboundQueue queue = this.queue;
+        return queue == null ? 0 : queue.lag();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        OutboundQueue queue = this.queue;
+        return queue == null ? 0 : queue.droppedFrames();
+    }
+
+    @Override
+    public long getCoalescedFrames() {
+        OutboundQueue queue = this.queue;
+        return queue == null ? 0 : queue.coalescedFrames();
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return compression != null;
+    }
+
+    @Override
+    public long getFramesCompressed() {
+        return compression == null ? 0 : compression.framesCompressed();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        return compression == null ? 1 : compression.ratio();
+    }
+
+    @Override
+    public long getBytesSaved() {
+        return compression == null ? 0 : compression.bytesSaved();
+    }
+
+    @Override
+    public double getCompressionMillis() {
+        if (compression == null) return 0;
+        return (compression.compressNanos() + compression.decompressNanos()) / 1e6;
+    }
+}
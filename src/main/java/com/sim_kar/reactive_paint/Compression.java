@@ -0,0 +1,123 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.zip.Deflater;
+
+/**
+ * <h1>Compression</h1>
+ * How a {@link Client} compresses the frames it sends: the deflate level, and the size below
+ * which a frame isn't worth compressing. Frames are only compressed if both ends of a connection
+ * ask for it in their {@link Handshake}, and then each end compresses the frames it sends with
+ * its own settings. Connections of the {@link Transport#NIO} transport never ask for it, so a
+ * client that connects to a host over NIO sends its frames as they are.
+ * <p>
+ * Every connection compresses its frames as a single deflate stream, which is flushed after every
+ * frame, so that a frame can refer back to the strokes in the frames before it. Freehand lines
+ * repeat their colors, thicknesses and short deltas over and over, and shrink to a fraction of
+ * their size, but every connection costs the CPU time of compressing every frame it's sent.
+ * <p>
+ * Compression is off unless it's switched on with {@link Compression#setDefault(Compression)},
+ * or by starting the JVM with {@code -Dreactive-paint.compression.level=L}, where L is a deflate
+ * level from 1 to 9, and optionally {@code -Dreactive-paint.compression.min-frame-bytes=N}.
+ */
+public final class Compression {
+
+    /**
+     * No compression.
+     */
+    public static final Compression OFF = new Compression();
+
+    /**
+     * The default size, in bytes including the length prefix, below which frames are sent
+     * uncompressed.
+     */
+    public static final int DEFAULT_MIN_FRAME_BYTES = 128;
+
+    private static volatile Compression defaultCompression = fromProperties();
+
+    private final int level;
+    private final int minFrameBytes;
+
+    private Compression() {
+        this.level = Deflater.NO_COMPRESSION;
+        this.minFrameBytes = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Create new settings for compressing frames.
+     *
+     * @param level the deflate level, from {@link Deflater#BEST_SPEED} to
+     *     {@link Deflater#BEST_COMPRESSION}
+     * @param minFrameBytes the size, in bytes including the length prefix, below which frames are
+     *     sent uncompressed
+     * @throws IllegalArgumentException if the level is out of range or the size is negative
+     */
+    public Compression(int level, int minFrameBytes) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level " + level);
+        }
+        if (minFrameBytes < 0) {
+            throw new IllegalArgumentException("Minimum frame size " + minFrameBytes);
+        }
+
+        this.level = level;
+        this.minFrameBytes = minFrameBytes;
+    }
+
+    /**
+     * Get the settings used by new connections.
+     *
+     * @return the settings
+     */
+    public static Compression getDefault() {
+        return defaultCompression;
+    }
+
+    /**
+     * Set the settings used by connections made from now on.
+     *
+     * @param compression the settings, or {@link Compression#OFF}
+     */
+    public static void setDefault(Compression compression) {
+        defaultCompression = compression;
+    }
+
+    /**
+     * Check whether frames are compressed at all.
+     *
+     * @return whether compression is on
+     */
+    public boolean isEnabled() {
+        return level != Deflater.NO_COMPRESSION;
+    }
+
+    /**
+     * Get the deflate level.
+     *
+     * @return the level, which is {@link Deflater#NO_COMPRESSION} if compression is off
+     */
+    public int level() {
+        return level;
+    }
+
+    /**
+     * Get the size below which frames are sent uncompressed.
+     *
+     * @return the size in bytes, including the length prefix
+     */
+    public int minFrameBytes() {
+        return minFrameBytes;
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? "level " + level + " from " + minFrameBytes + " bytes" : "off";
+    }
+
+    private static Compression fromProperties() {
+        int level = Integer.getInteger("reactive-paint.compression.level", 0);
+        if (level == 0) return OFF;
+
+        return new Compression(level, Integer.getInteger(
+                "reactive-paint.compression.min-frame-bytes", DEFAULT_MIN_FRAME_BYTES));
+    }
+}
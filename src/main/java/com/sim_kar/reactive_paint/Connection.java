@@ -0,0 +1,96 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * A connection to another instance of the application, over which {@link Shape}s are sent and
+ * received. How the connection does its I/O is decided by its {@link Transport}.
+ */
+public interface Connection {
+
+    /**
+     * Get an Observable of the shapes received over this connection. Completes when the other
+     * end closes the connection. Should only be subscribed to once.
+     *
+     * @return the Observable
+     */
+    Observable<Shape> shapes();
+
+    /**
+     * Get the handshake that the other end of this connection sent when the connection was
+     * made. For a connection accepted by a {@link Server}, it names the room the client wants to
+     * join. Fails if the connection is closed before the other end has sent its handshake.
+     *
+     * @return a Single of the handshake
+     */
+    Single<Handshake> handshake();
+
+    /**
+     * The number of frames that a connection has in flight at once when sending frames with
+     * {@link Connection#send(Flowable)}.
+     */
+    int SEND_WINDOW = 16;
+
+    /**
+     * Get a Flowable that sends the given frames over this connection, and emits them once
+     * they have been sent. No more frames are requested than the connection is ready to send.
+     * The connection is shut down if a frame can't be sent.
+     *
+     * @param frames the frames to send
+     * @return the Flowable
+     */
+    Flowable<Frame> send(Flowable<Frame> frames);
+
+    /**
+     * Get the address of the other end of this connection.
+     *
+     * @return the address
+     */
+    SocketAddress getRemoteAddress();
+
+    /**
+     * Write a shape to the other end of this connection.
+     *
+     * @param shape the shape to write
+     * @throws IOException if an I/O error occurs when writing the shape
+     */
+    default void write(Shape shape) throws IOException {
+        writeFrame(Frame.of(shape));
+    }
+
+    /**
+     * Write an already encoded frame to the other end of this connection.
+     *
+     * @param frame the frame to write
+     * @throws IOException if an I/O error occurs when writing the frame
+     */
+    void writeFrame(Frame frame) throws IOException;
+
+    /**
+     * Close this connection.
+     *
+     * @throws IOException if an I/O error occurs when closing the connection
+     */
+    void shutdown() throws IOException;
+
+    /**
+     * Check whether this connection has been shut down.
+     *
+     * @return whether the connection is shut down
+     */
+    boolean isShutdown();
+
+    /**
+     * Get the compression of the frames sent and received over this connection, if both ends
+     * asked for it in their handshakes.
+     *
+     * @return the compression, or null if frames are sent as they are
+     */
+    default FrameCompression compression() {
+        return null;
+    }
+}
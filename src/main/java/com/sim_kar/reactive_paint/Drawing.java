@@ -2,42 +2,518 @@ package com.sim_kar.reactive_paint;
 
 
 import java.awt.Graphics;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
  * <h1>Drawing</h1> 
  * Comprises a number of {@link Shape}s.
+ * <p>
+ * The shapes are kept as a series of immutable {@link Version}s, which share all but what has
+ * changed between them. Every change publishes a new version, so any thread can take a
+ * consistent {@link Drawing#snapshot()} of the drawing without locking, and read it for as long
+ * as it likes while the drawing changes. Changes must still be made by one thread at a time.
+ * Since versions are cheap to keep, the most recent ones are kept to be able to
+ * {@link Drawing#undo()} and {@link Drawing#redo()} changes.
+ * <p>
+ * The shapes are indexed by the square tiles that they cover, so that a tile can be drawn
+ * without looking at every shape. The area changed since it was last asked for is also kept
+ * track of, see {@link Drawing#takeDirtyRegion()}. Both are only meant for the thread that
+ * changes the drawing. A drawing that is never drawn to the screen, such as the board kept by a
+ * host, can leave both out.
  */
 public class Drawing implements Drawable {
-	private final List<Shape> shapes;
+	/**
+	 * The width and height of the tiles that shapes are indexed by.
+	 */
+	public static final int TILE_SIZE = 256;
+
+	/**
+	 * The default number of changes that can be undone.
+	 */
+	public static final int DEFAULT_HISTORY = 100;
+
+	// a stroke that this many shapes have been added after is considered abandoned
+	private static final int MAX_UNSETTLED = 1024;
+	private final AtomicReference<Version> current;
+	// null if the shapes aren't indexed
+	private final SpatialIndex index;
+	private final int history;
+	// the versions before the changes that can be undone, the most recent first
+	private final Deque<Version> undoable;
+	private final Deque<Version> redoable;
+	// the version before each stroke that is still being drawn began, by stroke ID
+	private final Map<Integer, Version> strokeStarts;
+	private java.awt.Rectangle dirty;
+	private long resets;
+	private long versions;
 
 	/**
-	 * Construct a new drawing.
+	 * Construct a new drawing, whose last {@link Drawing#DEFAULT_HISTORY} changes can be undone.
 	 */
 	public Drawing() {
-		this.shapes = new ArrayList<>();
+		this(DEFAULT_HISTORY);
+	}
+
+	/**
+	 * Construct a new drawing, whose last changes can be undone.
+	 *
+	 * @param history the number of changes that can be undone, which may be zero
+	 */
+	public Drawing(int history) {
+		this(history, true);
+	}
+
+	/**
+	 * Construct a new drawing, whose last changes can be undone, and which may leave out
+	 * indexing its shapes by tile and keeping track of the area that has changed. A drawing
+	 * without them still draws tiles, but has to look at every shape to do so, and never has
+	 * a dirty region.
+	 *
+	 * @param history the number of changes that can be undone, which may be zero
+	 * @param indexed whether to index the shapes and keep track of the area that has changed
+	 */
+	public Drawing(int history, boolean indexed) {
+		this.current = new AtomicReference<>(new Version(ShapeVector.EMPTY, Map.of(), 0, 0));
+		this.index = indexed ? new SpatialIndex(TILE_SIZE) : null;
+		this.history = history;
+		this.undoable = new ArrayDeque<>();
+		this.redoable = new ArrayDeque<>();
+		this.strokeStarts = new HashMap<>();
+		this.resets = 0;
+		this.versions = 0;
 	}
 
 	/**
-	 * Add a shape to the drawing.
+	 * Add a shape to the drawing. A {@link StrokeSegment} is applied to the stroke that it's a
+	 * segment of, instead of being added itself.
 	 * 
 	 * @param s the {@link Shape} to add
 	 */
 	public void addShape(Shape s) {
-		this.shapes.add(s);
+		Version version = current.get();
+
+		if (s instanceof StrokeSegment) {
+			change(settle(applySegment(version, (StrokeSegment) s)));
+			return;
+		}
+
+		saveUndoable(version);
+		change(settle(add(version, s)));
 	}
 
 	/**
-	 * Remove all {@link Shape}s from this drawing.
+	 * Get the current version of this drawing, which can be read on any thread and won't
+	 * change.
+	 *
+	 * @return the version
+	 */
+	public Version snapshot() {
+		return current.get();
+	}
+
+	/**
+	 * Get the shape at the given index, in the order the shapes were added.
+	 *
+	 * @param index the index of the shape
+	 * @return the shape
+	 */
+	public Shape get(int index) {
+		return current.get().get(index);
+	}
+
+	/**
+	 * Get the number of shapes in this drawing.
+	 *
+	 * @return the number of shapes
+	 */
+	public int size() {
+		return current.get().size();
+	}
+
+	/**
+	 * Get the number of shapes, from the first one added, that won't change anymore. These are
+	 * the shapes before the first stroke that is still being drawn, and can be drawn once and
+	 * kept, see {@link Drawing#draw(Graphics, int, int)}.
+	 *
+	 * @return the number of shapes
+	 */
+	public int settledCount() {
+		return current.get().settledCount();
+	}
+
+	/**
+	 * Get the number of times that shapes have been removed from this drawing, by clearing it
+	 * or undoing or redoing a change. Anything drawn from the settled shapes must be drawn again
+	 * when this changes.
+	 *
+	 * @return the number of times
+	 */
+	public long resets() {
+		return resets;
+	}
+
+	/**
+	 * Get the area that has changed since this method was last called, and start keeping track
+	 * of changes anew. Clearing the drawing, undoing and redoing aren't included, see
+	 * {@link Drawing#resets()}.
+	 *
+	 * @return the area, or null if nothing has changed
+	 */
+	public java.awt.Rectangle takeDirtyRegion() {
+		java.awt.Rectangle region = dirty;
+		dirty = null;
+		return region;
+	}
+
+	/**
+	 * Get the shapes of this drawing, in the order they were added. See
+	 * {@link Version#getShapes()}.
+	 *
+	 * @return a new list of the shapes
+	 */
+	public List<Shape> getShapes() {
+		return current.get().getShapes();
+	}
+
+	/**
+	 * Remove all {@link Shape}s from this drawing. Clearing can be undone.
 	 */
 	public void clear() {
-		this.shapes.clear();
+		saveUndoable(current.get());
+		change(new Version(ShapeVector.EMPTY, Map.of(), 0, ++versions));
+		this.strokeStarts.clear();
+		if (index != null) this.index.clear();
+		this.dirty = null;
+		this.resets++;
+	}
+
+	/**
+	 * Undo the most recent change that hasn't been undone, which is adding a shape, drawing a
+	 * whole stroke or clearing the drawing. Undoing a stroke also undoes the shapes that were
+	 * added while it was being drawn.
+	 *
+	 * @return whether there was a change to undo
+	 */
+	public boolean undo() {
+		Version previous = undoable.poll();
+		if (previous == null) return false;
+
+		redoable.push(current.get());
+		restore(previous);
+		return true;
+	}
+
+	/**
+	 * Redo the most recently undone change, unless the drawing has changed since then.
+	 *
+	 * @return whether there was a change to redo
+	 */
+	public boolean redo() {
+		Version next = redoable.poll();
+		if (next == null) return false;
+
+		undoable.push(current.get());
+		restore(next);
+		return true;
+	}
+
+	/**
+	 * Begin, grow or end a stroke that is still being drawn. Segments of strokes that this
+	 * drawing hasn't seen begin are ignored. A stroke isn't grown in place, but replaced by a
+	 * copy with the new points, so that versions that have it stay as they were.
+	 *
+	 * @param version the version to apply the segment to
+	 * @param segment the segment to apply
+	 * @return the version with the segment applied
+	 */
+	private Version applySegment(Version version, StrokeSegment segment) {
+		switch (segment.kind()) {
+			case BEGIN:
+				if (history > 0) strokeStarts.put(segment.strokeId(), version);
+
+				Map<Integer, Integer> begun = new HashMap<>(version.strokes);
+				begun.put(segment.strokeId(), version.size());
+				return add(version, segment.toFreehandLine()).with(begun, ++versions);
+			case APPEND:
+				Integer i = version.strokes.get(segment.strokeId());
+				if (i == null) return version;
+
+				FreehandLine line = ((FreehandLine) version.get(i)).copyToGrow();
+				// the part from the stroke's previous end to its new one has changed
+				int previousEnd = line.pointCount() - 1;
+				segment.appendTo(line);
+				changed(i, line.bounds(previousEnd));
+				return version.with(i, line, ++versions);
+			case END:
+				Integer ended = version.strokes.get(segment.strokeId());
+				if (ended == null) return version;
+
+				Version start = strokeStarts.remove(segment.strokeId());
+				if (start != null) saveUndoable(start);
+
+				Map<Integer, Integer> remaining = new HashMap<>(version.strokes);
+				remaining.remove(segment.strokeId());
+				FreehandLine finished = ((FreehandLine) version.get(ended)).trimmedCopy();
+				return version.with(ended, finished, ++versions).with(remaining, ++versions);
+			default:
+				return version;
+		}
+	}
+
+	/**
+	 * Add a shape to the end of the shapes of the given version, and to the index.
+	 *
+	 * @param version the version to add the shape to
+	 * @param s the shape to add
+	 * @return the version with the shape added
+	 */
+	private Version add(Version version, Shape s) {
+		changed(version.size(), s.bounds());
+		return new Version(version.shapes.append(s), version.strokes, version.settled,
+				++versions);
+	}
+
+	/**
+	 * Index the shape at the given index as covering the given area, which has changed, if
+	 * this drawing is indexed.
+	 *
+	 * @param i the index of the shape
+	 * @param area the area
+	 */
+	private void changed(int i, java.awt.Rectangle area) {
+		if (index == null) return;
+
+		index.add(i, area);
+
+		if (dirty == null) dirty = new java.awt.Rectangle(area);
+		else dirty.add(area);
+	}
+
+	/**
+	 * Move the settled count past every shape that is not a stroke still being drawn. A stroke
+	 * that never ends, for example because whoever drew it disconnected, is given up on once
+	 * too many shapes have been added after it, and won't grow any further.
+	 *
+	 * @param version the version to settle
+	 * @return the settled version
+	 */
+	private Version settle(Version version) {
+		ShapeVector shapes = version.shapes;
+		Map<Integer, Integer> strokes = version.strokes;
+		int settled = version.settled;
+
+		while (settled < shapes.size()) {
+			if (strokes.containsValue(settled)) {
+				if (shapes.size() - settled <= MAX_UNSETTLED) break;
+
+				strokes = new HashMap<>(strokes);
+				for (Map.Entry<Integer, Integer> stroke : strokes.entrySet()) {
+					if (stroke.getValue() != settled) continue;
+
+					strokeStarts.remove(stroke.getKey());
+					strokes.remove(stroke.getKey());
+					break;
+				}
+
+				shapes = shapes.set(settled, ((FreehandLine) shapes.get(settled)).trimmedCopy());
+			}
+
+			settled++;
+		}
+
+		if (settled == version.settled) return version;
+		return new Version(shapes, strokes, settled, ++versions);
+	}
+
+	/**
+	 * Publish a new version for a change, after which undone changes can't be redone anymore.
+	 *
+	 * @param version the new version
+	 */
+	private void change(Version version) {
+		redoable.clear();
+		current.set(version);
+	}
+
+	/**
+	 * Keep the given version, from before a change, to be able to undo the change. A change
+	 * that began before more recent ones, like a stroke that others were added during, is
+	 * undone together with them.
+	 *
+	 * @param version the version before the change
+	 */
+	private void saveUndoable(Version version) {
+		if (history == 0) return;
+
+		while (!undoable.isEmpty() && undoable.peek().number > version.number) {
+			undoable.pop();
+		}
+
+		undoable.push(version);
+		if (undoable.size() > history) undoable.removeLast();
+	}
+
+	/**
+	 * Make the given version, from before or after the current one, the current version, and
+	 * index its shapes anew.
+	 *
+	 * @param version the version
+	 */
+	private void restore(Version version) {
+		current.set(version);
+		strokeStarts.keySet().retainAll(version.strokes.keySet());
+		dirty = null;
+		resets++;
+		if (index == null) return;
+
+		index.clear();
+		for (int i = 0; i < version.size(); i++) {
+			index.add(i, version.get(i).bounds());
+		}
 	}
 
 	@Override
 	public void draw(Graphics g) {
-		shapes.forEach(s -> s.draw(g));
+		current.get().draw(g);
+	}
+
+	/**
+	 * Draw the shapes in the given range, in the order they were added.
+	 *
+	 * @param g the graphics object to draw with
+	 * @param from the index of the first shape to draw, inclusive
+	 * @param to the index of the last shape to draw, exclusive
+	 */
+	public void draw(Graphics g, int from, int to) {
+		current.get().draw(g, from, to);
+	}
+
+	/**
+	 * Draw the shapes that cover the given tile and are below the given index, in the order
+	 * they were added. Tiles are {@link Drawing#TILE_SIZE} wide and high, and the tile at
+	 * column and row zero has its top-left corner at the origin.
+	 *
+	 * @param g the graphics object to draw with
+	 * @param column the column of the tile
+	 * @param row the row of the tile
+	 * @param to the index of the last shape to draw, exclusive
+	 */
+	public void drawTile(Graphics g, int column, int row, int to) {
+		ShapeVector shapes = current.get().shapes;
+		if (index == null) {
+			// without an index, every shape might cover the tile
+			for (int i = 0; i < to; i++) shapes.get(i).draw(g);
+			return;
+		}
+
+		index.forEach(column, row, to, i -> shapes.get(i).draw(g));
+	}
+
+	/**
+	 * <h1>Version</h1>
+	 * The shapes of a {@link Drawing} as they were at one point, which never change. A version
+	 * can be read on any thread, and shares what hasn't changed with the versions before and
+	 * after it, so keeping one around costs little more than what has changed since.
+	 */
+	public static final class Version implements Drawable {
+		private final ShapeVector shapes;
+		// the index of each stroke that is still being drawn, by stroke ID
+		private final Map<Integer, Integer> strokes;
+		private final int settled;
+		// increases with every version made by the drawing
+		private final long number;
+
+		private Version(ShapeVector shapes, Map<Integer, Integer> strokes, int settled,
+				long number) {
+			this.shapes = shapes;
+			this.strokes = strokes;
+			this.settled = settled;
+			this.number = number;
+		}
+
+		/**
+		 * Get the shape at the given index, in the order the shapes were added.
+		 *
+		 * @param index the index of the shape
+		 * @return the shape
+		 */
+		public Shape get(int index) {
+			return shapes.get(index);
+		}
+
+		/**
+		 * Get the number of shapes in this version.
+		 *
+		 * @return the number of shapes
+		 */
+		public int size() {
+			return shapes.size();
+		}
+
+		/**
+		 * Get the number of shapes, from the first one added, that won't change anymore. See
+		 * {@link Drawing#settledCount()}.
+		 *
+		 * @return the number of shapes
+		 */
+		public int settledCount() {
+			return settled;
+		}
+
+		/**
+		 * Get the shapes of this version, in the order they were added. A stroke that is still
+		 * being drawn is given as a {@link StrokeSegment} that begins it with all of its points
+		 * so far, so that segments still to come can be applied to a drawing made from the
+		 * shapes.
+		 *
+		 * @return a new list of the shapes
+		 */
+		public List<Shape> getShapes() {
+			List<Shape> result = new ArrayList<>(shapes.size());
+			shapes.forEach(0, shapes.size(), result::add);
+
+			strokes.forEach((strokeId, i) -> {
+				result.set(i, StrokeSegment.begin(strokeId, (FreehandLine) shapes.get(i)));
+			});
+
+			return result;
+		}
+
+		@Override
+		public void draw(Graphics g) {
+			draw(g, 0, shapes.size());
+		}
+
+		/**
+		 * Draw the shapes in the given range, in the order they were added.
+		 *
+		 * @param g the graphics object to draw with
+		 * @param from the index of the first shape to draw, inclusive
+		 * @param to the index of the last shape to draw, exclusive
+		 */
+		public void draw(Graphics g, int from, int to) {
+			shapes.forEach(from, to, shape -> shape.draw(g));
+		}
+
+		/**
+		 * Get a version like this one, with the shape at the given index replaced.
+		 */
+		private Version with(int index, Shape shape, long number) {
+			return new Version(shapes.set(index, shape), strokes, settled, number);
+		}
+
+		/**
+		 * Get a version like this one, with the given strokes still being drawn.
+		 */
+		private Version with(Map<Integer, Integer> strokes, long number) {
+			return new Version(shapes, strokes, settled, number);
+		}
 	}
 }
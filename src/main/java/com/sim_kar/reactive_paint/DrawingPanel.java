@@ -1,30 +1,56 @@
 package com.sim_kar.reactive_paint;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import javax.swing.*;
 
 /**
  * <h1>DrawingPanel</h1>
  * A Canvas-object for displaying all graphics already drawn.
+ * <p>
+ * The panel is split into tiles of {@link Drawing#TILE_SIZE} pixels, each with an off-screen
+ * image of the shapes on it that won't change anymore. A new shape is only drawn onto the tiles
+ * it covers, and only its area of the panel is repainted. Strokes that are still being drawn are
+ * drawn on top of the tiles each time. A tile is drawn from scratch the first time it's painted
+ * after the drawing has been cleared or replaced.
  */
 
 @SuppressWarnings("serial")
 public class DrawingPanel extends JPanel {
 
+	private static final int TILE = Drawing.TILE_SIZE;
 	private Drawing drawing;
+	// indexed by row and column, with null for tiles that haven't been drawn
+	private BufferedImage[][] tiles;
+	private int composited;
+	private long tileResets;
+	private Runnable afterPaint;
+	// only written on the Event Dispatch Thread, but read by metrics
+	private volatile long paints;
+	private volatile long paintNanos;
+	private volatile long maxPaintNanos;
 
 	/**
 	 * Constructs a new DrawingPanel.
 	 */
 	public DrawingPanel() {
 		drawing = new Drawing();
+		tiles = new BufferedImage[0][0];
+		afterPaint = () -> {};
 	}
 
 	/**
-	 * Redraw this DrawingPanel. Will redraw the set {@link Drawing}.
+	 * Redraw this DrawingPanel. Will redraw the part of the set {@link Drawing} that has changed
+	 * since it was last redrawn.
 	 */
 	public void redraw() {
-		repaint();
+		java.awt.Rectangle dirty = drawing.takeDirtyRegion();
+
+		if (tileResets != drawing.resets()) {
+			repaint();
+		} else if (dirty != null) {
+			repaint(dirty);
+		}
 	}
 
 	/**
@@ -34,6 +60,7 @@ public class DrawingPanel extends JPanel {
 	 */
 	public void setDrawing(Drawing d) {
 		drawing = d;
+		tiles = new BufferedImage[0][0];
 		repaint();
 	}
 
@@ -46,11 +73,158 @@ public class DrawingPanel extends JPanel {
 		return drawing;
 	}
 
+	/**
+	 * Set an action to run every time this panel has been painted, on Swing's Event Dispatch
+	 * Thread.
+	 *
+	 * @param action the action, which replaces any action set before
+	 */
+	public void setAfterPaint(Runnable action) {
+		afterPaint = action;
+	}
+
+	/**
+	 * Get the number of times this panel has been painted.
+	 *
+	 * @return the number of paints
+	 */
+	public long getPaints() {
+		return paints;
+	}
+
+	/**
+	 * Get the total time spent painting this panel, on the Event Dispatch Thread.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getPaintNanos() {
+		return paintNanos;
+	}
+
+	/**
+	 * Get the longest time spent painting this panel once.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getMaxPaintNanos() {
+		return maxPaintNanos;
+	}
+
 	@Override
 	protected void paintComponent(Graphics g) {
+		long start = System.nanoTime();
 
 		super.paintComponent(g);
-		drawing.draw(g);
+
+		if (getWidth() <= 0 || getHeight() <= 0) return;
+
+		updateTiles();
+
+		java.awt.Rectangle clip = g.getClipBounds();
+		if (clip == null) clip = new java.awt.Rectangle(0, 0, getWidth(), getHeight());
+
+		int lastRow = Math.min(tiles.length, (clip.y + clip.height - 1) / TILE + 1);
+		int lastColumn = Math.min(tiles[0].length, (clip.x + clip.width - 1) / TILE + 1);
+
+		for (int row = Math.max(0, clip.y / TILE); row < lastRow; row++) {
+			for (int column = Math.max(0, clip.x / TILE); column < lastColumn; column++) {
+				if (tiles[row][column] == null) tiles[row][column] = drawTile(column, row);
+				g.drawImage(tiles[row][column], column * TILE, row * TILE, null);
+			}
+		}
+
+		for (int i = composited; i < drawing.size(); i++) {
+			Shape s = drawing.get(i);
+			if (s.bounds().intersects(clip)) s.draw(g);
+		}
+
+		long elapsed = System.nanoTime() - start;
+		paints++;
+		paintNanos += elapsed;
+		maxPaintNanos = Math.max(maxPaintNanos, elapsed);
+
+		afterPaint.run();
+	}
+
+	/**
+	 * Make sure there is a tile for every part of the panel, and draw the shapes that have
+	 * settled since the last paint onto the tiles they cover. Tiles that haven't been drawn yet
+	 * are left for {@link DrawingPanel#drawTile(int, int)}.
+	 */
+	private void updateTiles() {
+		int rows = (getHeight() + TILE - 1) / TILE;
+		int columns = (getWidth() + TILE - 1) / TILE;
+
+		if (tileResets != drawing.resets()) {
+			tiles = new BufferedImage[0][0];
+			composited = 0;
+			tileResets = drawing.resets();
+		}
+
+		if (tiles.length != rows || tiles[0].length != columns) {
+			// a resize only adds or removes tiles, the others stay where they are
+			BufferedImage[][] resized = new BufferedImage[rows][columns];
+			for (int row = 0; row < Math.min(rows, tiles.length); row++) {
+				System.arraycopy(tiles[row], 0, resized[row], 0,
+						Math.min(columns, tiles[row].length));
+			}
+
+			if (tiles.length == 0) composited = drawing.settledCount();
+			tiles = resized;
+		}
+
+		int settled = drawing.settledCount();
+		for (; composited < settled; composited++) {
+			Shape s = drawing.get(composited);
+			java.awt.Rectangle area = s.bounds();
+
+			int lastRow = Math.min(rows, (area.y + area.height - 1) / TILE + 1);
+			int lastColumn = Math.min(columns, (area.x + area.width - 1) / TILE + 1);
+
+			for (int row = Math.max(0, area.y / TILE); row < lastRow; row++) {
+				for (int column = Math.max(0, area.x / TILE); column < lastColumn; column++) {
+					BufferedImage tile = tiles[row][column];
+					if (tile == null) continue;
+
+					Graphics2D g2 = tile.createGraphics();
+					g2.translate(-column * TILE, -row * TILE);
+					s.draw(g2);
+					g2.dispose();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draw the settled shapes that cover the given tile onto a new image.
+	 *
+	 * @param column the column of the tile
+	 * @param row the row of the tile
+	 * @return the image
+	 */
+	private BufferedImage drawTile(int column, int row) {
+		BufferedImage tile = createTileImage();
+		Graphics2D g2 = tile.createGraphics();
+		g2.translate(-column * TILE, -row * TILE);
+		drawing.drawTile(g2, column, row, composited);
+		g2.dispose();
+		return tile;
+	}
+
+	/**
+	 * Create a transparent image that is quick to copy to the screen this panel is on.
+	 *
+	 * @return the image
+	 */
+	private BufferedImage createTileImage() {
+		GraphicsConfiguration config = getGraphicsConfiguration();
+
+		if (config == null) {
+			// not on a screen yet, or headless
+			return new BufferedImage(TILE, TILE, BufferedImage.TYPE_INT_ARGB_PRE);
+		}
+
+		return config.createCompatibleImage(TILE, TILE, Transparency.TRANSLUCENT);
 	}
 
 }
@@ -0,0 +1,88 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <h1>ExportStart</h1>
+ * Exports a board kept in a {@link BoardStore} as a PNG or SVG image, without a user interface,
+ * for example to print the board of a host that runs on a server. The image covers every shape
+ * on the board and the origin, and is written as SVG if the file's name ends with .svg. For
+ * example, a print of the default room of a host that keeps its boards below {@code data}:
+ * <pre>
+ * java -cp reactive-paint.jar com.sim_kar.reactive_paint.ExportStart --data data/5000 \
+ *     --scale 8 board.png
+ * </pre>
+ * The arguments are:
+ * <pre>
+ * ExportStart --data DIR [--room NAME] [--scale S] [--background #RRGGBB|none] FILE
+ * </pre>
+ */
+public class ExportStart {
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        Path data = null;
+        String room = HostSession.DEFAULT_ROOM;
+        double scale = 1;
+        Color background = Color.WHITE;
+        Path file = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--data") && i + 1 < args.length) {
+                    data = Path.of(args[++i]);
+                } else if (args[i].equals("--room") && i + 1 < args.length) {
+                    room = args[++i];
+                } else if (args[i].equals("--scale") && i + 1 < args.length) {
+                    scale = Double.parseDouble(args[++i]);
+                    if (!(scale > 0)) throw new IllegalArgumentException("Scale " + scale);
+                } else if (args[i].equals("--background") && i + 1 < args.length) {
+                    String color = args[++i];
+                    background = color.equals("none") ? null : Color.decode(color);
+                } else if (file == null) {
+                    file = Path.of(args[i]);
+                } else {
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+                }
+            }
+
+            if (data == null || file == null) throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Usage: ExportStart --data DIR [--room NAME] [--scale S] "
+                    + "[--background #RRGGBB|none] FILE");
+            System.exit(2);
+        }
+
+        try {
+            List<Shape> board = new BoardStore(data).load(room);
+            BoardExport export = new BoardExport(board);
+            java.awt.Rectangle area = export.bounds();
+
+            long start = System.nanoTime();
+            if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".svg")) {
+                try (Writer out = Files.newBufferedWriter(file)) {
+                    export.writeSvg(out, area, scale, background);
+                }
+            } else {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                    export.writePng(out, area, scale, background);
+                }
+            }
+
+            System.out.printf(Locale.ROOT, "Exported %d shapes to %s in %.1f s%n",
+                    export.size(), file, (System.nanoTime() - start) / 1e9);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Unable to export the board: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.disposables.SerialDisposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import io.reactivex.rxjava3.subjects.UnicastSubject;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Federation</h1>
+ * Links a {@link Room} to the same room on other hosts, so that one board can be shared by more
+ * clients than a single host can fan out to. Each host serves its own clients, and forwards
+ * every shape in the room to the hosts it's linked to, which forward it on to theirs. Hosts can
+ * be linked in any way, for example as a tree of relays below one host, over ordinary
+ * {@link Connection}s that have been made with {@link Handshake#link(String)}.
+ * <p>
+ * Shapes are forwarded as {@link Relayed} shapes, with an ID that is unique among all hosts: the
+ * high 32 bits are chosen at random for the room on each host, and the low 32 count the shapes it
+ * has given IDs. A shape is never sent back over the link it came from, and a host drops shapes
+ * with IDs it has seen recently, so a shape is only added to each board once even if the links
+ * form a cycle.
+ * <p>
+ * Shapes are forwarded in the order they are appended to the room's {@link FrameLog}. When a link
+ * is made, each side first sends the other its board, with new IDs, followed by every shape
+ * appended after it. A link that is lost isn't made again, and a shape that was on the boards on
+ * both sides before they were linked ends up on both boards twice.
+ */
+final class Federation {
+
+    // a shape reaches every host long before this many others have
+    private static final int RECENT_IDS = 1 << 16;
+    private static final long ORIGIN_MASK = 0xFFFFFFFF00000000L;
+    // the strokes being drawn on every other host at once
+    private static final int MAX_OPEN_STROKES = 4096;
+
+    private final FrameLog frameLog;
+    private final Broadcaster broadcaster;
+    private final long origin;
+    private final AtomicInteger nextId;
+    private final Map<Long, Boolean> recentIds;
+    private final Map<Shape, Hop> fromLinks;
+    private final StrokeIds.Sender linkStrokes;
+    private final Subject<Hop> hops;
+    private final AtomicLong shapesRelayed;
+    private final AtomicLong duplicatesDropped;
+
+    /**
+     * Create a new federation of the room with the given log.
+     *
+     * @param frameLog the log of the room
+     * @param strokeIds the IDs of the strokes being drawn in the room
+     */
+    Federation(FrameLog frameLog, StrokeIds strokeIds) {
+        this.frameLog = frameLog;
+        this.broadcaster = new Broadcaster();
+        this.origin = (long) ThreadLocalRandom.current().nextInt() << 32;
+        this.nextId = new AtomicInteger();
+        this.recentIds = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > RECENT_IDS;
+            }
+        };
+        this.fromLinks = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.linkStrokes = strokeIds.sender(MAX_OPEN_STROKES);
+        // only ever emitted to while holding the lock of the frame log
+        this.hops = PublishSubject.create();
+        this.shapesRelayed = new AtomicLong();
+        this.duplicatesDropped = new AtomicLong();
+    }
+
+    /**
+     * Start giving IDs to the shapes appended to the room's log, unless they came from a link
+     * and already have one, and forwarding them to the links.
+     *
+     * @return a Disposable that stops forwarding shapes when disposed
+     */
+    Disposable run() {
+        return frameLog.live().subscribe(frame -> {
+            if (!hops.hasObservers()) {
+                // no link is left to forward the shapes from links to
+                if (!fromLinks.isEmpty()) fromLinks.clear();
+                return;
+            }
+
+            for (Shape shape : frame.shapes()) {
+                Hop hop = fromLinks.remove(shape);
+                hops.onNext(hop != null ? hop : new Hop(stamp(shape), null));
+            }
+        });
+    }
+
+    /**
+     * Get an Observable of the shapes received over the given link that haven't been seen
+     * before, without their IDs. The shapes must be appended to the room's log, to be forwarded
+     * to the other links. Segments of strokes are given the room's IDs of their strokes, and
+     * can only continue strokes that were begun on the same host, whichever link the segments
+     * came over.
+     *
+     * @param link the link
+     * @return the Observable
+     */
+    Observable<Shape> receive(Connection link) {
+        return link.shapes()
+                .ofType(Relayed.class)
+                .filter(relayed -> {
+                    if (isNew(relayed.id())) return true;
+
+                    duplicatesDropped.incrementAndGet();
+                    return false;
+                })
+                .mapOptional(this::rewrite)
+                .map(relayed -> {
+                    shapesRelayed.incrementAndGet();
+                    fromLinks.put(relayed.shape(), new Hop(relayed, link));
+                    return relayed.shape();
+                });
+    }
+
+    /**
+     * Get a Flowable of the frames to send over the given link: the board of the room, followed
+     * by every shape appended to the room's log after it, except those that came from the link.
+     *
+     * @param link the link
+     * @return the Flowable
+     */
+    Flowable<Frame> send(Connection link) {
+        return Flowable.defer(() -> {
+            UnicastSubject<Hop> appended = UnicastSubject.create();
+            SerialDisposable following = new SerialDisposable();
+            List<Shape> board = frameLog.getShapes(
+                    () -> following.set(hops.subscribe(appended::onNext)));
+
+            Observable<Shape> shapes = Observable.concat(
+                    Observable.fromIterable(board).map(this::stamp),
+                    appended.filter(hop -> hop.from != link).map(hop -> hop.shape)
+            );
+
+            return broadcaster.frames(shapes)
+                    .toFlowable(BackpressureStrategy.BUFFER)
+                    .doFinally(following::dispose);
+        });
+    }
+
+    /**
+     * Get the number of shapes received over links that hadn't been seen before.
+     *
+     * @return the number of shapes
+     */
+    long getShapesRelayed() {
+        return shapesRelayed.get();
+    }
+
+    /**
+     * Get the number of shapes received over links that had already been seen, and were
+     * dropped.
+     *
+     * @return the number of shapes
+     */
+    long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+
+    /**
+     * Give a shape that originates on this host a new ID. A shape that already has one is given
+     * a new one instead, since a relayed shape can't be relayed twice over.
+     *
+     * @param shape the shape
+     * @return the shape with its ID
+     */
+    private Relayed stamp(Shape shape) {
+        if (shape instanceof Relayed) shape = ((Relayed) shape).shape();
+        return new Relayed(origin | (nextId.getAndIncrement() & 0xFFFFFFFFL), shape);
+    }
+
+    /**
+     * Give a segment of a stroke received over a link the room's ID of the stroke. Strokes are
+     * told apart by the host they were drawn on as well as their IDs, since the IDs are only
+     * unique on one host.
+     *
+     * @param relayed the received shape
+     * @return the shape with the room's ID, or nothing if it can't be applied
+     */
+    private Optional<Relayed> rewrite(Relayed relayed) {
+        if (!(relayed.shape() instanceof StrokeSegment)) return Optional.of(relayed);
+
+        StrokeSegment segment = (StrokeSegment) relayed.shape();
+        long key = (relayed.id() & ORIGIN_MASK) | (segment.strokeId() & 0xFFFFFFFFL);
+        return linkStrokes.rewrite(key, segment)
+                .map(rewritten -> new Relayed(relayed.id(), rewritten));
+    }
+
+    /**
+     * Check whether a shape with the given ID hasn't been seen before, and remember that it has
+     * now.
+     *
+     * @param id the ID of the shape
+     * @return whether the shape is new
+     */
+    private boolean isNew(long id) {
+        // a shape of our own that has come back around a cycle of links
+        if ((id & ORIGIN_MASK) == origin) return false;
+
+        synchronized (recentIds) {
+            return recentIds.put(id, Boolean.TRUE) == null;
+        }
+    }
+
+    /**
+     * A shape on its way through this host, with the link it came from.
+     */
+    private static final class Hop {
+        private final Relayed shape;
+        private final Connection from;
+
+        private Hop(Relayed shape, Connection from) {
+            this.shape = shape;
+            this.from = from;
+        }
+    }
+}
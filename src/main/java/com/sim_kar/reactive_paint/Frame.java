@@ -0,0 +1,213 @@
+package com.sim_kar.reactive_paint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One or more {@link Shape}s encoded by {@link ShapeCodec} as a single, length-prefixed frame.
+ * A frame can't be changed once created, so the same frame can be written to any number of
+ * connections without encoding its shapes again.
+ * <p>
+ * A host numbers the frames it broadcasts, see {@link FrameLog}. Since frames can be coalesced
+ * into one, a frame covers a range of sequence numbers.
+ * <p>
+ * A frame also keeps the shapes it was encoded from, so that the host can apply them to its
+ * board without decoding them again.
+ */
+public final class Frame {
+
+    private static final long UNSEQUENCED = -1;
+    private final byte[] bytes;
+    private final List<Shape> shapes;
+    private final long firstSequence;
+    private final long lastSequence;
+    private final boolean compressed;
+
+    private Frame(byte[] bytes, List<Shape> shapes, long firstSequence, long lastSequence) {
+        this(bytes, shapes, firstSequence, lastSequence, false);
+    }
+
+    private Frame(byte[] bytes, List<Shape> shapes, long firstSequence, long lastSequence,
+                  boolean compressed) {
+        this.bytes = bytes;
+        this.shapes = shapes;
+        this.firstSequence = firstSequence;
+        this.lastSequence = lastSequence;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Encode a single shape as a frame.
+     *
+     * @param shape the shape to encode
+     * @return the frame
+     */
+    public static Frame of(Shape shape) {
+        return new Frame(ShapeCodec.encodeFrame(shape), List.of(shape), UNSEQUENCED, UNSEQUENCED);
+    }
+
+    /**
+     * Encode the given shapes as a single frame.
+     *
+     * @param shapes the shapes to encode
+     * @return the frame
+     */
+    public static Frame of(List<? extends Shape> shapes) {
+        return new Frame(ShapeCodec.encodeFrame(shapes), List.copyOf(shapes),
+                UNSEQUENCED, UNSEQUENCED);
+    }
+
+    /**
+     * Encode the given shapes as a compressed snapshot of a board, which covers every frame up
+     * to and including the given sequence number. The snapshot starts with a
+     * {@link Checkpoint} of the board.
+     *
+     * @param shapes the shapes on the board
+     * @param log the ID of the log that the frames were appended to
+     * @param lastSequence the sequence number of the last frame applied to the board
+     * @return the frame
+     */
+    static Frame snapshot(List<? extends Shape> shapes, long log, long lastSequence) {
+        Checkpoint checkpoint = Checkpoint.board(log, lastSequence, shapes.size());
+        return new Frame(ShapeCodec.encodeSnapshot(checkpoint, shapes), List.copyOf(shapes),
+                0, lastSequence, true);
+    }
+
+    /**
+     * Encode a {@link Checkpoint} that the frame after the given sequence number follows. The
+     * frame doesn't cover any frames of its own, but has the given sequence number as if it
+     * were the frame before the ones that follow.
+     *
+     * @param log the ID of the log that the frames were appended to
+     * @param sequence the sequence number of the frame before those that follow
+     * @return the frame
+     */
+    static Frame checkpoint(long log, long sequence) {
+        Checkpoint checkpoint = Checkpoint.resume(log, sequence);
+        return new Frame(ShapeCodec.encodeFrame(checkpoint), List.of(checkpoint),
+                sequence, sequence);
+    }
+
+    /**
+     * Encode the given shapes as an uncompressed frame of a board, which covers every frame up
+     * to and including the given sequence number. It's larger than a
+     * {@link Frame#snapshot(List, long, long) snapshot}, but quicker to decode.
+     *
+     * @param shapes the shapes on the board
+     * @param lastSequence the sequence number of the last frame applied to the board
+     * @return the frame
+     */
+    static Frame board(List<? extends Shape> shapes, long lastSequence) {
+        return new Frame(ShapeCodec.encodeFrame(shapes), List.copyOf(shapes), 0, lastSequence);
+    }
+
+    /**
+     * Coalesce two frames into one, which is written as a single write. The second frame must
+     * directly follow the first.
+     *
+     * @param first the first frame
+     * @param second the frame following the first
+     * @return the coalesced frame
+     */
+    public static Frame concat(Frame first, Frame second) {
+        byte[] bytes = Arrays.copyOf(first.bytes, first.bytes.length + second.bytes.length);
+        System.arraycopy(second.bytes, 0, bytes, first.bytes.length, second.bytes.length);
+
+        List<Shape> shapes = new ArrayList<>(first.shapes);
+        shapes.addAll(second.shapes);
+
+        return new Frame(bytes, shapes, first.firstSequence, second.lastSequence,
+                first.compressed || second.compressed);
+    }
+
+    /**
+     * Get a copy of this frame with the given sequence number. The bytes of the frame are shared
+     * with the copy.
+     *
+     * @param sequence the sequence number
+     * @return the copy
+     */
+    Frame withSequence(long sequence) {
+        return new Frame(bytes, shapes, sequence, sequence, compressed);
+    }
+
+    /**
+     * Get the sequence number of the first frame in this frame, or -1 if it isn't numbered.
+     *
+     * @return the sequence number
+     */
+    public long firstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * Get the sequence number of the last frame in this frame, or -1 if it isn't numbered. This
+     * is the same as {@link Frame#firstSequence()} unless frames have been coalesced.
+     *
+     * @return the sequence number
+     */
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Get the number of bytes in this frame, including its length prefix.
+     *
+     * @return the number of bytes
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Get the number of shapes encoded in this frame.
+     *
+     * @return the number of shapes
+     */
+    public int shapeCount() {
+        return shapes.size();
+    }
+
+    /**
+     * Get the shapes encoded in this frame.
+     *
+     * @return the shapes, which must not be modified
+     */
+    List<Shape> shapes() {
+        return shapes;
+    }
+
+    /**
+     * Check whether this frame holds a compressed snapshot, which isn't worth compressing
+     * again, see {@link FrameCompression}.
+     *
+     * @return whether the frame is compressed
+     */
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Write this frame to the given stream.
+     *
+     * @param output the stream to write to
+     * @throws IOException if an I/O error occurs when writing
+     */
+    void writeTo(OutputStream output) throws IOException {
+        output.write(bytes);
+    }
+
+    /**
+     * Get a read-only buffer of this frame's bytes. Every call returns a new buffer with its own
+     * position, but the bytes themselves are shared.
+     *
+     * @return the buffer
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+}
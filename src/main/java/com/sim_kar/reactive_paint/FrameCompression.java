@@ -0,0 +1,235 @@
+package com.sim_kar.reactive_paint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression of the frames sent and received over one connection, whose ends have both
+ * asked for it, see {@link Compression}. Frames are compressed as they're written, so the same
+ * {@link Frame} can still be shared by every connection, and compressing costs every connection
+ * the time it takes. A compressed frame is sent as a frame with a single compressed record,
+ * which holds the bytes of one or more frames, see {@link ShapeCodec}.
+ * <p>
+ * Keeps count of how much the frames sent over the connection were compressed, and how long it
+ * took to compress and decompress them, so that the bandwidth saved can be weighed against the
+ * CPU time spent.
+ */
+public final class FrameCompression {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final int minFrameBytes;
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private final byte[] chunk;
+    private final byte[] flushed;
+    private final ByteArrayOutputStream compressed;
+    private final ByteArrayOutputStream header;
+    private final LongAdder framesCompressed;
+    private final LongAdder bytesBefore;
+    private final LongAdder bytesAfter;
+    private final LongAdder compressNanos;
+    private final LongAdder decompressNanos;
+    private volatile boolean ended;
+
+    /**
+     * Create the compression of a connection, which compresses the frames it sends with the
+     * given settings.
+     *
+     * @param compression the settings, which must be enabled
+     */
+    FrameCompression(Compression compression) {
+        this.minFrameBytes = compression.minFrameBytes();
+        this.deflater = new Deflater(compression.level());
+        this.inflater = new Inflater();
+        this.chunk = new byte[CHUNK_SIZE];
+        this.flushed = new byte[16];
+        this.compressed = new ByteArrayOutputStream(CHUNK_SIZE);
+        this.header = new ByteArrayOutputStream(16);
+        this.framesCompressed = new LongAdder();
+        this.bytesBefore = new LongAdder();
+        this.bytesAfter = new LongAdder();
+        this.compressNanos = new LongAdder();
+        this.decompressNanos = new LongAdder();
+    }
+
+    /**
+     * Write the given frame to the given stream, compressed unless it's too small or already
+     * holds a compressed snapshot.
+     *
+     * @param frame the frame
+     * @param output the stream to write it to
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs when writing, or the compression has ended
+     */
+    int write(Frame frame, OutputStream output) throws IOException {
+        if (frame.length() < minFrameBytes || frame.isCompressed()) {
+            frame.writeTo(output);
+            return frame.length();
+        }
+
+        synchronized (deflater) {
+            if (ended) throw new SocketException("Connection closed");
+
+            long start = System.nanoTime();
+            compressed.reset();
+            deflater.setInput(frame.asByteBuffer());
+
+            // with a sync flush, the output is complete once it no longer fills the chunk
+            int length;
+            do {
+                length = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                compressed.write(chunk, 0, length);
+            } while (length == chunk.length);
+
+            header.reset();
+            ShapeCodec.writeVarInt(header, 1 + varIntLength(frame.length()) + compressed.size());
+            header.write(ShapeCodec.COMPRESSED);
+            ShapeCodec.writeVarInt(header, frame.length());
+            compressNanos.add(System.nanoTime() - start);
+
+            header.writeTo(output);
+            compressed.writeTo(output);
+
+            int written = header.size() + compressed.size();
+            framesCompressed.increment();
+            bytesBefore.add(frame.length());
+            bytesAfter.add(written);
+            return written;
+        }
+    }
+
+    /**
+     * Decompress the payload of a frame with a compressed record.
+     *
+     * @param payload the payload, without its length prefix
+     * @return the bytes of the frames that were compressed, each with its length prefix
+     * @throws ProtocolException if the payload is malformed, or declares more bytes than it
+     *     could inflate to
+     * @throws IOException if the compression has ended
+     */
+    byte[] decompress(byte[] payload) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload, 1, payload.length - 1);
+
+        synchronized (inflater) {
+            if (ended) throw new SocketException("Connection closed");
+
+            long start = System.nanoTime();
+            try {
+                // the declared length is checked before it's allocated, it comes from the peer
+                int declared = ShapeCodec.readVarInt(in);
+                byte[] frames = new byte[ShapeCodec.checkInflatedLength(declared, in.remaining())];
+                inflater.setInput(in);
+
+                int length = 0;
+                while (length < frames.length) {
+                    int inflated = inflater.inflate(frames, length, frames.length - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.finished())) break;
+                    length += inflated;
+                }
+
+                if (length < frames.length) throw new ProtocolException("Truncated frames");
+
+                // the flush at the end of the record holds no data, but must still be inflated
+                while (inflater.getRemaining() > 0) {
+                    int remaining = inflater.getRemaining();
+                    if (inflater.inflate(flushed) > 0) {
+                        throw new ProtocolException("Compressed record too long");
+                    }
+                    if (inflater.getRemaining() == remaining) break;
+                }
+
+                return frames;
+            } catch (BufferUnderflowException e) {
+                throw new ProtocolException("Truncated compressed record");
+            } catch (DataFormatException e) {
+                throw new ProtocolException("Malformed compressed frames: " + e.getMessage());
+            } finally {
+                decompressNanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Check whether the payload of a frame is a compressed record.
+     *
+     * @param payload the payload, without its length prefix
+     * @return whether it's compressed
+     */
+    static boolean isCompressed(byte[] payload) {
+        return payload.length > 0 && payload[0] == ShapeCodec.COMPRESSED;
+    }
+
+    /**
+     * Free the memory used for compression, once the connection is closed.
+     */
+    void end() {
+        synchronized (deflater) {
+            ended = true;
+            deflater.end();
+        }
+        synchronized (inflater) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Get the number of frames that were sent compressed.
+     *
+     * @return the number of frames
+     */
+    public long framesCompressed() {
+        return framesCompressed.sum();
+    }
+
+    /**
+     * Get how many times smaller the frames that were sent compressed became.
+     *
+     * @return the size of the frames divided by the bytes that were sent instead, or 1 if no
+     *     frames have been compressed
+     */
+    public double ratio() {
+        long after = bytesAfter.sum();
+        return after == 0 ? 1 : (double) bytesBefore.sum() / after;
+    }
+
+    /**
+     * Get the number of bytes that compression has saved.
+     *
+     * @return the number of bytes
+     */
+    public long bytesSaved() {
+        return bytesBefore.sum() - bytesAfter.sum();
+    }
+
+    /**
+     * Get the time spent compressing the frames that were sent.
+     *
+     * @return the time in nanoseconds
+     */
+    public long compressNanos() {
+        return compressNanos.sum();
+    }
+
+    /**
+     * Get the time spent decompressing the frames that were received.
+     *
+     * @return the time in nanoseconds
+     */
+    public long decompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    private static int varIntLength(int value) {
+        return (32 - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+}
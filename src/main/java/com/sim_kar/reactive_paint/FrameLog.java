@@ -0,0 +1,259 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.processors.FlowableProcessor;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The frames broadcast by a host, in order. Every appended frame is given the next sequence
+ * number, starting at zero, so that a client that has fallen behind or just connected can be
+ * sent exactly the frames it's missing.
+ * <p>
+ * Only the most recent frames are kept. Instead of the whole history, the log keeps the board
+ * that the frames add up to, with finished strokes compacted into single shapes. A client that
+ * has just connected is sent a snapshot of the board, so the memory used by the log depends on
+ * what is on the board rather than on how long the session has been going.
+ * <p>
+ * A log has a random ID, which tells its sequence numbers apart from those of other logs, such as
+ * the log of the same room before its host was restarted. A client that loses its connection can
+ * resume from where it left off, see {@link FrameLog#resumeAfter(long, long)}, as long as the log
+ * still has the frames it missed.
+ * <p>
+ * Getting the shapes on the board only holds up appending for as long as it takes to take a
+ * {@link Drawing#snapshot()} of it, and the shapes are listed and encoded after that.
+ */
+public class FrameLog {
+
+    /**
+     * The default number of recent frames kept by a log.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final long id;
+    private final Frame[] recent;
+    private final Drawing board;
+    private final FlowableProcessor<Frame> live;
+    private long head;
+    private Frame snapshot;
+
+    /**
+     * Create a new, empty log.
+     */
+    public FrameLog() {
+        this(List.of(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new log whose board starts with the given shapes. If there are any, they are the
+     * first frame of the log, so that clients that connect before anything else is appended are
+     * sent them as well.
+     *
+     * @param initialShapes the shapes already on the board
+     * @param capacity the number of recent frames to keep
+     */
+    public FrameLog(List<? extends Shape> initialShapes, int capacity) {
+        this.id = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        this.recent = new Frame[capacity];
+        this.board = new Drawing(0, false);
+        this.live = PublishProcessor.create();
+        this.head = 0;
+
+        if (!initialShapes.isEmpty()) append(Frame.of(initialShapes));
+    }
+
+    /**
+     * Append a frame to the log, apply its shapes to the board, and emit it to subscribers of
+     * {@link FrameLog#live()}.
+     *
+     * @param frame the frame to append
+     * @return the appended frame, with its sequence number
+     */
+    public synchronized Frame append(Frame frame) {
+        Frame sequenced = frame.withSequence(head);
+        recent[(int) (head % recent.length)] = sequenced;
+        head++;
+
+        frame.shapes().forEach(board::addShape);
+        snapshot = null;
+
+        // emit while holding the lock, so that frames are always emitted in order
+        live.onNext(sequenced);
+        return sequenced;
+    }
+
+    /**
+     * Get the ID of this log, which is always positive.
+     *
+     * @return the ID
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * Get the sequence number that the next appended frame will have.
+     *
+     * @return the sequence number
+     */
+    public synchronized long head() {
+        return head;
+    }
+
+    /**
+     * Get the sequence number of the oldest frame still kept by the log.
+     *
+     * @return the sequence number
+     */
+    public synchronized long tail() {
+        return Math.max(0, head - recent.length);
+    }
+
+    /**
+     * Get the frames with sequence numbers in the given range.
+     *
+     * @param from the first sequence number, inclusive
+     * @param to the last sequence number, exclusive
+     * @return the frames, which is empty if the range is
+     * @throws IllegalStateException if frames in the range are no longer kept
+     */
+    public synchronized List<Frame> range(long from, long to) {
+        to = Math.min(to, head);
+        if (from >= to) return List.of();
+
+        if (from < tail()) {
+            throw new IllegalStateException("Frames before " + tail() + " are no longer kept");
+        }
+
+        List<Frame> frames = new ArrayList<>((int) (to - from));
+        for (long sequence = from; sequence < to; sequence++) {
+            frames.add(recent[(int) (sequence % recent.length)]);
+        }
+
+        return frames;
+    }
+
+    /**
+     * Get the shapes on the board, which has had every frame appended so far applied to it.
+     *
+     * @return a new list of the shapes
+     */
+    public List<Shape> getShapes() {
+        return board.snapshot().getShapes();
+    }
+
+    /**
+     * Get the shapes on the board, and run the given action before another frame can be
+     * appended. Frames are emitted to subscribers of {@link FrameLog#live()} while appending
+     * them, so the action can start following the log from exactly where the board leaves off.
+     *
+     * @param beforeNextFrame the action, which must not block
+     * @return a new list of the shapes
+     */
+    public List<Shape> getShapes(Runnable beforeNextFrame) {
+        Drawing.Version shapes;
+        synchronized (this) {
+            shapes = board.snapshot();
+            beforeNextFrame.run();
+        }
+
+        return shapes.getShapes();
+    }
+
+    /**
+     * Get a compressed snapshot of the board, which covers every frame appended so far. The
+     * snapshot is only encoded again once another frame has been appended.
+     *
+     * @return the snapshot
+     */
+    public Frame snapshot() {
+        Drawing.Version shapes;
+        long last;
+        synchronized (this) {
+            if (snapshot != null) return snapshot;
+            shapes = board.snapshot();
+            last = head - 1;
+        }
+
+        Frame encoded = Frame.snapshot(shapes.getShapes(), id, last);
+        synchronized (this) {
+            // unless another frame was appended while encoding
+            if (head - 1 == last) snapshot = encoded;
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Get the board as a single, uncompressed frame, which covers every frame appended so far.
+     * Unlike {@link FrameLog#snapshot()}, it's encoded again every time, and is meant to be
+     * stored rather than sent.
+     *
+     * @return the frame
+     */
+    public Frame board() {
+        Drawing.Version shapes;
+        long last;
+        synchronized (this) {
+            shapes = board.snapshot();
+            last = head - 1;
+        }
+
+        return Frame.board(shapes.getShapes(), last);
+    }
+
+    /**
+     * Get what a client that has been sent every frame before the first sequence number needs
+     * to be sent every frame before the second. A client that hasn't been sent anything yet, or
+     * is missing frames that are no longer kept, gets a {@link FrameLog#snapshot()} instead,
+     * which may cover frames past the second sequence number. The snapshot starts with a
+     * {@link Checkpoint} of the board, so it replaces whatever the client has.
+     *
+     * @param from the first sequence number the client hasn't been sent
+     * @param to the sequence number to catch up to, exclusive
+     * @return the frames to send, which is empty if there are none
+     */
+    public List<Frame> catchUp(long from, long to) {
+        synchronized (this) {
+            if (from >= Math.min(to, head)) return List.of();
+            if (from != 0 && from >= tail()) return range(from, to);
+        }
+
+        return List.of(snapshot());
+    }
+
+    /**
+     * Get the sequence number of the first frame that a client hasn't been sent, if it has been
+     * sent the frames after a {@link Checkpoint} of this log up to the given number of shapes.
+     * The client can only resume if the log still has every frame after the checkpoint, and if
+     * the shapes end where a frame does.
+     *
+     * @param sequence the sequence number of the client's last checkpoint
+     * @param shapes the number of shapes the client was sent after the checkpoint, not counting
+     *     a board that followed it
+     * @return the sequence number, or -1 if the client can't resume
+     */
+    public synchronized long resumeAfter(long sequence, long shapes) {
+        if (sequence + 1 < tail() || sequence >= head) return -1;
+
+        long next = sequence + 1;
+        while (shapes > 0 && next < head) {
+            shapes -= recent[(int) (next % recent.length)].shapeCount();
+            next++;
+        }
+
+        return shapes == 0 ? next : -1;
+    }
+
+    /**
+     * Get a Flowable of frames as they're appended. The Flowable doesn't support backpressure,
+     * so subscribers must decide what to do with frames they aren't ready for.
+     *
+     * @return the Flowable
+     */
+    public Flowable<Frame> live() {
+        return live;
+    }
+}
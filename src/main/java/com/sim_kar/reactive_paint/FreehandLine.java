@@ -5,6 +5,7 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.geom.Path2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -12,10 +13,27 @@ import java.util.List;
  * A contiguous line between the given start and end {@link Point}s. The path from the start point
  * to the end point can be altered by adding points (in order of traversal) with
  * {@link FreehandLine#addPoint(Point)}.
+ * <p>
+ * The added points are packed into a single array of coordinates rather than kept as
+ * {@link Point} objects, since a board can hold millions of them. They can be read without
+ * allocating anything with {@link FreehandLine#x(int)} and {@link FreehandLine#y(int)}.
  */
 public class FreehandLine extends Shape {
 
-    private final List<Point> points;
+    // joins are mitered, and a miter is at most this many times the thickness long
+    private static final int MITER_LIMIT = 10;
+    private static final int INITIAL_CAPACITY = 8;
+    // x and y of each added point, one after the other
+    private int[] coordinates;
+    private int pointCount;
+    private int left;
+    private int right;
+    private int top;
+    private int bottom;
+    // built the first time the line is drawn, and extended as points are added after that
+    private transient volatile Path2D.Float path;
+    // whether a copy has been made that adds its points to this line's array of coordinates
+    private transient boolean shared;
 
     /**
      * Create a new line running between the given {@link Point}s start and  end.
@@ -25,18 +43,134 @@ public class FreehandLine extends Shape {
      */
     public FreehandLine(Point start, Point end, int thickness, Color color) {
         super(start, end, thickness, color);
-        this.points = new ArrayList<>();
+        this.coordinates = new int[INITIAL_CAPACITY * 2];
+        this.pointCount = 0;
+        this.left = Math.min(start.x(), end.x());
+        this.right = Math.max(start.x(), end.x());
+        this.top = Math.min(start.y(), end.y());
+        this.bottom = Math.max(start.y(), end.y());
+    }
+
+    /**
+     * Create a copy of the given line with the given array of coordinates.
+     *
+     * @param line the line to copy
+     * @param coordinates the array, which starts with the line's coordinates
+     */
+    private FreehandLine(FreehandLine line, int[] coordinates) {
+        super(line.start(), line.end(), line.thickness(), line.color());
+        this.coordinates = coordinates;
+        this.pointCount = line.pointCount;
+        this.left = line.left;
+        this.right = line.right;
+        this.top = line.top;
+        this.bottom = line.bottom;
+    }
+
+    /**
+     * Create a new line through the given {@link Point}s, where the first point is the start
+     * point and the last is the end point.
+     *
+     * @param points the points, of which there must be at least one
+     * @param thickness the thickness of the line
+     * @param color the color of the line
+     * @return the line
+     */
+    public static FreehandLine through(List<Point> points, int thickness, Color color) {
+        FreehandLine line = new FreehandLine(
+                points.get(0), points.get(points.size() - 1), thickness, color);
+        line.ensureCapacity(points.size() - 1);
+        points.subList(1, points.size()).forEach(line::addPoint);
+        return line;
     }
 
     @Override
     void drawShape(Graphics g) {
-        Path2D path = new Path2D.Float();
+        Path2D.Float path = this.path;
+        if (path == null) {
+            path = toPath();
+            this.path = path;
+        }
+
+        ((Graphics2D) g).draw(path);
+    }
+
+    /**
+     * Build the path through the points of this line.
+     *
+     * @return the path
+     */
+    Path2D.Float toPath() {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, pointCount + 1);
         path.moveTo(start().x(), start().y());
-        points.forEach(p -> path.lineTo(p.x(), p.y()));
-        path.moveTo(end().x(), end().y());
 
-        Graphics2D g2 = (Graphics2D) g;
-        g2.draw(path);
+        // a line without added points is drawn as a dot where it starts
+        if (pointCount == 0) path.lineTo(start().x(), start().y());
+
+        for (int i = 0; i < pointCount * 2; i += 2) {
+            path.lineTo(coordinates[i], coordinates[i + 1]);
+        }
+
+        return path;
+    }
+
+    /**
+     * Get the end point of this line, which is the last point that has been added to it, or the
+     * end point it was created with if no points have been added.
+     *
+     * @return the end point
+     */
+    @Override
+    public Point end() {
+        if (pointCount == 0) return super.end();
+
+        return new Point(x(pointCount - 1), y(pointCount - 1));
+    }
+
+    @Override
+    public int left() { return left; }
+    @Override
+    public int right() { return right; }
+    @Override
+    public int top() { return top; }
+    @Override
+    public int bottom() { return bottom; }
+
+    @Override
+    int outlinePadding() {
+        return (thickness() * MITER_LIMIT + 1) / 2;
+    }
+
+    /**
+     * Get the area covered by the part of this line from the added point at the given index to
+     * the end, when it's drawn. A negative index includes the start point.
+     *
+     * @param fromPoint the index of the first added point of the part
+     * @return the area
+     */
+    public java.awt.Rectangle bounds(int fromPoint) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        if (fromPoint < 0) {
+            minX = maxX = start().x();
+            minY = maxY = start().y();
+        }
+
+        for (int i = Math.max(0, fromPoint); i < pointCount; i++) {
+            minX = Math.min(minX, x(i));
+            minY = Math.min(minY, y(i));
+            maxX = Math.max(maxX, x(i));
+            maxY = Math.max(maxY, y(i));
+        }
+
+        if (minX > maxX) return new java.awt.Rectangle();
+
+        int padding = outlinePadding();
+        return new java.awt.Rectangle(minX - padding, minY - padding,
+                maxX - minX + 2 * padding + 1, maxY - minY + 2 * padding + 1);
     }
 
     /**
@@ -45,6 +179,121 @@ public class FreehandLine extends Shape {
      * @param point the point to move to next.
      */
     public void addPoint(Point point) {
-        this.points.add(point);
+        addPoint(point.x(), point.y());
+    }
+
+    /**
+     * Add a point that the freehand line will move to next.
+     *
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     */
+    public void addPoint(int x, int y) {
+        if (pointCount * 2 == coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+        }
+
+        coordinates[pointCount * 2] = x;
+        coordinates[pointCount * 2 + 1] = y;
+        pointCount++;
+
+        left = Math.min(left, x);
+        right = Math.max(right, x);
+        top = Math.min(top, y);
+        bottom = Math.max(bottom, y);
+
+        Path2D.Float path = this.path;
+        if (path == null) return;
+
+        // the path of a line without added points is a dot, which the line no longer is
+        if (pointCount == 1) this.path = null;
+        else path.lineTo(x, y);
+    }
+
+    /**
+     * Get the number of points that have been added to this line, which doesn't include the
+     * start point.
+     *
+     * @return the number of points
+     */
+    public int pointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Get the x-coordinate of an added point.
+     *
+     * @param index the index of the point, in order of traversal
+     * @return the x-coordinate
+     */
+    public int x(int index) {
+        return coordinates[index * 2];
+    }
+
+    /**
+     * Get the y-coordinate of an added point.
+     *
+     * @param index the index of the point, in order of traversal
+     * @return the y-coordinate
+     */
+    public int y(int index) {
+        return coordinates[index * 2 + 1];
+    }
+
+    /**
+     * Get the {@link Point}s that have been added to the freehand line, in order of traversal.
+     * The start point is not included. Creates a point for each, so prefer
+     * {@link FreehandLine#x(int)} and {@link FreehandLine#y(int)} where it matters.
+     *
+     * @return a new list of the points
+     */
+    public List<Point> points() {
+        List<Point> points = new ArrayList<>(pointCount);
+        for (int i = 0; i < pointCount; i++) points.add(new Point(x(i), y(i)));
+        return points;
+    }
+
+    /**
+     * Make room for the given number of points to be added without growing the array of
+     * coordinates.
+     *
+     * @param additionalPoints the number of points that will be added
+     */
+    void ensureCapacity(int additionalPoints) {
+        int needed = (pointCount + additionalPoints) * 2;
+
+        if (needed <= coordinates.length) return;
+
+        // a line that already has points is a stroke being appended to a few points at a time,
+        // so it grows like it does in addPoint rather than to fit
+        int capacity = pointCount == 0 ? needed : Math.max(needed, coordinates.length * 2);
+        coordinates = Arrays.copyOf(coordinates, capacity);
+    }
+
+    /**
+     * Get a copy of this line that points can be added to without changing this line, which can
+     * then still be read on other threads while the copy grows. The first copy shares this
+     * line's array of coordinates, and adds its points after the ones that this line reads. Any
+     * copy after that gets an array of its own, since the first one may already have used the
+     * rest of the array.
+     *
+     * @return the copy
+     */
+    FreehandLine copyToGrow() {
+        int[] array = shared ? Arrays.copyOf(coordinates, coordinates.length) : coordinates;
+        shared = true;
+        return new FreehandLine(this, array);
+    }
+
+    /**
+     * Get a copy of this line whose array of coordinates fits the points added so far. Should be
+     * used once no more points will be added.
+     *
+     * @return the copy, or this line if its array already fits
+     */
+    FreehandLine trimmedCopy() {
+        if (coordinates.length == pointCount * 2) return this;
+
+        return new FreehandLine(this, Arrays.copyOf(coordinates, pointCount * 2));
     }
 }
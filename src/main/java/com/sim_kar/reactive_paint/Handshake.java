@@ -0,0 +1,189 @@
+package com.sim_kar.reactive_paint;
+
+/**
+ * What each end of a {@link Connection} says about itself right after the protocol preamble:
+ * the name of the room it wants to join, and flags for what kind of peer it is and what it
+ * supports. A client that rejoins a room after losing its connection also says where it left
+ * off, see {@link Checkpoint}. See {@link ShapeCodec} for how it's encoded.
+ */
+public final class Handshake {
+
+    /**
+     * The flag of a host that links its room to the same room on another host, see
+     * {@link Federation}.
+     */
+    static final int PEER = 1;
+
+    /**
+     * The flag of a client that rejoins a room, and would rather be sent the frames it missed
+     * than the whole board.
+     */
+    static final int RESUME = 2;
+
+    /**
+     * The flag of either end of a connection that would like the frames sent over it to be
+     * compressed, and can decompress them, see {@link Compression}.
+     */
+    static final int COMPRESS = 4;
+
+    /**
+     * The handshake of the side that accepts a connection.
+     */
+    static final Handshake ACCEPT = new Handshake("", 0);
+
+    private final String room;
+    private final int flags;
+    private final long log;
+    private final long sequence;
+    private final long shapes;
+
+    /**
+     * Create a new handshake.
+     *
+     * @param room the name of the room
+     * @param flags the flags, where unknown flags are ignored
+     */
+    Handshake(String room, int flags) {
+        this(room, flags, 0, 0, 0);
+    }
+
+    /**
+     * Create a new handshake, which says where the client left off if it has the
+     * {@link #RESUME} flag.
+     *
+     * @param room the name of the room
+     * @param flags the flags, where unknown flags are ignored
+     * @param log the ID of the log of the last checkpoint the client received
+     * @param sequence the sequence number of the last checkpoint
+     * @param shapes the number of shapes the client received after the last checkpoint, not
+     *     counting the board that followed it
+     */
+    Handshake(String room, int flags, long log, long sequence, long shapes) {
+        this.room = room;
+        this.flags = flags;
+        this.log = log;
+        this.sequence = sequence;
+        this.shapes = shapes;
+    }
+
+    /**
+     * Get the handshake of a client that wants to join the given room.
+     *
+     * @param room the name of the room, where the empty name is the default room
+     * @return the handshake
+     */
+    public static Handshake join(String room) {
+        return new Handshake(room, 0);
+    }
+
+    /**
+     * Get the handshake of a client that rejoins the given room after losing its connection. The
+     * client is sent the frames it missed, if the host still has them, and the board otherwise.
+     *
+     * @param room the name of the room, where the empty name is the default room
+     * @param log the ID of the log of the last {@link Checkpoint} the client received
+     * @param sequence the sequence number of the last checkpoint
+     * @param shapes the number of shapes the client received after the last checkpoint, not
+     *     counting the board that followed it
+     * @return the handshake
+     */
+    public static Handshake resume(String room, long log, long sequence, long shapes) {
+        return new Handshake(room, RESUME, log, sequence, shapes);
+    }
+
+    /**
+     * Get the handshake of a host that wants to link its room with the given name to the same
+     * room on another host.
+     *
+     * @param room the name of the room, where the empty name is the default room
+     * @return the handshake
+     */
+    public static Handshake link(String room) {
+        return new Handshake(room, PEER);
+    }
+
+    /**
+     * Get a copy of this handshake with the given flag set.
+     *
+     * @param flag the flag
+     * @return the copy
+     */
+    Handshake with(int flag) {
+        return new Handshake(room, flags | flag, log, sequence, shapes);
+    }
+
+    /**
+     * Get the name of the room.
+     *
+     * @return the name, where the empty name is the default room
+     */
+    public String room() {
+        return room;
+    }
+
+    /**
+     * Check whether the other end is a host that links its room to this one, rather than a
+     * client.
+     *
+     * @return whether the other end is a peer host
+     */
+    public boolean isPeer() {
+        return (flags & PEER) != 0;
+    }
+
+    /**
+     * Check whether the other end is a client that rejoins the room, and says where it left off.
+     *
+     * @return whether the client wants to resume
+     */
+    public boolean isResume() {
+        return (flags & RESUME) != 0;
+    }
+
+    /**
+     * Check whether the other end would like the frames sent over the connection to be
+     * compressed. They are only compressed if both ends would.
+     *
+     * @return whether the other end wants compression
+     */
+    public boolean wantsCompression() {
+        return (flags & COMPRESS) != 0;
+    }
+
+    /**
+     * Get the ID of the log of the last {@link Checkpoint} a rejoining client received.
+     *
+     * @return the ID, or zero if the client doesn't want to resume
+     */
+    public long log() {
+        return log;
+    }
+
+    /**
+     * Get the sequence number of the last {@link Checkpoint} a rejoining client received.
+     *
+     * @return the sequence number
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the number of shapes a rejoining client received after its last {@link Checkpoint},
+     * not counting the board that followed it.
+     *
+     * @return the number of shapes
+     */
+    public long shapes() {
+        return shapes;
+    }
+
+    /**
+     * Get the flags, including those that this version doesn't know of.
+     *
+     * @return the flags
+     */
+    int flags() {
+        return flags;
+    }
+}
@@ -0,0 +1,322 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+
+/**
+ * <h1>Host Session</h1>
+ * Everything a host needs to share boards with its clients, without any user interface: a
+ * {@link Server} that accepts clients on a single port, and any number of {@link Room}s with a
+ * board each. Clients name the room they want to join when they connect, and a room is created
+ * the first time a client asks for it. Clients that don't name a room join the default room,
+ * which is the board drawn on by the host itself.
+ * <p>
+ * A session can also be linked to other hosts, see {@link HostSession#link(String, int)}, so that
+ * clients of different hosts can share a room.
+ * <p>
+ * The boards can be kept in a {@link BoardStore}, see {@link HostSession#persistTo(BoardStore)},
+ * so that a host that is restarted picks up where it left off.
+ * <p>
+ * In every room, shapes drawn by its clients, and by the host in the default room, are batched
+ * into frames by a {@link Broadcaster}, appended to the room's {@link FrameLog}, and sent to every
+ * client in the room, including the one that sent them.
+ */
+public class HostSession {
+
+    /**
+     * The name of the default room.
+     */
+    public static final String DEFAULT_ROOM = "";
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final Transport transport;
+    private final String id;
+    private final Observable<Server> server;
+    private final Map<String, Room> rooms;
+    private final Room defaultRoom;
+    private final Subject<Throwable> errors;
+    private final List<InetSocketAddress> peers;
+    private final CompositeDisposable linking;
+    private final CompositeDisposable recording;
+    private volatile SlowConsumerPolicy slowConsumerPolicy;
+    private volatile BoardStore boardStore;
+
+    /**
+     * Create a new session, which will start its server when it is started.
+     *
+     * @param transport the transport to use for the connections to clients
+     * @param board the shapes already on the board of the default room
+     * @param slowConsumerPolicy what to do with clients that can't keep up
+     */
+    public HostSession(Transport transport, List<? extends Shape> board,
+                       SlowConsumerPolicy slowConsumerPolicy) {
+        this(transport, 0, board, slowConsumerPolicy);
+    }
+
+    /**
+     * Create a new session that listens at the given port, which will start its server when it
+     * is started.
+     *
+     * @param transport the transport to use for the connections to clients
+     * @param port the port to listen at, or 0 to have one assigned automatically
+     * @param board the shapes already on the board of the default room
+     * @param slowConsumerPolicy what to do with clients that can't keep up
+     */
+    public HostSession(Transport transport, int port, List<? extends Shape> board,
+                       SlowConsumerPolicy slowConsumerPolicy) {
+        this.transport = transport;
+        this.id = String.valueOf(NEXT_ID.incrementAndGet());
+        // use fromCallable so that server initialization doesn't block the caller
+        // multicast server, otherwise a new server will be emitted by the callable every time
+        this.server = Observable.fromCallable(() -> new Server(transport, port))
+                .subscribeOn(Schedulers.io())
+                .replay(1)
+                .autoConnect(1);
+        this.errors = PublishSubject.<Throwable>create().toSerialized();
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.rooms = new ConcurrentHashMap<>();
+        this.peers = new CopyOnWriteArrayList<>();
+        this.linking = new CompositeDisposable();
+        this.recording = new CompositeDisposable();
+        this.defaultRoom = new Room(DEFAULT_ROOM, board, slowConsumerPolicy, errors::onNext);
+        this.rooms.put(DEFAULT_ROOM, defaultRoom);
+        registerMetrics(defaultRoom);
+    }
+
+    /**
+     * Start accepting clients into their rooms, and sharing the given shapes drawn on the host
+     * with the clients in the default room.
+     *
+     * @param hostShapes the shapes drawn on the host
+     * @param onClientShape called with every shape received from a client in the default room,
+     *     on the thread that received it
+     * @return a Disposable that stops the session, and disconnects all clients, when disposed
+     */
+    public Disposable start(Observable<Shape> hostShapes, Consumer<Shape> onClientShape) {
+        CompositeDisposable session = new CompositeDisposable();
+        session.add(defaultRoom.open(hostShapes, onClientShape));
+
+        // a client that disconnects before its handshake is simply never seated
+        session.add(getClients()
+                .flatMapMaybe(client -> client.handshake()
+                        .toMaybe()
+                        .onErrorComplete()
+                        .doOnSuccess(handshake -> seat(client, handshake)))
+                .subscribe(handshake -> {}, errors::onNext));
+
+        session.add(linking);
+        session.add(recording);
+        session.add(Disposable.fromAction(() -> rooms.values().forEach(room -> {
+            room.close();
+            Metrics.unregister(metricsName(room));
+        })));
+        return session;
+    }
+
+    /**
+     * Link every room of this session to the same room on the host at the given address, which
+     * links them back: the rooms there are now, and every room that is created from now on. The
+     * links are made in the background, and failing to make one is reported by
+     * {@link HostSession#errors()}. Should be called after the session has been started.
+     *
+     * @param host the name of the other host
+     * @param port the port of the other host
+     */
+    public void link(String host, int port) {
+        InetSocketAddress peer = InetSocketAddress.createUnresolved(host, port);
+        peers.add(peer);
+        // a room created meanwhile may be linked twice, which its federation makes harmless
+        rooms.values().forEach(room -> link(room, peer));
+    }
+
+    /**
+     * Keep the boards of the session's rooms in the given store, so that they outlive the
+     * session. Rooms that are created from now on start out with the board stored for them; the
+     * board of the default room is the one the session was created with, which should have been
+     * loaded from the store as well. Should be called before the session is started.
+     *
+     * @param store the store
+     */
+    public void persistTo(BoardStore store) {
+        this.boardStore = store;
+        rooms.values().forEach(room -> recording.add(
+                store.record(room.getName(), room.getFrameLog(), errors::onNext)));
+    }
+
+    /**
+     * Get an Observable with the port number that the session's server is listening at. The
+     * server is started the first time it's subscribed to, if the session hasn't started it.
+     *
+     * @return the Observable
+     */
+    public Observable<Integer> getPort() {
+        return server.map(Server::getPort);
+    }
+
+    /**
+     * Get an Observable of errors in the communication with clients, in any room. A client that
+     * disconnects is reported with a {@link SocketException}; the session keeps serving the
+     * other clients regardless.
+     *
+     * @return the Observable
+     */
+    public Observable<Throwable> errors() {
+        return errors;
+    }
+
+    /**
+     * Get the rooms of the session by name, including the default room.
+     *
+     * @return an unmodifiable view of the rooms
+     */
+    public Map<String, Room> getRooms() {
+        return Collections.unmodifiableMap(rooms);
+    }
+
+    /**
+     * Get the default room, which is the board drawn on by the host.
+     *
+     * @return the room
+     */
+    public Room getDefaultRoom() {
+        return defaultRoom;
+    }
+
+    /**
+     * Get the shapes on the board of the default room, as clients that join it now would be
+     * sent them.
+     *
+     * @return a new list of the shapes
+     */
+    public List<Shape> getShapes() {
+        return defaultRoom.getShapes();
+    }
+
+    /**
+     * Get the log of all frames shared in the default room.
+     *
+     * @return the log
+     */
+    public FrameLog getFrameLog() {
+        return defaultRoom.getFrameLog();
+    }
+
+    /**
+     * Get the queues of frames waiting to be sent to each client in the default room. The
+     * queues can be used to see which clients are falling behind.
+     *
+     * @return an unmodifiable view of the queues of the clients
+     */
+    public Map<Connection, OutboundQueue> getOutboundQueues() {
+        return defaultRoom.getOutboundQueues();
+    }
+
+    /**
+     * Set what to do with clients that can't keep up with the frames sent to them, in every
+     * room. Only affects clients that join after the policy is set.
+     *
+     * @param policy the policy
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+        this.slowConsumerPolicy = policy;
+        rooms.values().forEach(room -> room.setSlowConsumerPolicy(policy));
+    }
+
+    /**
+     * Get the room with the given name, and create it if there isn't one. A new room starts out
+     * with the board stored for it, if the session has a {@link BoardStore}.
+     *
+     * @param name the name of the room
+     * @return the room
+     */
+    private Room getOrCreateRoom(String name) {
+        return rooms.computeIfAbsent(name, n -> {
+            BoardStore store = boardStore;
+            List<Shape> board = List.of();
+
+            try {
+                if (store != null) board = store.load(n);
+            } catch (IOException e) {
+                // don't record over a board that couldn't be loaded
+                errors.onNext(e);
+                store = null;
+            }
+
+            Room room = new Room(n, board, slowConsumerPolicy, errors::onNext);
+            registerMetrics(room);
+            if (store != null) recording.add(store.record(n, room.getFrameLog(), errors::onNext));
+            peers.forEach(peer -> link(room, peer));
+            return room;
+        });
+    }
+
+    /**
+     * Register the metrics of a room as an MBean, see {@link Metrics}.
+     *
+     * @param room the room
+     */
+    private void registerMetrics(Room room) {
+        Metrics.register(metricsName(room), room, Metrics.RoomMBean.class);
+    }
+
+    private ObjectName metricsName(Room room) {
+        return Metrics.name("type", "Room", "host", id, "name", room.getName());
+    }
+
+    /**
+     * Seat a connection that has sent its handshake in the room it named, as a client or as a
+     * link from another host.
+     *
+     * @param connection the connection
+     * @param handshake the handshake it sent
+     */
+    private void seat(Connection connection, Handshake handshake) {
+        Room room = getOrCreateRoom(handshake.room());
+
+        if (handshake.isPeer()) {
+            room.link(connection);
+        } else {
+            room.join(connection, handshake);
+        }
+    }
+
+    /**
+     * Link a room to the same room on another host, in the background.
+     *
+     * @param room the room
+     * @param peer the address of the other host
+     */
+    private void link(Room room, InetSocketAddress peer) {
+        linking.add(Observable.fromCallable(() -> transport.connect(
+                        peer.getHostString(), peer.getPort(), Handshake.link(room.getName())))
+                .subscribeOn(transport.scheduler())
+                .subscribe(room::link, errors::onNext));
+    }
+
+    /**
+     * Get an observable of all {@link Connection}s to clients of the session's server.
+     *
+     * @return the Observable
+     */
+    private Observable<Connection> getClients() {
+        // a blocking server's accept loop will occupy a thread of the transport's scheduler, a
+        // non-blocking one returns
+        return server.flatMap(s -> s.start().subscribeOn(transport.scheduler()));
+    }
+}
@@ -0,0 +1,124 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>HostStart</h1>
+ * Hosts boards without a user interface, for example on a server without a display. Every port
+ * given as an argument gets a {@link HostSession} of its own; with no ports, one is hosted on an
+ * automatically assigned port. Each port serves any number of {@link Room}s, which start out
+ * empty and are created when clients ask for them. The transport is NIO unless another is given
+ * with {@code --transport}.
+ * <p>
+ * With {@code --link host:port}, which may be given more than once, every room is linked to the
+ * same room on the other host, so that hosts can share the clients of a room between them. For
+ * example, a host on port 5000 with two relays below it:
+ * <pre>
+ * java -cp reactive-paint.jar com.sim_kar.reactive_paint.HostStart 5000
+ * java -cp reactive-paint.jar com.sim_kar.reactive_paint.HostStart --link localhost:5000 5001 5002
+ * </pre>
+ * With {@code --data DIR}, the boards are kept in a {@link BoardStore} in a directory for each
+ * port below the given one, so that a host that is restarted on the same port picks up where it
+ * left off.
+ * <p>
+ * With {@code --compression LEVEL[:MIN_BYTES]}, frames sent to clients that ask for it are
+ * compressed at the given deflate level, unless they're smaller than the given size, see
+ * {@link Compression}. Only the BLOCKING and VIRTUAL transports compress frames.
+ * <p>
+ * The arguments are:
+ * <pre>
+ * HostStart [--transport T] [--link host:port]... [--data DIR]
+ *     [--compression LEVEL[:MIN_BYTES]] [port...]
+ * </pre>
+ */
+public class HostStart {
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        Transport transport = Transport.NIO;
+        List<Integer> ports = new ArrayList<>();
+        List<String> links = new ArrayList<>();
+        Path data = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--transport") && i + 1 < args.length) {
+                    transport = Transport.valueOf(args[++i].toUpperCase());
+                } else if (args[i].equals("--link") && i + 1 < args.length) {
+                    String link = args[++i];
+                    // check the port now, rather than when linking
+                    Integer.parseInt(link.substring(link.lastIndexOf(':') + 1));
+                    links.add(link);
+                } else if (args[i].equals("--data") && i + 1 < args.length) {
+                    data = Path.of(args[++i]);
+                } else if (args[i].equals("--compression") && i + 1 < args.length) {
+                    String[] compression = args[++i].split(":", 2);
+                    Compression.setDefault(new Compression(Integer.parseInt(compression[0]),
+                            compression.length > 1
+                                    ? Integer.parseInt(compression[1])
+                                    : Compression.DEFAULT_MIN_FRAME_BYTES));
+                } else {
+                    ports.add(Integer.parseInt(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Usage: HostStart [--transport BLOCKING|VIRTUAL|NIO] "
+                    + "[--link host:port]... [--data DIR] [--compression LEVEL[:MIN_BYTES]] "
+                    + "[port...]");
+            System.exit(2);
+        }
+
+        if (ports.isEmpty()) ports.add(0);
+
+        CompositeDisposable sessions = new CompositeDisposable();
+        Runtime.getRuntime().addShutdownHook(new Thread(sessions::dispose));
+
+        for (int port : ports) {
+            BoardStore store = null;
+            List<Shape> board = List.of();
+
+            try {
+                if (data != null) {
+                    store = new BoardStore(data.resolve(String.valueOf(port)));
+                    board = store.load(HostSession.DEFAULT_ROOM);
+                }
+            } catch (IOException e) {
+                System.err.println(
+                        "Unable to load boards for port " + port + ": " + e.getMessage());
+                System.exit(1);
+            }
+
+            HostSession session = new HostSession(
+                    transport, port, board, SlowConsumerPolicy.DROP_AND_RESYNC);
+            if (store != null) session.persistTo(store);
+
+            try {
+                // opens the server, so that a port that's in use is reported before hosting
+                int boundPort = session.getPort().blockingFirst();
+                System.out.println("Hosting rooms on port " + boundPort + " over " + transport);
+            } catch (RuntimeException e) {
+                System.err.println("Unable to host on port " + port + ": " + e.getMessage());
+                System.exit(1);
+            }
+
+            sessions.add(session.errors().subscribe(e -> System.err.println(
+                    "Error communicating with client or peer on port " + port + ": " + e.getMessage())));
+            sessions.add(session.start(Observable.never(), shape -> {}));
+
+            for (String link : links) {
+                int colon = link.lastIndexOf(':');
+                session.link(link.substring(0, colon), Integer.parseInt(link.substring(colon + 1)));
+                System.out.println("Linking rooms to " + link);
+            }
+        }
+
+        // the sessions run on daemon threads, so keep the JVM alive until it's stopped
+        Thread.currentThread().join();
+    }
+}
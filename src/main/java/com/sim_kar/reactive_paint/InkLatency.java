@@ -0,0 +1,131 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long it takes from the mouse being moved until the shapes drawn with it are
+ * painted on the screen, and how many frames are dropped on the way. A shape is followed from
+ * when the first of the mouse events it was assembled from was sampled, through being handed off
+ * to Swing's Event Dispatch Thread, until the panel it was added to has been painted.
+ * <p>
+ * The frames dropped are counted from when shapes are handed off until they are painted: a
+ * paint that happens more than one frame period after the hand-off has dropped a frame for every
+ * period it's late.
+ */
+public class InkLatency {
+
+    private final long framePeriodNanos;
+    // shapes that have been assembled, but not handed off yet
+    private final Map<Shape, Long> assembled;
+    // when the shapes that have been handed off but not painted yet were sampled; only touched on
+    // the Event Dispatch Thread
+    private final List<Long> unpainted;
+    private long handedOff;
+    private final AtomicLong shapesInked;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+    private final AtomicLong framesDropped;
+
+    /**
+     * Create a new, empty measurement.
+     *
+     * @param framePeriodNanos the time between frames, in nanoseconds
+     */
+    public InkLatency(long framePeriodNanos) {
+        this.framePeriodNanos = framePeriodNanos;
+        this.assembled = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.unpainted = new ArrayList<>();
+        this.shapesInked = new AtomicLong();
+        this.totalNanos = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+        this.framesDropped = new AtomicLong();
+    }
+
+    /**
+     * Follow a shape that has been assembled from mouse events. Shapes that aren't followed,
+     * such as those drawn by others, aren't measured.
+     *
+     * @param shape the shape
+     * @param sampledAt when the first of its events was sampled, as given by
+     *                  {@link System#nanoTime()}
+     */
+    public void assembled(Shape shape, long sampledAt) {
+        assembled.put(shape, sampledAt);
+    }
+
+    /**
+     * Note that a shape has been added to the drawing, on the Event Dispatch Thread, and will be
+     * painted next time the panel is.
+     *
+     * @param shape the shape
+     */
+    public void handedOff(Shape shape) {
+        Long sampledAt = assembled.remove(shape);
+        if (sampledAt == null) return;
+
+        if (unpainted.isEmpty()) handedOff = System.nanoTime();
+        unpainted.add(sampledAt);
+    }
+
+    /**
+     * Note that the panel has been painted, on the Event Dispatch Thread, with every shape that
+     * has been handed off.
+     */
+    public void painted() {
+        if (unpainted.isEmpty()) return;
+
+        long now = System.nanoTime();
+        for (long sampledAt : unpainted) {
+            long latency = now - sampledAt;
+            totalNanos.addAndGet(latency);
+            maxNanos.accumulateAndGet(latency, Math::max);
+        }
+
+        shapesInked.addAndGet(unpainted.size());
+        framesDropped.addAndGet(Math.max(0, (now - handedOff) / framePeriodNanos));
+        unpainted.clear();
+    }
+
+    /**
+     * Get the number of shapes that have been measured.
+     *
+     * @return the number of shapes
+     */
+    public long getShapesInked() {
+        return shapesInked.get();
+    }
+
+    /**
+     * Get the mean time from the mouse being moved until the shapes drawn with it were painted.
+     *
+     * @return the time in nanoseconds, or 0 if no shapes have been measured
+     */
+    public long getMeanNanos() {
+        long shapes = shapesInked.get();
+        return shapes == 0 ? 0 : totalNanos.get() / shapes;
+    }
+
+    /**
+     * Get the longest time from the mouse being moved until the shapes drawn with it were
+     * painted.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Get the number of frames that shapes were painted late by, after being handed off.
+     *
+     * @return the number of frames
+     */
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+}
@@ -0,0 +1,244 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.awt.Component;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Samples the mouse being pressed and dragged over a component, without doing any more work on
+ * Swing's Event Dispatch Thread than storing the coordinates of each event. The points of a
+ * stroke are collected into a primitive array, which is taken once every frame tick, on the
+ * computation scheduler, as a {@link Batch}. However often the mouse reports its position, the
+ * shapes drawn with it are then only assembled once per frame, off the Event Dispatch Thread.
+ */
+public class InputSampler {
+
+    /**
+     * The default number of frame ticks per second.
+     */
+    public static final int DEFAULT_RATE = 120;
+
+    private final Component component;
+    private final long framePeriodNanos;
+    private final Scheduler scheduler;
+
+    /**
+     * Create a new sampler of the mouse over the given component.
+     *
+     * @param component the component
+     * @param rate the number of frame ticks per second
+     */
+    public InputSampler(Component component, int rate) {
+        this.component = component;
+        this.framePeriodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.scheduler = Schedulers.computation();
+    }
+
+    /**
+     * Get the time between frame ticks.
+     *
+     * @return the time in nanoseconds
+     */
+    public long framePeriodNanos() {
+        return framePeriodNanos;
+    }
+
+    /**
+     * Get an Observable that emits a stroke every time the mouse is pressed over the component,
+     * on the Event Dispatch Thread. A stroke is an Observable of the points that the mouse is
+     * pressed and dragged at, in a batch every frame tick, and completes when the mouse is
+     * released. Points are collected from when the mouse is pressed, whenever the stroke is
+     * subscribed to.
+     *
+     * @return the Observable
+     */
+    public Observable<Observable<Batch>> strokes() {
+        return Observable.create(emitter -> {
+            // only touched on the Event Dispatch Thread
+            AtomicReference<Samples> current = new AtomicReference<>();
+
+            MouseAdapter listener = new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent event) {
+                    Samples samples = new Samples();
+                    samples.add(event.getX(), event.getY());
+
+                    Samples previous = current.getAndSet(samples);
+                    if (previous != null) previous.end();
+
+                    emitter.onNext(batches(samples));
+                }
+
+                @Override
+                public void mouseDragged(MouseEvent event) {
+                    Samples samples = current.get();
+                    if (samples != null) samples.add(event.getX(), event.getY());
+                }
+
+                @Override
+                public void mouseReleased(MouseEvent event) {
+                    Samples samples = current.getAndSet(null);
+                    if (samples != null) samples.end();
+                }
+            };
+
+            component.addMouseListener(listener);
+            component.addMouseMotionListener(listener);
+            emitter.setCancellable(() -> {
+                component.removeMouseListener(listener);
+                component.removeMouseMotionListener(listener);
+            });
+        });
+    }
+
+    /**
+     * Get an Observable that takes the points sampled for a stroke every frame tick.
+     *
+     * @param samples the samples of the stroke
+     * @return the Observable
+     */
+    private Observable<Batch> batches(Samples samples) {
+        return Observable.interval(0, framePeriodNanos, TimeUnit.NANOSECONDS, scheduler)
+                .map(tick -> samples.take())
+                .takeUntil(Batch::isLast)
+                .filter(batch -> batch.size() > 0);
+    }
+
+    /**
+     * The points of a stroke that haven't been taken yet.
+     */
+    private static final class Samples {
+        private int[] coordinates = new int[64];
+        private int size;
+        private long firstSampled;
+        private boolean ended;
+
+        /**
+         * Add a point, on the Event Dispatch Thread.
+         *
+         * @param x the x coordinate
+         * @param y the y coordinate
+         */
+        synchronized void add(int x, int y) {
+            if (size == 0) firstSampled = System.nanoTime();
+            if (2 * size + 2 > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            }
+
+            coordinates[2 * size] = x;
+            coordinates[2 * size + 1] = y;
+            size++;
+        }
+
+        /**
+         * Note that the mouse has been released, so that no more points will be added.
+         */
+        synchronized void end() {
+            ended = true;
+        }
+
+        /**
+         * Take the points added since they were last taken.
+         *
+         * @return the points
+         */
+        synchronized Batch take() {
+            Batch batch = new Batch(Arrays.copyOf(coordinates, 2 * size), firstSampled, ended);
+            size = 0;
+            return batch;
+        }
+    }
+
+    /**
+     * The points of a stroke that were sampled during one frame, as x and y coordinates one
+     * after the other.
+     */
+    public static final class Batch {
+        private final int[] coordinates;
+        private final long firstSampled;
+        private final boolean last;
+
+        private Batch(int[] coordinates, long firstSampled, boolean last) {
+            this.coordinates = coordinates;
+            this.firstSampled = firstSampled;
+            this.last = last;
+        }
+
+        /**
+         * Get the number of points in the batch.
+         *
+         * @return the number of points
+         */
+        public int size() {
+            return coordinates.length / 2;
+        }
+
+        /**
+         * Get the x coordinate of a point in the batch.
+         *
+         * @param index the index of the point
+         * @return the x coordinate
+         */
+        public int x(int index) {
+            return coordinates[2 * index];
+        }
+
+        /**
+         * Get the y coordinate of a point in the batch.
+         *
+         * @param index the index of the point
+         * @return the y coordinate
+         */
+        public int y(int index) {
+            return coordinates[2 * index + 1];
+        }
+
+        /**
+         * Get when the first point of the batch was sampled, as given by
+         * {@link System#nanoTime()}.
+         *
+         * @return the time in nanoseconds
+         */
+        public long firstSampled() {
+            return firstSampled;
+        }
+
+        /**
+         * Check whether this is the last batch of the stroke, taken after the mouse was
+         * released.
+         *
+         * @return whether this is the last batch
+         */
+        public boolean isLast() {
+            return last;
+        }
+
+        /**
+         * Get a view of the points of the batch, which creates a {@link Point} for each point as
+         * it's read.
+         *
+         * @return the points
+         */
+        public List<Point> points() {
+            return new AbstractList<>() {
+                @Override
+                public Point get(int index) {
+                    return new Point(x(index), y(index));
+                }
+
+                @Override
+                public int size() {
+                    return Batch.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import io.reactivex.rxjava3.subjects.UnicastSubject;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Join Session</h1>
+ * Everything a client needs to share a board with a host, without any user interface: a
+ * {@link Connection} to one of the host's rooms that shapes drawn on the client are sent over,
+ * and that the shapes drawn by the others in the room are received from.
+ * <p>
+ * A session that loses its connection to the host connects again, waiting a little longer
+ * after every failed attempt, and gives up after {@value #MAX_ATTEMPTS} attempts in a row. It
+ * keeps track of the last {@link Checkpoint} it was sent and how many shapes it has received
+ * since, so that the host only has to send the shapes it missed, or the whole board if it no
+ * longer has them. Shapes drawn while the session is connecting are sent once it has
+ * connected, but those that were on their way to the host when the connection was lost may be
+ * lost with it.
+ */
+public class JoinSession {
+
+    /**
+     * The number of times in a row that a session tries to connect to the host again, before it
+     * gives up.
+     */
+    public static final int MAX_ATTEMPTS = 6;
+
+    // how long to wait before connecting again, which doubles after every failed attempt
+    private static final long FIRST_DELAY_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 10_000;
+
+    private final String host;
+    private final int port;
+    private final String room;
+    private final Transport transport;
+    private final Subject<Throwable> errors;
+
+    /**
+     * Create a new session, which will connect to the host's default room when it is started.
+     *
+     * @param host the name of the host
+     * @param port the host's port
+     * @param transport the transport to use for the connection to the host
+     */
+    public JoinSession(String host, int port, Transport transport) {
+        this(host, port, HostSession.DEFAULT_ROOM, transport);
+    }
+
+    /**
+     * Create a new session, which will connect to a room of the host when it is started.
+     *
+     * @param host the name of the host
+     * @param port the host's port
+     * @param room the name of the room to join
+     * @param transport the transport to use for the connection to the host
+     */
+    public JoinSession(String host, int port, String room, Transport transport) {
+        this.host = host;
+        this.port = port;
+        this.room = room;
+        this.transport = transport;
+        this.errors = PublishSubject.<Throwable>create().toSerialized();
+    }
+
+    /**
+     * Connect to the host, and start sending it the given shapes drawn on the client. If the
+     * session connects to the host again and is sent the whole board, the board is replaced by
+     * calling the given consumer with a {@link Checkpoint} of the board before its shapes.
+     *
+     * @param ownShapes the shapes drawn on the client, including any drawn before joining
+     * @param onHostShape called with every shape received from the host, except the segments
+     *     of the strokes drawn on the client, on the thread that received it
+     * @return a Disposable that stops the session when disposed
+     */
+    public Disposable start(Observable<Shape> ownShapes, Consumer<Shape> onHostShape) {
+        Outbox outbox = new Outbox();
+        Position position = new Position();
+        CompositeDisposable session = new CompositeDisposable();
+
+        // the host sends every shape to every client, but the segments of the client's own
+        // strokes have already been applied to its drawing, and would be applied again, unless
+        // a board has replaced the drawing since
+        Consumer<Shape> othersShapes = shape -> {
+            if (shape instanceof Checkpoint && ((Checkpoint) shape).isBoard()) outbox.resync();
+            if (!outbox.isEcho(shape)) onHostShape.accept(shape);
+        };
+
+        session.add(ownShapes.subscribe(outbox::offer, errors::onNext));
+        session.add(Completable.defer(() -> connectToHost(outbox, position, othersShapes))
+                .retryWhen(failures -> failures.concatMap(e -> reconnectAfter(e, position)))
+                .subscribe(() -> {}, errors::onNext));
+
+        return session;
+    }
+
+    /**
+     * Get an Observable of errors in the communication with the host, including failing to
+     * connect to it. An error is only reported once the session has given up on the host, and
+     * the session stops sending or receiving shapes after that.
+     *
+     * @return the Observable
+     */
+    public Observable<Throwable> errors() {
+        return errors;
+    }
+
+    /**
+     * Get a Completable that connects to the host, sends it the shapes drawn on the client and
+     * receives the shapes drawn by the others, until the connection is lost. The connection is
+     * made on the scheduler of the session's transport.
+     *
+     * @param outbox the shapes drawn on the client
+     * @param position where the session is in the log of the host
+     * @param onHostShape called with every shape received from the host
+     * @return the Completable, which fails when the connection is lost
+     */
+    private Completable connectToHost(Outbox outbox, Position position,
+                                      Consumer<Shape> onHostShape) {
+        return Single.fromCallable(() -> transport.connect(host, port, position.handshake(room)))
+                .subscribeOn(transport.scheduler())
+                .flatMapCompletable(client -> sendShapesToHost(client, outbox)
+                        .ambWith(getShapesFromHost(client, position, onHostShape))
+                        .doFinally(() -> {
+                            outbox.disconnected();
+                            shutdown(client);
+                        }));
+    }
+
+    /**
+     * Get a Completable that sends the shapes drawn on the client to the host the given client
+     * is connected to.
+     *
+     * @param client the client connected to the host to send the shapes to
+     * @param outbox the shapes to send
+     * @return the Completable
+     */
+    private Completable sendShapesToHost(Connection client, Outbox outbox) {
+        return client.send(outbox.open()
+                .map(Frame::of)
+                .toFlowable(BackpressureStrategy.BUFFER)
+        ).ignoreElements();
+    }
+
+    /**
+     * Get a Completable that receives shapes from the host the given client is connected to,
+     * and keeps track of where they are in the host's log.
+     *
+     * @param client the client connected to the host to receive shapes from
+     * @param position where the session is in the log of the host
+     * @param onHostShape called with every shape received from the host
+     * @return the Completable, which fails once the host closes the connection
+     */
+    private Completable getShapesFromHost(Connection client, Position position,
+                                          Consumer<Shape> onHostShape) {
+        return client.shapes()
+                .doOnNext(shape -> position.received(shape, onHostShape))
+                .ignoreElements()
+                .andThen(Completable.error(
+                        () -> new EOFException("The host closed the connection")));
+    }
+
+    /**
+     * Get a Flowable that signals when to connect to the host again after the given error, or
+     * fails with it if the session gives up. A session that has never been sent anything by the
+     * host gives up right away, since the host most likely isn't there.
+     *
+     * @param error the error that the connection was lost with
+     * @param position where the session is in the log of the host
+     * @return the Flowable
+     */
+    private Flowable<Long> reconnectAfter(Throwable error, Position position) {
+        int attempt = position.failed();
+        if (!position.isKnown() || attempt > MAX_ATTEMPTS) return Flowable.error(error);
+
+        long delay = Math.min(FIRST_DELAY_MILLIS << Math.min(attempt - 1, 16), MAX_DELAY_MILLIS);
+        return Flowable.timer(delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void shutdown(Connection client) {
+        try {
+            client.shutdown();
+        } catch (IOException e) {
+            // the connection is lost anyway
+        }
+    }
+
+    /**
+     * The shapes drawn on the client, which are held on to while the session isn't connected to
+     * the host, and are sent to the host over one connection at a time. Keeps track of the
+     * strokes that have been sent until the host has sent them back.
+     * <p>
+     * The host gives every stroke an ID of its own, see {@link StrokeIds}, so the client's own
+     * strokes are recognized by the segments that begin them, which come back with the same
+     * points and in the order they were sent. The rest of the segments of a stroke are then
+     * recognized by the ID the host gave it.
+     */
+    private static final class Outbox {
+
+        private static final int ID_MASK = StrokeSegment.MAX_STROKE_ID - 1;
+
+        private final Queue<Shape> pending = new ArrayDeque<>();
+        // the segments that begin strokes, which haven't been sent back yet
+        private final Queue<StrokeSegment> ownBegins = new ArrayDeque<>();
+        // the host's IDs of the client's own strokes
+        private final Set<Integer> ownStrokes = new HashSet<>();
+        private Subject<Shape> connected;
+
+        /**
+         * Send the given shape over the current connection, or hold on to it until there is one.
+         *
+         * @param shape the shape
+         */
+        synchronized void offer(Shape shape) {
+            if (shape instanceof StrokeSegment
+                    && ((StrokeSegment) shape).kind() == StrokeSegment.Kind.BEGIN) {
+                ownBegins.add((StrokeSegment) shape);
+            }
+
+            if (connected != null) {
+                connected.onNext(shape);
+            } else {
+                pending.add(shape);
+            }
+        }
+
+        /**
+         * Get the shapes to send over a new connection, which starts with those held on to
+         * while there was none.
+         *
+         * @return an Observable of the shapes, which should only be subscribed to once
+         */
+        synchronized Observable<Shape> open() {
+            UnicastSubject<Shape> shapes = UnicastSubject.create();
+            while (!pending.isEmpty()) shapes.onNext(pending.remove());
+            connected = shapes;
+
+            return shapes.doFinally(() -> close(shapes));
+        }
+
+        private synchronized void close(Subject<Shape> shapes) {
+            if (connected == shapes) connected = null;
+        }
+
+        /**
+         * Check whether the given shape received from the host is a segment of a stroke drawn
+         * on the client. A stroke is forgotten once the segment that ends it is received.
+         *
+         * @param shape the shape
+         * @return whether it's a segment of the client's own stroke
+         */
+        synchronized boolean isEcho(Shape shape) {
+            if (!(shape instanceof StrokeSegment)) return false;
+
+            StrokeSegment segment = (StrokeSegment) shape;
+            switch (segment.kind()) {
+                case BEGIN:
+                    if (!isOwnBegin(segment)) return false;
+                    ownStrokes.add(segment.strokeId());
+                    return true;
+                case END:
+                    return ownStrokes.remove(segment.strokeId());
+                default:
+                    return ownStrokes.contains(segment.strokeId());
+            }
+        }
+
+        /**
+         * Forget the client's strokes, because the drawing has been replaced by a board that
+         * has them as they were on the host, so their segments must be applied from now on.
+         */
+        synchronized void resync() {
+            ownBegins.clear();
+            ownStrokes.clear();
+        }
+
+        /**
+         * Forget the host's IDs of the client's strokes once the connection is lost, since the
+         * host drops the segments of strokes that were begun over another connection, and
+         * their ends won't be sent back.
+         */
+        synchronized void disconnected() {
+            ownStrokes.clear();
+        }
+
+        private boolean isOwnBegin(StrokeSegment segment) {
+            int sent = 0;
+            for (StrokeSegment begin : ownBegins) {
+                sent++;
+                if (begin.strokeId() == (segment.strokeId() & ID_MASK) && begin.sameAs(segment)) {
+                    // the host keeps the order, so those sent before it were never received
+                    for (int i = 0; i < sent; i++) ownBegins.remove();
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Where a session is in the log of the host: the last {@link Checkpoint} it was sent, and
+     * how many shapes it has received since.
+     */
+    private static final class Position {
+
+        private long log;
+        private long sequence;
+        private long shapes;
+        // the shapes of a board that follows the checkpoint, which aren't counted
+        private long boardShapes;
+        private boolean received;
+        private int failures;
+
+        /**
+         * Get the handshake to connect to the given room with, which asks to resume from the
+         * session's position if the host has sent it a checkpoint.
+         *
+         * @param room the name of the room
+         * @return the handshake
+         */
+        synchronized Handshake handshake(String room) {
+            return log == 0 ? Handshake.join(room) : Handshake.resume(room, log, sequence, shapes);
+        }
+
+        /**
+         * Keep track of a shape received from the host, and pass it on to the given consumer
+         * unless it's a checkpoint. A checkpoint of a board is passed on if shapes have been
+         * received before it, since those are replaced by the board.
+         *
+         * @param shape the shape
+         * @param onHostShape the consumer to pass it on to
+         * @throws Throwable if the consumer fails
+         */
+        void received(Shape shape, Consumer<Shape> onHostShape) throws Throwable {
+            if (shape instanceof Checkpoint) {
+                Checkpoint checkpoint = (Checkpoint) shape;
+                boolean replace;
+
+                synchronized (this) {
+                    replace = checkpoint.isBoard() && received;
+                    log = checkpoint.log();
+                    sequence = checkpoint.sequence();
+                    shapes = 0;
+                    boardShapes = checkpoint.boardShapes();
+                    failures = 0;
+                }
+
+                if (replace) onHostShape.accept(checkpoint);
+                return;
+            }
+
+            synchronized (this) {
+                if (boardShapes > 0) {
+                    boardShapes--;
+                } else {
+                    shapes++;
+                }
+                received = true;
+            }
+
+            onHostShape.accept(shape);
+        }
+
+        /**
+         * Check whether the host has sent the session a checkpoint, so that it has connected to
+         * the host at least once.
+         *
+         * @return whether the position is known
+         */
+        synchronized boolean isKnown() {
+            return log != 0;
+        }
+
+        /**
+         * Count a failed attempt to stay connected to the host, since the last checkpoint.
+         *
+         * @return the number of failed attempts in a row
+         */
+        synchronized int failed() {
+            return ++failures;
+        }
+    }
+}
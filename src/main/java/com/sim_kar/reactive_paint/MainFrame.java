@@ -1,17 +1,26 @@
 package com.sim_kar.reactive_paint;
 
+import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.disposables.Disposable;
-import io.reactivex.rxjava3.observables.ConnectableObservable;
 import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.UnicastSubject;
 import java.awt.*;
-import java.awt.event.MouseAdapter;
-import java.awt.event.MouseEvent;
-import java.awt.event.MouseMotionAdapter;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.net.Socket;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
 
 /**
@@ -22,17 +31,24 @@ import javax.swing.*;
 @SuppressWarnings("serial")
 public class MainFrame extends JFrame {
 
-	private static final DrawingPanel DRAWING_PANEL = new DrawingPanel();
 	private static final int MIN_THICKNESS = 1;
 	private static final int MAX_THICKNESS = 50;
 	private static final int DEFAULT_THICKNESS = 3;
 	private static final int THICKNESS_TICK_SPACING = 1;
+	private static final long DEFAULT_STROKE_INTERVAL_MILLIS = 40;
+	private final DrawingPanel drawingPanel;
 	private final JPanel toolPanel;
 	private Color color;
 	private int thickness;
 	private Tool tool;
-	private Observable<Server> server;
+	private HostSession hostSession;
 	private final Observable<Shape> drawShapes;
+	private SlowConsumerPolicy slowConsumerPolicy;
+	private long strokeInterval;
+	private final StrokeSimplifier strokeSimplifier;
+	private final InputSampler inputSampler;
+	private final InkLatency inkLatency;
+	private final ShapeHandoff shapeHandoff;
 
 	/**
 	 * Constructs a new MainFrame.
@@ -52,10 +68,27 @@ public class MainFrame extends JFrame {
 		this.color = Color.BLACK;
 		this.thickness = DEFAULT_THICKNESS;
 		this.tool = Tool.FREEHAND;
-		DRAWING_PANEL.setBackground(Color.WHITE);
-
-		DRAWING_PANEL.setBounds(0, 0, getWidth(), getHeight());
-		this.getContentPane().add(DRAWING_PANEL, BorderLayout.CENTER);
+		this.strokeSimplifier = new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE);
+
+		this.drawingPanel = new DrawingPanel();
+		drawingPanel.setBackground(Color.WHITE);
+
+		drawingPanel.setBounds(0, 0, getWidth(), getHeight());
+		this.inputSampler = new InputSampler(drawingPanel, InputSampler.DEFAULT_RATE);
+		this.inkLatency = new InkLatency(inputSampler.framePeriodNanos());
+		drawingPanel.setAfterPaint(inkLatency::painted);
+		this.shapeHandoff = new ShapeHandoff(shape -> {
+			// a checkpoint of a board is only handed off when the board replaces the drawing
+			if (shape instanceof Checkpoint) {
+				drawingPanel.getDrawing().clear();
+				return;
+			}
+
+			drawingPanel.getDrawing().addShape(shape);
+			inkLatency.handedOff(shape);
+		}, drawingPanel::redraw);
+		new PaintingMetrics(drawingPanel, shapeHandoff, inkLatency).register();
+		this.getContentPane().add(drawingPanel, BorderLayout.CENTER);
 
 		this.toolPanel = new JPanel();
 		this.toolPanel.setLayout(new BoxLayout(this.toolPanel, BoxLayout.Y_AXIS));
@@ -106,16 +139,18 @@ public class MainFrame extends JFrame {
 		);
 
 		Disposable clear = getButtonClick(clearButton).subscribe(e -> {
-			DRAWING_PANEL.getDrawing().clear();
-			DRAWING_PANEL.redraw();
+			drawingPanel.getDrawing().clear();
+			drawingPanel.redraw();
 		});
 
 		Disposable setThickness = getSliderValue(thicknessSlider)
 				.subscribe(i -> this.thickness = i);
 
-		drawShapes = drawShapes()
-				.replay()
-				.autoConnect();
+		slowConsumerPolicy = SlowConsumerPolicy.DROP_AND_RESYNC;
+		strokeInterval = DEFAULT_STROKE_INTERVAL_MILLIS;
+
+		// shapes drawn before hosting or joining are taken from the drawing, so don't keep them
+		drawShapes = drawShapes().share();
 
 		Disposable addShapes = drawShapes.subscribe(this::addShapeToDrawing);
 	}
@@ -124,49 +159,44 @@ public class MainFrame extends JFrame {
 	 * Start hosting a server that others can connect to using the same port number. All shapes
 	 * drawn by the host and connected clients will be shared.
 	 *
+	 * @param transport the transport to use for the connections to clients
 	 * @throws IOException if an I/O error occurs when opening the server socket
 	 */
-	public void host() throws IOException {
-		startServer();
-		ConnectableObservable<Client> clients = getClients(server).publish();
-
-		Observable<Shape> clientShapes = getShapesFromClients(clients)
-				// handle error here since it will be stifled by retry otherwise
-				.doOnError(e -> displayError(e, "Error communicating with client:"))
-				.retry()
-				.replay()
-				.autoConnect();
-
-		Disposable receiveShapes = clientShapes.subscribe(this::addShapeToDrawing);
+	public void host(Transport transport) throws IOException {
+		if (hostSession != null) return;
 
-		Observable<Shape> allShapes = Observable.merge(drawShapes, clientShapes);
+		hostSession = new HostSession(
+				transport, drawingPanel.getDrawing().getShapes(), slowConsumerPolicy);
 
-		Disposable sendShapes = sendShapesToClients(clients, allShapes).subscribe();
+		Disposable showErrors = hostSession.errors().subscribe(e -> displayError(e,
+				e instanceof SocketException
+						? "Client disconnected:"
+						: "Error communicating with client:"));
 
-		Disposable startHosting = clients.connect();
+		Disposable startHosting = hostSession.start(drawShapes, this::addShapeToDrawing);
 	}
 
 	/**
-	 * Join a server that is hosted at the given port. Drawn shapes will be shared among the host
-	 * and all connected clients.
+	 * Join a room of a server that is hosted at the given port. Drawn shapes will be shared among
+	 * all clients in the room, and the host if it's the default room.
 	 *
 	 * @param port the host's port
+	 * @param room the name of the room, where the empty name is the default room
+	 * @param transport the transport to use for the connection to the host
 	 * @throws IOException if an I/O error occurs when connecting to the host
 	 */
-	public void join(int port) throws IOException {
-		ConnectableObservable<Client> client = getClientConnectedToHost(port).publish();
+	public void join(int port, String room, Transport transport) throws IOException {
+		JoinSession joinSession = new JoinSession("localhost", port, room, transport);
 
-		Disposable sendShapes = sendShapesToHost(client, drawShapes).subscribe(
-				__ -> {},
-				e -> displayError(e, "Error sending shape to host:")
-		);
+		// hold on to shapes drawn while connecting, and send them after those already drawn
+		UnicastSubject<Shape> newShapes = drawShapes.subscribeWith(UnicastSubject.create());
+		Observable<Shape> ownShapes = newShapes
+				.startWithIterable(drawingPanel.getDrawing().getShapes());
 
-		Disposable receiveShapes = getShapesFromHost(client).subscribe(
-				this::addShapeToDrawing,
-				e -> displayError(e, "Error receiving shape from host:")
-		);
+		Disposable showErrors = joinSession.errors()
+				.subscribe(e -> displayError(e, "Error communicating with host:"));
 
-		Disposable connectToHost = client.connect();
+		Disposable connectToHost = joinSession.start(ownShapes, this::addShapeToDrawing);
 	}
 
 	/**
@@ -176,173 +206,134 @@ public class MainFrame extends JFrame {
 	 * @return the observable
 	 */
 	public Observable<Integer> getPort() {
-		if (server != null) {
-			return server.map(Server::getPort);
+		if (hostSession != null) {
+			return hostSession.getPort();
 		}
 
 		return Observable.empty();
 	}
 
 	/**
-	 * Add a shape to the drawing. It will be drawn on Swing's Event Dispatch Thread.
+	 * Get the queues of shapes waiting to be sent to each connected client, if hosting. The
+	 * queues can be used to see which clients are falling behind.
 	 *
-	 * @param shape the shape to add
+	 * @return an unmodifiable view of the queues of the connected clients
 	 */
-	private void addShapeToDrawing(Shape shape) {
-		EventQueue.invokeLater(() -> {
-			DRAWING_PANEL.getDrawing().addShape(shape);
-			DRAWING_PANEL.redraw();
-		});
+	public Map<Connection, OutboundQueue> getOutboundQueues() {
+		if (hostSession != null) return hostSession.getOutboundQueues();
+
+		return Collections.emptyMap();
 	}
 
 	/**
-	 * Starts a new server, if one isn't started already. To avoid blocking the EDT, the server's
-	 * observable is subscribed to the I/O scheduler. The observable is hot, and will autoconnect.
+	 * Set what to do with clients that can't keep up with the shapes sent to them. Only
+	 * affects clients that connect after the policy is set.
+	 *
+	 * @param policy the policy
 	 */
-	private void startServer() {
-		if (server == null) {
-			// use fromCallable so that server initialization doesn't block EDT
-			// multicast server, otherwise a new server will be emitted by the callable every time
-			server = Observable.fromCallable(Server::new)
-					.subscribeOn(Schedulers.io())
-					.publish()
-					.autoConnect(1);
-		}
+	public void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+		this.slowConsumerPolicy = policy;
+		if (hostSession != null) hostSession.setSlowConsumerPolicy(policy);
 	}
 
 	/**
-	 * Get an observable of all {@link Client}s connected to the given {@link Server}.
+	 * Set how long points of a freehand stroke are collected before they are sent to others
+	 * as a {@link StrokeSegment}. Shorter intervals let others see strokes sooner, at the cost
+	 * of sending more, smaller segments.
 	 *
-	 * @param listeningServer an observable with the server listening for clients
-	 * @return the Observable
+	 * @param millis the interval in milliseconds
 	 */
-	private Observable<Client> getClients(Observable<Server> listeningServer) {
-		return listeningServer.map(Server::start)
-				.flatMap(socket -> socket.map(Client::new)
-						.subscribeOn(Schedulers.io())
-				);
+	public void setStrokeInterval(long millis) {
+		this.strokeInterval = millis;
 	}
 
 	/**
-	 * Get an observable of shapes received from clients connected to the host. The Observable is
-	 * subscribed on the I/O scheduler.
+	 * Get the simplifier that removes points of freehand strokes that make no visible
+	 * difference, before they are drawn and sent to others. Can be used to change the tolerance
+	 * of the simplification, and to see how many points it removes.
 	 *
-	 * @param clients an observable of connected clients
-	 * @return the observable
+	 * @return the simplifier
 	 */
-	private Observable<Shape> getShapesFromClients(ConnectableObservable<Client> clients) {
-		return clients.flatMap(client -> Observable.<Shape>create(
-				emitter -> {
-					// keep getting shapes from client
-					// readObject blocks, so use io scheduler
-					while (!client.isShutdown()) {
-						try {
-							emitter.onNext((Shape) client.read());
-						} catch (SocketException e) {
-							// if we propagate the error when a client disconnects, the observable
-							// getting shapes from clients will restart, meaning all clients will be
-							// disconnected. We avoid that by handling the error here instead
-							displayError(e, "Client disconnected:");
-							client.shutdown();
-						} catch (Exception e) {
-							emitter.onError(e);
-							client.shutdown();
-						}
-					}
-					emitter.onComplete();
-				}).subscribeOn(Schedulers.io())
-		);
+	public StrokeSimplifier getStrokeSimplifier() {
+		return strokeSimplifier;
 	}
 
 	/**
-	 * An observable that sends the given shapes to the given clients. The observable is subscribed
-	 * to the I/O scheduler.
+	 * Get the measurement of how long it takes from the mouse being moved until the shapes drawn
+	 * with it are painted.
 	 *
-	 * @param clients the clients to send shapes to
-	 * @param shapes the shapes to send
-	 * @return the observable
+	 * @return the measurement
 	 */
-	private Observable<Shape> sendShapesToClients(ConnectableObservable<Client> clients,
-												  Observable<Shape> shapes) {
-		return clients.flatMap(c -> Observable.just(c)
-				.subscribeOn(Schedulers.io())
-				.repeat()
-				.zipWith(shapes, (client, shape) -> {
-					if (client.isShutdown()) return shape;
-
-					try {
-						client.write(shape);
-					} catch (Exception e) {
-						// shut down if the client has disconnected
-						client.shutdown();
-						throw e;
-					}
-
-					return shape;
-				})
-		);
+	public InkLatency getInkLatency() {
+		return inkLatency;
 	}
 
 	/**
-	 * Get a client that is connected to the host at the given port, which can be used to send
-	 * and receive shapes to the host. The observable is subscribed to the I/O scheduler.
+	 * Get the handoff that shapes are added to the drawing through. Can be used to change how
+	 * long the Event Dispatch Thread may spend adding shapes per frame.
 	 *
-	 * @param port the port of the host to connect to
-	 * @return the observable
+	 * @return the handoff
+	 */
+	public ShapeHandoff getShapeHandoff() {
+		return shapeHandoff;
+	}
+
+	/**
+	 * Undo the most recent change to the drawing, see {@link Drawing#undo()}. Like clearing the
+	 * drawing, it only changes what is shown here, and not the drawings of others in the same
+	 * room. Must be called on the Event Dispatch Thread.
 	 */
-	private Observable<Client> getClientConnectedToHost(int port) {
-		return Observable.just(port)
-				.subscribeOn(Schedulers.io())
-				.map(p -> new Socket("localhost", p))
-				.map(Client::new);
+	public void undo() {
+		if (drawingPanel.getDrawing().undo()) drawingPanel.redraw();
 	}
 
 	/**
-	 * An observable that sends the given shapes to the host the given client is connected to. The
-	 * observable is subscribed to the I/O scheduler.
+	 * Redo the most recently undone change to the drawing, see {@link Drawing#redo()}. Must be
+	 * called on the Event Dispatch Thread.
+	 */
+	public void redo() {
+		if (drawingPanel.getDrawing().redo()) drawingPanel.redraw();
+	}
+
+	/**
+	 * Export the drawing as it is now, as an image of the area of the drawing panel. A file
+	 * whose name ends with .svg is written as SVG, any other as PNG. Must be called on the Event
+	 * Dispatch Thread, but the image is written on a thread of its own once the returned
+	 * Completable is subscribed to, see {@link BoardExport}.
 	 *
-	 * @param client the client connected to the host to send the shapes to
-	 * @param shapes the shapes to send
-	 * @return the observable
+	 * @param file the file to write the image to
+	 * @param scale how much larger the image is than the drawing panel
+	 * @return a Completable that completes once the image has been written
 	 */
-	private Observable<Shape> sendShapesToHost(ConnectableObservable<Client> client,
-											   Observable<Shape> shapes) {
-		return client.flatMap(c -> shapes
-				.map(s -> {
-					try {
-						c.write(s);
-					} catch (Exception e) {
-						c.shutdown();
-						throw e;
-					}
-					return s;
-				})
-				.subscribeOn(Schedulers.io())
-		);
+	public Completable export(Path file, double scale) {
+		Drawing.Version shapes = drawingPanel.getDrawing().snapshot();
+		java.awt.Rectangle area = new java.awt.Rectangle(
+				0, 0, drawingPanel.getWidth(), drawingPanel.getHeight());
+		Color background = drawingPanel.getBackground();
+
+		return Completable.fromAction(() -> {
+			BoardExport export = new BoardExport(shapes.getShapes());
+
+			if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".svg")) {
+				try (Writer out = Files.newBufferedWriter(file)) {
+					export.writeSvg(out, area, scale, background);
+				}
+			} else {
+				try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+					export.writePng(out, area, scale, background);
+				}
+			}
+		}).subscribeOn(Schedulers.io());
 	}
 
 	/**
-	 * Get an observable of shapes received from the host the given client is connected to. The
-	 * observable is subscribed to the I/O scheduler.
+	 * Add a shape to the drawing. It will be added, together with the other shapes that arrive
+	 * before then, and drawn on Swing's Event Dispatch Thread.
 	 *
-	 * @param client the client connected to the host to receive shapes from
-	 * @return the observable
+	 * @param shape the shape to add
 	 */
-	private Observable<Shape> getShapesFromHost(ConnectableObservable<Client> client) {
-		return client.flatMap(c -> Observable.<Shape>create(
-				emitter -> {
-					// keep getting shapes from server
-					while (!c.isShutdown()) {
-						try {
-							emitter.onNext((Shape) c.read());
-						} catch (Exception e) {
-							emitter.onError(e);
-							c.shutdown();
-						}
-					}
-					emitter.onComplete();
-				}).subscribeOn(Schedulers.io())
-		);
+	private void addShapeToDrawing(Shape shape) {
+		shapeHandoff.offer(shape);
 	}
 
 	/**
@@ -359,28 +350,88 @@ public class MainFrame extends JFrame {
 	}
 
 	/**
-	 * Get an Observable that emits drawn shapes. The emitted shapes depend on the selected tool,
-	 * color and thickness.
+	 * Get an Observable that emits drawn shapes. The emitted shapes depend on the tool, color and
+	 * thickness selected when the mouse is pressed. Freehand strokes are emitted as
+	 * {@link StrokeSegment}s while they're being drawn, so that others can see them grow; other
+	 * shapes are emitted when the mouse is released.
+	 * <p>
+	 * The mouse is sampled by an {@link InputSampler}, so the shapes are assembled from batches
+	 * of points once every frame, off the Event Dispatch Thread.
 	 *
 	 * @return the Observable of the shapes
 	 */
 	private Observable<Shape> drawShapes() {
-		// Get the events of the mouse being pressed and dragged until the button is released,
-		// and use the coordinates from the events to create a new shapes
-		return getMousePressedEvent().mergeWith(getMouseDraggedEvent())
-				.map(e -> new Point(e.getX(), e.getY()))
-				.buffer(getMouseReleasedEvent())
-				.map(this::createShape);
+		// strokes are emitted when the mouse is pressed, on the Event Dispatch Thread
+		return Observable.concat(inputSampler.strokes().map(batches -> {
+			Tool tool = this.tool;
+			int thickness = this.thickness;
+			Color color = this.color;
+			// when the oldest point that hasn't made it into a shape yet was sampled
+			AtomicLong sampledAt = new AtomicLong();
+
+			if (tool == Tool.FREEHAND) {
+				Observable<Point> points = batches
+						.doOnNext(batch -> sampledAt.compareAndSet(0, batch.firstSampled()))
+						.concatMapIterable(InputSampler.Batch::points);
+
+				return streamStroke(points, thickness, color, sampledAt);
+			}
+
+			return batches
+					.doOnNext(batch -> sampledAt.set(batch.firstSampled()))
+					.concatMapIterable(InputSampler.Batch::points)
+					.toList()
+					.map(points -> createShape(points, tool, thickness, color))
+					.doOnSuccess(shape -> inkLatency.assembled(shape, sampledAt.get()))
+					.toObservable();
+		}));
+	}
+
+	/**
+	 * Get an Observable that emits the segments of a freehand stroke through the given points.
+	 * New points are collected for the set stroke interval, and simplified, before being emitted
+	 * as a segment.
+	 *
+	 * @param points the points of the stroke, which completes when the stroke is finished
+	 * @param thickness the thickness of the stroke
+	 * @param color the color of the stroke
+	 * @param sampledAt when the oldest point that isn't in a segment yet was sampled, which is
+	 *                  reset to 0 as each segment is emitted
+	 * @return the Observable of the stroke's segments
+	 */
+	private Observable<Shape> streamStroke(
+			Observable<Point> points, int thickness, Color color, AtomicLong sampledAt) {
+		return Observable.defer(() -> {
+			int strokeId = ThreadLocalRandom.current().nextInt(StrokeSegment.MAX_STROKE_ID);
+			AtomicReference<Point> previous = new AtomicReference<>();
+
+			return points
+					.compose(strokeSimplifier.simplify(strokeInterval, TimeUnit.MILLISECONDS))
+					.map(batch -> {
+						Point last = previous.getAndSet(batch.get(batch.size() - 1));
+						Shape segment = last == null
+								? StrokeSegment.begin(strokeId, batch, thickness, color)
+								: StrokeSegment.append(strokeId, last, batch);
+
+						long sampled = sampledAt.getAndSet(0);
+						if (sampled != 0) inkLatency.assembled(segment, sampled);
+						return segment;
+					})
+					.concatWith(Observable.just(StrokeSegment.end(strokeId)));
+		});
 	}
 
 	/**
 	 * Create a new {@link Shape} from the given {@link Point}s. The concrete shape that is created
-	 * is determined by the currently selected tool.
+	 * is determined by the given tool.
 	 *
 	 * @param points the points to create the shape from
+	 * @param tool the tool the shape was drawn with
+	 * @param thickness the thickness of the shape
+	 * @param color the color of the shape
 	 * @return the shape
 	 */
-	private Shape createShape(List<Point> points) {
+	private Shape createShape(List<Point> points, Tool tool, int thickness, Color color) {
 		Point start = points.get(0);
 		Point end = points.get(points.size() - 1);
 
@@ -388,57 +439,7 @@ public class MainFrame extends JFrame {
 		if (tool == Tool.OVAL ) return new Oval(start, end, thickness, color);
 		if (tool == Tool.RECTANGLE) return new Rectangle(start, end, thickness, color);
 
-		FreehandLine freehandLine = new FreehandLine(start, end, thickness, color);
-		points.forEach(freehandLine::addPoint);
-		return freehandLine;
-	}
-
-	/**
-	 * Get and Observable that emits a MouseEvent every time the mouse is pressed.
-	 *
-	 * @return the Observable.
-	 */
-	private Observable<MouseEvent> getMousePressedEvent() {
-		return Observable.create(emitter ->
-				DRAWING_PANEL.addMouseListener(new MouseAdapter() {
-					@Override
-					public void mousePressed(MouseEvent event) {
-						emitter.onNext(event);
-					}
-				})
-		);
-	}
-
-	/**
-	 * Get and Observable that emits a MouseEvent every time the mouse is released.
-	 *
-	 * @return the Observable.
-	 */
-	private Observable<MouseEvent> getMouseReleasedEvent() {
-		return Observable.create(emitter ->
-				DRAWING_PANEL.addMouseListener(new MouseAdapter() {
-					@Override
-					public void mouseReleased(MouseEvent event) {
-						emitter.onNext(event);
-					}
-				})
-		);
-	}
-
-	/**
-	 * Get and Observable that emits a MouseEvent when the mouse is dragged.
-	 *
-	 * @return the Observable.
-	 */
-	private Observable<MouseEvent> getMouseDraggedEvent() {
-		return Observable.create(emitter ->
-				DRAWING_PANEL.addMouseMotionListener(new MouseMotionAdapter() {
-					@Override
-					public void mouseDragged(MouseEvent event) {
-						emitter.onNext(event);
-					}
-				})
-		);
+		return FreehandLine.through(points, thickness, color);
 	}
 
 	/**
@@ -1,10 +1,18 @@
 package com.sim_kar.reactive_paint;
 
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JFileChooser;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.io.IOException;
+import java.nio.file.Path;
 
 
 /**
@@ -14,6 +22,8 @@ import java.io.IOException;
 public class Menu extends JMenuBar {
 
 	private static final long serialVersionUID = 1L;
+	private JCheckBoxMenuItem nonBlocking;
+	private JCheckBoxMenuItem virtualThreads;
 
 	/**
 	 * Construct a new Menu that can trigger events in the given {@link MainFrame}.
@@ -29,6 +39,13 @@ public class Menu extends JMenuBar {
 		JMenu menu;
 		JMenuItem menuItem;
 
+		menu = new JMenu("File");
+		this.add(menu);
+
+		menuItem = new JMenuItem("Export image");
+		menuItem.addActionListener(e -> export(frame));
+		menu.add(menuItem);
+
 		menu = new JMenu("Connect");
 		this.add(menu);
 
@@ -40,6 +57,69 @@ public class Menu extends JMenuBar {
 		menuItem = new JMenuItem("Join");
 		menuItem.addActionListener(e ->  join(frame));
 		menu.add(menuItem);
+
+		menu.addSeparator();
+
+		nonBlocking = new JCheckBoxMenuItem("Non-blocking I/O");
+		menu.add(nonBlocking);
+
+		// blocking I/O on virtual threads, which needs a JVM that has them
+		virtualThreads = new JCheckBoxMenuItem("Virtual threads");
+		virtualThreads.setEnabled(Transport.VIRTUAL.isAvailable());
+		nonBlocking.addActionListener(e -> virtualThreads.setEnabled(
+				!nonBlocking.isSelected() && Transport.VIRTUAL.isAvailable()));
+		menu.add(virtualThreads);
+
+		JMenu slowClients = new JMenu("Slow clients");
+		ButtonGroup policies = new ButtonGroup();
+		addPolicy(frame, slowClients, policies, "Drop and resync",
+				SlowConsumerPolicy.DROP_AND_RESYNC, true);
+		addPolicy(frame, slowClients, policies, "Coalesce", SlowConsumerPolicy.COALESCE, false);
+		addPolicy(frame, slowClients, policies, "Disconnect", SlowConsumerPolicy.DISCONNECT, false);
+		menu.add(slowClients);
+
+		menuItem = new JMenuItem("Participants");
+		menuItem.addActionListener(e -> showParticipants(frame));
+		menu.add(menuItem);
+
+		menu = new JMenu("Draw");
+		this.add(menu);
+
+		menuItem = new JMenuItem("Undo");
+		menuItem.setAccelerator(KeyStroke.getKeyStroke("control Z"));
+		menuItem.addActionListener(e -> frame.undo());
+		menu.add(menuItem);
+
+		menuItem = new JMenuItem("Redo");
+		menuItem.setAccelerator(KeyStroke.getKeyStroke("control Y"));
+		menuItem.addActionListener(e -> frame.redo());
+		menu.add(menuItem);
+
+		menu.addSeparator();
+
+		JMenu tolerance = new JMenu("Stroke tolerance");
+		ButtonGroup tolerances = new ButtonGroup();
+		addTolerance(frame, tolerance, tolerances, "Off", 0);
+		addTolerance(frame, tolerance, tolerances, "0.5 px", 0.5);
+		addTolerance(frame, tolerance, tolerances, "1 px", 1);
+		addTolerance(frame, tolerance, tolerances, "2 px", 2);
+		menu.add(tolerance);
+
+		JMenu paintBudget = new JMenu("Paint budget");
+		ButtonGroup budgets = new ButtonGroup();
+		addPaintBudget(frame, paintBudget, budgets, "Unlimited", 0);
+		addPaintBudget(frame, paintBudget, budgets, "4 ms", 4);
+		addPaintBudget(frame, paintBudget, budgets, "8 ms", 8);
+		addPaintBudget(frame, paintBudget, budgets, "16 ms", 16);
+		menu.add(paintBudget);
+
+		menuItem = new JMenuItem("Stroke statistics");
+		menuItem.addActionListener(e -> showStrokeStatistics(frame));
+		menu.add(menuItem);
+
+		menuItem = new JMenuItem("Input latency");
+		menuItem.addActionListener(e -> showInkLatency(frame));
+		menu.add(menuItem);
 	}
 
 	/**
@@ -50,7 +130,7 @@ public class Menu extends JMenuBar {
 	 */
 	private void host(MainFrame frame) {
 		try {
-			frame.host();
+			frame.host(transport());
 
 			frame.getPort().subscribe(port -> {
 				frame.setTitle(frame.getTitle() + " [Hosting on port " + port + "]");
@@ -63,18 +143,23 @@ public class Menu extends JMenuBar {
 
 	/**
 	 * Instruct the given frame to connect to a host as a client. Will show an input dialog where
-	 * the user must enter the port of a host. A connection will only be established if the entered
-	 * port corresponds to an open socket; otherwise an error dialog will be shown.
+	 * the user must enter the port of a host, optionally followed by a slash and the name of a
+	 * room to join. A connection will only be established if the entered port corresponds to an
+	 * open socket; otherwise an error dialog will be shown.
 	 *
 	 * @param frame the client frame
 	 */
 	private void join(MainFrame frame) {
-		String input = JOptionPane.showInputDialog(frame, "Select a port to connect to.");
+		String input = JOptionPane.showInputDialog(frame,
+				"Select a port to connect to, optionally followed by /room.");
+		if (input == null) return;
 
 		try {
-			int port = Integer.parseInt(input);
+			String[] address = input.split("/", 2);
+			int port = Integer.parseInt(address[0].trim());
+			String room = address.length > 1 ? address[1].trim() : HostSession.DEFAULT_ROOM;
 
-			frame.join(port);
+			frame.join(port, room, transport());
 		} catch (NumberFormatException e) {
 			JOptionPane.showMessageDialog(frame, "The port needs to be a number.");
 		} catch (IOException e) {
@@ -82,4 +167,164 @@ public class Menu extends JMenuBar {
 		}
 	}
 
+	/**
+	 * Export the drawing of the given frame as a PNG or SVG image. Will show a dialog where the
+	 * user picks the file, and one where the user enters how much larger than the drawing panel
+	 * the image should be, for example 4 for a print. A dialog is shown once the image has been
+	 * written, which may take a while for a large image, or if it can't be written.
+	 *
+	 * @param frame the frame to export the drawing of
+	 */
+	private void export(MainFrame frame) {
+		JFileChooser chooser = new JFileChooser();
+		chooser.addChoosableFileFilter(new FileNameExtensionFilter("PNG image", "png"));
+		chooser.addChoosableFileFilter(new FileNameExtensionFilter("SVG image", "svg"));
+		if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+
+		Path file = chooser.getSelectedFile().toPath();
+		String input = JOptionPane.showInputDialog(frame,
+				"How many times larger than the drawing should the image be?", "1");
+		if (input == null) return;
+
+		double scale;
+		try {
+			scale = Double.parseDouble(input.trim());
+			if (!(scale > 0)) throw new NumberFormatException();
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(frame, "The scale needs to be a positive number.");
+			return;
+		}
+
+		frame.export(file, scale).subscribe(
+				() -> SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+						frame, "Exported to " + file)),
+				e -> SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+						frame, "Unable to export the image.\n" + e.getMessage())));
+	}
+
+	/**
+	 * Add an option for a {@link SlowConsumerPolicy} to the given menu.
+	 *
+	 * @param frame the frame to set the policy of
+	 * @param menu the menu to add the option to
+	 * @param group the group of options that only one can be selected in
+	 * @param text the text of the option
+	 * @param policy the policy of the option
+	 * @param selected whether the option is selected to begin with
+	 */
+	private void addPolicy(MainFrame frame, JMenu menu, ButtonGroup group, String text,
+						   SlowConsumerPolicy policy, boolean selected) {
+		JRadioButtonMenuItem item = new JRadioButtonMenuItem(text, selected);
+		item.addActionListener(e -> frame.setSlowConsumerPolicy(policy));
+		group.add(item);
+		menu.add(item);
+	}
+
+	/**
+	 * Add an option for the tolerance of stroke simplification to the given menu. The option is
+	 * selected if it's the frame's current tolerance.
+	 *
+	 * @param frame the frame to set the tolerance of
+	 * @param menu the menu to add the option to
+	 * @param group the group of options that only one can be selected in
+	 * @param text the text of the option
+	 * @param tolerance the tolerance in pixels, or zero for no simplification
+	 */
+	private void addTolerance(MainFrame frame, JMenu menu, ButtonGroup group, String text,
+							  double tolerance) {
+		StrokeSimplifier simplifier = frame.getStrokeSimplifier();
+		JRadioButtonMenuItem item = new JRadioButtonMenuItem(text,
+				simplifier.tolerance() == tolerance);
+		item.addActionListener(e -> simplifier.setTolerance(tolerance));
+		group.add(item);
+		menu.add(item);
+	}
+
+	/**
+	 * Add an option for how long the frame may spend adding received shapes to its drawing
+	 * before repainting, to the given menu. The option is selected if it's the frame's current
+	 * budget.
+	 *
+	 * @param frame the frame to set the budget of
+	 * @param menu the menu to add the option to
+	 * @param group the group of options that only one can be selected in
+	 * @param text the text of the option
+	 * @param millis the budget in milliseconds, or zero for no limit
+	 */
+	private void addPaintBudget(MainFrame frame, JMenu menu, ButtonGroup group, String text,
+								long millis) {
+		ShapeHandoff handoff = frame.getShapeHandoff();
+		JRadioButtonMenuItem item = new JRadioButtonMenuItem(text,
+				handoff.getFrameBudget() == millis);
+		item.addActionListener(e -> handoff.setFrameBudget(millis));
+		group.add(item);
+		menu.add(item);
+	}
+
+	/**
+	 * Show how many points of the strokes drawn in the given frame have been removed by
+	 * simplification.
+	 *
+	 * @param frame the frame
+	 */
+	private void showStrokeStatistics(MainFrame frame) {
+		StrokeSimplifier simplifier = frame.getStrokeSimplifier();
+
+		JOptionPane.showMessageDialog(frame, String.format(
+				"Kept %d of %d points (%.1f%% fewer)",
+				simplifier.pointsOut(), simplifier.pointsIn(),
+				simplifier.reductionRatio() * 100));
+	}
+
+	/**
+	 * Show how long it has taken the given frame from the mouse being moved until the shapes
+	 * drawn with it were painted, how many frames were dropped on the way, and how many batches
+	 * shapes have been added to the drawing in.
+	 *
+	 * @param frame the frame
+	 */
+	private void showInkLatency(MainFrame frame) {
+		InkLatency latency = frame.getInkLatency();
+		ShapeHandoff handoff = frame.getShapeHandoff();
+
+		JOptionPane.showMessageDialog(frame, String.format(
+				"Painted %d shapes, %.1f ms after input on average (at most %.1f ms)%n"
+						+ "%d frames dropped%n"
+						+ "Added %d shapes to the drawing in %d batches, %d waiting",
+				latency.getShapesInked(), latency.getMeanNanos() / 1e6,
+				latency.getMaxNanos() / 1e6, latency.getFramesDropped(),
+				handoff.getShapesTaken(), handoff.getTasks(), handoff.backlog()));
+	}
+
+	/**
+	 * Show how far behind each client of the given frame is, and how many frames it has had
+	 * dropped.
+	 *
+	 * @param frame the host frame
+	 */
+	private void showParticipants(MainFrame frame) {
+		StringBuilder message = new StringBuilder();
+
+		frame.getOutboundQueues().forEach((client, queue) -> message
+				.append(client.getRemoteAddress())
+				.append(": ").append(queue.lag()).append(" frames behind, ")
+				.append(queue.droppedFrames()).append(" dropped, ")
+				.append(queue.coalescedFrames()).append(" coalesced\n"));
+
+		if (message.length() == 0) message.append("No connected clients.");
+
+		JOptionPane.showMessageDialog(frame, message.toString());
+	}
+
+	/**
+	 * Get the transport selected in this menu.
+	 *
+	 * @return the transport
+	 */
+	private Transport transport() {
+		if (nonBlocking.isSelected()) return Transport.NIO;
+
+		return virtualThreads.isSelected() ? Transport.VIRTUAL : Transport.BLOCKING;
+	}
+
 }
@@ -0,0 +1,698 @@
+package com.sim_kar.reactive_paint;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * <h1>Metrics</h1>
+ * Instrumentation of the application, exposed as MBeans on the platform MBean server, so that a
+ * running host or client can be watched with JConsole, VisualVM or any other JMX client. All
+ * MBeans are in the {@value #DOMAIN} domain:
+ * <ul>
+ *     <li>{@code type=Pipeline}: bytes read from and written to sockets, frames encoded and
+ *     decoded and the time it took, and the threads of {@code Schedulers.io()}</li>
+ *     <li>{@code type=Room}: the clients and links of each room of a {@link HostSession}, the
+ *     shapes received in it, and the size of its {@link FrameLog} and snapshot</li>
+ *     <li>{@code type=Client}: the shapes received from and sent to each client of a room, how
+ *     far behind its {@link OutboundQueue} is, and how much its frames are compressed and what
+ *     that costs</li>
+ *     <li>{@code type=Painting}: the time spent painting a {@link DrawingPanel}, and the shapes
+ *     waiting to be handed to Swing's Event Dispatch Thread</li>
+ * </ul>
+ * Counts only ever grow, and rates are per second over the time since the previous time they
+ * were read, but at least a second.
+ * <p>
+ * By default, metrics cost every event no more than a few counter increments. Timing encoding
+ * and decoding takes reading the clock twice for every frame, so it is only done in detailed
+ * mode, which is switched on with the {@code Detailed} attribute of the pipeline, or by starting
+ * the JVM with {@code -Dreactive-paint.metrics.detailed=true}.
+ */
+public final class Metrics {
+
+    /**
+     * The domain of the names of all MBeans.
+     */
+    public static final String DOMAIN = "com.sim_kar.reactive_paint";
+
+    // the threads of Schedulers.io() are named after the scheduler's thread factory
+    private static final String IO_THREAD_PREFIX = "RxCachedThreadScheduler";
+
+    private static volatile boolean detailed =
+            Boolean.getBoolean("reactive-paint.metrics.detailed");
+    private static final Rate bytesRead = new Rate();
+    private static final Rate bytesWritten = new Rate();
+    private static final LongAdder framesEncoded = new LongAdder();
+    private static final LongAdder encodeNanos = new LongAdder();
+    private static final LongAdder framesTimedEncoding = new LongAdder();
+    private static final LongAdder framesDecoded = new LongAdder();
+    private static final LongAdder decodeNanos = new LongAdder();
+    private static final LongAdder framesTimedDecoding = new LongAdder();
+
+    static {
+        register(name("type", "Pipeline"), new Pipeline(), PipelineMBean.class);
+    }
+
+    private Metrics() {}
+
+    /**
+     * Check whether metrics are in detailed mode, in which encoding and decoding are timed.
+     *
+     * @return whether metrics are detailed
+     */
+    public static boolean isDetailed() {
+        return detailed;
+    }
+
+    /**
+     * Switch detailed mode on or off.
+     *
+     * @param detailed whether metrics should be detailed
+     */
+    public static void setDetailed(boolean detailed) {
+        Metrics.detailed = detailed;
+    }
+
+    /**
+     * Note that a frame is about to be encoded or decoded.
+     *
+     * @return the time to pass to {@link Metrics#encoded(long)} or {@link Metrics#decoded(long)},
+     *     which is 0 unless metrics are detailed
+     */
+    static long start() {
+        return detailed ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Count a frame that has been encoded.
+     *
+     * @param start the time returned by {@link Metrics#start()}
+     */
+    static void encoded(long start) {
+        framesEncoded.increment();
+        if (start == 0) return;
+
+        encodeNanos.add(System.nanoTime() - start);
+        framesTimedEncoding.increment();
+    }
+
+    /**
+     * Count a frame that has been decoded.
+     *
+     * @param start the time returned by {@link Metrics#start()}
+     */
+    static void decoded(long start) {
+        framesDecoded.increment();
+        if (start == 0) return;
+
+        decodeNanos.add(System.nanoTime() - start);
+        framesTimedDecoding.increment();
+    }
+
+    /**
+     * Count bytes read from a socket.
+     *
+     * @param bytes the number of bytes
+     */
+    static void read(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Count bytes written to a socket.
+     *
+     * @param bytes the number of bytes
+     */
+    static void written(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Get the name of an MBean in the {@value #DOMAIN} domain.
+     *
+     * @param keysAndValues the keys of the name, each followed by its value, which is quoted if
+     *     it has characters that a value can't have otherwise
+     * @return the name
+     */
+    static ObjectName name(String... keysAndValues) {
+        StringBuilder name = new StringBuilder(DOMAIN).append(':');
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0) name.append(',');
+            name.append(keysAndValues[i]).append('=').append(value(keysAndValues[i + 1]));
+        }
+
+        try {
+            return new ObjectName(name.toString());
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static String value(String value) {
+        return !value.isEmpty() && value.matches("[\\w.\\-]*") ? value : ObjectName.quote(value);
+    }
+
+    /**
+     * Register an MBean, replacing any registered under the same name. Metrics are never worth
+     * failing for, so an MBean that can't be registered is left out.
+     *
+     * @param name the name of the MBean
+     * @param mbean the MBean
+     * @param type the interface of the MBean, whose getters are its attributes
+     * @param <T> the type of the interface
+     */
+    static <T> void register(ObjectName name, T mbean, Class<T> type) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(new StandardMBean(mbean, type), name);
+        } catch (JMException e) {
+            // left out
+        }
+    }
+
+    /**
+     * Unregister an MBean, if it is registered.
+     *
+     * @param name the name of the MBean
+     */
+    static void unregister(ObjectName name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // already unregistered
+        }
+    }
+
+    /**
+     * The metrics of the pipeline from shapes to sockets and back, of everything in this JVM.
+     */
+    public interface PipelineMBean {
+        /**
+         * Get the number of bytes read from sockets.
+         *
+         * @return the number of bytes
+         */
+        long getBytesRead();
+
+        /**
+         * Get how many bytes have been read from sockets per second, lately.
+         *
+         * @return the number of bytes per second
+         */
+        double getBytesReadPerSecond();
+
+        /**
+         * Get the number of bytes written to sockets.
+         *
+         * @return the number of bytes
+         */
+        long getBytesWritten();
+
+        /**
+         * Get how many bytes have been written to sockets per second, lately.
+         *
+         * @return the number of bytes per second
+         */
+        double getBytesWrittenPerSecond();
+
+        /**
+         * Get the number of frames that have been encoded, including snapshots.
+         *
+         * @return the number of frames
+         */
+        long getFramesEncoded();
+
+        /**
+         * Get the mean time it took to encode a frame, while metrics were detailed.
+         *
+         * @return the time in microseconds
+         */
+        double getMeanEncodeMicros();
+
+        /**
+         * Get the number of frames that have been decoded.
+         *
+         * @return the number of frames
+         */
+        long getFramesDecoded();
+
+        /**
+         * Get the mean time it took to decode a frame, while metrics were detailed.
+         *
+         * @return the time in microseconds
+         */
+        double getMeanDecodeMicros();
+
+        /**
+         * Get the number of threads of {@code Schedulers.io()}, including idle ones it keeps for a
+         * while.
+         *
+         * @return the number of threads
+         */
+        int getIoThreads();
+
+        /**
+         * Get the number of threads of {@code Schedulers.io()} that are running rather than
+         * waiting.
+         *
+         * @return the number of threads
+         */
+        int getBusyIoThreads();
+
+        /**
+         * Check whether metrics are in detailed mode, in which encoding and decoding are timed.
+         *
+         * @return whether metrics are detailed
+         */
+        boolean isDetailed();
+
+        /**
+         * Switch detailed mode on or off.
+         *
+         * @param detailed whether metrics should be detailed
+         */
+        void setDetailed(boolean detailed);
+    }
+
+    /**
+     * The metrics of a room of a host.
+     */
+    public interface RoomMBean {
+        /**
+         * Get the name of the room.
+         *
+         * @return the name, where the empty name is the default room
+         */
+        String getName();
+
+        /**
+         * Get the number of clients in the room.
+         *
+         * @return the number of clients
+         */
+        int getClientCount();
+
+        /**
+         * Get the number of hosts the room is linked to.
+         *
+         * @return the number of links
+         */
+        int getLinkCount();
+
+        /**
+         * Get the number of clients that have joined the room.
+         *
+         * @return the number of clients
+         */
+        long getClientsJoined();
+
+        /**
+         * Get the number of clients that have rejoined the room and were only sent the frames
+         * they missed.
+         *
+         * @return the number of clients
+         */
+        long getClientsResumed();
+
+        /**
+         * Get the number of shapes received from clients of the room.
+         *
+         * @return the number of shapes
+         */
+        long getShapesReceived();
+
+        /**
+         * Get how many shapes have been received from clients per second, lately.
+         *
+         * @return the number of shapes per second
+         */
+        double getShapesReceivedPerSecond();
+
+        /**
+         * Get the number of new shapes received over links to other hosts.
+         *
+         * @return the number of shapes
+         */
+        long getShapesRelayed();
+
+        /**
+         * Get the number of shapes received over links that had already been received.
+         *
+         * @return the number of shapes
+         */
+        long getDuplicatesDropped();
+
+        /**
+         * Get the number of frames appended to the log of the room.
+         *
+         * @return the number of frames
+         */
+        long getFramesLogged();
+
+        /**
+         * Get the number of frames the log of the room keeps for clients that are behind.
+         *
+         * @return the number of frames
+         */
+        long getFramesKept();
+
+        /**
+         * Get the size of the snapshot of the board that joining clients are sent.
+         *
+         * @return the number of bytes
+         */
+        int getSnapshotBytes();
+
+        /**
+         * Get the number of shapes in the snapshot of the board.
+         *
+         * @return the number of shapes
+         */
+        int getSnapshotShapes();
+    }
+
+    /**
+     * The metrics of a client of a room.
+     */
+    public interface ClientMBean {
+        /**
+         * Get the address of the client.
+         *
+         * @return the address
+         */
+        String getRemoteAddress();
+
+        /**
+         * Get the name of the room the client is in.
+         *
+         * @return the name, where the empty name is the default room
+         */
+        String getRoom();
+
+        /**
+         * Get the number of shapes received from the client.
+         *
+         * @return the number of shapes
+         */
+        long getShapesIn();
+
+        /**
+         * Get how many shapes have been received from the client per second, lately.
+         *
+         * @return the number of shapes per second
+         */
+        double getShapesInPerSecond();
+
+        /**
+         * Get the number of shapes sent to the client, including those in snapshots.
+         *
+         * @return the number of shapes
+         */
+        long getShapesOut();
+
+        /**
+         * Get how many shapes have been sent to the client per second, lately.
+         *
+         * @return the number of shapes per second
+         */
+        double getShapesOutPerSecond();
+
+        /**
+         * Get the number of bytes of the frames sent to the client.
+         *
+         * @return the number of bytes
+         */
+        long getBytesOut();
+
+        /**
+         * Get how many frames the client is behind the log of its room.
+         *
+         * @return the number of frames
+         */
+        long getLag();
+
+        /**
+         * Get the number of frames that were dropped because the client couldn't keep up.
+         *
+         * @return the number of frames
+         */
+        long getDroppedFrames();
+
+        /**
+         * Get the number of frames that were coalesced because the client couldn't keep up.
+         *
+         * @return the number of frames
+         */
+        long getCoalescedFrames();
+
+        /**
+         * Check whether the frames sent to and received from the client are compressed.
+         *
+         * @return whether the frames are compressed
+         */
+        boolean isCompressed();
+
+        /**
+         * Get the number of frames that were compressed before they were sent to the client.
+         *
+         * @return the number of frames
+         */
+        long getFramesCompressed();
+
+        /**
+         * Get how many times smaller the frames that were compressed for the client became.
+         *
+         * @return the ratio of their size to the bytes that were sent, or 1 if none were
+         */
+        double getCompressionRatio();
+
+        /**
+         * Get the number of bytes that compressing the frames sent to the client has saved.
+         *
+         * @return the number of bytes
+         */
+        long getBytesSaved();
+
+        /**
+         * Get the time spent compressing the frames sent to the client and decompressing those
+         * received from it.
+         *
+         * @return the time in milliseconds
+         */
+        double getCompressionMillis();
+    }
+
+    /**
+     * The metrics of painting a drawing.
+     */
+    public interface PaintingMBean {
+        /**
+         * Get the number of times the drawing has been painted.
+         *
+         * @return the number of paints
+         */
+        long getPaints();
+
+        /**
+         * Get the mean time it took to paint the drawing, on the Event Dispatch Thread.
+         *
+         * @return the time in milliseconds
+         */
+        double getMeanPaintMillis();
+
+        /**
+         * Get the longest time it took to paint the drawing once.
+         *
+         * @return the time in milliseconds
+         */
+        double getMaxPaintMillis();
+
+        /**
+         * Get the number of shapes waiting to be handed to the Event Dispatch Thread.
+         *
+         * @return the number of shapes
+         */
+        int getHandoffBacklog();
+
+        /**
+         * Get the number of shapes that have been handed to the Event Dispatch Thread.
+         *
+         * @return the number of shapes
+         */
+        long getShapesHandedOff();
+
+        /**
+         * Get the number of tasks that shapes have been handed to the Event Dispatch Thread in.
+         *
+         * @return the number of tasks
+         */
+        long getHandoffTasks();
+
+        /**
+         * Get the number of shapes drawn with the mouse that have been painted.
+         *
+         * @return the number of shapes
+         */
+        long getShapesInked();
+
+        /**
+         * Get the mean time from the mouse being moved until the shapes drawn with it were painted.
+         *
+         * @return the time in milliseconds
+         */
+        double getMeanInkLatencyMillis();
+
+        /**
+         * Get the number of frames that shapes drawn with the mouse were painted late by.
+         *
+         * @return the number of frames
+         */
+        long getFramesDropped();
+    }
+
+    /**
+     * A count, and how fast it has grown lately.
+     */
+    static final class Rate {
+        private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final LongAdder count = new LongAdder();
+        private long windowStart = System.nanoTime();
+        private long windowCount;
+        private double perSecond;
+
+        /**
+         * Add to the count.
+         *
+         * @param n the amount to add
+         */
+        void add(long n) {
+            count.add(n);
+        }
+
+        /**
+         * Get the count.
+         *
+         * @return the count
+         */
+        long total() {
+            return count.sum();
+        }
+
+        /**
+         * Get how much the count has grown per second, since the previous time this was called
+         * at least a second ago.
+         *
+         * @return the rate
+         */
+        synchronized double perSecond() {
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+
+            if (elapsed >= WINDOW_NANOS) {
+                long total = count.sum();
+                perSecond = (total - windowCount) * 1e9 / elapsed;
+                windowStart = now;
+                windowCount = total;
+            }
+
+            return perSecond;
+        }
+    }
+
+    private static final class Pipeline implements PipelineMBean {
+        @Override
+        public long getBytesRead() {
+            return bytesRead.total();
+        }
+
+        @Override
+        public double getBytesReadPerSecond() {
+            return bytesRead.perSecond();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten.total();
+        }
+
+        @Override
+        public double getBytesWrittenPerSecond() {
+            return bytesWritten.perSecond();
+        }
+
+        @Override
+        public long getFramesEncoded() {
+            return framesEncoded.sum();
+        }
+
+        @Override
+        public double getMeanEncodeMicros() {
+            return mean(encodeNanos, framesTimedEncoding) / 1000;
+        }
+
+        @Override
+        public long getFramesDecoded() {
+            return framesDecoded.sum();
+        }
+
+        @Override
+        public double getMeanDecodeMicros() {
+            return mean(decodeNanos, framesTimedDecoding) / 1000;
+        }
+
+        @Override
+        public int getIoThreads() {
+            return countIoThreads(false);
+        }
+
+        @Override
+        public int getBusyIoThreads() {
+            return countIoThreads(true);
+        }
+
+        @Override
+        public boolean isDetailed() {
+            return Metrics.isDetailed();
+        }
+
+        @Override
+        public void setDetailed(boolean detailed) {
+            Metrics.setDetailed(detailed);
+        }
+
+        private static double mean(LongAdder total, LongAdder count) {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        /**
+         * Count the threads of {@code Schedulers.io()}, which only keeps idle threads for a
+         * while.
+         *
+         * @param busy whether to only count threads that are running rather than waiting
+         * @return the number of threads
+         */
+        private static int countIoThreads(boolean busy) {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            int count = 0;
+
+            for (ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds(), 0)) {
+                if (thread == null || !thread.getThreadName().startsWith(IO_THREAD_PREFIX)) {
+                    continue;
+                }
+                if (!busy || thread.getThreadState() == Thread.State.RUNNABLE) count++;
+            }
+
+            return count;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import io.reactivex.rxjava3.subjects.UnicastSubject;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Connection} over a non-blocking {@link SocketChannel}. All reading and writing is done
+ * by a {@link NioEventLoop}, so the connection doesn't need a thread of its own. This is the
+ * connection used by the {@link Transport#NIO} transport.
+ */
+class NioConnection implements Connection, NioEventLoop.Handler {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final Subject<Shape> received;
+    private final Queue<Pending> outbound;
+    private final AtomicBoolean writeRequested;
+    private final SingleSubject<Handshake> handshake;
+    private final AtomicBoolean handshakeDone;
+    // only hosts send snapshots, so one can't come over an accepted connection
+    private final boolean snapshots;
+    private ByteBuffer input;
+    private boolean preambleRead;
+    private SelectionKey key;
+
+    /**
+     * Create a new connection over the given, connected channel, and register it with the given
+     * loop. The protocol preamble and the handshake are sent as soon as the channel is
+     * registered.
+     *
+     * @param channel the connected channel
+     * @param loop the loop that will do the channel's I/O
+     * @param handshake the handshake to send, which is {@link Handshake#ACCEPT} if accepting
+     *     the connection
+     * @throws IOException if an I/O error occurs when configuring the channel
+     */
+    NioConnection(SocketChannel channel, NioEventLoop loop, Handshake handshake)
+            throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        // buffer shapes that arrive before anyone has subscribed
+        this.received = UnicastSubject.<Shape>create().toSerialized();
+        this.outbound = new ConcurrentLinkedQueue<>();
+        this.writeRequested = new AtomicBoolean(true);
+        this.handshake = SingleSubject.create();
+        this.snapshots = handshake != Handshake.ACCEPT;
+        this.handshakeDone = new AtomicBoolean();
+        this.input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+        channel.configureBlocking(false);
+        outbound.add(new Pending(ByteBuffer.wrap(ShapeCodec.preamble()), null));
+        outbound.add(new Pending(ByteBuffer.wrap(ShapeCodec.handshake(handshake)), null));
+
+        loop.execute(() -> {
+            try {
+                key = loop.register(channel, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+            } catch (ClosedChannelException e) {
+                failed(e);
+            }
+        });
+    }
+
+    /**
+     * Connect to the host at the given address.
+     *
+     * @param host the name of the host
+     * @param port the port of the host
+     * @param handshake the handshake to send, naming the room to join
+     * @return the connection
+     * @throws IOException if an I/O error occurs when connecting
+     */
+    static NioConnection connect(String host, int port, Handshake handshake)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        return new NioConnection(channel, NioEventLoop.shared(), handshake);
+    }
+
+    @Override
+    public Observable<Shape> shapes() {
+        return received;
+    }
+
+    @Override
+    public Single<Handshake> handshake() {
+        return handshake.hide();
+    }
+
+    /**
+     * Get a Flowable that sends the given frames over this connection. Frames are queued for
+     * the event loop on whichever thread emits them, and more frames are requested as the event
+     * loop finishes writing them to the channel.
+     *
+     * @param frames the frames to send
+     * @return the Flowable
+     */
+    @Override
+    public Flowable<Frame> send(Flowable<Frame> frames) {
+        return frames.flatMapSingle(frame -> Single.<Frame>create(emitter -> {
+                    try {
+                        enqueue(frame, () -> emitter.onSuccess(frame));
+                    } catch (Exception e) {
+                        shutdown();
+                        emitter.onError(e);
+                    }
+                }), false, SEND_WINDOW);
+    }
+
+    @Override
+    public void writeFrame(Frame frame) throws IOException {
+        enqueue(frame, null);
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * Queue a frame to be written by the event loop.
+     *
+     * @param frame the frame to write
+     * @param onWritten called on the event loop once the whole frame has been written, or null
+     * @throws IOException if the connection is closed
+     */
+    private void enqueue(Frame frame, Runnable onWritten) throws IOException {
+        if (isShutdown()) throw new SocketException("Connection is closed");
+
+        outbound.add(new Pending(frame.asByteBuffer(), onWritten));
+
+        // only wake up the loop if it isn't already about to write
+        if (writeRequested.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                if (key != null && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        channel.close();
+        endHandshake(null, new EOFException("Connection closed before the handshake"));
+        received.onComplete();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+        if (key.isReadable()) read();
+        if (key.isValid() && key.isWritable()) flush();
+    }
+
+    @Override
+    public void failed(IOException e) {
+        // a channel closed by shutdown() can still have been selected, and has already completed
+        if (isShutdown()) return;
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // already failing
+        }
+        endHandshake(null, e);
+        received.onError(e);
+    }
+
+    /**
+     * Finish the handshake, once the other end has sent its handshake or the connection has
+     * closed before it did. Only the first call has any effect.
+     *
+     * @param received the handshake of the other end, or null if the handshake failed
+     * @param e why the handshake failed, if it did
+     */
+    private void endHandshake(Handshake received, IOException e) {
+        if (!handshakeDone.compareAndSet(false, true)) return;
+
+        if (received != null) {
+            handshake.onSuccess(received);
+        } else {
+            handshake.onError(e);
+        }
+    }
+
+    private void read() throws IOException {
+        int read = channel.read(input);
+        if (read < 0) {
+            // the other end closed the connection
+            shutdown();
+            return;
+        }
+        Metrics.read(read);
+
+        input.flip();
+        int needed = 0;
+
+        while (true) {
+            if (!preambleRead) {
+                if (input.remaining() < ShapeCodec.PREAMBLE_LENGTH) break;
+
+                byte[] preamble = new byte[ShapeCodec.PREAMBLE_LENGTH];
+                input.get(preamble);
+                ShapeCodec.verifyPreamble(preamble);
+                preambleRead = true;
+            }
+
+            if (!handshakeDone.get()) {
+                Handshake received = ShapeCodec.readHandshake(input);
+                if (received == null) break;
+
+                endHandshake(received, null);
+            }
+
+            int start = input.position();
+            int length = ShapeCodec.readFrameLength(input);
+            if (length < 0) break;
+            ShapeCodec.checkFrameLength(length);
+
+            if (input.remaining() < length) {
+                // wait for the rest of the frame, with room for all of it in the buffer
+                needed = input.position() - start + length;
+                input.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            input.get(payload);
+            ShapeCodec.decodeFrame(payload, snapshots).forEach(received::onNext);
+        }
+
+        input.compact();
+
+        if (needed > input.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(needed);
+            input.flip();
+            larger.put(input);
+            input = larger;
+        }
+    }
+
+    private void flush() throws IOException {
+        Pending pending;
+        while ((pending = outbound.peek()) != null) {
+            Metrics.written(channel.write(pending.buffer));
+            // the socket's send buffer is full, so wait until it's writable again
+            if (pending.buffer.hasRemaining()) return;
+            outbound.poll();
+            if (pending.onWritten != null) pending.onWritten.run();
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        writeRequested.set(false);
+
+        // a frame may have been queued after the queue was drained, but before the flag was reset
+        if (!outbound.isEmpty() && writeRequested.compareAndSet(false, true)) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * A buffer waiting to be written, and what to do once it has been.
+     */
+    private static class Pending {
+        private final ByteBuffer buffer;
+        private final Runnable onWritten;
+
+        private Pending(ByteBuffer buffer, Runnable onWritten) {
+            this.buffer = buffer;
+            this.onWritten = onWritten;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.plugins.RxJavaPlugins;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread with a {@link Selector} that does the I/O of all non-blocking channels. Used by
+ * the {@link Transport#NIO} transport, so that the number of threads stays the same no matter how
+ * many clients are connected.
+ * <p>
+ * Channels must only be registered from the loop's own thread, so other threads should hand work
+ * to the loop with {@link NioEventLoop#execute(Runnable)}.
+ */
+final class NioEventLoop {
+
+    private static NioEventLoop shared;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private final Thread thread;
+
+    /**
+     * Something that handles the I/O of a registered channel.
+     */
+    interface Handler {
+        /**
+         * Called on the loop's thread when the channel is ready for any of its interest ops.
+         *
+         * @param key the key of the channel
+         * @throws IOException if an I/O error occurs, which will cancel the key
+         */
+        void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called on the loop's thread when {@link Handler#ready(SelectionKey)} has failed. The
+         * key has already been cancelled.
+         *
+         * @param e the error, which wraps any unchecked exception that {@code ready} threw
+         */
+        void failed(IOException e);
+    }
+
+    private NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.thread = new Thread(this::run, "nio-event-loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Get the event loop shared by all non-blocking connections. Starts the loop the first time
+     * it's called.
+     *
+     * @return the event loop
+     * @throws IOException if an I/O error occurs when opening the loop's selector
+     */
+    static synchronized NioEventLoop shared() throws IOException {
+        if (shared == null) shared = new NioEventLoop();
+        return shared;
+    }
+
+    /**
+     * Run the given task on the loop's thread.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Register a channel with this loop. Must be called on the loop's thread.
+     *
+     * @param channel the channel to register, which must be in non-blocking mode
+     * @param ops the initial interest ops
+     * @param handler the handler of the channel's I/O
+     * @return the key of the registered channel
+     * @throws ClosedChannelException if the channel is closed
+     */
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler)
+            throws ClosedChannelException {
+        assert Thread.currentThread() == thread;
+        return channel.register(selector, ops, handler);
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                // the selector is unusable, and so is every connection using it
+                RxJavaPlugins.onError(new UncheckedIOException(e));
+                return;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    RxJavaPlugins.onError(e);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                Handler handler = (Handler) key.attachment();
+                try {
+                    if (key.isValid()) handler.ready(key);
+                } catch (IOException e) {
+                    key.cancel();
+                    handler.failed(e);
+                } catch (RuntimeException e) {
+                    // such as a malformed frame, which must only close its own connection, and
+                    // not the loop that every other connection shares
+                    key.cancel();
+                    handler.failed(new IOException(e));
+                }
+            }
+        }
+    }
+}
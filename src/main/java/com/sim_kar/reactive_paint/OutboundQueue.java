@@ -0,0 +1,212 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.exceptions.MissingBackpressureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The frames that a host has yet to send to one of its clients. The queue holds at most a fixed
+ * number of frames, and applies a {@link SlowConsumerPolicy} when the client can't keep up.
+ * <p>
+ * Frames are taken from a {@link FrameLog}. A client that has just connected is first sent a
+ * snapshot of the board, and a client that has had frames dropped is sent the missing frames
+ * from the log once it catches up. A client that falls so far behind that the log no longer has
+ * the frames it's missing is sent a snapshot of the board again, which replaces its board.
+ * <p>
+ * A client that has rejoined after losing its connection can instead start right after the
+ * frames it was sent before. Either way, the client is first sent a {@link Checkpoint} of where
+ * its frames start.
+ */
+public class OutboundQueue {
+
+    /**
+     * The default maximum number of frames in a queue.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The largest size, in bytes, that a coalesced frame may grow to before the client is
+     * disconnected.
+     */
+    public static final int MAX_COALESCED_BYTES = 1024 * 1024;
+
+    // marks the point where a client should catch up with the log
+    private static final Frame SYNC = Frame.of(List.of());
+
+    private final FrameLog log;
+    private final SlowConsumerPolicy policy;
+    private final int capacity;
+    private final long start;
+    private final AtomicLong overflows;
+    private final AtomicLong droppedFrames;
+    private final AtomicLong coalescedFrames;
+    private volatile long next;
+    private volatile long sent;
+
+    /**
+     * Create a new queue of frames from the given log.
+     *
+     * @param log the log of frames to send
+     * @param policy what to do when the queue is full
+     * @param capacity the maximum number of frames in the queue
+     */
+    public OutboundQueue(FrameLog log, SlowConsumerPolicy policy, int capacity) {
+        this(log, policy, capacity, 0);
+    }
+
+    /**
+     * Create a new queue of frames from the given log, for a client that has already been sent
+     * the frames before the given sequence number.
+     *
+     * @param log the log of frames to send
+     * @param policy what to do when the queue is full
+     * @param capacity the maximum number of frames in the queue
+     * @param start the sequence number of the first frame to send, or zero to send the client
+     *     a snapshot of the board first
+     */
+    public OutboundQueue(FrameLog log, SlowConsumerPolicy policy, int capacity, long start) {
+        this.log = log;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.start = start;
+        this.overflows = new AtomicLong();
+        this.droppedFrames = new AtomicLong();
+        this.coalescedFrames = new AtomicLong();
+        this.next = start;
+        this.sent = start - 1;
+    }
+
+    /**
+     * Get a Flowable of the frames to send to the client, in order, which only emits as many
+     * frames as are requested. Should only be subscribed to once.
+     *
+     * @return the Flowable
+     */
+    public Flowable<Frame> frames() {
+        // frames are either held by the buffer of the policy or by the catch-up stage, not both
+        int prefetch = policy == SlowConsumerPolicy.COALESCE ? capacity : 1;
+
+        Flowable<Frame> frames = Flowable.defer(() -> {
+                    // anything queued but not emitted was dropped, so start from the last sent
+                    next = sent + 1;
+                    return bounded(log.live()).mergeWith(Flowable.just(SYNC));
+                })
+                .concatMapIterable(this::catchUp, prefetch)
+                .doOnNext(frame -> sent = frame.lastSequence());
+
+        if (policy == SlowConsumerPolicy.DROP_AND_RESYNC) {
+            frames = frames.retry(e -> e instanceof MissingBackpressureException);
+        }
+
+        return frames.startWithItem(Frame.checkpoint(log.id(), start - 1));
+    }
+
+    /**
+     * Get the number of frames that the client is behind the log.
+     *
+     * @return the number of frames
+     */
+    public long lag() {
+        return Math.max(0, log.head() - sent - 1);
+    }
+
+    /**
+     * Get the number of times that this queue has been full.
+     *
+     * @return the number of times
+     */
+    public long overflows() {
+        return overflows.get();
+    }
+
+    /**
+     * Get the number of frames that have been dropped from this queue. With the
+     * {@link SlowConsumerPolicy#DROP_AND_RESYNC} policy, these frames are sent again later.
+     *
+     * @return the number of frames
+     */
+    public long droppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Get the number of frames that have been coalesced into other frames.
+     *
+     * @return the number of frames
+     */
+    public long coalescedFrames() {
+        return coalescedFrames.get();
+    }
+
+    /**
+     * Get the policy of this queue.
+     *
+     * @return the policy
+     */
+    public SlowConsumerPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Limit the given live frames to the capacity of this queue, applying the queue's policy
+     * when it's full.
+     *
+     * @param live the live frames
+     * @return the bounded frames
+     */
+    private Flowable<Frame> bounded(Flowable<Frame> live) {
+        if (policy == SlowConsumerPolicy.COALESCE) {
+            return live.onBackpressureReduce((first, second) -> {
+                if (first.length() + second.length() > MAX_COALESCED_BYTES) {
+                    overflows.incrementAndGet();
+                    droppedFrames.addAndGet(lag());
+                    throw new MissingBackpressureException("Client is too far behind");
+                }
+
+                coalescedFrames.incrementAndGet();
+                return Frame.concat(first, second);
+            });
+        }
+
+        // a full queue is an error, which either disconnects the client or makes it resync
+        return live.onBackpressureBuffer(capacity, () -> {
+            // the queued frames are discarded, along with the one that didn't fit
+            overflows.incrementAndGet();
+            droppedFrames.addAndGet(capacity + 1);
+        });
+    }
+
+    /**
+     * Get the frames the client needs before the given frame, from the log, followed by the
+     * frame itself. Frames that the client has already been sent are skipped, and so is a
+     * coalesced frame that has partly been sent, in which case its missing frames are taken
+     * from the log instead.
+     *
+     * @param frame the next live frame, or {@link OutboundQueue#SYNC}
+     * @return the frames to send
+     */
+    private Iterable<Frame> catchUp(Frame frame) {
+        boolean sync = frame == SYNC;
+
+        // already sent from the log while catching up
+        if (!sync && frame.lastSequence() < next) return List.of();
+
+        long to;
+        if (sync) to = log.head();
+        else if (frame.firstSequence() < next) to = frame.lastSequence() + 1;
+        else to = frame.firstSequence();
+
+        List<Frame> frames = new ArrayList<>(log.catchUp(next, to));
+        if (!frames.isEmpty()) next = frames.get(frames.size() - 1).lastSequence() + 1;
+
+        // a snapshot from the log may already cover the frame
+        if (!sync && frame.lastSequence() >= next) {
+            frames.add(frame);
+            next = frame.lastSequence() + 1;
+        }
+
+        return frames;
+    }
+}
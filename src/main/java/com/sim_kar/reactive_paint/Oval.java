@@ -2,6 +2,9 @@ package com.sim_kar.reactive_paint;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
 
 /**
  * <h1>Oval</h1>
@@ -10,6 +13,10 @@ import java.awt.Graphics;
  */
 public class Oval extends Shape {
 
+    // built the first time the oval is drawn, since Graphics.drawOval builds an ellipse on every
+    // call, and thin outlines are only drawn without copying it if it's a Path2D.Float
+    private transient volatile Path2D.Float outline;
+
     /**
      * Create a new oval spanning the height and width of the bounding box created by the
      * {@link Point}s start and end.
@@ -23,6 +30,13 @@ public class Oval extends Shape {
 
     @Override
     void drawShape(Graphics g) {
-        g.drawOval(left(), top(), width(), height());
+        Path2D.Float outline = this.outline;
+        if (outline == null) {
+            outline = new Path2D.Float(new Ellipse2D.Float(left(), top(), width(), height()));
+            outline.trimToSize();
+            this.outline = outline;
+        }
+
+        ((Graphics2D) g).draw(outline);
     }
 }
@@ -0,0 +1,78 @@
+package com.sim_kar.reactive_paint;
+
+/**
+ * The metrics of painting the drawing of a {@link MainFrame}, which are registered as an MBean.
+ * See {@link Metrics}.
+ */
+final class PaintingMetrics implements Metrics.PaintingMBean {
+
+    private final DrawingPanel panel;
+    private final ShapeHandoff handoff;
+    private final InkLatency inkLatency;
+
+    /**
+     * Create the metrics of painting a panel.
+     *
+     * @param panel the panel
+     * @param handoff the handoff that shapes are added to the panel's drawing through
+     * @param inkLatency the measurement of the latency of shapes drawn on the panel
+     */
+    PaintingMetrics(DrawingPanel panel, ShapeHandoff handoff, InkLatency inkLatency) {
+        this.panel = panel;
+        this.handoff = handoff;
+        this.inkLatency = inkLatency;
+    }
+
+    /**
+     * Register the metrics as an MBean.
+     */
+    void register() {
+        Metrics.register(Metrics.name("type", "Painting"), this, Metrics.PaintingMBean.class);
+    }
+
+    @Override
+    public long getPaints() {
+        return panel.getPaints();
+    }
+
+    @Override
+    public double getMeanPaintMillis() {
+        long paints = panel.getPaints();
+        return paints == 0 ? 0 : panel.getPaintNanos() / 1e6 / paints;
+    }
+
+    @Override
+    public double getMaxPaintMillis() {
+        return panel.getMaxPaintNanos() / 1e6;
+    }
+
+    @Override
+    public int getHandoffBacklog() {
+        return handoff.backlog();
+    }
+
+    @Override
+    public long getShapesHandedOff() {
+        return handoff.getShapesTaken();
+    }
+
+    @Override
+    public long getHandoffTasks() {
+        return handoff.getTasks();
+    }
+
+    @Override
+    public long getShapesInked() {
+        return inkLatency.getShapesInked();
+    }
+
+    @Override
+    public double getMeanInkLatencyMillis() {
+        return inkLatency.getMeanNanos() / 1e6;
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return inkLatency.getFramesDropped();
+    }
+}
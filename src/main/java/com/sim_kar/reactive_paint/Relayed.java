@@ -0,0 +1,47 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Graphics;
+import java.io.Serial;
+
+/**
+ * A {@link Shape} as it's forwarded between linked hosts, with an ID that is unique among all
+ * hosts, so that a host can tell a shape it has already seen from a new one. Only sent over the
+ * links of a {@link Federation}; clients are sent the shapes themselves.
+ */
+public final class Relayed extends Shape {
+
+    @Serial
+    private static final long serialVersionUID = 2184967104857342011L;
+    private final long id;
+    private final Shape shape;
+
+    /**
+     * Wrap a shape with its ID.
+     *
+     * @param id the globally unique ID of the shape
+     * @param shape the shape
+     */
+    public Relayed(long id, Shape shape) {
+        super(shape.start(), shape.end(), shape.thickness(), shape.color());
+        this.id = id;
+        this.shape = shape;
+    }
+
+    public long id() { return id; }
+    public Shape shape() { return shape; }
+
+    @Override
+    public java.awt.Rectangle bounds() {
+        return shape.bounds();
+    }
+
+    @Override
+    public void draw(Graphics g) {
+        shape.draw(g);
+    }
+
+    @Override
+    void drawShape(Graphics g) {
+        shape.drawShape(g);
+    }
+}
@@ -0,0 +1,534 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Consumer;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Room</h1>
+ * One of the boards of a {@link HostSession}, with clients of its own. Every room has its own
+ * {@link FrameLog} and fans its frames out only to its own clients, but all rooms share the
+ * host's server, event loop and schedulers. A room can also be linked to the same room on other
+ * hosts, which it shares its board with through a {@link Federation}.
+ * <p>
+ * A room only runs while it has clients or links, or while the host draws in it. Once the last client
+ * has left, it stops after {@value #IDLE_MILLIS} milliseconds, and an idle room costs no more
+ * than the shapes on its board.
+ */
+public class Room implements Metrics.RoomMBean {
+
+    // long enough for the last shapes of a client that leaves to be batched and logged
+    private static final long IDLE_MILLIS = 1000;
+    private static final AtomicLong NEXT_CLIENT_ID = new AtomicLong();
+    // a client only draws one stroke at a time, but may have begun the next before the last ends
+    private static final int MAX_OPEN_STROKES = 16;
+
+    private final String name;
+    private final FrameLog frameLog;
+    private final Broadcaster broadcaster;
+    private final StrokeIds strokeIds;
+    private final Map<Connection, OutboundQueue> outboundQueues;
+    private final Subject<Connection> clients;
+    private final Subject<Connection> links;
+    private final Federation federation;
+    private final Consumer<Throwable> onError;
+    private final AtomicLong clientsJoined;
+    private final AtomicLong clientsResumed;
+    private final Map<Connection, Long> resumeFrom;
+    private final Metrics.Rate shapesReceived;
+    private final Map<Connection, ClientMetrics> clientMetrics;
+    private final Set<Connection> members;
+    private final Set<Connection> peers;
+    private volatile SlowConsumerPolicy slowConsumerPolicy;
+    private Disposable running;
+    private boolean open;
+
+    /**
+     * Create a new room, which isn't running until a client joins it or it is opened.
+     *
+     * @param name the name of the room
+     * @param board the shapes already on the board of the room
+     * @param slowConsumerPolicy what to do with clients that can't keep up
+     * @param onError called with errors in the communication with clients
+     */
+    Room(String name, List<? extends Shape> board, SlowConsumerPolicy slowConsumerPolicy,
+         Consumer<Throwable> onError) {
+        this.name = name;
+        this.frameLog = new FrameLog(board, FrameLog.DEFAULT_CAPACITY);
+        this.broadcaster = new Broadcaster();
+        this.strokeIds = new StrokeIds();
+        this.outboundQueues = new ConcurrentHashMap<>();
+        this.clients = PublishSubject.<Connection>create().toSerialized();
+        this.links = PublishSubject.<Connection>create().toSerialized();
+        this.federation = new Federation(frameLog, strokeIds);
+        this.onError = onError;
+        this.clientsJoined = new AtomicLong();
+        this.clientsResumed = new AtomicLong();
+        this.resumeFrom = new ConcurrentHashMap<>();
+        this.shapesReceived = new Metrics.Rate();
+        this.clientMetrics = new ConcurrentHashMap<>();
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.members = ConcurrentHashMap.newKeySet();
+        this.peers = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Keep the room running until the returned Disposable is disposed, and share the given
+     * shapes drawn on the host with its clients. Should be called before any clients join.
+     *
+     * @param hostShapes the shapes drawn on the host
+     * @param onClientShape called with every shape received from a client, on the thread that
+     *     received it
+     * @return a Disposable that stops the room when disposed
+     */
+    synchronized Disposable open(Observable<Shape> hostShapes, Consumer<Shape> onClientShape) {
+        if (running != null) running.dispose();
+
+        open = true;
+        running = run(hostShapes, onClientShape);
+
+        return Disposable.fromAction(this::close);
+    }
+
+    /**
+     * Add a client to the room, which is sent the board and every frame after it.
+     *
+     * @param client the client
+     */
+    synchronized void join(Connection client) {
+        join(client, Handshake.join(name));
+    }
+
+    /**
+     * Add a client to the room with the given handshake. A client that asks to resume is only
+     * sent the frames it's missing, if the room's log still has them, and is otherwise sent the
+     * board and every frame after it, like any other client.
+     *
+     * @param client the client
+     * @param handshake the handshake the client connected with
+     */
+    synchronized void join(Connection client, Handshake handshake) {
+        if (running == null) running = run(Observable.never(), shape -> {});
+
+        if (handshake.isResume() && handshake.log() == frameLog.id()) {
+            long next = frameLog.resumeAfter(handshake.sequence(), handshake.shapes());
+            if (next > 0) {
+                resumeFrom.put(client, next);
+                clientsResumed.incrementAndGet();
+            }
+        }
+
+        ClientMetrics metrics = new ClientMetrics(client, name, NEXT_CLIENT_ID.incrementAndGet());
+        clientMetrics.put(client, metrics);
+        metrics.register();
+
+        members.add(client);
+        clientsJoined.incrementAndGet();
+        clients.onNext(client);
+    }
+
+    /**
+     * Link the room to the same room on another host, over the given connection. The link is
+     * sent the board, and every shape in the room after it, and the shapes received over it are
+     * shared with the room's clients.
+     *
+     * @param peer the connection to the other host
+     */
+    synchronized void link(Connection peer) {
+        if (running == null) running = run(Observable.never(), shape -> {});
+
+        peers.add(peer);
+        links.onNext(peer);
+    }
+
+    /**
+     * Get the name of the room.
+     *
+     * @return the name, where the empty name is the default room
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Check whether the room is running, which it is while it has clients or links, or the host
+     * draws in it.
+     *
+     * @return whether the room is running
+     */
+    public synchronized boolean isRunning() {
+        return running != null;
+    }
+
+    /**
+     * Get the number of clients in the room.
+     *
+     * @return the number of clients
+     */
+    @Override
+    public int getClientCount() {
+        return members.size();
+    }
+
+    /**
+     * Get the number of other hosts the room is linked to.
+     *
+     * @return the number of links
+     */
+    @Override
+    public int getLinkCount() {
+        return peers.size();
+    }
+
+    /**
+     * Get the number of clients that have joined the room since it was created, including
+     * those that have left.
+     *
+     * @return the number of clients
+     */
+    @Override
+    public long getClientsJoined() {
+        return clientsJoined.get();
+    }
+
+    /**
+     * Get the number of clients that have rejoined the room since it was created, and have only
+     * been sent the frames they missed rather than the whole board.
+     *
+     * @return the number of clients
+     */
+    @Override
+    public long getClientsResumed() {
+        return clientsResumed.get();
+    }
+
+    /**
+     * Get the number of shapes received from clients of the room since it was created.
+     *
+     * @return the number of shapes
+     */
+    @Override
+    public long getShapesReceived() {
+        return shapesReceived.total();
+    }
+
+    /**
+     * Get how many shapes have been received from clients of the room per second, lately.
+     *
+     * @return the number of shapes per second
+     */
+    @Override
+    public double getShapesReceivedPerSecond() {
+        return shapesReceived.perSecond();
+    }
+
+    /**
+     * Get the number of shapes received over links to other hosts since the room was created,
+     * not counting those that had already been received.
+     *
+     * @return the number of shapes
+     */
+    @Override
+    public long getShapesRelayed() {
+        return federation.getShapesRelayed();
+    }
+
+    /**
+     * Get the number of shapes received over links to other hosts that had already been
+     * received, and were dropped.
+     *
+     * @return the number of shapes
+     */
+    @Override
+    public long getDuplicatesDropped() {
+        return federation.getDuplicatesDropped();
+    }
+
+    /**
+     * Get the number of frames that have been appended to the room's log.
+     *
+     * @return the number of frames
+     */
+    @Override
+    public long getFramesLogged() {
+        return frameLog.head();
+    }
+
+    /**
+     * Get the number of recent frames that the room's log keeps, for clients that fall behind.
+     *
+     * @return the number of frames
+     */
+    @Override
+    public long getFramesKept() {
+        synchronized (frameLog) {
+            return frameLog.head() - frameLog.tail();
+        }
+    }
+
+    /**
+     * Get the size of the snapshot of the board that clients joining now would be sent. The
+     * snapshot is encoded if the board has changed since it was last encoded.
+     *
+     * @return the size in bytes
+     */
+    @Override
+    public int getSnapshotBytes() {
+        return frameLog.snapshot().length();
+    }
+
+    /**
+     * Get the number of shapes in the snapshot of the board that clients joining now would be
+     * sent.
+     *
+     * @return the number of shapes
+     */
+    @Override
+    public int getSnapshotShapes() {
+        return frameLog.snapshot().shapeCount();
+    }
+
+    /**
+     * Get the shapes on the board of the room, as clients that join now would be sent them.
+     *
+     * @return a new list of the shapes
+     */
+    public List<Shape> getShapes() {
+        return frameLog.getShapes();
+    }
+
+    /**
+     * Get the log of all frames shared in the room.
+     *
+     * @return the log
+     */
+    public FrameLog getFrameLog() {
+        return frameLog;
+    }
+
+    /**
+     * Get the queues of frames waiting to be sent to each client of the room.
+     *
+     * @return an unmodifiable view of the queues of the clients
+     */
+    public Map<Connection, OutboundQueue> getOutboundQueues() {
+        return Collections.unmodifiableMap(outboundQueues);
+    }
+
+    /**
+     * Set what to do with clients that can't keep up with the frames sent to them. Only
+     * affects clients that join after the policy is set.
+     *
+     * @param policy the policy
+     */
+    void setSlowConsumerPolicy(SlowConsumerPolicy policy) {
+        this.slowConsumerPolicy = policy;
+    }
+
+    /**
+     * Stop the room, and disconnect its clients and links. The room runs again once clients
+     * join it.
+     */
+    synchronized void close() {
+        List<Connection> leaving = new ArrayList<>(members);
+        leaving.addAll(peers);
+        open = false;
+        stop();
+
+        for (Connection client : leaving) {
+            try {
+                client.shutdown();
+            } catch (IOException e) {
+                // the client is leaving anyway
+            }
+        }
+        members.clear();
+        peers.clear();
+        clientMetrics.values().forEach(ClientMetrics::unregister);
+        clientMetrics.clear();
+    }
+
+    /**
+     * Start fanning out the shapes drawn on the host, by the room's clients and on linked hosts
+     * to the clients and links.
+     *
+     * @param hostShapes the shapes drawn on the host
+     * @param onClientShape called with every shape received from a client
+     * @return a Disposable that stops the room
+     */
+    private Disposable run(Observable<Shape> hostShapes, Consumer<Shape> onClientShape) {
+        CompositeDisposable room = new CompositeDisposable();
+
+        Observable<Shape> clientShapes = Observable.merge(
+                        getShapesFromClients().doOnNext(shape -> shapesReceived.add(1)),
+                        getShapesFromLinks())
+                .share();
+
+        room.add(clientShapes.subscribe(onClientShape));
+
+        // encode every shape once for all clients, and keep the board for clients joining later
+        StrokeIds.Sender hostStrokes = strokeIds.sender(MAX_OPEN_STROKES);
+        Observable<Shape> allShapes = Observable.merge(
+                hostShapes.mapOptional(hostStrokes::rewrite), clientShapes);
+        room.add(broadcaster.frames(allShapes).subscribe(frameLog::append));
+
+        room.add(sendShapesToClients().subscribe());
+        room.add(federation.run());
+        room.add(sendShapesToLinks().subscribe());
+
+        return room;
+    }
+
+    /**
+     * Note that a client or link has left the room, and stop the room a while after the last one
+     * has, unless more have joined by then.
+     *
+     * @param client the client or link that left
+     */
+    private synchronized void leave(Connection client) {
+        ClientMetrics metrics = clientMetrics.remove(client);
+        if (metrics != null) metrics.unregister();
+
+        if (!(members.remove(client) || peers.remove(client)) || !isIdle()) return;
+
+        Scheduler.Worker worker = Schedulers.computation().createWorker();
+        worker.schedule(() -> {
+            synchronized (this) {
+                if (isIdle()) stop();
+            }
+            worker.dispose();
+        }, IDLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isIdle() {
+        return members.isEmpty() && peers.isEmpty() && !open;
+    }
+
+    private void stop() {
+        if (running != null) running.dispose();
+        running = null;
+    }
+
+    /**
+     * Get an observable of shapes received from the room's clients. Each client's shapes are
+     * read in the way decided by its {@link Transport}, and a client has left the room once
+     * they end. A client that sends a {@link Relayed} shape, which only links may, is
+     * disconnected. The segments of a client's strokes are given the room's IDs of the strokes,
+     * and those of strokes it didn't begin are dropped, see {@link StrokeIds}.
+     *
+     * @return the observable
+     */
+    private Observable<Shape> getShapesFromClients() {
+        return clients.flatMap(client -> {
+            ClientMetrics metrics = clientMetrics.get(client);
+            StrokeIds.Sender strokes = strokeIds.sender(MAX_OPEN_STROKES);
+            Observable<Shape> shapes = client.shapes()
+                    // only the host says where its clients are in its log
+                    .filter(shape -> !(shape instanceof Checkpoint))
+                    .doOnNext(shape -> {
+                        // only links relay shapes, which would be relayed twice over otherwise
+                        if (shape instanceof Relayed) {
+                            throw new ProtocolException("Relayed shape from a client");
+                        }
+                        metrics.received();
+                    })
+                    .mapOptional(strokes::rewrite)
+                    .doFinally(strokes::release);
+            return untilLeft(client, shapes);
+        });
+    }
+
+    /**
+     * Get an observable of the new shapes received over the room's links to other hosts.
+     *
+     * @return the observable
+     */
+    private Observable<Shape> getShapesFromLinks() {
+        return links.flatMap(link -> untilLeft(link, federation.receive(link)));
+    }
+
+    /**
+     * Get the given shapes received from a client or link, which has left the room once they
+     * end.
+     *
+     * @param client the client or link
+     * @param shapes the shapes received from it
+     * @return the shapes, which complete rather than fail if the client disconnects or sends
+     *     something malformed
+     */
+    private Observable<Shape> untilLeft(Connection client, Observable<Shape> shapes) {
+        return shapes
+                .doFinally(() -> leave(client))
+                .onErrorResumeNext(e -> {
+                    // an error must only end this client's shapes, since failing the merge of
+                    // every client's shapes would stop the room from receiving any of them
+                    onError.accept(e);
+                    try {
+                        client.shutdown();
+                    } catch (IOException ignored) {
+                        // it's leaving anyway
+                    }
+                    return Observable.empty();
+                });
+    }
+
+    /**
+     * An observable that sends the frames in the room's log to its clients. Every client is sent
+     * the same frames, so the shapes are only encoded once. Each client gets a bounded
+     * {@link OutboundQueue}, so that a slow client can't make the host run out of memory.
+     *
+     * @return the observable
+     */
+    private Observable<Frame> sendShapesToClients() {
+        return clients.flatMap(client -> {
+            Long start = resumeFrom.remove(client);
+            ClientMetrics metrics = clientMetrics.get(client);
+            // the client may have already left, if it sent something malformed right away
+            if (metrics == null) return Observable.<Frame>empty();
+
+            OutboundQueue queue = new OutboundQueue(frameLog, slowConsumerPolicy,
+                    OutboundQueue.DEFAULT_CAPACITY, start == null ? 0 : start);
+            outboundQueues.put(client, queue);
+            metrics.setQueue(queue);
+
+            return client.send(queue.frames().doOnNext(metrics::sent))
+                    // the client is either too slow or has disconnected, which shouldn't affect
+                    // the others
+                    .doOnError(e -> client.shutdown())
+                    .onErrorResumeNext(e -> Flowable.empty())
+                    .doFinally(() -> outboundQueues.remove(client))
+                    .toObservable();
+        });
+    }
+
+    /**
+     * An observable that sends every shape in the room to its links, see
+     * {@link Federation#send(Connection)}. Unlike clients, links are trusted to keep up, so their
+     * frames aren't bounded by a {@link SlowConsumerPolicy}.
+     *
+     * @return the observable
+     */
+    private Observable<Frame> sendShapesToLinks() {
+        return links.flatMap(link -> link.send(federation.send(link))
+                .doOnError(e -> link.shutdown())
+                .onErrorResumeNext(e -> Flowable.empty())
+                .toObservable());
+    }
+}
@@ -1,35 +1,81 @@
 package com.sim_kar.reactive_paint;
 
+import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Observable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * A server that listens for client {@link Socket}s on the same port. Will assign an available port
- * automatically. Start the server with {@link Server#start()}, and stop it by disposing of the
- * Observable returned by {@link Server#start()}.
+ * automatically, unless it's given one. Start the server with {@link Server#start()}, and stop it by disposing of the
+ * Observable returned by {@link Server#start()}. Accepted clients are wrapped in a
+ * {@link Connection} of the server's {@link Transport}.
  */
 public class Server {
 
+    private final Transport transport;
     private final ServerSocket serverSocket;
+    private final ServerSocketChannel serverChannel;
 
     /**
-     * Create a new Server with an automatically assigned port number.
+     * Create a new Server with an automatically assigned port number, using blocking sockets.
      *
      * @throws IOException if an I/O error occurs when opening the socket
      */
     public Server() throws IOException {
-        this.serverSocket = new ServerSocket(0);
+        this(Transport.BLOCKING);
+    }
+
+    /**
+     * Create a new Server with an automatically assigned port number.
+     *
+     * @param transport the transport to use for the connections to clients
+     * @throws IOException if an I/O error occurs when opening the socket
+     */
+    public Server(Transport transport) throws IOException {
+        this(transport, 0);
+    }
+
+    /**
+     * Create a new Server with the given port number.
+     *
+     * @param transport the transport to use for the connections to clients
+     * @param port the port number, or 0 to have one assigned automatically
+     * @throws IOException if an I/O error occurs when opening the socket, for example if the
+     *     port is already in use
+     */
+    public Server(Transport transport, int port) throws IOException {
+        if (!transport.isAvailable()) {
+            throw new IOException(transport + " transport isn't available in this JVM");
+        }
+
+        this.transport = transport;
+
+        if (transport == Transport.NIO) {
+            this.serverChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+            this.serverChannel.configureBlocking(false);
+            this.serverSocket = serverChannel.socket();
+        } else {
+            this.serverChannel = null;
+            this.serverSocket = new ServerSocket(port);
+        }
     }
 
     /**
      * Starts listening for clients. Returns a new Observable of all connected clients
-     * (as {@link Socket}s) each time it is called. Dispose of the Observable to stop the server.
+     * (as {@link Connection}s) each time it is called. Dispose of the Observable to stop the
+     * server.
      *
-     * @return an Observable of connected clients as Sockets
+     * @return an Observable of connected clients as Connections
      */
-    public Observable<Socket> start() {
+    public Observable<Connection> start() {
+        if (transport == Transport.NIO) return acceptNonBlocking();
+
         return Observable.<Socket>create(emitter -> {
             while (!emitter.isDisposed()) { // keep server active until disposed
                 try {
@@ -39,7 +85,23 @@ public class Server {
                 }
 
             }
-        });
+        }).flatMapMaybe(this::handshake);
+    }
+
+    /**
+     * Exchange preambles and handshakes with an accepted socket, on the scheduler of the
+     * server's transport, so that a slow client doesn't hold up accepting the others. A client
+     * that closes its socket or doesn't speak the protocol is dropped.
+     *
+     * @param socket the accepted socket
+     * @return a Maybe of the client, which is empty if the handshake failed
+     */
+    private Maybe<Connection> handshake(Socket socket) {
+        return Maybe.<Connection>fromCallable(
+                        () -> new Client(socket, Handshake.ACCEPT, transport.scheduler()))
+                .subscribeOn(transport.scheduler())
+                .doOnError(e -> socket.close())
+                .onErrorComplete();
     }
 
     /**
@@ -50,4 +112,48 @@ public class Server {
     public int getPort() {
         return serverSocket.getLocalPort();
     }
+
+    /**
+     * Get the transport that this Server uses for the connections to clients.
+     *
+     * @return the transport
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Accept clients on the shared {@link NioEventLoop}, instead of blocking a thread.
+     *
+     * @return an Observable of connected clients
+     */
+    private Observable<Connection> acceptNonBlocking() {
+        return Observable.create(emitter -> {
+            NioEventLoop loop = NioEventLoop.shared();
+
+            loop.execute(() -> {
+                try {
+                    SelectionKey key = loop.register(serverChannel, SelectionKey.OP_ACCEPT,
+                            new NioEventLoop.Handler() {
+                                @Override
+                                public void ready(SelectionKey key) throws IOException {
+                                    SocketChannel channel;
+                                    while ((channel = serverChannel.accept()) != null) {
+                                        emitter.onNext(new NioConnection(channel, loop, Handshake.ACCEPT));
+                                    }
+                                }
+
+                                @Override
+                                public void failed(IOException e) {
+                                    emitter.tryOnError(e);
+                                }
+                            });
+
+                    emitter.setCancellable(key::cancel);
+                } catch (IOException e) {
+                    emitter.tryOnError(e);
+                }
+            });
+        });
+    }
 }
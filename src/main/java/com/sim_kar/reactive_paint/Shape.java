@@ -18,6 +18,15 @@ public abstract class Shape implements Drawable, Serializable {
 
     @Serial
     private static final long serialVersionUID = -3425413804631497685L;
+    // the thickest outline that can be picked in the main frame
+    private static final int MAX_SHARED_THICKNESS = 50;
+    // strokes are immutable, so every shape of the same thickness draws with the same one
+    private static final BasicStroke[] STROKES = new BasicStroke[MAX_SHARED_THICKNESS + 1];
+
+    static {
+        for (int i = 0; i < STROKES.length; i++) STROKES[i] = new BasicStroke(i);
+    }
+
     private final Point start;
     private final Point end;
     private final int thickness;
@@ -44,18 +53,63 @@ public abstract class Shape implements Drawable, Serializable {
     public int thickness() { return thickness; }
     public Color color() { return color; }
 
-    public int width() { return Math.abs(start.x() - end.x()); }
-    public int height() { return Math.abs(start.y() - end.y()); }
-    public int left() { return Math.min(start.x(), end.x()); }
-    public int right() { return Math.max(start.x(), end.x()); }
-    public int top() { return Math.min(start.y(), end.y()); }
-    public int bottom() { return Math.max(start.y(), end.y()); }
+    public int width() { return right() - left(); }
+    public int height() { return bottom() - top(); }
+    public int left() { return Math.min(start.x(), end().x()); }
+    public int right() { return Math.max(start.x(), end().x()); }
+    public int top() { return Math.min(start.y(), end().y()); }
+    public int bottom() { return Math.max(start.y(), end().y()); }
 
+    /**
+     * Get the area covered by this shape when it's drawn, including the outline's thickness.
+     *
+     * @return the area
+     */
+    public java.awt.Rectangle bounds() {
+        int padding = outlinePadding();
+        return new java.awt.Rectangle(
+                left() - padding,
+                top() - padding,
+                width() + 2 * padding + 1,
+                height() + 2 * padding + 1
+        );
+    }
+
+    /**
+     * Get how far outside its points this shape's outline may reach when it's drawn.
+     *
+     * @return the distance in pixels
+     */
+    int outlinePadding() {
+        // square caps and right-angled corners reach at most thickness * sqrt(2) / 2 outside
+        return thickness;
+    }
+
+    /**
+     * Get the stroke that outlines of the given thickness are drawn with. Thicknesses that can be
+     * picked in the main frame share a stroke, others get one of their own.
+     *
+     * @param thickness the thickness
+     * @return the stroke
+     */
+    static BasicStroke stroke(int thickness) {
+        if (thickness >= 0 && thickness <= MAX_SHARED_THICKNESS) return STROKES[thickness];
+        return new BasicStroke(thickness);
+    }
+
+    /**
+     * Draw this shape with its color and thickness. The graphics' stroke and color are only
+     * changed if the shape drawn before this one had another, since setting a color works out
+     * its pixel value again even if it's the same.
+     *
+     * @param g the graphics object to draw with
+     */
     @Override
     public void draw(Graphics g) {
         Graphics2D g2 = (Graphics2D) g;
-        g2.setStroke(new BasicStroke(thickness()));
-        g2.setColor(color());
+        BasicStroke stroke = stroke(thickness());
+        if (g2.getStroke() != stroke) g2.setStroke(stroke);
+        if (!color().equals(g2.getColor())) g2.setColor(color());
         drawShape(g);
     }
 
@@ -0,0 +1,814 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compact, versioned binary encoding of {@link Shape}s, used instead of Java serialization
+ * when shapes are sent over the network.
+ * <p>
+ * A connection starts with a preamble (a magic number followed by the protocol version) written
+ * by each side, followed by a {@link Handshake}: the name of a room, as its length in bytes as a
+ * varint and the name in UTF-8, and then the handshake's flags as a varint. The side that
+ * connects names the room it wants to join, and the side that accepts names the empty, default
+ * room. A client that rejoins a room with the resume flag then says where it left off: the ID of
+ * the log of its last {@link Checkpoint}, the checkpoint's sequence number plus one, and the
+ * number of shapes it has received since, as varints. After that, all data is sent in frames.
+ * A frame is the length of its payload as a varint, followed by the payload, which holds one
+ * or more shape records. Each record starts with a tag for the type of shape, followed by the
+ * color (ARGB), the thickness and the start point. Every other point is delta-encoded against
+ * the point before it. All coordinates and deltas are written as zigzag varints, so short
+ * strokes only take a byte or two per point.
+ * <p>
+ * {@link StrokeSegment}s have records of their own. Only the segment that begins a stroke has a
+ * color, thickness and start point; the others just have the stroke ID and their deltas.
+ * <p>
+ * Between linked hosts, every shape is wrapped in a {@link Relayed} record: its globally unique
+ * ID as a varint, followed by the record of the shape itself.
+ * <p>
+ * A {@link Checkpoint} record holds the ID of a host's log and a sequence number plus one, as
+ * varints, followed by the number of shapes on the board that follows it plus one, or zero if no
+ * board follows it.
+ * <p>
+ * A snapshot of a whole board is sent as a frame with a checkpoint record, followed by a single
+ * snapshot record: the length of the shape records it holds, followed by those records
+ * compressed with deflate.
+ * <p>
+ * If both ends of a connection set the compress flag in their handshakes, either end may send a
+ * frame with a single compressed record instead of one or more frames: the length of those
+ * frames as a varint, followed by their bytes, length prefixes and all, as the next part of the
+ * connection's deflate stream up to a sync flush. See {@link FrameCompression}.
+ */
+public final class ShapeCodec {
+
+    /**
+     * The version of the protocol that this codec reads and writes.
+     */
+    public static final int VERSION = 4;
+
+    /**
+     * The longest name of a room, in bytes of UTF-8.
+     */
+    public static final int MAX_ROOM_NAME_LENGTH = 64;
+
+    /**
+     * The thickest shape that's accepted from a connection, a few times what can be drawn, so
+     * that the other end can't send shapes that can't be drawn or that cover the whole board.
+     */
+    public static final int MAX_THICKNESS = 200;
+
+    /**
+     * The longest payload of a frame read from a connection, in bytes, so that the other end
+     * can't make this end allocate more than that for a single frame.
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * The most bytes that the compressed records of a frame may inflate to, so that a small
+     * frame can't make this end allocate more than that.
+     */
+    public static final int MAX_INFLATED_LENGTH = 4 * MAX_FRAME_LENGTH;
+
+    // deflate can't compress anything to less than about a thousandth of its size
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private static final byte[] MAGIC = { 'R', 'P', 'N', 'T' };
+    static final int PREAMBLE_LENGTH = MAGIC.length + 1;
+    private static final int LINE = 1;
+    private static final int OVAL = 2;
+    private static final int RECTANGLE = 3;
+    private static final int FREEHAND = 4;
+    private static final int STROKE_BEGIN = 5;
+    private static final int STROKE_APPEND = 6;
+    private static final int STROKE_END = 7;
+    private static final int SNAPSHOT = 8;
+    private static final int RELAYED = 9;
+    private static final int CHECKPOINT = 10;
+    static final int COMPRESSED = 11;
+
+    private ShapeCodec() {}
+
+    /**
+     * Write the preamble that every connection must start with.
+     *
+     * @param output the stream to write the preamble to
+     * @throws IOException if an I/O error occurs when writing the preamble
+     */
+    public static void writePreamble(OutputStream output) throws IOException {
+        output.write(preamble());
+    }
+
+    /**
+     * Read and verify the preamble written by the other end of a connection.
+     *
+     * @param input the stream to read the preamble from
+     * @throws ProtocolException if the other end doesn't speak this protocol or version
+     * @throws IOException if an I/O error occurs when reading the preamble
+     */
+    public static void readPreamble(InputStream input) throws IOException {
+        byte[] preamble = input.readNBytes(PREAMBLE_LENGTH);
+        if (preamble.length < PREAMBLE_LENGTH) throw new EOFException();
+
+        verifyPreamble(preamble);
+    }
+
+    /**
+     * Get the preamble that every connection must start with.
+     *
+     * @return the preamble
+     */
+    static byte[] preamble() {
+        byte[] preamble = Arrays.copyOf(MAGIC, PREAMBLE_LENGTH);
+        preamble[MAGIC.length] = VERSION;
+        return preamble;
+    }
+
+    /**
+     * Verify a preamble written by the other end of a connection.
+     *
+     * @param preamble the {@link #PREAMBLE_LENGTH} bytes of the preamble
+     * @throws ProtocolException if the other end doesn't speak this protocol or version
+     */
+    static void verifyPreamble(byte[] preamble) throws ProtocolException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (preamble[i] != MAGIC[i]) throw new ProtocolException("Not a Reactive Paint peer");
+        }
+
+        int version = preamble[MAGIC.length] & 0xFF;
+        if (version != VERSION) {
+            throw new ProtocolException("Unsupported protocol version " + version);
+        }
+    }
+
+    /**
+     * Write the handshake that follows the preamble.
+     *
+     * @param output the stream to write the handshake to
+     * @param handshake the handshake
+     * @throws IOException if an I/O error occurs when writing the handshake
+     * @throws IllegalArgumentException if the name of the room is longer than
+     *     {@link #MAX_ROOM_NAME_LENGTH}
+     */
+    public static void writeHandshake(OutputStream output, Handshake handshake)
+            throws IOException {
+        output.write(handshake(handshake));
+    }
+
+    /**
+     * Read the handshake written by the other end of a connection after its preamble.
+     *
+     * @param input the stream to read the handshake from
+     * @return the handshake
+     * @throws ProtocolException if the name of the room is too long
+     * @throws IOException if an I/O error occurs when reading the handshake
+     */
+    public static Handshake readHandshake(InputStream input) throws IOException {
+        int length = readVarInt(input);
+        if (length > MAX_ROOM_NAME_LENGTH) throw new ProtocolException("Room name too long");
+
+        byte[] name = input.readNBytes(length);
+        if (name.length < length) throw new EOFException();
+
+        String room = new String(name, StandardCharsets.UTF_8);
+        int flags = readVarInt(input);
+        if ((flags & Handshake.RESUME) == 0) return new Handshake(room, flags);
+
+        return new Handshake(room, flags, readVarLong(input), readVarLong(input) - 1,
+                readVarLong(input));
+    }
+
+    /**
+     * Encode a handshake as it follows the preamble.
+     *
+     * @param handshake the handshake
+     * @return the encoded handshake
+     * @throws IllegalArgumentException if the name of the room is longer than
+     *     {@link #MAX_ROOM_NAME_LENGTH}
+     */
+    static byte[] handshake(Handshake handshake) {
+        byte[] name = handshake.room().getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_ROOM_NAME_LENGTH) {
+            throw new IllegalArgumentException("Room name too long: " + handshake.room());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(name.length + 2);
+        writeVarInt(out, name.length);
+        out.writeBytes(name);
+        writeVarInt(out, handshake.flags());
+
+        if (handshake.isResume()) {
+            writeVarLong(out, handshake.log());
+            writeVarLong(out, handshake.sequence() + 1);
+            writeVarLong(out, handshake.shapes());
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Read a handshake from the given buffer, without blocking. If the whole handshake hasn't
+     * been received yet, the position of the buffer is left unchanged.
+     *
+     * @param buffer the buffer to read from
+     * @return the handshake, or null if it's incomplete
+     * @throws ProtocolException if the name of the room is too long
+     */
+    static Handshake readHandshake(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        int length = readFrameLength(buffer);
+        if (length < 0) return null;
+        if (length > MAX_ROOM_NAME_LENGTH) throw new ProtocolException("Room name too long");
+
+        if (buffer.remaining() < length) {
+            buffer.position(start);
+            return null;
+        }
+
+        byte[] name = new byte[length];
+        buffer.get(name);
+
+        int flags = readFrameLength(buffer);
+        if (flags < 0) {
+            buffer.position(start);
+            return null;
+        }
+
+        String room = new String(name, StandardCharsets.UTF_8);
+        if ((flags & Handshake.RESUME) == 0) return new Handshake(room, flags);
+
+        try {
+            return new Handshake(room, flags, readVarLong(buffer), readVarLong(buffer) - 1,
+                    readVarLong(buffer));
+        } catch (BufferUnderflowException e) {
+            buffer.position(start);
+            return null;
+        }
+    }
+
+    /**
+     * Encode a single shape as a complete, length-prefixed frame.
+     *
+     * @param shape the shape to encode
+     * @return the frame
+     */
+    public static byte[] encodeFrame(Shape shape) {
+        return encodeFrame(List.of(shape));
+    }
+
+    /**
+     * Encode the given shapes as a single, length-prefixed frame.
+     *
+     * @param shapes the shapes to encode
+     * @return the frame
+     */
+    public static byte[] encodeFrame(List<? extends Shape> shapes) {
+        long start = Metrics.start();
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        shapes.forEach(s -> writeShape(payload, s));
+
+        byte[] frame = frame(payload);
+        Metrics.encoded(start);
+        return frame;
+    }
+
+    /**
+     * Encode the given shapes as a single, length-prefixed frame holding a compressed snapshot.
+     * The shapes are decoded by {@link #decodeFrame(byte[])} like those of any other frame.
+     *
+     * @param shapes the shapes to encode
+     * @return the frame
+     */
+    public static byte[] encodeSnapshot(List<? extends Shape> shapes) {
+        return encodeSnapshot(null, shapes);
+    }
+
+    /**
+     * Encode the given shapes as a single, length-prefixed frame holding a compressed snapshot,
+     * which starts with the given checkpoint. The checkpoint is decoded before the shapes.
+     *
+     * @param checkpoint the checkpoint, or null for a snapshot without one
+     * @param shapes the shapes to encode
+     * @return the frame
+     */
+    static byte[] encodeSnapshot(Checkpoint checkpoint, List<? extends Shape> shapes) {
+        long start = Metrics.start();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        shapes.forEach(s -> writeShape(records, s));
+        byte[] uncompressed = records.toByteArray();
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(uncompressed.length / 4 + 32);
+        if (checkpoint != null) writeShape(payload, checkpoint);
+        payload.write(SNAPSHOT);
+        writeVarInt(payload, uncompressed.length);
+
+        // favor speed, since clients that join wait for the snapshot
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(uncompressed);
+        deflater.finish();
+
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            payload.write(chunk, 0, length);
+        }
+        deflater.end();
+
+        byte[] frame = frame(payload);
+        Metrics.encoded(start);
+        return frame;
+    }
+
+    /**
+     * Read the payload of the next frame from the given stream.
+     *
+     * @param input the stream to read from
+     * @return the payload, without its length prefix
+     * @throws EOFException if the stream ends before a whole frame has been read
+     * @throws ProtocolException if the frame is longer than {@link #MAX_FRAME_LENGTH}
+     * @throws IOException if an I/O error occurs when reading the frame
+     */
+    public static byte[] readFrame(InputStream input) throws IOException {
+        int length = checkFrameLength(readVarInt(input));
+        byte[] payload = input.readNBytes(length);
+        if (payload.length < length) throw new EOFException();
+
+        return payload;
+    }
+
+    /**
+     * Read the length prefix of the next frame in the given buffer, without blocking. If the
+     * whole prefix hasn't been received yet, the position of the buffer is left unchanged.
+     *
+     * @param buffer the buffer to read from
+     * @return the length of the frame's payload, or -1 if the prefix is incomplete
+     * @throws ProtocolException if the prefix is malformed or negative
+     */
+    static int readFrameLength(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        int length;
+
+        try {
+            length = readVarInt(buffer);
+        } catch (BufferUnderflowException e) {
+            buffer.position(start);
+            return -1;
+        }
+
+        if (length < 0) throw new ProtocolException("Negative length " + length);
+        return length;
+    }
+
+    /**
+     * Check the length of the payload of a frame read from a connection.
+     *
+     * @param length the length
+     * @return the length
+     * @throws ProtocolException if the length is negative or longer than
+     *     {@link #MAX_FRAME_LENGTH}
+     */
+    static int checkFrameLength(int length) throws ProtocolException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Invalid frame length " + length);
+        }
+
+        return length;
+    }
+
+    /**
+     * Decode all shapes in the payload of a frame.
+     *
+     * @param payload the payload, without its length prefix
+     * @return the shapes, in the order they were encoded
+     * @throws ProtocolException if the payload is malformed
+     */
+    public static List<Shape> decodeFrame(byte[] payload) throws ProtocolException {
+        return decodeFrame(payload, true);
+    }
+
+    /**
+     * Decode all shapes in the payload of a frame, which may only hold a snapshot if it's
+     * allowed to. Only hosts send snapshots, so the side that accepts a connection never
+     * expects one.
+     *
+     * @param payload the payload, without its length prefix
+     * @param snapshots whether the payload may hold a snapshot
+     * @return the shapes, in the order they were encoded
+     * @throws ProtocolException if the payload is malformed, or holds a snapshot that isn't
+     *     allowed
+     */
+    static List<Shape> decodeFrame(byte[] payload, boolean snapshots) throws ProtocolException {
+        long start = Metrics.start();
+        List<Shape> shapes = decodeFrame(ByteBuffer.wrap(payload), snapshots);
+        Metrics.decoded(start);
+        return shapes;
+    }
+
+    /**
+     * Decode all shapes in the payload of a frame, which takes up the rest of the given buffer.
+     * The buffer may be a mapped file, since a compressed snapshot is inflated straight from it.
+     *
+     * @param buffer the payload, without its length prefix
+     * @return the shapes, in the order they were encoded
+     * @throws ProtocolException if the payload is malformed
+     */
+    static List<Shape> decodeFrame(ByteBuffer buffer) throws ProtocolException {
+        return decodeFrame(buffer, true);
+    }
+
+    private static List<Shape> decodeFrame(ByteBuffer buffer, boolean snapshots)
+            throws ProtocolException {
+        List<Shape> shapes = new ArrayList<>();
+
+        try {
+            while (buffer.hasRemaining()) {
+                int tag = buffer.get();
+                // a snapshot takes up the rest of the frame
+                if (tag == SNAPSHOT) {
+                    if (!snapshots) throw new ProtocolException("Unexpected snapshot");
+                    return decodeSnapshot(buffer, shapes);
+                }
+
+                shapes.add(readShape(tag, buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated shape record");
+        }
+
+        return shapes;
+    }
+
+    private static byte[] frame(ByteArrayOutputStream payload) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.size() + 5);
+        writeVarInt(frame, payload.size());
+        frame.writeBytes(payload.toByteArray());
+        return frame.toByteArray();
+    }
+
+    private static List<Shape> decodeSnapshot(ByteBuffer in, List<Shape> shapes)
+            throws ProtocolException {
+        byte[] records = new byte[checkInflatedLength(readVarInt(in), in.remaining())];
+        Inflater inflater = new Inflater();
+        inflater.setInput(in);
+
+        try {
+            int length = 0;
+            while (length < records.length && !inflater.finished()) {
+                int inflated = inflater.inflate(records, length, records.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+
+            if (length < records.length) throw new ProtocolException("Truncated snapshot");
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Malformed snapshot: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        // a snapshot never holds another one
+        shapes.addAll(decodeFrame(ByteBuffer.wrap(records), false));
+        return shapes;
+    }
+
+    /**
+     * Check the length that compressed bytes say they inflate to, before allocating it.
+     *
+     * @param length the length they inflate to
+     * @param compressed the number of compressed bytes
+     * @return the length
+     * @throws ProtocolException if the length is negative, longer than
+     *     {@link #MAX_INFLATED_LENGTH}, or more than the compressed bytes could inflate to
+     */
+    static int checkInflatedLength(int length, int compressed) throws ProtocolException {
+        if (length < 0 || length > MAX_INFLATED_LENGTH
+                || length > (long) compressed * MAX_DEFLATE_RATIO + 64) {
+            throw new ProtocolException("Invalid inflated length " + length);
+        }
+
+        return length;
+    }
+
+    private static void writeShape(ByteArrayOutputStream out, Shape shape) {
+        if (shape instanceof Relayed) {
+            Relayed relayed = (Relayed) shape;
+            out.write(RELAYED);
+            writeVarLong(out, relayed.id());
+            writeShape(out, relayed.shape());
+            return;
+        }
+
+        if (shape instanceof StrokeSegment) {
+            writeSegment(out, (StrokeSegment) shape);
+            return;
+        }
+
+        if (shape instanceof Checkpoint) {
+            Checkpoint checkpoint = (Checkpoint) shape;
+            out.write(CHECKPOINT);
+            writeVarLong(out, checkpoint.log());
+            writeVarLong(out, checkpoint.sequence() + 1);
+            writeVarInt(out, checkpoint.isBoard() ? checkpoint.boardShapes() + 1 : 0);
+            return;
+        }
+
+        out.write(tagOf(shape));
+        writeInt(out, shape.color().getRGB());
+        writeVarInt(out, shape.thickness());
+        writeSignedVarInt(out, shape.start().x());
+        writeSignedVarInt(out, shape.start().y());
+        writeSignedVarInt(out, shape.end().x() - shape.start().x());
+        writeSignedVarInt(out, shape.end().y() - shape.start().y());
+
+        if (shape instanceof FreehandLine) {
+            FreehandLine line = (FreehandLine) shape;
+            writeVarInt(out, line.pointCount());
+
+            int x = shape.start().x();
+            int y = shape.start().y();
+            for (int i = 0; i < line.pointCount(); i++) {
+                writeSignedVarInt(out, line.x(i) - x);
+                writeSignedVarInt(out, line.y(i) - y);
+                x = line.x(i);
+                y = line.y(i);
+            }
+        }
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, StrokeSegment segment) {
+        int[] deltas = segment.deltas();
+
+        switch (segment.kind()) {
+            case BEGIN:
+                out.write(STROKE_BEGIN);
+                writeVarInt(out, segment.strokeId());
+                writeInt(out, segment.color().getRGB());
+                writeVarInt(out, segment.thickness());
+                writeSignedVarInt(out, segment.start().x());
+                writeSignedVarInt(out, segment.start().y());
+                break;
+            case APPEND:
+                out.write(STROKE_APPEND);
+                writeVarInt(out, segment.strokeId());
+                break;
+            default:
+                out.write(STROKE_END);
+                writeVarInt(out, segment.strokeId());
+                return;
+        }
+
+        writeVarInt(out, deltas.length / 2);
+        for (int delta : deltas) writeSignedVarInt(out, delta);
+    }
+
+    private static StrokeSegment readSegment(int tag, ByteBuffer in) throws ProtocolException {
+        int strokeId = readVarInt(in);
+        if (tag == STROKE_END) {
+            return StrokeSegment.of(strokeId, StrokeSegment.Kind.END, null, new int[0], 0, null);
+        }
+
+        StrokeSegment.Kind kind = StrokeSegment.Kind.APPEND;
+        Color color = null;
+        int thickness = 0;
+        Point start = null;
+
+        if (tag == STROKE_BEGIN) {
+            kind = StrokeSegment.Kind.BEGIN;
+            color = new Color(in.getInt(), true);
+            thickness = readThickness(in);
+            start = new Point(readSignedVarInt(in), readSignedVarInt(in));
+        }
+
+        int count = readVarInt(in);
+        // every delta takes at least two bytes, so don't trust a larger count
+        if (count < 0 || count > in.remaining() / 2) {
+            throw new ProtocolException("Truncated stroke");
+        }
+
+        int[] deltas = new int[count * 2];
+        for (int i = 0; i < deltas.length; i++) deltas[i] = readSignedVarInt(in);
+
+        return StrokeSegment.of(strokeId, kind, start, deltas, thickness, color);
+    }
+
+    private static Shape readShape(int tag, ByteBuffer in) throws ProtocolException {
+        if (tag == RELAYED) {
+            long id = readVarLong(in);
+            int relayedTag = in.get();
+            // a relayed shape can't be a snapshot or a checkpoint, or relayed twice over
+            if (relayedTag == RELAYED || relayedTag == SNAPSHOT || relayedTag == CHECKPOINT) {
+                throw new ProtocolException("Unexpected relayed shape tag " + relayedTag);
+            }
+
+            return new Relayed(id, readShape(relayedTag, in));
+        }
+
+        if (tag >= STROKE_BEGIN && tag <= STROKE_END) return readSegment(tag, in);
+
+        if (tag == CHECKPOINT) {
+            long log = readVarLong(in);
+            long sequence = readVarLong(in) - 1;
+            int boardShapes = readVarInt(in) - 1;
+            return boardShapes < 0
+                    ? Checkpoint.resume(log, sequence)
+                    : Checkpoint.board(log, sequence, boardShapes);
+        }
+
+        Color color = new Color(in.getInt(), true);
+        int thickness = readThickness(in);
+        Point start = new Point(readSignedVarInt(in), readSignedVarInt(in));
+        Point end = new Point(
+                start.x() + readSignedVarInt(in),
+                start.y() + readSignedVarInt(in)
+        );
+
+        switch (tag) {
+            case LINE: return new Line(start, end, thickness, color);
+            case OVAL: return new Oval(start, end, thickness, color);
+            case RECTANGLE: return new Rectangle(start, end, thickness, color);
+            case FREEHAND: {
+                FreehandLine line = new FreehandLine(start, end, thickness, color);
+                int count = readVarInt(in);
+                // every point takes at least two bytes, so don't trust a larger count
+                if (count < 0 || count > in.remaining() / 2) {
+                    throw new ProtocolException("Truncated stroke");
+                }
+
+                line.ensureCapacity(count);
+                int x = start.x();
+                int y = start.y();
+
+                for (int i = 0; i < count; i++) {
+                    x += readSignedVarInt(in);
+                    y += readSignedVarInt(in);
+                    line.addPoint(x, y);
+                }
+
+                return line;
+            }
+            default: throw new ProtocolException("Unknown shape tag " + tag);
+        }
+    }
+
+    private static int readThickness(ByteBuffer in) throws ProtocolException {
+        int thickness = readVarInt(in);
+        if (thickness < 0 || thickness > MAX_THICKNESS) {
+            throw new ProtocolException("Invalid thickness " + thickness);
+        }
+
+        return thickness;
+    }
+
+    private static int tagOf(Shape shape) {
+        if (shape instanceof Line) return LINE;
+        if (shape instanceof Oval) return OVAL;
+        if (shape instanceof Rectangle) return RECTANGLE;
+        if (shape instanceof FreehandLine) return FREEHAND;
+
+        throw new IllegalArgumentException("Can't encode " + shape.getClass().getSimpleName());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Write an unsigned varint: seven bits at a time, least significant first, with the high bit
+     * set on every byte but the last.
+     *
+     * @param out the stream to write to
+     * @param value the value to write
+     */
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Write an unsigned varint of up to 64 bits, in the same way as
+     * {@link #writeVarInt(ByteArrayOutputStream, int)}.
+     *
+     * @param out the stream to write to
+     * @param value the value to write
+     */
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeSignedVarInt(ByteArrayOutputStream out, int value) {
+        // zigzag encoding, so that small negative numbers are small as well
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Read an unsigned varint from the given stream.
+     *
+     * @param in the stream to read from
+     * @return the value
+     * @throws EOFException if the stream ends before the varint does
+     * @throws IOException if an I/O error occurs when reading
+     */
+    static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new ProtocolException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned varint of up to 64 bits from the given stream.
+     *
+     * @param in the stream to read from
+     * @return the value
+     * @throws EOFException if the stream ends before the varint does
+     * @throws IOException if an I/O error occurs when reading
+     */
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new ProtocolException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned varint from the given buffer.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     * @throws ProtocolException if the varint is malformed
+     * @throws BufferUnderflowException if the buffer ends before the varint does
+     */
+    static int readVarInt(ByteBuffer in) throws ProtocolException {
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new ProtocolException("Malformed varint");
+    }
+
+    /**
+     * Read an unsigned varint of up to 64 bits from the given buffer.
+     *
+     * @param in the buffer to read from
+     * @return the value
+     * @throws ProtocolException if the varint is malformed
+     * @throws BufferUnderflowException if the buffer ends before the varint does
+     */
+    static long readVarLong(ByteBuffer in) throws ProtocolException {
+        long value = 0;
+
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+
+        throw new ProtocolException("Malformed varint");
+    }
+
+    private static int readSignedVarInt(ByteBuffer in) throws ProtocolException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,147 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.EventQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands shapes from any thread over to Swing's Event Dispatch Thread in batches. Shapes are put
+ * in a lock-free queue, and a single task on the Event Dispatch Thread takes every shape that has
+ * been queued by the time it runs, then runs an action once for all of them, such as repainting.
+ * However many shapes arrive at once, there is only ever one task waiting to take them.
+ * <p>
+ * A task can be given a budget of how long it may take. A task that runs out of budget leaves the
+ * rest of the shapes to the next task, which is queued behind the paints and input events that
+ * are waiting, so a large burst of shapes, such as the board of a room that has just been
+ * joined, is drawn progressively without the window freezing while it catches up.
+ */
+public class ShapeHandoff {
+
+    /**
+     * The default budget of a task, which leaves the rest of a 60 Hz frame to paint.
+     */
+    public static final long DEFAULT_FRAME_BUDGET_MILLIS = 8;
+
+    // how many shapes are taken between looking at the clock
+    private static final int CLOCK_STRIDE = 64;
+
+    private final Consumer<Shape> take;
+    private final Runnable afterTaking;
+    private final Queue<Shape> queued;
+    private final AtomicBoolean scheduled;
+    private final AtomicLong tasks;
+    private final AtomicLong shapesTaken;
+    private volatile long frameBudgetNanos;
+
+    /**
+     * Create a new handoff.
+     *
+     * @param take the action to take each shape with, on the Event Dispatch Thread
+     * @param afterTaking the action to run after a task has taken one or more shapes, on the
+     *                    Event Dispatch Thread
+     */
+    public ShapeHandoff(Consumer<Shape> take, Runnable afterTaking) {
+        this.take = take;
+        this.afterTaking = afterTaking;
+        this.queued = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+        this.tasks = new AtomicLong();
+        this.shapesTaken = new AtomicLong();
+        this.frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRAME_BUDGET_MILLIS);
+    }
+
+    /**
+     * Queue a shape to be taken on the Event Dispatch Thread. Can be called from any thread.
+     *
+     * @param shape the shape
+     */
+    public void offer(Shape shape) {
+        queued.offer(shape);
+        schedule();
+    }
+
+    /**
+     * Set how long a task may spend taking shapes before leaving the rest to the next task.
+     *
+     * @param millis the budget in milliseconds, or zero for every task to take every queued
+     *               shape
+     */
+    public void setFrameBudget(long millis) {
+        this.frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Get how long a task may spend taking shapes.
+     *
+     * @return the budget in milliseconds, or zero if a task takes every queued shape
+     */
+    public long getFrameBudget() {
+        return TimeUnit.NANOSECONDS.toMillis(frameBudgetNanos);
+    }
+
+    /**
+     * Get the number of shapes that are queued and haven't been taken yet.
+     *
+     * @return the number of shapes
+     */
+    public int backlog() {
+        return queued.size();
+    }
+
+    /**
+     * Get the number of tasks that have taken shapes.
+     *
+     * @return the number of tasks
+     */
+    public long getTasks() {
+        return tasks.get();
+    }
+
+    /**
+     * Get the number of shapes that have been taken.
+     *
+     * @return the number of shapes
+     */
+    public long getShapesTaken() {
+        return shapesTaken.get();
+    }
+
+    /**
+     * Queue a task on the Event Dispatch Thread, unless one is already waiting.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) EventQueue.invokeLater(this::drain);
+    }
+
+    /**
+     * Take queued shapes until there are none left or the budget runs out, on the Event Dispatch
+     * Thread.
+     */
+    private void drain() {
+        // shapes queued from now on need another task, if this one doesn't get to them
+        scheduled.set(false);
+
+        long budget = frameBudgetNanos;
+        long deadline = System.nanoTime() + budget;
+        int taken = 0;
+
+        Shape shape;
+        while ((shape = queued.poll()) != null) {
+            take.accept(shape);
+            taken++;
+
+            if (budget > 0 && taken % CLOCK_STRIDE == 0 && System.nanoTime() >= deadline) break;
+        }
+
+        if (!queued.isEmpty()) schedule();
+        if (taken == 0) return;
+
+        tasks.incrementAndGet();
+        shapesTaken.addAndGet(taken);
+        afterTaking.run();
+    }
+}
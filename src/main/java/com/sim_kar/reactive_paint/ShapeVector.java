@@ -0,0 +1,199 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * An immutable sequence of {@link Shape}s, which shares most of its structure with the sequence
+ * it was made from. Appending a shape or replacing one gives a new sequence and leaves the old
+ * one as it was, so that an old sequence can be read on any thread while new ones are made.
+ * <p>
+ * The shapes are kept in a tree of arrays of 32, with the last, incomplete array kept apart as
+ * the tail. Appending only copies the tail, until it's full and is added to the tree, which
+ * copies the arrays on the way to it. Getting or replacing a shape goes through at most a few
+ * arrays, since the tree is only a level deeper for every 32 times as many shapes.
+ */
+final class ShapeVector {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * The empty sequence.
+     */
+    static final ShapeVector EMPTY =
+            new ShapeVector(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int size;
+    // the number of bits of an index used below the root
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private ShapeVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Get the number of shapes in the sequence.
+     *
+     * @return the number of shapes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the shape at the given index.
+     *
+     * @param index the index of the shape
+     * @return the shape
+     * @throws IndexOutOfBoundsException if there is no shape at the index
+     */
+    Shape get(int index) {
+        Objects.checkIndex(index, size);
+        return (Shape) arrayFor(index)[index & MASK];
+    }
+
+    /**
+     * Get a sequence with the given shape after the shapes of this one.
+     *
+     * @param shape the shape to append
+     * @return the new sequence
+     */
+    ShapeVector append(Shape shape) {
+        int inTail = size - tailOffset();
+
+        if (inTail < WIDTH) {
+            Object[] newTail = new Object[inTail + 1];
+            System.arraycopy(tail, 0, newTail, 0, inTail);
+            newTail[inTail] = shape;
+            return new ShapeVector(size + 1, shift, root, newTail);
+        }
+
+        // the tail is full, so it goes into the tree, which needs another level once it's full
+        if ((size >>> BITS) > (1 << shift)) {
+            Object[] newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            return new ShapeVector(size + 1, shift + BITS, newRoot, new Object[] { shape });
+        }
+
+        return new ShapeVector(size + 1, shift, pushTail(shift, root), new Object[] { shape });
+    }
+
+    /**
+     * Get a sequence with the shape at the given index replaced.
+     *
+     * @param index the index of the shape to replace
+     * @param shape the shape to replace it with
+     * @return the new sequence
+     * @throws IndexOutOfBoundsException if there is no shape at the index
+     */
+    ShapeVector set(int index, Shape shape) {
+        Objects.checkIndex(index, size);
+
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = shape;
+            return new ShapeVector(size, shift, root, newTail);
+        }
+
+        return new ShapeVector(size, shift, set(shift, root, index, shape), tail);
+    }
+
+    /**
+     * Call the given action with each shape in the given range, in order.
+     *
+     * @param from the index of the first shape, inclusive
+     * @param to the index of the last shape, exclusive
+     * @param action the action to call
+     */
+    void forEach(int from, int to, Consumer<? super Shape> action) {
+        Objects.checkFromToIndex(from, to, size);
+
+        // go through the arrays of the tree rather than from the root for every shape
+        for (int i = from; i < to; ) {
+            Object[] array = arrayFor(i);
+            int end = Math.min(to, (i | MASK) + 1);
+
+            for (; i < end; i++) {
+                action.accept((Shape) array[i & MASK]);
+            }
+        }
+    }
+
+    /**
+     * Get the index of the first shape in the tail.
+     */
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Get the array that holds the shape at the given index.
+     */
+    private Object[] arrayFor(int index) {
+        if (index >= tailOffset()) return tail;
+
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+
+        return node;
+    }
+
+    /**
+     * Copy the arrays from the given one at the given level down to where the full tail goes,
+     * and put it there.
+     */
+    private Object[] pushTail(int level, Object[] node) {
+        int child = ((size - 1) >>> level) & MASK;
+        Object[] copy = node.clone();
+
+        if (level == BITS) {
+            copy[child] = tail;
+        } else {
+            Object[] below = (Object[]) node[child];
+            copy[child] = below == null
+                    ? newPath(level - BITS, tail)
+                    : pushTail(level - BITS, below);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Create the arrays from the given level down to the given array, each holding only the
+     * one below it.
+     */
+    private static Object[] newPath(int level, Object[] array) {
+        if (level == 0) return array;
+
+        Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, array);
+        return node;
+    }
+
+    /**
+     * Copy the arrays from the given one at the given level down to the one that holds the shape
+     * at the given index, with the shape replaced.
+     */
+    private static Object[] set(int level, Object[] node, int index, Shape shape) {
+        Object[] copy = node.clone();
+
+        if (level == 0) {
+            copy[index & MASK] = shape;
+        } else {
+            int child = (index >>> level) & MASK;
+            copy[child] = set(level - BITS, (Object[]) node[child], index, shape);
+        }
+
+        return copy;
+    }
+}
@@ -0,0 +1,27 @@
+package com.sim_kar.reactive_paint;
+
+/**
+ * What a host does with a client that can't keep up with the shapes sent to it, i.e. when the
+ * client's {@link OutboundQueue} is full.
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * Drop the frames queued for the client. Once it has caught up, the client is sent the
+     * frames it missed from the host's {@link FrameLog}, so the dropped frames only take up
+     * memory in the log that all clients share.
+     */
+    DROP_AND_RESYNC,
+
+    /**
+     * Coalesce the frames that arrive while the queue is full into a single frame, which is
+     * sent with a single write once the client has room for it. The client is disconnected if
+     * the coalesced frame grows too large.
+     */
+    COALESCE,
+
+    /**
+     * Disconnect the client.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,110 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * A grid of square cells that keeps track of which shapes of a {@link Drawing} cover each cell,
+ * by the index of the shape in the drawing. This is used to find the shapes that have to be
+ * drawn again when only part of a drawing has changed, without looking at all of them.
+ * <p>
+ * Only cells within {@link SpatialIndex#MAX_EXTENT} pixels of the origin, in the positive
+ * direction, are indexed. Nothing outside of that can be seen, and it keeps a shape with
+ * far-away points from being added to millions of cells.
+ */
+final class SpatialIndex {
+
+    /**
+     * The largest coordinate that is indexed.
+     */
+    static final int MAX_EXTENT = 16384;
+
+    private final int cellSize;
+    private final Map<Long, Cell> cells;
+
+    /**
+     * Create a new, empty index.
+     *
+     * @param cellSize the width and height of a cell
+     */
+    SpatialIndex(int cellSize) {
+        this.cellSize = cellSize;
+        this.cells = new HashMap<>();
+    }
+
+    /**
+     * Add a shape to every cell covered by the given area, that it isn't in already.
+     *
+     * @param index the index of the shape in its drawing
+     * @param area the area covered by the shape
+     */
+    void add(int index, java.awt.Rectangle area) {
+        if (area.isEmpty()) return;
+
+        int firstColumn = cellOf(area.x);
+        int lastColumn = cellOf(area.x + area.width - 1);
+        int firstRow = cellOf(area.y);
+        int lastRow = cellOf(area.y + area.height - 1);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                cells.computeIfAbsent(key(column, row), k -> new Cell()).add(index);
+            }
+        }
+    }
+
+    /**
+     * Call the given action with the index of every shape in the given cell that is below a
+     * limit, from the lowest index to the highest.
+     *
+     * @param column the column of the cell
+     * @param row the row of the cell
+     * @param limit the limit, exclusive
+     * @param action the action to call
+     */
+    void forEach(int column, int row, int limit, IntConsumer action) {
+        Cell cell = cells.get(key(column, row));
+        if (cell == null) return;
+
+        for (int i = 0; i < cell.size && cell.indices[i] < limit; i++) {
+            action.accept(cell.indices[i]);
+        }
+    }
+
+    /**
+     * Remove all shapes from the index.
+     */
+    void clear() {
+        cells.clear();
+    }
+
+    private int cellOf(int coordinate) {
+        return Math.max(0, Math.min(coordinate, MAX_EXTENT)) / cellSize;
+    }
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The indices of the shapes in a cell, in ascending order.
+     */
+    private static final class Cell {
+        private int[] indices = new int[4];
+        private int size;
+
+        private void add(int index) {
+            int at = Arrays.binarySearch(indices, 0, size, index);
+            if (at >= 0) return;
+
+            // a growing stroke may reach a cell after later shapes have been added to it
+            at = -at - 1;
+            if (size == indices.length) indices = Arrays.copyOf(indices, size * 2);
+            System.arraycopy(indices, at, indices, at + 1, size - at);
+            indices[at] = index;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.sim_kar.reactive_paint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The IDs of the strokes that are being drawn in a {@link Room}. Whoever draws a stroke picks its
+ * ID, below {@link StrokeSegment#MAX_STROKE_ID}, so the IDs picked by different clients can be
+ * the same. The room gives every stroke an ID of its own instead, which is unique among the
+ * strokes being drawn in the room: the ID it was drawn with, with one of a few tags above it.
+ * Every room ID is at least {@link StrokeSegment#MAX_STROKE_ID}, so it's never the same as the
+ * ID of a stroke that a client is drawing, and a client can still tell its own strokes apart by
+ * the bits below the tag.
+ * <p>
+ * Each {@link Sender} of strokes, such as a client, can only append to and end the strokes it
+ * began itself. Its other segments are dropped, so that nobody can draw into someone else's
+ * stroke, and a stroke that was begun over a connection that has been lost can't be continued
+ * over a new one.
+ */
+final class StrokeIds {
+
+    private static final int ID_MASK = StrokeSegment.MAX_STROKE_ID - 1;
+    private static final int TAGS = Integer.MAX_VALUE / StrokeSegment.MAX_STROKE_ID;
+
+    private final Set<Integer> open;
+
+    /**
+     * Create the stroke IDs of a new room, which has no strokes being drawn.
+     */
+    StrokeIds() {
+        this.open = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Get a new sender of strokes, which can have up to the given number of strokes being drawn
+     * at once. Once it begins another, the one it began longest ago can't be continued.
+     *
+     * @param maxOpen the number of strokes
+     * @return the sender
+     */
+    Sender sender(int maxOpen) {
+        return new Sender(maxOpen);
+    }
+
+    /**
+     * Get the number of strokes that are being drawn in the room.
+     *
+     * @return the number of strokes
+     */
+    int openCount() {
+        return open.size();
+    }
+
+    private int allocate(int strokeId) {
+        for (int tag = 1; tag <= TAGS; tag++) {
+            int id = tag * StrokeSegment.MAX_STROKE_ID | (strokeId & ID_MASK);
+            if (open.add(id)) return id;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Whoever sends the segments of strokes to a room, such as one of its clients.
+     */
+    final class Sender {
+
+        // the room IDs of the strokes this sender has begun, by the keys it sent them with
+        private final Map<Long, Integer> begun;
+
+        private Sender(int maxOpen) {
+            this.begun = new LinkedHashMap<>(16, 0.75f, false) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                    if (size() <= maxOpen) return false;
+
+                    open.remove(eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Give a shape sent by this sender the room's ID of its stroke, if it's a segment.
+         *
+         * @param shape the shape
+         * @return the shape with the room's ID, or nothing if it's a segment of a stroke that
+         *     this sender hasn't begun, or that the room has no ID left for
+         */
+        Optional<Shape> rewrite(Shape shape) {
+            if (!(shape instanceof StrokeSegment)) return Optional.of(shape);
+
+            return rewrite(((StrokeSegment) shape).strokeId(), (StrokeSegment) shape)
+                    .map(Shape.class::cast);
+        }
+
+        /**
+         * Give a segment the room's ID of its stroke, where the segment's stroke is told apart
+         * from the other strokes of this sender by the given key rather than by its ID.
+         *
+         * @param key the key of the stroke, such as its ID
+         * @param segment the segment
+         * @return the segment with the room's ID, or nothing if this sender hasn't begun its
+         *     stroke, or the room has no ID left for it
+         */
+        synchronized Optional<StrokeSegment> rewrite(long key, StrokeSegment segment) {
+            Integer id;
+            switch (segment.kind()) {
+                case BEGIN:
+                    Integer previous = begun.remove(key);
+                    if (previous != null) open.remove(previous);
+
+                    id = allocate(segment.strokeId());
+                    if (id < 0) return Optional.empty();
+                    begun.put(key, id);
+                    break;
+                case END:
+                    id = begun.remove(key);
+                    if (id != null) open.remove(id);
+                    break;
+                default:
+                    id = begun.get(key);
+            }
+
+            return id == null ? Optional.empty() : Optional.of(segment.withStrokeId(id));
+        }
+
+        /**
+         * Forget the strokes this sender is drawing, for example because it has disconnected,
+         * so that they can't be continued.
+         */
+        synchronized void release() {
+            begun.values().forEach(open::remove);
+            begun.clear();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.sim_kar.reactive_paint;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <h1>Stroke Segment</h1>
+ * A piece of a {@link FreehandLine} that is still being drawn. A stroke is sent as a segment that
+ * begins it, any number of segments that append points to it, and a segment that ends it, all
+ * with the same stroke ID. This lets others see a stroke while it's being drawn, instead of when
+ * the mouse is released.
+ * <p>
+ * Segments aren't drawn themselves. Instead, a {@link Drawing} applies them to the stroke with
+ * the same ID. The points of a segment are stored as deltas from the point before them, which for
+ * the first point of an appending segment is the last point of the stroke so far.
+ */
+public class StrokeSegment extends Shape {
+
+    /**
+     * The IDs that strokes are drawn with are below this, and those that a {@link Room} gives
+     * them are above it, see {@link StrokeIds}.
+     */
+    public static final int MAX_STROKE_ID = 1 << 28;
+
+    @Serial
+    private static final long serialVersionUID = 2771034870134529876L;
+    private final int strokeId;
+    private final Kind kind;
+    private final int[] deltas;
+
+    /**
+     * What a segment does to its stroke.
+     */
+    public enum Kind {
+        BEGIN, APPEND, END
+    }
+
+    private StrokeSegment(int strokeId, Kind kind, Point start, int[] deltas, int thickness,
+                          Color color) {
+        super(start, start, thickness, color);
+        this.strokeId = strokeId;
+        this.kind = kind;
+        this.deltas = deltas;
+    }
+
+    /**
+     * Create a segment that begins a stroke.
+     *
+     * @param strokeId the ID of the stroke
+     * @param points the first points of the stroke, of which there must be at least one
+     * @param thickness the thickness of the stroke
+     * @param color the color of the stroke
+     * @return the segment
+     */
+    public static StrokeSegment begin(int strokeId, List<Point> points, int thickness,
+                                      Color color) {
+        Point start = points.get(0);
+        return new StrokeSegment(strokeId, Kind.BEGIN, start, deltas(start, points), thickness,
+                color);
+    }
+
+    /**
+     * Create a segment that begins a stroke with all of the points of the given line.
+     *
+     * @param strokeId the ID of the stroke
+     * @param line the line with the stroke's points so far
+     * @return the segment
+     */
+    public static StrokeSegment begin(int strokeId, FreehandLine line) {
+        // the first delta is the start point's own, which is always zero
+        int[] deltas = new int[(line.pointCount() + 1) * 2];
+        int x = line.start().x();
+        int y = line.start().y();
+
+        for (int i = 0; i < line.pointCount(); i++) {
+            deltas[i * 2 + 2] = line.x(i) - x;
+            deltas[i * 2 + 3] = line.y(i) - y;
+            x = line.x(i);
+            y = line.y(i);
+        }
+
+        return new StrokeSegment(strokeId, Kind.BEGIN, line.start(), deltas, line.thickness(),
+                line.color());
+    }
+
+    /**
+     * Create a segment that appends points to a stroke.
+     *
+     * @param strokeId the ID of the stroke
+     * @param previous the last point of the stroke so far
+     * @param points the points to append
+     * @return the segment
+     */
+    public static StrokeSegment append(int strokeId, Point previous, List<Point> points) {
+        return new StrokeSegment(strokeId, Kind.APPEND, null, deltas(previous, points), 0, null);
+    }
+
+    /**
+     * Create a segment that ends a stroke.
+     *
+     * @param strokeId the ID of the stroke
+     * @return the segment
+     */
+    public static StrokeSegment end(int strokeId) {
+        return new StrokeSegment(strokeId, Kind.END, null, new int[0], 0, null);
+    }
+
+    /**
+     * Create a segment from its parts, as they were sent over the network.
+     *
+     * @param strokeId the ID of the stroke
+     * @param kind what the segment does to its stroke
+     * @param start the first point of the stroke if the segment begins it, otherwise null
+     * @param deltas the deltas of the segment's points, as x and y pairs
+     * @param thickness the thickness of the stroke if the segment begins it
+     * @param color the color of the stroke if the segment begins it, otherwise null
+     * @return the segment
+     */
+    static StrokeSegment of(int strokeId, Kind kind, Point start, int[] deltas, int thickness,
+                            Color color) {
+        return new StrokeSegment(strokeId, kind, start, deltas, thickness, color);
+    }
+
+    public int strokeId() { return strokeId; }
+    public Kind kind() { return kind; }
+
+    /**
+     * Get a copy of this segment for the stroke with the given ID.
+     *
+     * @param strokeId the ID of the stroke
+     * @return the copy, or this segment if it already has the ID
+     */
+    StrokeSegment withStrokeId(int strokeId) {
+        if (strokeId == this.strokeId) return this;
+        return new StrokeSegment(strokeId, kind, start(), deltas, thickness(), color());
+    }
+
+    /**
+     * Check whether the given segment does the same to its stroke as this one, whatever the ID
+     * of its stroke.
+     *
+     * @param other the other segment
+     * @return whether the segments have the same kind, points, thickness and color
+     */
+    boolean sameAs(StrokeSegment other) {
+        return kind == other.kind && Objects.equals(start(), other.start())
+                && thickness() == other.thickness() && Objects.equals(color(), other.color())
+                && Arrays.equals(deltas, other.deltas);
+    }
+
+    /**
+     * Get the deltas of this segment's points, as x and y pairs. The first delta of a segment
+     * that begins a stroke is always zero, since it's the start point.
+     *
+     * @return the deltas, which must not be modified
+     */
+    int[] deltas() {
+        return deltas;
+    }
+
+    /**
+     * Create the stroke that this segment begins.
+     *
+     * @return the stroke
+     */
+    public FreehandLine toFreehandLine() {
+        FreehandLine line = new FreehandLine(start(), start(), thickness(), color());
+        // skip the start point, which the line already has
+        appendTo(line, start(), 1);
+        return line;
+    }
+
+    /**
+     * Append the points of this segment to the given stroke.
+     *
+     * @param line the stroke to append to
+     */
+    public void appendTo(FreehandLine line) {
+        appendTo(line, line.end(), 0);
+    }
+
+    @Override
+    public void draw(Graphics g) {
+        // segments are applied to their stroke by the drawing, which draws the stroke instead
+    }
+
+    @Override
+    void drawShape(Graphics g) {}
+
+    private void appendTo(FreehandLine line, Point previous, int fromPoint) {
+        int x = previous.x();
+        int y = previous.y();
+        line.ensureCapacity(deltas.length / 2 - fromPoint);
+
+        for (int i = 0; i < deltas.length; i += 2) {
+            x += deltas[i];
+            y += deltas[i + 1];
+            if (i >= fromPoint * 2) line.addPoint(x, y);
+        }
+    }
+
+    private static int[] deltas(Point previous, List<Point> points) {
+        int[] deltas = new int[points.size() * 2];
+        int i = 0;
+
+        for (Point p : points) {
+            deltas[i++] = p.x() - previous.x();
+            deltas[i++] = p.y() - previous.y();
+            previous = p;
+        }
+
+        return deltas;
+    }
+}
@@ -0,0 +1,230 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableTransformer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Removes points of freehand strokes that make no visible difference. A mouse or tablet with a
+ * high polling rate reports far more points than can be seen, and each of them would otherwise
+ * be stored, drawn and sent to others.
+ * <p>
+ * Points are first dropped if they are closer than the tolerance to the last point kept. The
+ * rest are collected into batches, and each batch is simplified with the Ramer-Douglas-Peucker
+ * algorithm, so that no removed point is further than the tolerance from the simplified stroke.
+ * The last point of every batch is kept, which lets batches be sent while the stroke is still
+ * being drawn.
+ */
+public class StrokeSimplifier {
+
+    /**
+     * The default tolerance, in pixels.
+     */
+    public static final double DEFAULT_TOLERANCE = 1.0;
+
+    private volatile double tolerance;
+    private final AtomicLong pointsIn;
+    private final AtomicLong pointsOut;
+
+    /**
+     * Create a new simplifier with the given tolerance.
+     *
+     * @param tolerance the distance in pixels that a removed point may be from the simplified
+     *                  stroke, where zero turns simplification off
+     */
+    public StrokeSimplifier(double tolerance) {
+        this.tolerance = tolerance;
+        this.pointsIn = new AtomicLong();
+        this.pointsOut = new AtomicLong();
+    }
+
+    /**
+     * Get a transformer that simplifies a stroke's points, and emits them in batches of the
+     * points collected over the given interval. The tolerance is read once per stroke, when the
+     * transformed Observable is subscribed to.
+     *
+     * @param interval how long to collect points for before emitting a batch
+     * @param unit the unit of the interval
+     * @return the transformer
+     */
+    public ObservableTransformer<Point, List<Point>> simplify(long interval, TimeUnit unit) {
+        return points -> Observable.defer(() -> {
+            double strokeTolerance = tolerance;
+            AtomicReference<Point> previous = new AtomicReference<>();
+
+            return points
+                    .doOnNext(p -> pointsIn.incrementAndGet())
+                    .compose(minimumDistance(strokeTolerance))
+                    .buffer(interval, unit)
+                    .filter(batch -> !batch.isEmpty())
+                    .map(batch -> {
+                        List<Point> simplified = douglasPeucker(
+                                previous.get(), batch, strokeTolerance);
+                        previous.set(batch.get(batch.size() - 1));
+                        pointsOut.addAndGet(simplified.size());
+                        return simplified;
+                    });
+        });
+    }
+
+    /**
+     * Set the tolerance, which applies to strokes drawn from now on.
+     *
+     * @param tolerance the distance in pixels, where zero turns simplification off
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Get the tolerance.
+     *
+     * @return the distance in pixels
+     */
+    public double tolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Get the number of points that have been given to this simplifier.
+     *
+     * @return the number of points
+     */
+    public long pointsIn() {
+        return pointsIn.get();
+    }
+
+    /**
+     * Get the number of points that have been kept by this simplifier.
+     *
+     * @return the number of points
+     */
+    public long pointsOut() {
+        return pointsOut.get();
+    }
+
+    /**
+     * Get the share of the points given to this simplifier that have been removed.
+     *
+     * @return the share, from 0 to 1
+     */
+    public double reductionRatio() {
+        long in = pointsIn.get();
+        return in == 0 ? 0 : 1 - (double) pointsOut.get() / in;
+    }
+
+    /**
+     * Get a transformer that drops points closer than the given distance to the last point that
+     * was kept. The last point is always kept, so that the stroke ends where it should.
+     *
+     * @param distance the distance
+     * @return the transformer
+     */
+    private static ObservableTransformer<Point, Point> minimumDistance(double distance) {
+        if (distance <= 0) return points -> points;
+
+        return points -> Observable.defer(() -> {
+            AtomicReference<Point> kept = new AtomicReference<>();
+            AtomicReference<Point> dropped = new AtomicReference<>();
+
+            return points
+                    .filter(p -> {
+                        Point last = kept.get();
+                        if (last != null && distanceSquared(last, p) < distance * distance) {
+                            dropped.set(p);
+                            return false;
+                        }
+
+                        kept.set(p);
+                        dropped.set(null);
+                        return true;
+                    })
+                    .concatWith(Observable.defer(() -> dropped.get() == null
+                            ? Observable.empty()
+                            : Observable.just(dropped.get())));
+        });
+    }
+
+    /**
+     * Simplify the given points with the Ramer-Douglas-Peucker algorithm. The first and last
+     * points are always kept.
+     *
+     * @param previous the point before the given points, which is used as the start of the
+     *                 simplified line but not returned, or null if there is none
+     * @param points the points to simplify
+     * @param tolerance the largest distance that a removed point may be from the simplified line
+     * @return the points that were kept
+     */
+    static List<Point> douglasPeucker(Point previous, List<Point> points, double tolerance) {
+        List<Point> line = new ArrayList<>(points.size() + 1);
+        if (previous != null) line.add(previous);
+        line.addAll(points);
+
+        int n = line.size();
+        if (tolerance <= 0 || n <= 2) return points;
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] { 0, n - 1 });
+
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int first = range[0];
+            int last = range[1];
+            double furthest = 0;
+            int index = -1;
+
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceToSegment(line.get(i), line.get(first), line.get(last));
+                if (distance > furthest) {
+                    furthest = distance;
+                    index = i;
+                }
+            }
+
+            if (furthest > tolerance) {
+                keep[index] = true;
+                ranges.push(new int[] { first, index });
+                ranges.push(new int[] { index, last });
+            }
+        }
+
+        List<Point> kept = new ArrayList<>();
+        for (int i = previous == null ? 0 : 1; i < n; i++) {
+            if (keep[i]) kept.add(line.get(i));
+        }
+
+        return kept;
+    }
+
+    private static double distanceToSegment(Point p, Point a, Point b) {
+        double dx = b.x() - a.x();
+        double dy = b.y() - a.y();
+        double lengthSquared = dx * dx + dy * dy;
+
+        if (lengthSquared == 0) return Math.sqrt(distanceSquared(p, a));
+
+        // the closest point on the segment, as a fraction of the way from a to b
+        double t = ((p.x() - a.x()) * dx + (p.y() - a.y()) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+
+        double x = a.x() + t * dx - p.x();
+        double y = a.y() + t * dy - p.y();
+        return Math.sqrt(x * x + y * y);
+    }
+
+    private static double distanceSquared(Point p, Point q) {
+        double dx = p.x() - q.x();
+        double dy = p.y() - q.y();
+        return dx * dx + dy * dy;
+    }
+}
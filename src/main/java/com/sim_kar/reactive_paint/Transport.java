@@ -0,0 +1,114 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * The kind of I/O used for the connections between a host and its clients.
+ */
+public enum Transport {
+
+    /**
+     * Blocking sockets, where every connection reads on a thread of its own.
+     */
+    BLOCKING {
+        @Override
+        public Connection connect(String host, int port, Handshake handshake)
+                throws IOException {
+            return new Client(new Socket(host, port), handshake);
+        }
+    },
+
+    /**
+     * Blocking sockets, where every connection reads on a virtual thread of its own. Only
+     * available on Java 21 or later, see {@link VirtualThreads}.
+     */
+    VIRTUAL {
+        @Override
+        public Connection connect(String host, int port, Handshake handshake)
+                throws IOException {
+            return new Client(new Socket(host, port), handshake, scheduler());
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return VirtualThreads.isAvailable();
+        }
+
+        @Override
+        Scheduler scheduler() {
+            return VirtualThreads.scheduler();
+        }
+    },
+
+    /**
+     * Non-blocking channels, where all connections share the thread of a single
+     * {@link NioEventLoop}.
+     */
+    NIO {
+        @Override
+        public Connection connect(String host, int port, Handshake handshake)
+                throws IOException {
+            return NioConnection.connect(host, port, handshake);
+        }
+    };
+
+    /**
+     * Open a connection to the default room of the host at the given address.
+     *
+     * @param host the name of the host
+     * @param port the port of the host
+     * @return the connection
+     * @throws IOException if an I/O error occurs when connecting
+     */
+    public Connection connect(String host, int port) throws IOException {
+        return connect(host, port, "");
+    }
+
+    /**
+     * Open a connection to a room of the host at the given address.
+     *
+     * @param host the name of the host
+     * @param port the port of the host
+     * @param room the name of the room to join
+     * @return the connection
+     * @throws IOException if an I/O error occurs when connecting
+     */
+    public Connection connect(String host, int port, String room) throws IOException {
+        return connect(host, port, Handshake.join(room));
+    }
+
+    /**
+     * Open a connection to the host at the given address, and send it the given handshake.
+     *
+     * @param host the name of the host
+     * @param port the port of the host
+     * @param handshake the handshake, which names the room to join
+     * @return the connection
+     * @throws IOException if an I/O error occurs when connecting
+     */
+    public abstract Connection connect(String host, int port, Handshake handshake)
+            throws IOException;
+
+    /**
+     * Check whether this transport can be used in this JVM.
+     *
+     * @return whether the transport is available
+     */
+    public boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Get the scheduler that this transport's blocking work is done on, such as the read loops
+     * of blocking connections and accepting clients.
+     *
+     * @return the scheduler
+     * @throws UnsupportedOperationException if the transport isn't available
+     */
+    Scheduler scheduler() {
+        return Schedulers.io();
+    }
+}
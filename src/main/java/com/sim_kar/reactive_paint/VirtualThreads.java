@@ -0,0 +1,59 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link Scheduler} that runs every task on a virtual thread of its own, for the blocking I/O
+ * of {@link Transport#VIRTUAL}. A virtual thread that blocks on a socket only holds on to a
+ * small stack on the heap, rather than a platform thread with a stack of its own, so a host can
+ * have a blocking read loop for every one of thousands of clients.
+ * <p>
+ * Virtual threads need Java 21. The application is built for older versions as well, so the
+ * executor is looked up reflectively, and the scheduler is only available when running on a
+ * version that has them.
+ */
+final class VirtualThreads {
+
+    private static final Scheduler SCHEDULER = create();
+
+    private VirtualThreads() {}
+
+    /**
+     * Check whether virtual threads are available in this JVM.
+     *
+     * @return whether they are available
+     */
+    static boolean isAvailable() {
+        return SCHEDULER != null;
+    }
+
+    /**
+     * Get the scheduler, which is shared by all connections.
+     *
+     * @return the scheduler
+     * @throws UnsupportedOperationException if virtual threads aren't available
+     */
+    static Scheduler scheduler() {
+        if (SCHEDULER == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, not "
+                    + System.getProperty("java.version"));
+        }
+
+        return SCHEDULER;
+    }
+
+    private static Scheduler create() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            // tasks of the same worker may run on different threads, but never at the same time
+            return Schedulers.from(executor);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
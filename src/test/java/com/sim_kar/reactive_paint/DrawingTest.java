@@ -0,0 +1,190 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks undoing and redoing the changes to a {@link Drawing}, including strokes that are drawn
+ * a segment at a time.
+ */
+class DrawingTest {
+
+    private static final Point START = new Point(0, 0);
+    private static final Point MIDDLE = new Point(10, 10);
+    private static final Point END = new Point(20, 0);
+
+    @Test
+    void undoesAndRedoesShapes() {
+        Drawing drawing = new Drawing();
+        Line first = FrameLogTest.line(1);
+        Line second = FrameLogTest.line(2);
+        drawing.addShape(first);
+        drawing.addShape(second);
+
+        assertTrue(drawing.undo());
+        assertEquals(List.of(first), drawing.getShapes());
+        assertTrue(drawing.undo());
+        assertEquals(0, drawing.size());
+        assertFalse(drawing.undo());
+
+        assertTrue(drawing.redo());
+        assertTrue(drawing.redo());
+        assertEquals(List.of(first, second), drawing.getShapes());
+        assertFalse(drawing.redo());
+    }
+
+    @Test
+    void undoesWholeStroke() {
+        Drawing drawing = new Drawing();
+        Line before = FrameLogTest.line(1);
+        drawing.addShape(before);
+        drawStroke(drawing, 7);
+        FreehandLine stroke = (FreehandLine) drawing.get(1);
+
+        assertTrue(drawing.undo());
+        assertEquals(List.of(before), drawing.getShapes());
+
+        assertTrue(drawing.redo());
+        assertEquals(2, drawing.size());
+        assertSame(stroke, drawing.get(1));
+        assertEquals(List.of(MIDDLE, END), stroke.points());
+    }
+
+    @Test
+    void undoesShapesAddedWhileStrokeWasDrawnWithIt() {
+        Drawing drawing = new Drawing();
+        drawing.addShape(StrokeSegment.begin(7, List.of(START, MIDDLE), 1, Color.BLACK));
+        drawing.addShape(FrameLogTest.line(1));
+        drawing.addShape(StrokeSegment.append(7, MIDDLE, List.of(END)));
+        drawing.addShape(StrokeSegment.end(7));
+
+        assertTrue(drawing.undo());
+
+        assertEquals(0, drawing.size());
+        assertFalse(drawing.undo());
+    }
+
+    @Test
+    void undoingPastStrokeStillBeingDrawnStopsIt() {
+        Drawing drawing = new Drawing();
+        drawing.addShape(FrameLogTest.line(1));
+        drawing.addShape(StrokeSegment.begin(7, List.of(START, MIDDLE), 1, Color.BLACK));
+        drawing.addShape(FrameLogTest.line(2));
+
+        // undoes the line added during the stroke, which leaves the stroke being drawn
+        assertTrue(drawing.undo());
+        assertEquals(2, drawing.size());
+        assertEquals(1, drawing.settledCount());
+
+        // a stroke only becomes a change of its own once it ends
+        assertTrue(drawing.undo());
+        assertEquals(0, drawing.size());
+
+        // the stroke's start is gone, so the rest of it is ignored
+        drawing.addShape(StrokeSegment.append(7, MIDDLE, List.of(END)));
+        drawing.addShape(StrokeSegment.end(7));
+        assertEquals(0, drawing.size());
+    }
+
+    @Test
+    void redoingStrokeAfterItEndedKeepsItsPoints() {
+        Drawing drawing = new Drawing();
+        drawStroke(drawing, 7);
+        Drawing.Version drawn = drawing.snapshot();
+
+        assertTrue(drawing.undo());
+        assertTrue(drawing.redo());
+
+        assertSame(drawn.get(0), drawing.get(0));
+        assertEquals(1, drawing.settledCount());
+        // the stroke has ended, so further segments of it are ignored
+        drawing.addShape(StrokeSegment.append(7, END, List.of(START)));
+        assertEquals(List.of(MIDDLE, END), ((FreehandLine) drawing.get(0)).points());
+    }
+
+    @Test
+    void undoesAndRedoesClear() {
+        Drawing drawing = new Drawing();
+        drawing.addShape(FrameLogTest.line(1));
+        drawStroke(drawing, 7);
+        List<Shape> shapes = drawing.getShapes();
+        long resets = drawing.resets();
+
+        drawing.clear();
+        assertEquals(0, drawing.size());
+
+        assertTrue(drawing.undo());
+        assertEquals(shapes, drawing.getShapes());
+        assertEquals(2, drawing.settledCount());
+
+        assertTrue(drawing.redo());
+        assertEquals(0, drawing.size());
+        assertEquals(resets + 3, drawing.resets());
+
+        assertTrue(drawing.undo());
+        assertTrue(drawing.undo());
+        assertEquals(shapes.subList(0, 1), drawing.getShapes());
+    }
+
+    @Test
+    void clearingStopsStrokesBeingDrawn() {
+        Drawing drawing = new Drawing();
+        drawing.addShape(StrokeSegment.begin(7, List.of(START, MIDDLE), 1, Color.BLACK));
+
+        drawing.clear();
+        drawing.addShape(StrokeSegment.append(7, MIDDLE, List.of(END)));
+
+        assertEquals(0, drawing.size());
+        assertTrue(drawing.undo());
+        assertEquals(1, drawing.size());
+    }
+
+    @Test
+    void cantRedoAfterNewChange() {
+        Drawing drawing = new Drawing();
+        drawing.addShape(FrameLogTest.line(1));
+        drawing.undo();
+
+        drawing.addShape(FrameLogTest.line(2));
+
+        assertFalse(drawing.redo());
+        assertEquals(1, drawing.size());
+    }
+
+    @Test
+    void keepsNoHistoryWhenToldNotTo() {
+        Drawing drawing = new Drawing(0, false);
+        drawing.addShape(FrameLogTest.line(1));
+        drawStroke(drawing, 7);
+        drawing.clear();
+
+        assertFalse(drawing.undo());
+        assertNull(drawing.takeDirtyRegion());
+    }
+
+    @Test
+    void olderSnapshotsDontChange() {
+        Drawing drawing = new Drawing();
+        drawing.addShape(StrokeSegment.begin(7, List.of(START, MIDDLE), 1, Color.BLACK));
+        Drawing.Version begun = drawing.snapshot();
+
+        drawing.addShape(StrokeSegment.append(7, MIDDLE, List.of(END)));
+        drawing.clear();
+
+        assertEquals(1, begun.size());
+        assertEquals(List.of(MIDDLE), ((FreehandLine) begun.get(0)).points());
+    }
+
+    private static void drawStroke(Drawing drawing, int strokeId) {
+        drawing.addShape(StrokeSegment.begin(strokeId, List.of(START, MIDDLE), 1, Color.BLACK));
+        drawing.addShape(StrokeSegment.append(strokeId, MIDDLE, List.of(END)));
+        drawing.addShape(StrokeSegment.end(strokeId));
+    }
+}
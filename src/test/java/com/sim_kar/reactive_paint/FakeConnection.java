@@ -0,0 +1,77 @@
+package com.sim_kar.reactive_paint;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link Connection} without a socket, which receives the given shapes and keeps the frames it
+ * is sent.
+ */
+class FakeConnection implements Connection {
+
+    private final Observable<Shape> shapes;
+    private final Handshake handshake;
+    private final List<Frame> sent;
+    private volatile boolean shutdown;
+
+    /**
+     * Create a new connection, which receives the given shapes once subscribed to.
+     *
+     * @param handshake the handshake the other end sent
+     * @param shapes the shapes the other end sends
+     */
+    FakeConnection(Handshake handshake, Observable<Shape> shapes) {
+        this.handshake = handshake;
+        this.shapes = shapes;
+        this.sent = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public Observable<Shape> shapes() {
+        return shapes;
+    }
+
+    @Override
+    public Single<Handshake> handshake() {
+        return Single.just(handshake);
+    }
+
+    @Override
+    public Flowable<Frame> send(Flowable<Frame> frames) {
+        return frames.doOnNext(sent::add);
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return InetSocketAddress.createUnresolved("fake", 0);
+    }
+
+    @Override
+    public void writeFrame(Frame frame) {
+        sent.add(frame);
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Get the frames sent over the connection so far.
+     *
+     * @return the frames
+     */
+    List<Frame> sent() {
+        return sent;
+    }
+}
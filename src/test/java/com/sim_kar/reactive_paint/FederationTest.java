@@ -0,0 +1,38 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import io.reactivex.rxjava3.core.Observable;
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the shapes that a {@link Federation} forwards over its links.
+ */
+class FederationTest {
+
+    @Test
+    void neverRelaysShapeTwiceOver() throws IOException {
+        Line line = new Line(new Point(1, 1), new Point(2, 2), 1, Color.RED);
+        FrameLog log = new FrameLog(List.of(new Relayed(7, line)), FrameLog.DEFAULT_CAPACITY);
+        Federation federation = new Federation(log, new StrokeIds());
+        FakeConnection link = new FakeConnection(Handshake.link(""), Observable.never());
+
+        Frame frame = federation.send(link).blockingFirst();
+
+        // every linked host would reject the frame if the shape was wrapped again
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeTo(out);
+        List<Shape> decoded = ShapeCodec.decodeFrame(
+                ShapeCodec.readFrame(new ByteArrayInputStream(out.toByteArray())));
+
+        assertEquals(1, decoded.size());
+        Relayed relayed = (Relayed) decoded.get(0);
+        assertInstanceOf(Line.class, relayed.shape());
+    }
+}
@@ -0,0 +1,113 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the sequence numbers of a {@link FrameLog}, and what it sends clients that are behind.
+ */
+class FrameLogTest {
+
+    private static final int CAPACITY = 4;
+
+    @Test
+    void catchesUpFromFramesStillKept() {
+        FrameLog log = logWith(10);
+
+        List<Frame> frames = log.catchUp(6, 10);
+
+        assertEquals(4, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(6 + i, frames.get(i).firstSequence());
+            assertEquals(6 + i, frames.get(i).lastSequence());
+        }
+    }
+
+    @Test
+    void fallsBackToSnapshotForGapOlderThanRing() throws IOException {
+        FrameLog log = logWith(10);
+
+        List<Frame> frames = log.catchUp(2, 10);
+
+        assertEquals(1, frames.size());
+        Frame snapshot = frames.get(0);
+        assertTrue(snapshot.isCompressed());
+        assertEquals(9, snapshot.lastSequence());
+
+        List<Shape> shapes = decode(snapshot);
+        Checkpoint checkpoint = (Checkpoint) shapes.get(0);
+        assertTrue(checkpoint.isBoard());
+        assertEquals(log.id(), checkpoint.log());
+        assertEquals(9, checkpoint.sequence());
+        assertEquals(10, checkpoint.boardShapes());
+        assertEquals(11, shapes.size());
+    }
+
+    @Test
+    void resumesAfterCheckpointJustBeforeTail() {
+        FrameLog log = logWith(10);
+
+        // the frame after the checkpoint is the oldest one kept
+        assertEquals(6, log.tail());
+        assertEquals(6, log.resumeAfter(5, 0));
+        assertEquals(8, log.resumeAfter(5, 2));
+        assertEquals(-1, log.resumeAfter(4, 0));
+    }
+
+    @Test
+    void resumesAfterCheckpointAtHead() {
+        FrameLog log = logWith(10);
+
+        assertEquals(10, log.resumeAfter(9, 0));
+        assertEquals(10, log.resumeAfter(5, 4));
+        assertEquals(-1, log.resumeAfter(10, 0));
+        // more shapes than the log has after the checkpoint
+        assertEquals(-1, log.resumeAfter(9, 1));
+        assertEquals(-1, log.resumeAfter(5, 5));
+    }
+
+    @Test
+    void resumesBeforeFirstFrame() {
+        FrameLog log = logWith(3);
+
+        assertEquals(0, log.resumeAfter(-1, 0));
+        assertEquals(3, log.resumeAfter(-1, 3));
+        assertEquals(-1, log.resumeAfter(-1, 4));
+    }
+
+    @Test
+    void doesntResumeWhenShapesEndMidFrame() {
+        FrameLog log = new FrameLog(List.of(), CAPACITY);
+        for (int i = 0; i < 3; i++) log.append(Frame.of(List.of(line(i), line(i), line(i))));
+
+        assertEquals(1, log.resumeAfter(-1, 3));
+        assertEquals(2, log.resumeAfter(-1, 6));
+        assertEquals(-1, log.resumeAfter(-1, 1));
+        assertEquals(-1, log.resumeAfter(-1, 4));
+        assertEquals(-1, log.resumeAfter(0, 8));
+    }
+
+    static FrameLog logWith(int frames) {
+        FrameLog log = new FrameLog(List.of(), CAPACITY);
+        for (int i = 0; i < frames; i++) log.append(Frame.of(line(i)));
+        return log;
+    }
+
+    static Line line(int i) {
+        return new Line(new Point(i, i), new Point(i + 1, i + 1), 1, Color.BLACK);
+    }
+
+    static List<Shape> decode(Frame frame) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frame.writeTo(out);
+        return ShapeCodec.decodeFrame(
+                ShapeCodec.readFrame(new ByteArrayInputStream(out.toByteArray())));
+    }
+}
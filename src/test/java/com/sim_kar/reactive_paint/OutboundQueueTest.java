@@ -0,0 +1,94 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.reactivex.rxjava3.subscribers.TestSubscriber;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks where the frames of an {@link OutboundQueue} start, for new clients and for clients that
+ * resume after a {@link Checkpoint}.
+ */
+class OutboundQueueTest {
+
+    private static final int CAPACITY = 4;
+
+    @Test
+    void sendsNewClientCheckpointAndSnapshot() {
+        FrameLog log = FrameLogTest.logWith(10);
+
+        List<Frame> frames = framesFrom(log, 0).values();
+
+        assertEquals(2, frames.size());
+        assertCheckpoint(log, -1, frames.get(0));
+        assertTrue(frames.get(1).isCompressed());
+        assertEquals(0, frames.get(1).firstSequence());
+        assertEquals(9, frames.get(1).lastSequence());
+    }
+
+    @Test
+    void resumesFromFramesStillKept() {
+        FrameLog log = FrameLogTest.logWith(10);
+        long start = log.resumeAfter(5, 2);
+
+        TestSubscriber<Frame> subscriber = framesFrom(log, start);
+        log.append(Frame.of(FrameLogTest.line(10)));
+
+        List<Frame> frames = subscriber.values();
+        assertEquals(4, frames.size());
+        assertCheckpoint(log, 7, frames.get(0));
+        for (int i = 1; i < frames.size(); i++) {
+            assertFalse(frames.get(i).isCompressed());
+            assertEquals(7 + i, frames.get(i).firstSequence());
+            assertEquals(7 + i, frames.get(i).lastSequence());
+        }
+    }
+
+    @Test
+    void resumesAtHead() {
+        FrameLog log = FrameLogTest.logWith(10);
+        long start = log.resumeAfter(9, 0);
+
+        TestSubscriber<Frame> subscriber = framesFrom(log, start);
+        assertEquals(1, subscriber.values().size());
+
+        log.append(Frame.of(FrameLogTest.line(10)));
+
+        List<Frame> frames = subscriber.values();
+        assertEquals(2, frames.size());
+        assertCheckpoint(log, 9, frames.get(0));
+        assertEquals(10, frames.get(1).firstSequence());
+    }
+
+    @Test
+    void sendsSnapshotWhenResumedFramesAreNoLongerKept() {
+        FrameLog log = FrameLogTest.logWith(10);
+        long start = log.resumeAfter(5, 0);
+        // the log keeps four frames, so those after the checkpoint are gone before the queue
+        // starts sending
+        for (int i = 10; i < 13; i++) log.append(Frame.of(FrameLogTest.line(i)));
+
+        List<Frame> frames = framesFrom(log, start).values();
+
+        assertEquals(2, frames.size());
+        assertCheckpoint(log, 5, frames.get(0));
+        assertTrue(frames.get(1).isCompressed());
+        assertEquals(12, frames.get(1).lastSequence());
+    }
+
+    private static TestSubscriber<Frame> framesFrom(FrameLog log, long start) {
+        return new OutboundQueue(log, SlowConsumerPolicy.DROP_AND_RESYNC, CAPACITY, start)
+                .frames()
+                .test();
+    }
+
+    private static void assertCheckpoint(FrameLog log, long sequence, Frame frame) {
+        Checkpoint checkpoint = (Checkpoint) frame.shapes().get(0);
+        assertFalse(checkpoint.isBoard());
+        assertEquals(log.id(), checkpoint.log());
+        assertEquals(sequence, checkpoint.sequence());
+    }
+}
@@ -0,0 +1,69 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.reactivex.rxjava3.core.Observable;
+import java.awt.Color;
+import java.net.ProtocolException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks what a {@link Room} accepts from its clients.
+ */
+class RoomTest {
+
+    @Test
+    void disconnectsClientThatSendsRelayedShape() throws InterruptedException {
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        Room room = new Room("relayed", List.of(), SlowConsumerPolicy.DROP_AND_RESYNC,
+                errors::add);
+        Line line = new Line(new Point(1, 1), new Point(2, 2), 1, Color.RED);
+        Line relayed = new Line(new Point(3, 3), new Point(4, 4), 1, Color.RED);
+        FakeConnection client = new FakeConnection(Handshake.join("relayed"),
+                Observable.just(line, new Relayed(1, relayed)));
+
+        room.join(client);
+        waitFor(() -> room.getShapes().size() == 1 && client.isShutdown());
+
+        assertEquals(List.of(line), room.getShapes());
+        assertTrue(client.isShutdown());
+        assertEquals(1, errors.size());
+        assertInstanceOf(ProtocolException.class, errors.get(0));
+        room.close();
+    }
+
+    @Test
+    void keepsClientsOutOfEachOthersStrokes() throws InterruptedException {
+        Room room = new Room("strokes", List.of(), SlowConsumerPolicy.DROP_AND_RESYNC, e -> {});
+        List<Point> points = List.of(new Point(0, 0), new Point(5, 5));
+        FakeConnection owner = new FakeConnection(Handshake.join("strokes"),
+                Observable.just(StrokeSegment.begin(7, points, 2, Color.RED)));
+        // the same stroke ID, picked by another client
+        FakeConnection other = new FakeConnection(Handshake.join("strokes"),
+                Observable.just(
+                        StrokeSegment.append(7, new Point(5, 5), List.of(new Point(90, 90))),
+                        StrokeSegment.end(7)));
+
+        room.join(owner);
+        waitFor(() -> room.getShapes().size() == 1);
+        room.join(other);
+        Thread.sleep(100);
+
+        List<Shape> shapes = room.getShapes();
+        assertEquals(1, shapes.size());
+        // the owner's stroke is still being drawn, with only its own points
+        StrokeSegment stroke = (StrokeSegment) shapes.get(0);
+        assertEquals(List.of(new Point(5, 5)), stroke.toFreehandLine().points());
+        assertTrue(stroke.strokeId() >= StrokeSegment.MAX_STROKE_ID);
+        room.close();
+    }
+
+    static void waitFor(java.util.function.BooleanSupplier condition)
+            throws InterruptedException {
+        for (int i = 0; i < 200 && !condition.getAsBoolean(); i++) Thread.sleep(10);
+    }
+}
@@ -0,0 +1,437 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round trips every type of record through {@link ShapeCodec}, and checks that malformed input
+ * is rejected with a {@link ProtocolException} rather than a runtime exception or an oversized
+ * allocation.
+ */
+class ShapeCodecTest {
+
+    private static final Color COLOR = new Color(0x80, 0x40, 0x20, 0x10);
+
+    @Test
+    void roundTripsLine() throws IOException {
+        Line line = new Line(new Point(-5, 7), new Point(300, -2), 3, COLOR);
+
+        Shape decoded = roundTrip(line);
+
+        assertInstanceOf(Line.class, decoded);
+        assertSameShape(line, decoded);
+    }
+
+    @Test
+    void roundTripsOval() throws IOException {
+        Oval oval = new Oval(new Point(10, 20), new Point(40, 80), 1, Color.BLUE);
+
+        Shape decoded = roundTrip(oval);
+
+        assertInstanceOf(Oval.class, decoded);
+        assertSameShape(oval, decoded);
+    }
+
+    @Test
+    void roundTripsRectangle() throws IOException {
+        Rectangle rectangle = new Rectangle(new Point(0, 0), new Point(-64, 4096), 12, COLOR);
+
+        Shape decoded = roundTrip(rectangle);
+
+        assertInstanceOf(Rectangle.class, decoded);
+        assertSameShape(rectangle, decoded);
+    }
+
+    @Test
+    void roundTripsFreehandLine() throws IOException {
+        FreehandLine line = FreehandLine.through(points(1, 2, 3, 5, -200, 7, 1000, 1000), 2,
+                Color.RED);
+
+        Shape decoded = roundTrip(line);
+
+        assertInstanceOf(FreehandLine.class, decoded);
+        assertSameShape(line, decoded);
+        assertEquals(line.points(), ((FreehandLine) decoded).points());
+    }
+
+    @Test
+    void roundTripsStrokeSegments() throws IOException {
+        List<Point> first = points(5, 5, 6, 8, 9, 9);
+        List<Point> rest = points(-4, 12, 30, 31);
+        StrokeSegment begin = StrokeSegment.begin(42, first, 4, COLOR);
+        StrokeSegment append = StrokeSegment.append(42, first.get(first.size() - 1), rest);
+        StrokeSegment end = StrokeSegment.end(42);
+
+        List<Shape> decoded = roundTrip(List.of(begin, append, end));
+
+        assertEquals(3, decoded.size());
+        StrokeSegment decodedBegin = (StrokeSegment) decoded.get(0);
+        StrokeSegment decodedAppend = (StrokeSegment) decoded.get(1);
+        StrokeSegment decodedEnd = (StrokeSegment) decoded.get(2);
+        assertEquals(StrokeSegment.Kind.BEGIN, decodedBegin.kind());
+        assertEquals(StrokeSegment.Kind.APPEND, decodedAppend.kind());
+        assertEquals(StrokeSegment.Kind.END, decodedEnd.kind());
+        assertEquals(42, decodedBegin.strokeId());
+        assertEquals(42, decodedAppend.strokeId());
+        assertEquals(42, decodedEnd.strokeId());
+
+        FreehandLine line = decodedBegin.toFreehandLine();
+        decodedAppend.appendTo(line);
+        List<Point> all = new ArrayList<>(first);
+        all.addAll(rest);
+        // a line's points don't include its start point
+        assertEquals(first.get(0), line.start());
+        assertEquals(all.subList(1, all.size()), line.points());
+        assertEquals(4, line.thickness());
+        assertEquals(COLOR, line.color());
+    }
+
+    @Test
+    void roundTripsSnapshot() throws IOException {
+        List<Shape> board = List.of(
+                new Line(new Point(1, 1), new Point(2, 2), 1, COLOR),
+                FreehandLine.through(points(0, 0, 1, 1, 2, 4), 3, Color.GREEN),
+                new Oval(new Point(9, 9), new Point(19, 29), 2, Color.BLACK));
+
+        List<Shape> decoded = ShapeCodec.decodeFrame(payload(ShapeCodec.encodeSnapshot(board)));
+
+        assertEquals(board.size(), decoded.size());
+        for (int i = 0; i < board.size(); i++) assertSameShape(board.get(i), decoded.get(i));
+    }
+
+    @Test
+    void roundTripsSnapshotWithCheckpoint() throws IOException {
+        List<Shape> board = List.of(new Line(new Point(1, 1), new Point(2, 2), 1, COLOR));
+
+        List<Shape> decoded = ShapeCodec.decodeFrame(
+                payload(ShapeCodec.encodeSnapshot(Checkpoint.board(7, 99, 1), board)));
+
+        assertEquals(2, decoded.size());
+        Checkpoint checkpoint = (Checkpoint) decoded.get(0);
+        assertEquals(7, checkpoint.log());
+        assertEquals(99, checkpoint.sequence());
+        assertEquals(1, checkpoint.boardShapes());
+        assertSameShape(board.get(0), decoded.get(1));
+    }
+
+    @Test
+    void roundTripsJoinHandshake() throws IOException {
+        Handshake decoded = roundTrip(Handshake.join("room"));
+
+        assertEquals("room", decoded.room());
+        assertFalse(decoded.isPeer());
+        assertFalse(decoded.isResume());
+        assertFalse(decoded.wantsCompression());
+    }
+
+    @Test
+    void roundTripsResumeHandshake() throws IOException {
+        Handshake decoded = roundTrip(Handshake.resume("", 123456789012L, -1, 17));
+
+        assertEquals("", decoded.room());
+        assertTrue(decoded.isResume());
+        assertEquals(123456789012L, decoded.log());
+        assertEquals(-1, decoded.sequence());
+        assertEquals(17, decoded.shapes());
+    }
+
+    @Test
+    void roundTripsLinkHandshake() throws IOException {
+        Handshake decoded = roundTrip(Handshake.link("r\u00fcm"));
+
+        assertEquals("r\u00fcm", decoded.room());
+        assertTrue(decoded.isPeer());
+        assertFalse(decoded.isResume());
+    }
+
+    @Test
+    void roundTripsCompressFlag() throws IOException {
+        Handshake decoded = roundTrip(
+                Handshake.resume("room", 1, 2, 3).with(Handshake.COMPRESS));
+
+        assertTrue(decoded.wantsCompression());
+        assertTrue(decoded.isResume());
+        assertEquals(2, decoded.sequence());
+    }
+
+    @Test
+    void readsHandshakeFromBufferOnlyWhenComplete() throws IOException {
+        byte[] bytes = ShapeCodec.handshake(Handshake.resume("room", 1, 2, 3));
+
+        ByteBuffer partial = ByteBuffer.wrap(bytes, 0, bytes.length - 1);
+        assertEquals(null, ShapeCodec.readHandshake(partial));
+        assertEquals(0, partial.position());
+
+        Handshake decoded = ShapeCodec.readHandshake(ByteBuffer.wrap(bytes));
+        assertEquals("room", decoded.room());
+        assertEquals(3, decoded.shapes());
+    }
+
+    @Test
+    void roundTripsRelayedShape() throws IOException {
+        Oval oval = new Oval(new Point(3, 4), new Point(5, 6), 2, COLOR);
+
+        Shape decoded = roundTrip(new Relayed(Long.MAX_VALUE, oval));
+
+        Relayed relayed = (Relayed) decoded;
+        assertEquals(Long.MAX_VALUE, relayed.id());
+        assertSameShape(oval, relayed.shape());
+    }
+
+    @Test
+    void roundTripsCheckpoints() throws IOException {
+        List<Shape> decoded = roundTrip(
+                List.of(Checkpoint.resume(5, -1), Checkpoint.board(6, 0, 0)));
+
+        Checkpoint resume = (Checkpoint) decoded.get(0);
+        assertEquals(5, resume.log());
+        assertEquals(-1, resume.sequence());
+        assertFalse(resume.isBoard());
+
+        Checkpoint board = (Checkpoint) decoded.get(1);
+        assertEquals(6, board.log());
+        assertEquals(0, board.sequence());
+        assertTrue(board.isBoard());
+        assertEquals(0, board.boardShapes());
+    }
+
+    @Test
+    void encodesCheckpointSequenceAndBoardShapesPlusOne() throws IOException {
+        // a resume checkpoint has a zero where a board checkpoint has its shape count plus one
+        assertArrayEquals(new byte[] {10, 5, 0, 0},
+                payload(ShapeCodec.encodeFrame(Checkpoint.resume(5, -1))));
+        assertArrayEquals(new byte[] {10, 6, 1, 1},
+                payload(ShapeCodec.encodeFrame(Checkpoint.board(6, 0, 0))));
+        assertArrayEquals(new byte[] {10, 7, (byte) 0xAC, 0x02, (byte) 0x80, 0x01},
+                payload(ShapeCodec.encodeFrame(Checkpoint.board(7, 299, 127))));
+    }
+
+    @Test
+    void roundTripsCompressedFrames() throws IOException {
+        FrameCompression sender = new FrameCompression(new Compression(6, 0));
+        FrameCompression receiver = new FrameCompression(new Compression(6, 0));
+        Line line = new Line(new Point(1, 2), new Point(3, 4), 5, COLOR);
+        FreehandLine freehand = FreehandLine.through(points(0, 0, 1, 1, 2, 2, 3, 3), 1, COLOR);
+
+        // the last frame repeats the one before it, which it refers back to in the deflate stream
+        for (Shape shape : List.of(line, freehand, freehand)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sender.write(Frame.of(shape), out);
+
+            byte[] payload = payload(out.toByteArray());
+            assertTrue(FrameCompression.isCompressed(payload));
+
+            byte[] frames = receiver.decompress(payload);
+            List<Shape> decoded = ShapeCodec.decodeFrame(payload(frames));
+            assertEquals(1, decoded.size());
+            assertSameShape(shape, decoded.get(0));
+        }
+
+        sender.end();
+        receiver.end();
+    }
+
+    @Test
+    void rejectsNegativeFrameLength() {
+        byte[] frame = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+
+        assertThrows(ProtocolException.class, () -> payload(frame));
+        assertThrows(ProtocolException.class,
+                () -> ShapeCodec.readFrameLength(ByteBuffer.wrap(frame)));
+    }
+
+    @Test
+    void rejectsOversizedFrameLength() {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        ShapeCodec.writeVarInt(frame, ShapeCodec.MAX_FRAME_LENGTH + 1);
+
+        assertThrows(ProtocolException.class, () -> payload(frame.toByteArray()));
+    }
+
+    @Test
+    void rejectsTruncatedFrame() {
+        assertThrows(EOFException.class, () -> payload(new byte[] { 5, 1, 2 }));
+    }
+
+    @Test
+    void rejectsSnapshotWithNegativeLength() throws IOException {
+        byte[] payload = payload(
+                new byte[] { 6, 8, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F });
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload));
+    }
+
+    @Test
+    void rejectsSnapshotLongerThanItCouldInflateTo() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(8);
+        ShapeCodec.writeVarInt(payload, ShapeCodec.MAX_INFLATED_LENGTH);
+        payload.write(0);
+
+        assertThrows(ProtocolException.class,
+                () -> ShapeCodec.decodeFrame(payload.toByteArray()));
+    }
+
+    @Test
+    void rejectsSnapshotsWhereOnlyShapesAreExpected() throws IOException {
+        List<Shape> board = List.of(new Line(new Point(1, 1), new Point(2, 2), 1, COLOR));
+        byte[] payload = payload(ShapeCodec.encodeSnapshot(board));
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload, false));
+    }
+
+    @Test
+    void rejectsUnknownTag() throws IOException {
+        byte[] payload = payload(new byte[] { 1, 99 });
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload));
+    }
+
+    @Test
+    void rejectsSegmentCountOverflow() {
+        // an append to stroke 1 with 2^30 deltas, which would overflow when doubled
+        byte[] payload = { 6, 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x04 };
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload));
+    }
+
+    @Test
+    void rejectsNegativeFreehandCount() {
+        // a freehand line with a color, thickness 1, start and end at 0, 0, and -1 points
+        byte[] payload = { 4, 0, 0, 0, 0, 1, 0, 0, 0, 0,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload));
+    }
+
+    @Test
+    void rejectsNegativeThickness() {
+        // a line with a color, a thickness of -3, and start and end at 0, 0
+        byte[] payload = { 1, 0, 0, 0, 0,
+                (byte) 0xFD, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 0, 0, 0, 0 };
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload));
+    }
+
+    @Test
+    void rejectsOversizedThickness() throws IOException {
+        byte[] line = payload(ShapeCodec.encodeFrame(new Line(
+                new Point(0, 0), new Point(1, 1), ShapeCodec.MAX_THICKNESS + 1, COLOR)));
+        byte[] segment = payload(ShapeCodec.encodeFrame(StrokeSegment.begin(
+                1, points(0, 0, 1, 1), ShapeCodec.MAX_THICKNESS + 1, COLOR)));
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(line));
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(segment));
+    }
+
+    @Test
+    void acceptsMaximumThickness() throws IOException {
+        Line line = new Line(new Point(0, 0), new Point(1, 1), ShapeCodec.MAX_THICKNESS, COLOR);
+
+        assertEquals(ShapeCodec.MAX_THICKNESS, roundTrip(line).thickness());
+    }
+
+    @Test
+    void rejectsTwiceRelayedShape() {
+        byte[] payload = { 9, 1, 9, 2, 1 };
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.decodeFrame(payload));
+    }
+
+    @Test
+    void rejectsCompressedRecordWithNegativeLength() {
+        FrameCompression compression = new FrameCompression(new Compression(6, 0));
+        byte[] payload = { 11, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F };
+
+        assertThrows(ProtocolException.class, () -> compression.decompress(payload));
+        compression.end();
+    }
+
+    @Test
+    void rejectsCompressedRecordLongerThanItCouldInflateTo() {
+        FrameCompression compression = new FrameCompression(new Compression(6, 0));
+        byte[] payload = { 11, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 0 };
+
+        assertThrows(ProtocolException.class, () -> compression.decompress(payload));
+        compression.end();
+    }
+
+    @Test
+    void rejectsRoomNameTooLong() {
+        ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+        ShapeCodec.writeVarInt(handshake, ShapeCodec.MAX_ROOM_NAME_LENGTH + 1);
+
+        assertThrows(ProtocolException.class,
+                () -> ShapeCodec.readHandshake(new ByteArrayInputStream(handshake.toByteArray())));
+        assertThrows(ProtocolException.class,
+                () -> ShapeCodec.readHandshake(ByteBuffer.wrap(handshake.toByteArray())));
+    }
+
+    @Test
+    void rejectsWrongPreamble() {
+        byte[] preamble = ShapeCodec.preamble();
+        preamble[preamble.length - 1]++;
+
+        assertThrows(ProtocolException.class, () -> ShapeCodec.verifyPreamble(preamble));
+    }
+
+    private static Shape roundTrip(Shape shape) throws IOException {
+        List<Shape> decoded = roundTrip(List.of(shape));
+        assertEquals(1, decoded.size());
+        return decoded.get(0);
+    }
+
+    private static List<Shape> roundTrip(List<Shape> shapes) throws IOException {
+        byte[] frame = ShapeCodec.encodeFrame(shapes);
+        List<Shape> decoded = ShapeCodec.decodeFrame(payload(frame));
+
+        // encoding what was decoded gives back the same bytes
+        assertArrayEquals(frame, ShapeCodec.encodeFrame(decoded));
+        return decoded;
+    }
+
+    private static Handshake roundTrip(Handshake handshake) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ShapeCodec.writeHandshake(out, handshake);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        Handshake decoded = ShapeCodec.readHandshake(in);
+        assertEquals(0, in.available());
+        return decoded;
+    }
+
+    private static byte[] payload(byte[] frame) throws IOException {
+        return ShapeCodec.readFrame(new ByteArrayInputStream(frame));
+    }
+
+    private static List<Point> points(int... coordinates) {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            points.add(new Point(coordinates[i], coordinates[i + 1]));
+        }
+        return points;
+    }
+
+    private static void assertSameShape(Shape expected, Shape actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.start(), actual.start());
+        assertEquals(expected.end(), actual.end());
+        assertEquals(expected.thickness(), actual.thickness());
+        assertEquals(expected.color(), actual.color());
+    }
+}
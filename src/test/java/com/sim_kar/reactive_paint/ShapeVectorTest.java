@@ -0,0 +1,107 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a {@link ShapeVector} keeps its shapes where its tail meets its tree and where the
+ * tree grows a level deeper, and that older sequences don't change.
+ */
+class ShapeVectorTest {
+
+    // a shape before and after the tail fills up, the root fills up, and a level is added
+    private static final int[] SIZES = {31, 32, 33, 1055, 1056, 1057, 32799, 32800, 32801};
+    private static final Shape[] SHAPES = new Shape[32802];
+    private static final Shape REPLACEMENT = FrameLogTest.line(-1);
+
+    static {
+        for (int i = 0; i < SHAPES.length; i++) SHAPES[i] = FrameLogTest.line(i);
+    }
+
+    @Test
+    void getsAppendedShapes() {
+        for (int size : SIZES) {
+            ShapeVector vector = vectorOf(size);
+
+            assertEquals(size, vector.size());
+            for (int i = 0; i < size; i++) assertSame(SHAPES[i], vector.get(i), "at " + i);
+        }
+    }
+
+    @Test
+    void setsShapesOnEitherSideOfBoundaries() {
+        for (int size : SIZES) {
+            ShapeVector vector = vectorOf(size);
+
+            for (int i : new int[] {0, 31, 32, 1055, 1056, 32799, 32800, size - 1}) {
+                if (i >= size) continue;
+
+                ShapeVector changed = vector.set(i, REPLACEMENT);
+
+                assertEquals(size, changed.size());
+                assertSame(REPLACEMENT, changed.get(i));
+                if (i > 0) assertSame(SHAPES[i - 1], changed.get(i - 1));
+                if (i < size - 1) assertSame(SHAPES[i + 1], changed.get(i + 1));
+                assertSame(SHAPES[i], vector.get(i));
+            }
+        }
+    }
+
+    @Test
+    void visitsRangeInOrder() {
+        for (int size : SIZES) {
+            List<Shape> shapes = new ArrayList<>();
+
+            vectorOf(size).forEach(size / 2, size, shapes::add);
+
+            assertEquals(size - size / 2, shapes.size());
+            for (int i = 0; i < shapes.size(); i++) assertSame(SHAPES[size / 2 + i], shapes.get(i));
+        }
+    }
+
+    @Test
+    void olderVersionsKeepTheirShapesAfterLaterWrites() {
+        ShapeVector[] versions = new ShapeVector[SIZES.length];
+        ShapeVector vector = ShapeVector.EMPTY;
+        for (int v = 0; v < SIZES.length; v++) {
+            while (vector.size() < SIZES[v]) vector = vector.append(SHAPES[vector.size()]);
+            versions[v] = vector;
+        }
+
+        // write over every shape, which copies every array the versions share
+        for (int i = 0; i < vector.size(); i++) vector = vector.set(i, REPLACEMENT);
+        vector = vector.append(REPLACEMENT);
+
+        for (int v = 0; v < SIZES.length; v++) {
+            assertEquals(SIZES[v], versions[v].size());
+            for (int i = 0; i < SIZES[v]; i++) assertSame(SHAPES[i], versions[v].get(i));
+        }
+        assertSame(REPLACEMENT, vector.get(SIZES[SIZES.length - 1]));
+    }
+
+    @Test
+    void appendingToOlderVersionLeavesNewerOneAlone() {
+        for (int size : new int[] {32, 1056, 32800}) {
+            ShapeVector older = vectorOf(size);
+            ShapeVector newer = older.append(SHAPES[size]).append(SHAPES[size + 1]);
+
+            ShapeVector branch = older.append(REPLACEMENT).append(REPLACEMENT);
+
+            assertSame(SHAPES[size], newer.get(size));
+            assertSame(SHAPES[size + 1], newer.get(size + 1));
+            assertSame(REPLACEMENT, branch.get(size));
+            assertSame(REPLACEMENT, branch.get(size + 1));
+            assertSame(SHAPES[size - 1], branch.get(size - 1));
+        }
+    }
+
+    private static ShapeVector vectorOf(int size) {
+        ShapeVector vector = ShapeVector.EMPTY;
+        for (int i = 0; i < size; i++) vector = vector.append(SHAPES[i]);
+        return vector;
+    }
+}
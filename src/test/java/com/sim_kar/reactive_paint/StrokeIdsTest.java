@@ -0,0 +1,107 @@
+package com.sim_kar.reactive_paint;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a room's {@link StrokeIds} keep the strokes of different senders apart.
+ */
+class StrokeIdsTest {
+
+    private static final int ID = 12345;
+
+    @Test
+    void givesSameIdOfDifferentSendersDifferentRoomIds() {
+        StrokeIds ids = new StrokeIds();
+
+        int first = roomId(ids.sender(4).rewrite(begin(ID)));
+        int second = roomId(ids.sender(4).rewrite(begin(ID)));
+
+        assertNotEquals(first, second);
+        assertTrue(first >= StrokeSegment.MAX_STROKE_ID);
+        assertTrue(second >= StrokeSegment.MAX_STROKE_ID);
+        // the ID the stroke was drawn with is kept below the tag
+        assertEquals(ID, first & (StrokeSegment.MAX_STROKE_ID - 1));
+        assertEquals(ID, second & (StrokeSegment.MAX_STROKE_ID - 1));
+    }
+
+    @Test
+    void keepsSenderToItsOwnStrokes() {
+        StrokeIds ids = new StrokeIds();
+        StrokeIds.Sender owner = ids.sender(4);
+        StrokeIds.Sender other = ids.sender(4);
+        int roomId = roomId(owner.rewrite(begin(ID)));
+
+        assertEquals(Optional.empty(), other.rewrite(append(ID)));
+        assertEquals(Optional.empty(), other.rewrite(StrokeSegment.end(ID)));
+        assertEquals(roomId, roomId(owner.rewrite(append(ID))));
+        assertEquals(roomId, roomId(owner.rewrite(StrokeSegment.end(ID))));
+
+        // the stroke has ended, so it can't be appended to anymore
+        assertEquals(Optional.empty(), owner.rewrite(append(ID)));
+        assertEquals(0, ids.openCount());
+    }
+
+    @Test
+    void leavesOtherShapesAsTheyAre() {
+        Line line = new Line(new Point(0, 0), new Point(1, 1), 1, Color.RED);
+
+        assertEquals(Optional.of(line), new StrokeIds().sender(4).rewrite(line));
+    }
+
+    @Test
+    void releasesStrokesOfSenderThatLeft() {
+        StrokeIds ids = new StrokeIds();
+        StrokeIds.Sender sender = ids.sender(4);
+        sender.rewrite(begin(ID));
+        sender.rewrite(begin(ID + 1));
+
+        sender.release();
+
+        assertEquals(0, ids.openCount());
+        assertEquals(Optional.empty(), sender.rewrite(append(ID)));
+    }
+
+    @Test
+    void forgetsOldestStrokeOfSenderWithTooManyOpen() {
+        StrokeIds ids = new StrokeIds();
+        StrokeIds.Sender sender = ids.sender(2);
+        sender.rewrite(begin(1));
+        sender.rewrite(begin(2));
+        sender.rewrite(begin(3));
+
+        assertEquals(2, ids.openCount());
+        assertEquals(Optional.empty(), sender.rewrite(append(1)));
+        assertTrue(sender.rewrite(append(3)).isPresent());
+    }
+
+    @Test
+    void dropsStrokeOnceEveryTagIsTaken() {
+        StrokeIds ids = new StrokeIds();
+        int tags = Integer.MAX_VALUE / StrokeSegment.MAX_STROKE_ID;
+        for (int i = 0; i < tags; i++) ids.sender(4).rewrite(begin(ID));
+
+        StrokeIds.Sender last = ids.sender(4);
+        assertEquals(Optional.empty(), last.rewrite(begin(ID)));
+        assertEquals(Optional.empty(), last.rewrite(append(ID)));
+    }
+
+    private static StrokeSegment begin(int strokeId) {
+        return StrokeSegment.begin(strokeId, List.of(new Point(0, 0), new Point(1, 1)), 2,
+                Color.BLUE);
+    }
+
+    private static StrokeSegment append(int strokeId) {
+        return StrokeSegment.append(strokeId, new Point(1, 1), List.of(new Point(2, 2)));
+    }
+
+    private static int roomId(Optional<Shape> shape) {
+        return ((StrokeSegment) shape.orElseThrow()).strokeId();
+    }
+}